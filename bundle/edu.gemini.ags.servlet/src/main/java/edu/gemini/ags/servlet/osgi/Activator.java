@@ -1,6 +1,7 @@
 package edu.gemini.ags.servlet.osgi;
 
 import edu.gemini.ags.api.AgsMagnitude;
+import edu.gemini.ags.api.AgsResultStore;
 import edu.gemini.ags.conf.ProbeLimitsTable;
 import edu.gemini.ags.servlet.JsonServlet;
 import edu.gemini.ags.servlet.estimation.AgsServlet;
@@ -10,6 +11,7 @@ import org.osgi.framework.ServiceReference;
 import org.osgi.service.http.HttpService;
 import org.osgi.util.tracker.ServiceTracker;
 
+import java.nio.file.Paths;
 import java.util.Hashtable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -18,6 +20,9 @@ public final class Activator implements BundleActivator {
     private static final String APP_CONTEXT = "/ags";
     private static final String JSON_APP_CONTEXT = "/json-ags";
 
+    // Bundle property with the directory in which AGS estimates are kept, if any.
+    private static final String RESULT_STORE_DIR_PROP = "edu.gemini.ags.servlet.resultStoreDir";
+
     private static final Logger LOG = Logger.getLogger(Activator.class.getName());
 
     private final class HttpTracker extends ServiceTracker<HttpService, HttpService> {
@@ -32,7 +37,7 @@ public final class Activator implements BundleActivator {
 
             try {
                 final AgsMagnitude.MagnitudeTable magTable = ProbeLimitsTable.loadOrThrow();
-                http.registerServlet(APP_CONTEXT,      new AgsServlet(magTable),  new Hashtable<>(), null);
+                http.registerServlet(APP_CONTEXT,      new AgsServlet(magTable, resultStore()), new Hashtable<>(), null);
                 http.registerServlet(JSON_APP_CONTEXT, new JsonServlet(magTable), new Hashtable<>(), null);
             } catch (Exception ex) {
                 LOG.log(Level.SEVERE, "Trouble setting up web application.", ex);
@@ -41,6 +46,17 @@ public final class Activator implements BundleActivator {
             return http;
         }
 
+        private AgsResultStore resultStore() {
+            final String dir = context.getProperty(RESULT_STORE_DIR_PROP);
+            if (dir == null) return null;
+            try {
+                return AgsResultStore.open(Paths.get(dir));
+            } catch (Exception ex) {
+                LOG.log(Level.WARNING, "Could not open the AGS result store in " + dir, ex);
+                return null;
+            }
+        }
+
         @Override public void removedService(ServiceReference<HttpService> ref, HttpService http) {
             LOG.info("Remove HttpService");
             http.unregister(APP_CONTEXT);
@@ -8,7 +8,7 @@ import javax.servlet.http.HttpServletResponse.{SC_BAD_GATEWAY, SC_BAD_REQUEST, S
 import javax.servlet.http.{HttpServlet, HttpServletRequest, HttpServletResponse}
 
 import edu.gemini.ags.api.AgsMagnitude.MagnitudeTable
-import edu.gemini.ags.api.{AgsRegistrar, AgsStrategy}
+import edu.gemini.ags.api.{AgsRegistrar, AgsResultStore, AgsStrategy}
 import edu.gemini.pot.sp.SPComponentType
 import edu.gemini.spModel.obs.context.ObsContext
 
@@ -76,7 +76,11 @@ object AgsServlet {
 
 import edu.gemini.ags.servlet.estimation.AgsServlet._
 
-class AgsServlet(magTable: MagnitudeTable) extends HttpServlet {
+class AgsServlet(magTable: MagnitudeTable, store: Option[AgsResultStore]) extends HttpServlet {
+
+  def this(magTable: MagnitudeTable) = this(magTable, None)
+
+  def this(magTable: MagnitudeTable, store: AgsResultStore) = this(magTable, Option(store))
 
   override def doPost(req: HttpServletRequest, res: HttpServletResponse): Unit = estimate(req, res)
   override def doGet(req: HttpServletRequest, res: HttpServletResponse): Unit = estimate(req, res)
@@ -98,7 +102,10 @@ class AgsServlet(magTable: MagnitudeTable) extends HttpServlet {
     def estimate(ctx: ObsContext, s: AgsStrategy): Either[Response, AgsStrategy.Estimate] = {
       import scala.concurrent.duration._
       Try {
-        Await.result(s.estimate(ctx, magTable)(executionContext), 2.minutes)
+        val est = store.fold(s.estimate(ctx, magTable)(executionContext)) {
+          _.estimate(s, ctx, magTable, System.currentTimeMillis)(executionContext)
+        }
+        Await.result(est, 2.minutes)
       } match {
         case Success(e)               => Right(e)
         case Failure(io: IOException) => Left(failure(SC_BAD_GATEWAY, io))
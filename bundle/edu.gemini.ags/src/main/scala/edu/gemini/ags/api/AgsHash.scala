@@ -18,6 +18,7 @@ import scala.collection.JavaConverters._
 /** Computes an `Int` hash value that corresponds to the set of inputs to the
   * AGS lookup.  If an observation is changed in some way and yet the hash
   * algorithm computes the same value, there is no need to re-do the AGS search.
+  * The inputs themselves are available in a canonical form as well.
   */
 object AgsHash {
 
@@ -41,19 +42,28 @@ object AgsHash {
   /** Calculates the AGS hash for this context, calculating the base position
     * corresponding to the given time expressed in milliseconds since 1970.
     */
-  def hash(ctx: ObsContext, when: Long): Int = {
+  def hash(ctx: ObsContext, when: Long): Int =
+    M3.orderedHash(inputs(ctx, when))
+
+  /** Describes the inputs to the AGS lookup for this context, calculating the
+    * base position corresponding to the given time expressed in milliseconds
+    * since 1970.  The description only depends upon the values of the inputs,
+    * so unlike the hash it may be compared across sessions (see
+    * `AgsResultStore`).
+    */
+  def inputs(ctx: ObsContext, when: Long): List[String] = {
 
-    val buf = ListBuffer.empty[Int]
+    val buf = ListBuffer.empty[String]
 
     // AGS Strategy
     val strategyKey = AgsRegistrar.currentStrategy(ctx).map(_.key)
     strategyKey.foreach { s =>
-      M3.stringHash(s.id) +=: buf
+      buf += s"strategy=${s.id}"
     }
 
     // Conditions
     Option(ctx.getConditions).foreach { c =>
-      c.cc.## +=: c.iq.## +=: c.sb.## +=: buf
+      buf += s"conditions=${c.cc.name},${c.iq.name},${c.sb.name}"
     }
 
     // Asterism
@@ -61,36 +71,46 @@ object AgsHash {
       val time = Some(new java.lang.Long(when)).asGeminiOpt
       val asterism = t.getAsterism
 
-      def toData(coord: GemOption[java.lang.Double]): Int =
-        coord.asScalaOpt.map(_.doubleValue).##
-
-      asterism.allSpTargets.map { sp =>
-        val ra  = toData(sp.getRaDegrees(time))
-        val dec = toData(sp.getDecDegrees(time))
-        ra +=: dec +=: buf
+      def toData(coord: GemOption[java.lang.Double]): String =
+        coord.asScalaOpt.fold("-")(_.doubleValue.toString)
+
+      // Sidereal targets are described by their catalog position and motion
+      // rather than by their position at `when`, which would otherwise change
+      // with the time of the lookup whenever there is proper motion.
+      asterism.allSpTargets.foreach { sp =>
+        sp.getSiderealTarget match {
+          case Some(st) =>
+            val c   = st.coordinates
+            val pm  = st.properMotion.fold("-")(p => s"${p.deltaRA.velocity.masPerYear},${p.deltaDec.velocity.masPerYear},${p.epoch.year}")
+            val plx = st.parallax.fold("-")(_.mas.toString)
+            buf += s"target=${c.ra.toAngle.toDegrees},${c.dec.toDegrees},$pm,$plx"
+
+          case None     =>
+            buf += s"target=${toData(sp.getRaDegrees(time))},${toData(sp.getDecDegrees(time))}"
+        }
       }
 
     }
 
     // Offset Positions, which are returned in a Set.  Order is not important
     // for the purpose of AGS calculations.
-    M3.unorderedHash(ctx.getSciencePositions.asScala.map { o =>
-      (o.p.arcsec, o.q.arcsec)
-    }) +=: buf
+    buf += ctx.getSciencePositions.asScala.toList.map { o =>
+      s"${o.p.arcsec},${o.q.arcsec}"
+    }.sorted.mkString("offsets=", ";", "")
 
     // Position Angle
     Option(ctx.getPositionAngle).foreach { a =>
-      a.toDegrees.## +=: buf
+      buf += s"posAngle=${a.toDegrees}"
     }
 
     // Position Angle Constraint
     Option(ctx.getPosAngleConstraint).foreach { pac =>
-      pac.## +=: buf
+      buf += s"posAngleConstraint=${pac.name}"
     }
 
     // IssPort
     Option(ctx.getIssPort).foreach { iss =>
-      iss.## +=: buf
+      buf += s"issPort=${iss.name}"
     }
 
     import AgsStrategyKey._
@@ -99,13 +119,13 @@ object AgsHash {
     // on the science area and probe arm position and hence, vignetting.
     Option(ctx.getInstrument).foreach {
       case i: Flamingos2 if strategyKey.contains(Flamingos2OiwfsKey)   =>
-        i.getFpu.## +=: i.getLyotWheel.getPlateScale.## +=: buf
+        buf += s"f2=${i.getFpu.name},${i.getLyotWheel.getPlateScale}"
 
       case i: InstGmosNorth if strategyKey.contains(GmosNorthOiwfsKey) =>
-        i.getFPUnit.## +=: i.getFPUnitMode.## +=: buf
+        buf += s"gmos=${i.getFPUnit.name},${i.getFPUnitMode.name}"
 
       case i: InstGmosSouth if strategyKey.contains(GmosSouthOiwfsKey) =>
-        i.getFPUnit.## +=: i.getFPUnitMode.## +=: buf
+        buf += s"gmos=${i.getFPUnit.name},${i.getFPUnitMode.name}"
 
       case _                                                           =>
     }
@@ -115,19 +135,19 @@ object AgsHash {
     // camera is in use.
     strategyKey.foreach {
       case Pwfs1NorthKey | Pwfs1SouthKey =>
-        Option(ctx.getInstrument).foreach {
-          _.pwfs1VignettingClearance.getMagnitude.## +=: buf
+        Option(ctx.getInstrument).foreach { i =>
+          buf += s"pwfs1Clearance=${i.pwfs1VignettingClearance.getMagnitude}"
         }
 
       case Pwfs2NorthKey | Pwfs2SouthKey =>
-        Option(ctx.getInstrument).foreach {
-          _.pwfs2VignettingClearance.getMagnitude.## +=: buf
+        Option(ctx.getInstrument).foreach { i =>
+          buf += s"pwfs2Clearance=${i.pwfs2VignettingClearance.getMagnitude}"
         }
 
       case Ngs2Key                       =>
         // GeMS works differently depending upon whether GSAOI or F2 is in use.
         Option(ctx.getInstrument).map(_.getPhaseIResourceName).foreach { n =>
-          M3.stringHash(n) +=: buf
+          buf += s"instrument=$n"
         }
 
       case _                             =>
@@ -136,11 +156,11 @@ object AgsHash {
     // Altair mode, which impacts not only the strategy but also the
     // magnitude limits.
     ctx.getAOComponent.asScalaOpt.foreach {
-      case a: InstAltair => a.getMode.## +=: buf
+      case a: InstAltair => buf += s"altair=${a.getMode.name}"
       case _             =>
     }
 
-    M3.orderedHash(buf)
+    buf.toList
   }
 
   private implicit class AngleOps(a: edu.gemini.skycalc.Angle) {
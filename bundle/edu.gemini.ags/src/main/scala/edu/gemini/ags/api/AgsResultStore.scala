@@ -0,0 +1,294 @@
+package edu.gemini.ags.api
+
+import edu.gemini.ags.api.AgsMagnitude.MagnitudeTable
+import edu.gemini.catalog.api.CatalogQuery
+import edu.gemini.spModel.ags.AgsStrategyKey
+import edu.gemini.spModel.core.{Angle, SiderealTarget}
+import edu.gemini.spModel.guide.{GuideProbeMap, GuideSpeed}
+import edu.gemini.spModel.obs.context.ObsContext
+
+import java.io._
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, StandardCopyOption}
+import java.nio.file.attribute.FileTime
+import java.security.MessageDigest
+import java.util.logging.{Level, Logger}
+
+import scala.collection.JavaConverters._
+import scala.concurrent.{ExecutionContext, Future}
+import scala.concurrent.duration._
+import scala.util.Success
+import scala.util.control.NonFatal
+
+/** A disk backed store of AGS results that can be shared between sessions.
+  *
+  * Results are keyed by the AGS strategy, a digest of the inputs to the search
+  * and the version of the catalogs that are searched.  The inputs are those
+  * that `AgsHash` considers along with the magnitude limits of the guide
+  * probes and the catalog queries.  An observation that has not changed in a
+  * way that matters to AGS can therefore reuse the result of a previous
+  * search, even after a restart.
+  *
+  * Each entry is kept in its own file along with the key and the time at which
+  * it was created.  Entries that do not match their key, that were written by
+  * a different version of the store or that are older than `maxAge` are
+  * deleted when read.  Once the files take more than `maxBytes` the least
+  * recently used ones are deleted.
+  *
+  * Problems reading or writing the store are logged and treated as a missing
+  * entry, the store never makes an AGS lookup fail.
+  */
+final class AgsResultStore private (val dir: Path, val maxBytes: Long, val maxAge: FiniteDuration) {
+  import AgsResultStore._
+
+  // Entry file name -> size in bytes, least recently used first.
+  private val index = new java.util.LinkedHashMap[String, java.lang.Long](16, 0.75f, true)
+  private var totalBytes = 0L
+
+  locally {
+    val stream = Files.list(dir)
+    try {
+      val files = stream.iterator.asScala.filter(_.getFileName.toString.endsWith(Suffix)).toList
+      files.map(f => (f, Files.getLastModifiedTime(f).toMillis)).sortBy(_._2).foreach { case (f, _) =>
+        indexed(f.getFileName.toString, Files.size(f))
+      }
+    } finally {
+      stream.close()
+    }
+  }
+
+  private def indexed(name: String, bytes: Long): Unit = {
+    Option(index.put(name, bytes)).foreach(totalBytes -= _)
+    totalBytes += bytes
+  }
+
+  private def dropped(name: String): Unit =
+    Option(index.remove(name)).foreach(totalBytes -= _)
+
+  /** The selection stored for the key, if any.  Note that `Some(None)` means
+    * that a previous search found no guide stars.
+    */
+  def selection(key: Key): Option[Option[AgsStrategy.Selection]] =
+    read(key, SelectionKind)(readSelection)
+
+  def putSelection(key: Key, selection: Option[AgsStrategy.Selection]): Unit =
+    write(key, SelectionKind)(writeSelection(_, selection))
+
+  /** The estimate stored for the key, if any. */
+  def estimate(key: Key): Option[AgsStrategy.Estimate] =
+    read(key, EstimateKind)(in => AgsStrategy.Estimate(in.readDouble))
+
+  def putEstimate(key: Key, estimate: AgsStrategy.Estimate): Unit =
+    write(key, EstimateKind)(_.writeDouble(estimate.probability))
+
+  /** Selects guide stars with the given strategy unless the result for the
+    * observation is already stored.  Successful selections are stored.
+    *
+    * @param when time for which the base position is calculated, in
+    *             milliseconds since 1970
+    */
+  def select(strategy: AgsStrategy, ctx: ObsContext, mt: MagnitudeTable, when: Long)(ec: ExecutionContext): Future[Option[AgsStrategy.Selection]] = {
+    val key = Key(strategy, ctx, mt, when)
+    selection(key).fold(strategy.select(ctx, mt)(ec).andThen {
+      case Success(s) => putSelection(key, s)
+    }(ec))(Future.successful)
+  }
+
+  /** Estimates the AGS success probability with the given strategy unless the
+    * estimate for the observation is already stored.  Successful estimates are
+    * stored.
+    *
+    * @param when time for which the base position is calculated, in
+    *             milliseconds since 1970
+    */
+  def estimate(strategy: AgsStrategy, ctx: ObsContext, mt: MagnitudeTable, when: Long)(ec: ExecutionContext): Future[AgsStrategy.Estimate] = {
+    val key = Key(strategy, ctx, mt, when)
+    estimate(key).fold(strategy.estimate(ctx, mt)(ec).andThen {
+      case Success(e) => putEstimate(key, e)
+    }(ec))(Future.successful)
+  }
+
+  /** Deletes all the entries. */
+  def clear(): Unit = synchronized {
+    index.keySet.asScala.toList.foreach(delete)
+  }
+
+  private def read[A](key: Key, kind: Byte)(body: ObjectInputStream => A): Option[A] = synchronized {
+    val name = key.fileName(kind)
+    val file = dir.resolve(name)
+    if (!Files.exists(file)) {
+      dropped(name)
+      None
+    } else {
+      try {
+        val in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))
+        try {
+          val valid =
+            (in.readInt == FormatVersion)                             &&
+            (in.readByte == kind)                                     &&
+            (in.readUTF == key.strategy.id)                           &&
+            (in.readUTF == key.digest)                                &&
+            (in.readUTF == key.catalog)                               &&
+            (System.currentTimeMillis - in.readLong <= maxAge.toMillis)
+
+          if (valid) {
+            val a = body(in)
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis))
+            indexed(name, Files.size(file))
+            Some(a)
+          } else {
+            delete(name)
+            None
+          }
+        } finally {
+          in.close()
+        }
+      } catch {
+        case NonFatal(ex) =>
+          Log.log(Level.WARNING, s"Could not read AGS result $file", ex)
+          delete(name)
+          None
+      }
+    }
+  }
+
+  private def write(key: Key, kind: Byte)(body: ObjectOutputStream => Unit): Unit = synchronized {
+    val name = key.fileName(kind)
+    try {
+      val tmp = Files.createTempFile(dir, name, ".tmp")
+      try {
+        val out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))
+        try {
+          out.writeInt(FormatVersion)
+          out.writeByte(kind)
+          out.writeUTF(key.strategy.id)
+          out.writeUTF(key.digest)
+          out.writeUTF(key.catalog)
+          out.writeLong(System.currentTimeMillis)
+          body(out)
+        } finally {
+          out.close()
+        }
+        Files.move(tmp, dir.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+      } finally {
+        Files.deleteIfExists(tmp)
+      }
+      indexed(name, Files.size(dir.resolve(name)))
+      evict()
+    } catch {
+      case NonFatal(ex) => Log.log(Level.WARNING, s"Could not store AGS result $name", ex)
+    }
+  }
+
+  // Deletes the least recently used entries, always keeping the most recent.
+  private def evict(): Unit = {
+    val it = index.entrySet.iterator
+    while (totalBytes > maxBytes && index.size > 1) {
+      val e = it.next()
+      totalBytes -= e.getValue
+      it.remove()
+      Files.deleteIfExists(dir.resolve(e.getKey))
+    }
+  }
+
+  private def delete(name: String): Unit = {
+    dropped(name)
+    try {
+      Files.deleteIfExists(dir.resolve(name))
+    } catch {
+      case NonFatal(ex) => Log.log(Level.WARNING, s"Could not delete AGS result $name", ex)
+    }
+  }
+}
+
+object AgsResultStore {
+  private val Log = Logger.getLogger(classOf[AgsResultStore].getName)
+
+  // Bump whenever the format of the entries changes.
+  private val FormatVersion = 2
+  private val Suffix        = ".ags"
+
+  private val SelectionKind: Byte = 1
+  private val EstimateKind: Byte  = 2
+
+  val DefaultMaxBytes: Long          = 64L * 1024 * 1024
+  val DefaultMaxAge: FiniteDuration  = 30.days
+
+  /** System property that can be changed to invalidate all stored results,
+    * for example when the contents of a catalog are updated.
+    */
+  val CatalogEpochProp: String = classOf[AgsResultStore].getName + ".catalogEpoch"
+
+  /** Identifies a stored result.
+    *
+    * @param strategy AGS strategy used for the search
+    * @param digest   digest of the inputs to the search, see `digest`
+    * @param catalog  catalogs (and their versions) that were searched
+    */
+  final case class Key(strategy: AgsStrategyKey, digest: String, catalog: String) {
+    private[api] def fileName(kind: Byte): String =
+      s"${strategy.id}-$digest-$catalog-$kind$Suffix".replaceAll("[^A-Za-z0-9._-]", "_")
+  }
+
+  object Key {
+    def apply(strategy: AgsStrategy, ctx: ObsContext, mt: MagnitudeTable, when: Long): Key = {
+      val queries = strategy.catalogQueries(ctx, mt)
+      Key(strategy.key, digest(strategy, ctx, mt, when, queries), catalogVersion(queries))
+    }
+  }
+
+  /** SHA-256 digest, in hex, of a description of everything the search
+    * depends upon: the `AgsHash` inputs of the observation, the magnitude
+    * limits of each guide probe under the observation's conditions at every
+    * guide speed and the catalog queries, which include the probe ranges.
+    */
+  def digest(strategy: AgsStrategy, ctx: ObsContext, mt: MagnitudeTable, when: Long, queries: List[CatalogQuery]): String = {
+    val limits = for {
+      c       <- Option(ctx.getConditions).toList
+      (gp, m) <- strategy.magnitudes(ctx, mt)
+    } yield GuideSpeed.values.map(gs => m(c, gs)).mkString(s"limits=${gp.getKey}:", ",", "")
+
+    val inputs = AgsHash.inputs(ctx, when) ++ limits ++ queries.map(q => s"query=$q")
+    val md     = MessageDigest.getInstance("SHA-256")
+    md.digest(inputs.mkString("\n").getBytes(StandardCharsets.UTF_8)).map(b => f"$b%02x").mkString
+  }
+
+  /** Describes the catalogs searched by the given queries. */
+  def catalogVersion(queries: List[CatalogQuery]): String = {
+    val epoch = Option(System.getProperty(CatalogEpochProp)).getOrElse("0")
+    (epoch :: queries.map(q => s"${q.catalog.id}_${q.catalog.voTableVersion.format}").distinct.sorted).mkString("+")
+  }
+
+  /** Opens (creating if needed) the store kept in the given directory. */
+  def open(dir: Path, maxBytes: Long, maxAge: FiniteDuration): AgsResultStore = {
+    Files.createDirectories(dir)
+    new AgsResultStore(dir, maxBytes, maxAge)
+  }
+
+  def open(dir: Path): AgsResultStore =
+    open(dir, DefaultMaxBytes, DefaultMaxAge)
+
+  private def writeSelection(out: ObjectOutputStream, selection: Option[AgsStrategy.Selection]): Unit = {
+    out.writeBoolean(selection.isDefined)
+    selection.foreach { s =>
+      out.writeDouble(s.posAngle.toDegrees)
+      out.writeInt(s.assignments.size)
+      s.assignments.foreach { a =>
+        out.writeUTF(a.guideProbe.getKey)
+        out.writeObject(a.guideStar)
+      }
+    }
+  }
+
+  private def readSelection(in: ObjectInputStream): Option[AgsStrategy.Selection] =
+    if (!in.readBoolean) None
+    else {
+      val posAngle    = Angle.fromDegrees(in.readDouble)
+      val assignments = List.fill(in.readInt) {
+        val key   = in.readUTF
+        val probe = Option(GuideProbeMap.instance.get(key)).getOrElse(throw new IOException(s"Unknown guide probe $key"))
+        AgsStrategy.Assignment(probe, in.readObject.asInstanceOf[SiderealTarget])
+      }
+      Some(AgsStrategy.Selection(posAngle, assignments))
+    }
+}
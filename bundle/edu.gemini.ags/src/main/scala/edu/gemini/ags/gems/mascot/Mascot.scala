@@ -1,5 +1,7 @@
 package edu.gemini.ags.gems.mascot
 
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicLong}
 import java.util.logging.Logger
 
 import edu.gemini.ags.gems.mascot.util.AllPairsAndTriples
@@ -12,6 +14,8 @@ import edu.gemini.spModel.core.{BandsList, MagnitudeBand, RBandsList, SiderealTa
 import edu.gemini.spModel.target.SPTarget
 
 import scala.annotation.tailrec
+import scala.concurrent.duration.Duration
+import scala.concurrent.{Await, ExecutionContext, Future}
 import scalaz._
 import Scalaz._
 
@@ -44,6 +48,14 @@ object Mascot {
     def toList: List[Star] = List(n1.some, n2, n3).flatten
   }
 
+  // An estimate of the highest average Strehl (including the factor) an asterism can reach, used to skip
+  // asterisms that can not beat the best one found so far. The search only keeps its best asterism if the
+  // estimate is admissible, i.e. never lower than the value computeStrehl gives for the asterism. No cheap
+  // geometric estimate is known to be admissible for every asterism: the Strehl computation depends on the
+  // atmospheric profile, the averaging over the field and the tip-tilt error terms, so a bound that is
+  // occasionally too low can lose the best asterism.
+  type StrehlBound = StarTriple => Double
+
 
   // The default mag bandpass
   val defaultBandpass:MagnitudeBand = MagnitudeBand.R
@@ -75,22 +87,33 @@ object Mascot {
     }
   }
 
-  case class AsterismSearchStage(stars: List[Strehl], count: Int, continue: Boolean)
+  // Asterisms are evaluated on a work-stealing pool shared by all searches.
+  private lazy val AsterismContext: ExecutionContext =
+    ExecutionContext.fromExecutorService(new ForkJoinPool(Runtime.getRuntime.availableProcessors))
 
   /**
    * Finds the best asterisms for the given list of stars.
+   * The Strehl values of the asterisms are computed in parallel, the progress function is still called in search
+   * order (triples, pairs, singles) on the calling thread and no more asterisms are evaluated once it returns
+   * false or throws.
+   * If a bound is given, asterisms whose bound is not higher than the best average Strehl found so far are
+   * skipped and not passed to the progress function. The best asterism is the same as without the bound as long
+   * as the bound is admissible (see StrehlBound), but which of the lesser ones are skipped depends on the order
+   * in which the computations finish.
    * @param starList unfiltered list of stars from a catalog query
    * @param factor multiply strehl min, max and average by this value (depends on instrument filter: See REL-426)
    * @param progress a function(strehl, count, total) called for each asterism as it is calculated
    * @param filter a filter function that returns false if the Star should be excluded
    * @param asterismPreFilter a filter function that returns false if a candidate asterism should be excluded
+   * @param bound optional estimate of the highest average Strehl of an asterism, disabled by default
    * @return a tuple: (list of stars actually used, list of asterisms found)
    */
   def findBestAsterism(starList: List[Star],
                        factor: Double = defaultFactor,
                        progress: ProgressFunction = defaultProgress,
                        filter: Star => Boolean = defaultFilter,
-                       asterismPreFilter: List[SiderealTarget] => Boolean = defaultAsterismPreFilter)
+                       asterismPreFilter: List[SiderealTarget] => Boolean = defaultAsterismPreFilter,
+                       bound: Option[StrehlBound] = None)
   : (List[Star], List[Strehl]) = {
     // sort by selected mag and select
     val sortedStarList = starList.distinct.sortWith((s1,s2) => s1.r < s2.r)
@@ -107,37 +130,62 @@ object Mascot {
 
     Log.info(s"Mascot.findBestAsterism: input stars: $ns, total asterisms: $total")
 
-    // Compute strehl for a sets of stars
+    // Search each possible combination of triples, doubles and singles in this order.
+    val candidates = trips.map((StarTriple.apply _).tupled) ++
+                     pairs.map { case (s1, s2) => StarTriple(s1, s2, None) } ++
+                     sings.map(StarTriple(_, None, None))
+
+    // The count passed to the progress function: the last asterism of each kind and the first one of the next
+    // kind share the same count.
+    val counts = List(trips.length, pairs.length, sings.length).foldLeft((1, List.empty[Int])) {
+      case ((c, cs), 0) => (c, cs)
+      case ((c, cs), n) => (c + n - 1, cs ++ (c until c + n))
+    }._2
+
+    val cancelled = new AtomicBoolean(false)
+
+    // Highest average Strehl found so far, as the raw bits of a double
+    val best = new AtomicLong(java.lang.Double.doubleToRawLongBits(Double.NegativeInfinity))
+
+    def bestStrehl: Double = java.lang.Double.longBitsToDouble(best.get)
+
     @tailrec
-    def doStars(result: List[Strehl], count: Int, starSets: List[(Star, Option[Star], Option[Star])]):AsterismSearchStage = starSets match {
-      case Nil =>
-        AsterismSearchStage(result, count, continue = true)
-      case s :: Nil =>
-        val strehl = computeStrehl(factor, (StarTriple.apply _).tupled(s))
-        // check if we continue
-        val continue = strehl.map(progress(_, count, total))
-        AsterismSearchStage(strehl.map(_ :: result).getOrElse(result), count, continue.getOrElse(true))
-      case s :: tail =>
-        val strehl = computeStrehl(factor, (StarTriple.apply _).tupled(s))
-        // check if we continue
-        val continue = strehl.map(progress(_, count, total))
-        if (continue === false.some) {
-          AsterismSearchStage(strehl.map(_ :: result).getOrElse(result), count, continue = false)
-        } else {
-          // Continue if the position is skipped or if progress says continue
-          doStars(strehl.map(_ :: result).getOrElse(result), count + 1, tail)
+    def updateBest(s: Strehl): Unit = {
+      val cur = best.get
+      if (s.avgstrehl > java.lang.Double.longBitsToDouble(cur) &&
+          !best.compareAndSet(cur, java.lang.Double.doubleToRawLongBits(s.avgstrehl))) updateBest(s)
+    }
+
+    val strehls   = candidates.map { st =>
+      Future {
+        if (cancelled.get || bound.exists(_(st) <= bestStrehl)) None
+        else {
+          val strehl = computeStrehl(factor, st)
+          if (bound.isDefined) strehl.foreach(updateBest)
+          strehl
         }
+      }(AsterismContext)
     }
 
-    // Search each possible combination of triples, doubles and singles supporting cancellation
-    def go(): List[Strehl] = {
-      val triples = if (ns >= 3) doStars(Nil, 1, trips) else AsterismSearchStage(Nil, 1, continue = true)
-      val doubles = if (ns >= 2 && triples.continue) doStars(triples.stars, triples.count, pairs.map(t => (t._1, t._2, None))) else triples
-      val singles = if (ns >= 1 && doubles.continue) doStars(doubles.stars, doubles.count, sings.map(t => (t, None, None))) else doubles
-      singles.stars
+    // Collect the results in search order supporting cancellation
+    @tailrec
+    def go(result: List[Strehl], rest: List[(Future[Option[Strehl]], Int)]): List[Strehl] = rest match {
+      case Nil                 =>
+        result
+      case (f, count) :: tail =>
+        val strehl = Await.result(f, Duration.Inf)
+        // Continue if the position is skipped or if progress says continue
+        val continue = strehl.forall(progress(_, count, total))
+        val r = strehl.map(_ :: result).getOrElse(result)
+        if (continue) go(r, tail) else r
     }
 
-    (filteredStarList, sortBestAsterisms(go()))
+    try {
+      (filteredStarList, sortBestAsterisms(go(Nil, strehls.zip(counts))))
+    } finally {
+      // don't start any computations that are not needed anymore
+      cancelled.set(true)
+    }
   }
 
   //func select_stars_on_mag(void)
@@ -78,7 +78,16 @@ object Strehl {
 
   val nmodes = 5
   val sp = nullModesSpectra()
-  var spv = vibSpectra()
+  // limits upper freq range for spline (see below); done once here since the spectra don't change, which also
+  // allows to compute Strehl values for several asterisms at the same time
+  val spv = {
+    val s = vibSpectra()
+    if (max(s(::, 0)) > sampfreq) {
+      val tmp = where(s(::, 0), _ < sampfreq)
+      val w = tmp(tmp.length - 1)
+      s(0 to w, ::)
+    } else s
+  }
   val novibs = false
 
   //  func mascot_compute_strehl(void)
@@ -339,11 +348,7 @@ object Strehl {
     //  rmsvib(2) = sum((*tiltvibrms)^2.);
 
 
-    if (max(spv(::, 0)) > sampfreq) {
-      val tmp = where(spv(::, 0), _ < sampfreq)
-      val w = tmp(tmp.length - 1)
-      spv = spv(0 to w, ::)
-    }
+    // (spv is already limited to sampfreq)
     val freqv = spv(::, 0)
 
     val rmsvib = DenseVector.zeros[Double](2)
@@ -1,15 +1,18 @@
 package edu.gemini.ags.impl
 
 import edu.gemini.ags.api.AgsMagnitude.MagnitudeTable
-import edu.gemini.spModel.core.Coordinates
-import edu.gemini.spModel.core.SiderealTarget
+import edu.gemini.spModel.core.{Angle, Coordinates, Magnitude, SiderealTarget}
 import edu.gemini.spModel.guide.GuideStarValidation
 import edu.gemini.spModel.obs.context.ObsContext
 import edu.gemini.spModel.target.SPTarget
 import edu.gemini.ags.api.AgsMagnitude
 import edu.gemini.catalog.api.MagnitudeConstraints
 import edu.gemini.pot.ModelConverters._
+import edu.gemini.shared.util.immutable.{Option => GOption}
 import edu.gemini.shared.util.immutable.ScalaConverters._
+import edu.gemini.skycalc.CoordinateDiff
+
+import java.awt.geom.Rectangle2D
 
 import scalaz._
 import Scalaz._
@@ -18,39 +21,156 @@ import Scalaz._
  * Math on a list of candidates with a given set of constraints.  The idea is
  * that one set of candidates and constraints can be applied to differing
  * observation contexts (different position angles, guide speeds, etc.)
+ *
+ * The candidates are kept in a polar grid around the base position together
+ * with everything that does not change with the position angle, so that for a
+ * given context only the candidates that can fall inside the rotated patrol
+ * field go through the full guide star validation.
  */
 protected case class CandidateValidator(params: SingleProbeStrategyParams, mt: MagnitudeTable, candidates: List[SiderealTarget]) {
+  import CandidateValidator._
+
+  // The grid for the base position and time of the last context seen.  These
+  // are the same for all the position angles that are tried for a search.
+  @volatile private var lastGrid: Option[PolarGrid] = None
+
+  private def grid(ctx: ObsContext): Option[PolarGrid] =
+    ctx.getBaseCoordinates.asScalaOpt.map { b =>
+      val base = b.toNewModel
+      val when = ctx.getSchedulingBlockStart
+      lastGrid.filter(_.matches(base, when)) | {
+        val g = polarGrid(params, b, when, candidates)
+        lastGrid = Some(g)
+        g
+      }
+    }
+
   /**
    * Produces a predicate for testing whether a candidate is valid in an
-   * established context. Returns constant `false` if base coordinates are unknown.
+   * established context.
    */
-  private def isValid(ctx: ObsContext): (SiderealTarget) => Boolean =
-    ctx.getBaseCoordinates.asScalaOpt.fold((_: SiderealTarget) => false) { base =>
-    val magLimits:Option[MagnitudeConstraints] = params.magnitudeCalc(ctx, mt).flatMap(AgsMagnitude.autoSearchConstraints(_, ctx.getConditions))
+  private def isValid(ctx: ObsContext): Entry => Boolean = {
+    val magLimits: Option[MagnitudeConstraints] = params.magnitudeCalc(ctx, mt).flatMap(AgsMagnitude.autoSearchConstraints(_, ctx.getConditions))
 
-    (st: SiderealTarget) => {
-      // Do not use any candidates that are too close to science target / base
-      // position (i.e. don't use science target as guide star)
-      def farEnough =
-        params.minDistance.forall { min =>
-          val soCoords = st.coordinates
-          val diff = Coordinates.difference(base.toNewModel, soCoords)
-          diff.distance >= min
-        }
+    magLimits.fold((_: Entry) => false) { ml =>
+      lazy val validator = params.validator(ctx)
 
-      // Only keep candidates that fall within the magnitude limits.
-      def brightnessOk = (magLimits |@| params.referenceMagnitude(st))(_ contains _) | false
+      // Do not use any candidates that are too close to science target / base
+      // position, only keep candidates that fall within the magnitude limits
+      // and those that are in range of the guide probe.
+      (e: Entry) => e.farEnough && ml.contains(e.magnitude) && validator.validate(e.spTarget, ctx) == GuideStarValidation.VALID
+    }
+  }
 
-      // Only keep those that are in range of the guide probe.
-      def inProbeRange = params.validator(ctx).validate(new SPTarget(st), ctx) == GuideStarValidation.VALID
+  // Candidates that can be in range of the guide probe in the given context.
+  private def reachable(g: PolarGrid, ctx: ObsContext): Seq[Entry] =
+    params.patrolField(ctx).fold(g.entries: Seq[Entry]) { pf =>
+      val pos = ctx.getSciencePositions
+      g.within(pf.offsetIntersection(pos).getBounds2D.createUnion(pf.safeOffsetIntersection(pos).getBounds2D), ctx.getPositionAngle)
+    }
 
-      farEnough && brightnessOk && inProbeRange
+  private def valid(ctx: ObsContext): List[Entry] =
+    grid(ctx).toList.flatMap { g =>
+      reachable(g, ctx).filter(isValid(ctx)).sortBy(_.index)
     }
-  }
 
-  def filter(ctx: ObsContext): List[SiderealTarget]   = candidates.filter(isValid(ctx))
+  def filter(ctx: ObsContext): List[SiderealTarget]   = valid(ctx).map(_.target)
 
-  def exists(ctx: ObsContext): Boolean                = candidates.exists(isValid(ctx))
+  def exists(ctx: ObsContext): Boolean                = grid(ctx).exists(g => reachable(g, ctx).exists(isValid(ctx)))
 
   def select(ctx: ObsContext): Option[SiderealTarget] = params.brightest(filter(ctx))(identity)
+
+  /**
+   * Pairs each candidate with the context at the position angle calculated
+   * for it and keeps the candidates that are valid in their own context.
+   */
+  def filterEach(ctx: ObsContext)(positionAngle: SiderealTarget => Angle): List[(ObsContext, SiderealTarget)] =
+    grid(ctx).toList.flatMap { g =>
+      g.entries.toList.filter(_.farEnough).flatMap { e =>
+        val c = ctx.withPositionAngle(positionAngle(e.target))
+        isValid(c)(e) option ((c, e.target))
+      }
+    }
+}
+
+object CandidateValidator {
+  // Margin in arcsecs added around the patrol field to absorb any rounding
+  // differences with the guide star validation.
+  private val Margin      = 1.0
+  private val Sectors     = 36
+  private val SectorWidth = 2 * math.Pi / Sectors
+
+  /**
+   * A candidate with its reference magnitude and its offset in arcsecs from
+   * the base position, defined in the same coordinate system as the patrol
+   * fields.
+   */
+  private case class Entry(index: Int, target: SiderealTarget, spTarget: SPTarget, magnitude: Magnitude, farEnough: Boolean, x: Double, y: Double)
+
+  private def sector(x: Double, y: Double): Int =
+    Math.floorMod(math.floor(math.atan2(y, x) / SectorWidth).toInt, Sectors)
+
+  /**
+   * Candidates around a base position grouped in sectors by their direction
+   * from the base.  Candidates without a reference magnitude or without
+   * coordinates at the given time can never be valid and are left out.
+   */
+  private case class PolarGrid(base: Coordinates, when: GOption[java.lang.Long], entries: Vector[Entry]) {
+    private val sectors: Array[Vector[Entry]] = {
+      val bySector = entries.groupBy(e => sector(e.x, e.y))
+      Array.tabulate(Sectors)(bySector.getOrElse(_, Vector.empty))
+    }
+
+    def matches(b: Coordinates, w: GOption[java.lang.Long]): Boolean =
+      base == b && when == w
+
+    /**
+     * Candidates that fall inside the given area of the patrol field once it
+     * is rotated to the position angle. The patrol field is rotated by the
+     * negative position angle, so instead the candidates are rotated by the
+     * position angle and compared with the unrotated area.
+     */
+    def within(area: Rectangle2D, positionAngle: Angle): Seq[Entry] = {
+      val r   = new Rectangle2D.Double(area.getX - Margin, area.getY - Margin, area.getWidth + 2 * Margin, area.getHeight + 2 * Margin)
+      val pa  = positionAngle.toRadians
+      val cos = math.cos(pa)
+      val sin = math.sin(pa)
+
+      def inside(e: Entry): Boolean =
+        r.contains(e.x * cos - e.y * sin, e.x * sin + e.y * cos)
+
+      if (r.contains(0, 0)) {
+        entries.filter(inside)
+      } else {
+        // Seen from the base the area covers less than half a turn, find the
+        // directions it covers and only look at the sectors in between (plus
+        // one on either side for candidates right at a sector boundary).
+        val corners = List(r.getMinX -> r.getMinY, r.getMinX -> r.getMaxY, r.getMaxX -> r.getMinY, r.getMaxX -> r.getMaxY).map {
+          case (x, y) => math.atan2(y, x)
+        }
+        val a0 = corners.head
+        val ds = corners.map(a => math.IEEEremainder(a - a0, 2 * math.Pi))
+        val lo = math.floor((a0 + ds.min - pa) / SectorWidth).toInt - 1
+        val hi = math.floor((a0 + ds.max - pa) / SectorWidth).toInt + 1
+        (lo to hi).flatMap(s => sectors(Math.floorMod(s, Sectors))).filter(inside)
+      }
+    }
+  }
+
+  private def polarGrid(params: SingleProbeStrategyParams, skycalcBase: edu.gemini.skycalc.Coordinates, when: GOption[java.lang.Long], candidates: List[SiderealTarget]): PolarGrid = {
+    val base = skycalcBase.toNewModel
+    val entries = for {
+      (st, i) <- candidates.zipWithIndex
+      mag     <- params.referenceMagnitude(st)
+      sp       = new SPTarget(st)
+      coords  <- sp.getSkycalcCoordinates(when).asScalaOpt
+    } yield {
+      val farEnough = params.minDistance.forall { min =>
+        Coordinates.difference(base, st.coordinates).distance >= min
+      }
+      val dis = new CoordinateDiff(skycalcBase, coords).getOffset
+      Entry(i, st, sp, mag, farEnough, -dis.p().toArcsecs.getMagnitude, -dis.q().toArcsecs.getMagnitude)
+    }
+    PolarGrid(base, when, entries.toVector)
+  }
 }
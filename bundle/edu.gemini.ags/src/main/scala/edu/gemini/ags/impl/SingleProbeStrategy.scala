@@ -196,15 +196,17 @@ final case class SingleProbeStrategy(key: AgsStrategyKey, params: SingleProbeStr
     }
   }
 
-  private def filterUnbounded(ctx: ObsContext, mt: MagnitudeTable, candidates: List[SiderealTarget]): List[(ObsContext, List[SiderealTarget])] = {
+  private def filterUnbounded(ctx: ObsContext, mt: MagnitudeTable, candidates: List[SiderealTarget]): List[(ObsContext, List[SiderealTarget])] =
+    validAtOwnAngle(ctx, mt, candidates).map {
+      case (ctxSo, so) => (ctxSo, List(so))
+    }
+
+  // Candidates that are valid at the position angle that points to them.
+  private def validAtOwnAngle(ctx: ObsContext, mt: MagnitudeTable, candidates: List[SiderealTarget]): List[(ObsContext, SiderealTarget)] =
     for {
       base <- ctx.getBaseCoordinates.asScalaOpt.toList
-      so <- candidates
-      pa = SingleProbeStrategy.calculatePositionAngle(base.toNewModel, so)
-      ctxSo = ctx.withPositionAngle(pa)
-      if CandidateValidator(params, mt, List(so)).exists(ctxSo)
-    } yield (ctxSo, List(so))
-  }
+      pair <- CandidateValidator(params, mt, candidates).filterEach(ctx)(SingleProbeStrategy.calculatePositionAngle(base.toNewModel, _))
+    } yield pair
 
   // List of candidates and their angles for the case where the pos angle constraint is not unbounded.
   private def selectBounded(alternatives: List[ObsContext], mt: MagnitudeTable, candidates: List[SiderealTarget]): List[(Angle, SiderealTarget)] = {
@@ -215,20 +217,11 @@ final case class SingleProbeStrategy(key: AgsStrategyKey, params: SingleProbeStr
   }
 
   // List of candidates and their angles for the case where the pos angle constraint is unbounded.
-  private def selectUnbounded(ctx: ObsContext, mt: MagnitudeTable, candidates: List[SiderealTarget]): List[(Angle, SiderealTarget)] = {
-
-    val pairs: List[(Angle, SiderealTarget)] =
-      for {
-        base <- ctx.getBaseCoordinates.asScalaOpt.toList
-        so   <- candidates
-      } yield (SingleProbeStrategy.calculatePositionAngle(base.toNewModel, so), so)
-
-    pairs.filter {
-      case (angle, st) => CandidateValidator(params, mt, List(st)).exists(ctx.withPositionAngle(angle))
+  private def selectUnbounded(ctx: ObsContext, mt: MagnitudeTable, candidates: List[SiderealTarget]): List[(Angle, SiderealTarget)] =
+    validAtOwnAngle(ctx, mt, candidates).map {
+      case (ctxSo, st) => (ctxSo.getPositionAngle, st)
     }
 
-  }
-
   private def ctx180(c: ObsContext): ObsContext =
     c.withPositionAngle(c.getPositionAngle.flip)
 
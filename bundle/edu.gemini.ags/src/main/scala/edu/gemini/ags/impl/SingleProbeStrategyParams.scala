@@ -38,7 +38,11 @@ sealed trait SingleProbeStrategyParams {
     } yield CatalogQuery.coneSearch(base.toNewModel, rc, ml, catalogName)
 
   def radiusConstraint(ctx: ObsContext): Option[RadiusConstraint] =
-    RadiusLimitCalc.getAgsQueryRadiusLimits(guideProbe, ctx)
+    RadiusLimitCalc.getAgsQueryRadiusLimits(patrolField(ctx), ctx)
+
+  // The patrol field checked by the validator, if any.
+  def patrolField(ctx: ObsContext): Option[PatrolField] =
+    guideProbe.getCorrectedPatrolField(ctx).asScalaOpt
 
   def magnitudeCalc(ctx: ObsContext, mt: MagnitudeTable): Option[MagnitudeCalc] =
     mt(ctx, guideProbe)
@@ -104,8 +108,8 @@ case class PwfsParams(site: Site, guideProbe: PwfsGuideProbe) extends SingleProb
     guideProbe.getCorrectedPatrolField(PatrolField.fromRadiusLimits(min, PwfsGuideProbe.PWFS_RADIUS), ctx)
   }
 
-  override def radiusConstraint(ctx: ObsContext): Option[RadiusConstraint] =
-    RadiusLimitCalc.getAgsQueryRadiusLimits(Some(vignettingProofPatrolField(ctx)), ctx)
+  override def patrolField(ctx: ObsContext): Option[PatrolField] =
+    Some(vignettingProofPatrolField(ctx))
 
   // We have a special validator for Pwfs.
   override def validator(ctx: ObsContext): GuideStarValidator =
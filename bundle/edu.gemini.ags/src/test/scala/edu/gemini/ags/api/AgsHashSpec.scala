@@ -1,11 +1,12 @@
 package edu.gemini.ags.api
 
+import edu.gemini.ags.conf.ProbeLimitsTable
 import edu.gemini.pot.ModelConverters._
 import edu.gemini.shared.util.immutable.{Option => JOption}
 import edu.gemini.shared.util.immutable.ScalaConverters._
 import edu.gemini.skycalc.{Offset => SkyCalcOffset}
 import edu.gemini.spModel.ags.AgsStrategyKey
-import edu.gemini.spModel.core.{Site, Declination, Angle}
+import edu.gemini.spModel.core.{Angle, AngularVelocity, Coordinates, Declination, DeclinationAngularVelocity, ProperMotion, RightAscensionAngularVelocity, SiderealTarget, Site}
 import edu.gemini.spModel.gemini.altair.{AltairParams, InstAltair}
 import edu.gemini.spModel.gemini.flamingos2.Flamingos2
 import edu.gemini.spModel.gemini.gems.Gems
@@ -139,6 +140,25 @@ class AgsHashSpec extends Specification with ScalaCheck with edu.gemini.spModel.
         (dec0 == dec1) == hashSame(ctx0, ctx1)
       }
 
+    "stay the same at different times for targets with proper motion" in
+      forAll { (ctx0: ObsContext) =>
+        val pm   = ProperMotion(RightAscensionAngularVelocity(AngularVelocity(250.0)), DeclinationAngularVelocity(AngularVelocity(-120.0)))
+        val env0 = ctx0.getTargets
+        val ast1 = env0.getAsterism.copyWithClonedTargets <| (_.allSpTargets.foreach { sp =>
+          sp.setTarget(SiderealTarget.empty.copy(coordinates = Coordinates.fromDegrees(150.0, -20.0).getOrElse(Coordinates.zero), properMotion = Some(pm)))
+        })
+        val ctx1 = ctx0.withTargets(env0.setAsterism(ast1))
+
+        val t0   = now.toEpochMilli
+        val t1   = now.plus(java.time.Duration.ofDays(400)).toEpochMilli
+        val mt   = ProbeLimitsTable.loadOrThrow()
+
+        (AgsHash.inputs(ctx1, t0) == AgsHash.inputs(ctx1, t1)) &&
+          AgsRegistrar.currentStrategy(ctx1).forall { s =>
+            AgsResultStore.Key(s, ctx1, mt, t0) == AgsResultStore.Key(s, ctx1, mt, t1)
+          }
+      }
+
     "differ if offset positions change" in
       forAll { (ctx0: ObsContext, posList: java.util.Set[SkyCalcOffset]) =>
         val ctx1 = ctx0.withSciencePositions(posList)
@@ -0,0 +1,87 @@
+package edu.gemini.ags.api
+
+import edu.gemini.ags.api.AgsStrategy.{Assignment, Estimate, Selection}
+import edu.gemini.spModel.ags.AgsStrategyKey.{GmosNorthOiwfsKey, Pwfs1NorthKey}
+import edu.gemini.spModel.core.MagnitudeBand.R
+import edu.gemini.spModel.core.MagnitudeSystem.Vega
+import edu.gemini.spModel.core._
+import edu.gemini.spModel.gemini.gmos.GmosOiwfsGuideProbe
+
+import java.nio.file.Files
+
+import org.specs2.mutable.Specification
+
+import scala.concurrent.duration._
+
+class AgsResultStoreSpec extends Specification {
+
+  private def store(maxBytes: Long = AgsResultStore.DefaultMaxBytes, maxAge: FiniteDuration = AgsResultStore.DefaultMaxAge): AgsResultStore =
+    AgsResultStore.open(Files.createTempDirectory("AgsResultStoreSpec-"), maxBytes, maxAge)
+
+  private val star = SiderealTarget.empty.copy(
+    name        = "Biff",
+    coordinates = Coordinates(RightAscension.fromAngle(Angle.fromDegrees(150.0)), Declination.fromAngle(Angle.fromDegrees(-20.0)).getOrElse(Declination.zero)),
+    magnitudes  = List(Magnitude(14.2, R, Some(0.1), Vega))
+  )
+
+  private val selection = Selection(Angle.fromDegrees(90.0), List(Assignment(GmosOiwfsGuideProbe.instance, star)))
+
+  private def key(n: Int): AgsResultStore.Key =
+    AgsResultStore.Key(GmosNorthOiwfsKey, f"$n%064x", "0+ucac4_1.2")
+
+  "AgsResultStore" should {
+    "return stored selections and estimates" in {
+      val s = store()
+      s.putSelection(key(1), Some(selection))
+      s.putSelection(key(2), None)
+      s.putEstimate(key(1), Estimate(0.75))
+
+      (s.selection(key(1)) must_== Some(Some(selection))) and
+      (s.selection(key(2)) must_== Some(None))            and
+      (s.estimate(key(1))  must_== Some(Estimate(0.75)))  and
+      (s.selection(key(3)) must_== None)
+    }
+
+    "keep results across sessions" in {
+      val s = store()
+      s.putSelection(key(1), Some(selection))
+      AgsResultStore.open(s.dir).selection(key(1)) must_== Some(Some(selection))
+    }
+
+    "not mix results of different strategies or catalogs" in {
+      val s = store()
+      s.putSelection(key(1), Some(selection))
+      (s.selection(key(1).copy(strategy = Pwfs1NorthKey)) must_== None) and
+      (s.selection(key(1).copy(catalog = "0+ppmxl_1.2"))  must_== None)
+    }
+
+    "check the digest of the inputs when reading" in {
+      val s = store()
+      s.putSelection(key(1), Some(selection))
+      Files.copy(s.dir.resolve(key(1).fileName(1)), s.dir.resolve(key(2).fileName(1)))
+      s.selection(key(2)) must_== None
+    }
+
+    "drop expired results" in {
+      val s = store(maxAge = Duration.Zero)
+      s.putEstimate(key(1), Estimate(0.5))
+      Thread.sleep(10)
+      s.estimate(key(1)) must_== None
+    }
+
+    "drop the least recently used results once the size limit is reached" in {
+      val s     = store()
+      s.putSelection(key(1), Some(selection))
+      val bytes = Files.size(s.dir.resolve(key(1).fileName(1)))
+
+      val small = AgsResultStore.open(s.dir, 2 * bytes, AgsResultStore.DefaultMaxAge)
+      small.putSelection(key(2), Some(selection))
+      small.selection(key(1))
+      small.putSelection(key(3), Some(selection))
+
+      (small.selection(key(1)) must_== Some(Some(selection))) and
+      (small.selection(key(2)) must_== None)                  and
+      (small.selection(key(3)) must_== Some(Some(selection)))
+    }
+  }
+}
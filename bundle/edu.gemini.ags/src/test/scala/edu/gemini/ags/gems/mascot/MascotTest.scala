@@ -106,6 +106,35 @@ class MascotTest {
     // Note: change in results is due to change in MascotConf.mag_max_threshold, to include GSAOI limits
 //    assertEquals(slist.toString, starList.toString)
   }
+
+  @Test def testFindBestAsterismCancel() {
+    var counts = List.empty[Int]
+    val progress: Mascot.ProgressFunction = (_: Strehl, count: Int, _: Int) => {
+      counts = count :: counts
+      counts.size < 5
+    }
+    val (_, strehlList) = Mascot.findBestAsterism(allStarList, progress = progress)
+
+    // progress is called in search order and the search stops as soon as it returns false
+    assertEquals(5, strehlList.size)
+    assertEquals(counts.reverse, counts.sorted)
+    assertEquals(5, counts.size)
+  }
+
+  @Test def testFindBestAsterismBound() {
+    val (_, all) = Mascot.findBestAsterism(allStarList)
+    val avg      = all.map(s => s.stars -> s.avgstrehl).toMap
+
+    // a loose bound that holds for every asterism of the fixture
+    val bound: Mascot.StrehlBound = st => avg.get(st.toList).fold(Double.PositiveInfinity)(_ * 1.1)
+    assertTrue(all.forall(s => bound(Mascot.StarTriple(s.stars.head, s.stars.lift(1), s.stars.lift(2))) >= s.avgstrehl))
+
+    val (_, pruned) = Mascot.findBestAsterism(allStarList, bound = Some(bound))
+
+    assertTrue(pruned.size <= all.size)
+    assertEquals(all.head.stars, pruned.head.stars)
+    assertEquals(all.head.avgstrehl, pruned.head.avgstrehl, 0.0)
+  }
 }
 
 object MascotTest {
@@ -0,0 +1,88 @@
+package edu.gemini.ags.impl
+
+import edu.gemini.ags.api.AgsMagnitude
+import edu.gemini.ags.conf.ProbeLimitsTable
+import edu.gemini.pot.ModelConverters._
+import edu.gemini.skycalc.{Angle => SkycalcAngle, Offset => SkycalcOffset}
+import edu.gemini.spModel.core.MagnitudeBand.R
+import edu.gemini.spModel.core.MagnitudeSystem.Vega
+import edu.gemini.spModel.core._
+import edu.gemini.shared.util.immutable.{None => JNone, Some => JSome}
+import edu.gemini.shared.util.immutable.ScalaConverters._
+import edu.gemini.spModel.gemini.gmos.{GmosNorthType, InstGmosNorth}
+import edu.gemini.spModel.gemini.obscomp.SPSiteQuality
+import edu.gemini.spModel.guide.GuideStarValidation
+import edu.gemini.spModel.obs.context.ObsContext
+import edu.gemini.spModel.target.SPTarget
+import edu.gemini.spModel.target.env.TargetEnvironment
+import edu.gemini.spModel.telescope.IssPort
+
+import org.specs2.mutable.Specification
+
+import scala.collection.JavaConverters._
+
+import scalaz._
+import Scalaz._
+
+class CandidateValidatorSpec extends Specification {
+  private val magTable = ProbeLimitsTable.loadOrThrow()
+  private val params   = SingleProbeStrategyParams.GmosOiwfsParams(Site.GN)
+
+  private val (baseRa, baseDec) = (180.0, 20.0)
+
+  private val ctx: ObsContext = {
+    val env  = TargetEnvironment.create(new SPTarget(baseRa, baseDec))
+    val inst = new InstGmosNorth                 <|
+      { _.setPosAngle(0.0) }                     <|
+      { _.setIssPort(IssPort.SIDE_LOOKING) }     <|
+      { _.setFPUnit(GmosNorthType.FPUnitNorth.NS_5) }
+    val os   = Set(new SkycalcOffset(SkycalcAngle.arcsecs(-20), SkycalcAngle.arcsecs(10)), new SkycalcOffset(SkycalcAngle.arcsecs(30), SkycalcAngle.arcsecs(-5)))
+    ObsContext.create(env, inst, new JSome(Site.GN), SPSiteQuality.Conditions.NOMINAL, os.asJava, null, JNone.instance())
+  }
+
+  // Candidates on a grid of 40" around the base with a range of magnitudes.
+  private val candidates: List[SiderealTarget] =
+    for {
+      (dx, i) <- (-360 to 360 by 40).toList.zipWithIndex
+      (dy, j) <- (-360 to 360 by 40).toList.zipWithIndex
+    } yield {
+      val ra  = RightAscension.fromAngle(Angle.fromDegrees(baseRa + dx / 3600.0 / math.cos(math.toRadians(baseDec))))
+      val dec = Declination.fromAngle(Angle.fromDegrees(baseDec + dy / 3600.0)).getOrElse(Declination.zero)
+      SiderealTarget.empty.copy(name = s"c-$i-$j", coordinates = Coordinates(ra, dec), magnitudes = List(Magnitude(9.0 + (i * 7 + j * 3) % 10, R, None, Vega)))
+    }
+
+  // Checks every candidate with the guide star validator.
+  private def validate(c: ObsContext, candidates: List[SiderealTarget] = candidates): List[SiderealTarget] = {
+    val base      = c.getBaseCoordinates.asScalaOpt.get.toNewModel
+    val magLimits = params.magnitudeCalc(c, magTable).flatMap(AgsMagnitude.autoSearchConstraints(_, c.getConditions))
+    candidates.filter { st =>
+      params.minDistance.forall(Coordinates.difference(base, st.coordinates).distance >= _) &&
+        (magLimits |@| params.referenceMagnitude(st))(_ contains _).exists(identity) &&
+        params.validator(c).validate(new SPTarget(st), c) == GuideStarValidation.VALID
+    }
+  }
+
+  private val angles = (0 until 360 by 10).toList.map(a => Angle.fromDegrees(a.toDouble))
+
+  "CandidateValidator" should {
+    "find the same candidates as the guide star validator at all position angles" in {
+      val cv = CandidateValidator(params, magTable, candidates)
+      val rs = angles.map(a => ctx.withPositionAngle(a)).map(c => (cv.filter(c), validate(c)))
+      (rs.exists(_._2.nonEmpty) must beTrue) and (rs.forall { case (f, v) => f == v } must beTrue)
+    }
+
+    "select the brightest valid candidate" in {
+      val cv = CandidateValidator(params, magTable, candidates)
+      angles.map(a => ctx.withPositionAngle(a)).forall { c =>
+        cv.select(c) == params.brightest(validate(c))(identity) && cv.exists(c) == validate(c).nonEmpty
+      } must beTrue
+    }
+
+    "check each candidate at its own position angle" in {
+      val base     = ctx.getBaseCoordinates.asScalaOpt.get.toNewModel
+      val pa       = SingleProbeStrategy.calculatePositionAngle(base, _: SiderealTarget)
+      val expected = candidates.filter(st => validate(ctx.withPositionAngle(pa(st)), List(st)).nonEmpty)
+      CandidateValidator(params, magTable, candidates).filterEach(ctx)(pa).map(_._2) must_== expected
+    }
+  }
+}
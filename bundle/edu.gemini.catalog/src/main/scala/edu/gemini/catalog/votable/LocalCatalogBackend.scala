@@ -0,0 +1,193 @@
+package edu.gemini.catalog.votable
+
+import java.io._
+import java.net.URL
+import java.nio.file.{Files, Path, Paths}
+
+import edu.gemini.catalog.api.{CatalogName, CatalogQuery, ConeSearchCatalogQuery}
+import edu.gemini.spModel.core._
+
+import scala.collection.mutable.ListBuffer
+import scala.concurrent.{ExecutionContext, Future}
+
+import scalaz._
+import Scalaz._
+
+/**
+ * Serves cone searches from a copy of the catalogs kept on local disk, for
+ * use without a network connection or to avoid the round trip to the remote
+ * catalog servers.
+ *
+ * Each catalog is kept in its own directory (named after the catalog id),
+ * split in tiles of one degree in declination by one degree in RA.  A tile is
+ * a file with the targets that fall inside it, brightest first in the R band
+ * that guide star searches use, so that reading a tile can stop at the
+ * faintness limit of the search.  Stores are built with `LocalCatalogBuilder`.
+ *
+ * Catalogs missing from the store and name searches produce a problem rather
+ * than an error, so that the caller can fall back on a remote backend.
+ */
+final case class LocalCatalogBackend(dir: Path) extends VoTableBackend {
+  import LocalCatalogBackend._
+
+  override val catalogUrls: NonEmptyList[URL] =
+    NonEmptyList(dir.toUri.toURL)
+
+  /** Whether the store has a copy of the given catalog. */
+  def contains(c: CatalogName): Boolean =
+    Files.isDirectory(dir.resolve(c.id))
+
+  override protected[votable] def doQuery(query: CatalogQuery, url: URL)(ec: ExecutionContext): Future[QueryResult] =
+    Future(search(query))(ec)
+
+  /** Finds the targets that match the query. */
+  def search(query: CatalogQuery): QueryResult = {
+    def problem(msg: String): QueryResult =
+      QueryResult(query, CatalogQueryResult(TargetsTable.Zero, List(GenericError(msg))))
+
+    query match {
+      case c: ConeSearchCatalogQuery if contains(c.catalog) =>
+        val targets = tilesCovering(c).flatMap { t =>
+          val file = tileFile(dir, c.catalog, t)
+          if (Files.exists(file)) readTile(file, c.filter, beyondFaintnessLimit(c)) else Nil
+        }
+        QueryResult(query, CatalogQueryResult(TargetsTable(targets), Nil))
+
+      case c: ConeSearchCatalogQuery                        =>
+        problem(s"No local copy of ${c.catalog.displayName}")
+
+      case _                                                =>
+        problem("Name searches are not supported by the local catalog")
+    }
+  }
+}
+
+object LocalCatalogBackend {
+
+  /** System property with the directory of the local catalog store, if any. */
+  val DirProp: String = "edu.gemini.catalog.localDir"
+
+  /** The backend configured through the `DirProp` system property, if any. */
+  def configured: Option[LocalCatalogBackend] =
+    Option(System.getProperty(DirProp)).map(d => LocalCatalogBackend(Paths.get(d)))
+
+  // Identifies tile files, bump the version when the format changes.
+  private val Magic   = 0x4743544c // "GCTL"
+  private val Version = 2
+
+  private[votable] val TileSuffix = ".tile"
+
+  /** A tile, one degree in declination by one degree in RA. */
+  private[votable] final case class Tile(zone: Int, ra: Int)
+
+  private val Grid = SkyGrid(1.0)
+
+  private[votable] def tileOf(c: Coordinates): Tile =
+    (Tile.apply _).tupled(Grid.cellOf(c))
+
+  /** Tiles touched by the region of the query. */
+  private[votable] def tilesCovering(q: ConeSearchCatalogQuery): List[Tile] =
+    Grid.cellsCovering(q).map((Tile.apply _).tupled)
+
+  private[votable] def tileFile(dir: Path, c: CatalogName, t: Tile): Path =
+    dir.resolve(c.id).resolve(t.zone.toString).resolve(s"${t.ra}$TileSuffix")
+
+  // Targets are kept brightest first in the bands of guide star searches,
+  // those without a magnitude in these bands last.
+  private val SortBands: BandsList = RBandsList
+
+  private[votable] val BrightestFirst: scala.math.Ordering[SiderealTarget] =
+    scala.math.Ordering.by(SortBands.extract(_).fold(Double.MaxValue)(_.value))
+
+  // Whether the targets that follow t in a tile are all too faint for the
+  // query, given that tiles are sorted by SortBands.
+  private def beyondFaintnessLimit(q: ConeSearchCatalogQuery)(t: SiderealTarget): Boolean = {
+    val m = SortBands.extract(t)
+    q.magnitudeConstraints.exists { mc =>
+      mc.searchBands == SortBands && m.forall(x => !mc.faintnessConstraint.contains(x.value))
+    }
+  }
+
+  /**
+   * Reads the targets of a tile that satisfy `keep`, stopping at the first one
+   * for which `done` holds.
+   */
+  private[votable] def readTile(file: Path, keep: SiderealTarget => Boolean = _ => true, done: SiderealTarget => Boolean = _ => false): List[SiderealTarget] = {
+    val in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))
+    try {
+      if (in.readInt != Magic || in.readInt != Version) throw new IOException(s"Not a catalog tile: $file")
+      Iterator.fill(in.readInt)(readTarget(in)).takeWhile(!done(_)).filter(keep).toList
+    } finally {
+      in.close()
+    }
+  }
+
+  private[votable] def writeTile(file: Path, targets: List[SiderealTarget]): Unit = {
+    Files.createDirectories(file.getParent)
+    val tmp = Files.createTempFile(file.getParent, file.getFileName.toString, ".tmp")
+    try {
+      val out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))
+      try {
+        out.writeInt(Magic)
+        out.writeInt(Version)
+        out.writeInt(targets.size)
+        targets.sorted(BrightestFirst).foreach(writeTarget(out, _))
+      } finally {
+        out.close()
+      }
+      Files.move(tmp, file, java.nio.file.StandardCopyOption.REPLACE_EXISTING)
+    } finally {
+      Files.deleteIfExists(tmp)
+    }
+  }
+
+  private def writeOptional(out: DataOutput, d: Option[Double]): Unit =
+    out.writeDouble(d.getOrElse(Double.NaN))
+
+  private def readOptional(in: DataInput): Option[Double] =
+    Some(in.readDouble).filterNot(_.isNaN)
+
+  private[votable] def writeTarget(out: DataOutput, t: SiderealTarget): Unit = {
+    out.writeUTF(t.name)
+    out.writeDouble(t.coordinates.ra.toAngle.toDegrees)
+    out.writeDouble(t.coordinates.dec.toDegrees)
+    writeOptional(out, t.properMotion.map(_.deltaRA.velocity.masPerYear))
+    writeOptional(out, t.properMotion.map(_.deltaDec.velocity.masPerYear))
+    writeOptional(out, t.properMotion.map(_.epoch.year))
+    writeOptional(out, t.parallax.map(_.mas))
+    writeOptional(out, t.redshift.map(_.z))
+    out.writeByte(t.magnitudes.size)
+    t.magnitudes.foreach { m =>
+      out.writeUTF(m.band.name)
+      out.writeDouble(m.value)
+      writeOptional(out, m.error)
+      out.writeUTF(m.system.name)
+    }
+  }
+
+  private[votable] def readTarget(in: DataInput): SiderealTarget = {
+    val name   = in.readUTF
+    val ra     = RightAscension.fromAngle(Angle.fromDegrees(in.readDouble))
+    val dec    = Declination.fromAngle(Angle.fromDegrees(in.readDouble)).getOrElse(throw new IOException(s"Bad declination for $name"))
+    val pmRa   = readOptional(in)
+    val pmDec  = readOptional(in)
+    val epoch  = readOptional(in)
+    val pm     = (pmRa |@| pmDec) { (r, d) =>
+      ProperMotion(RightAscensionAngularVelocity(AngularVelocity(r)), DeclinationAngularVelocity(AngularVelocity(d)), epoch.fold(Epoch.J2000)(Epoch.apply))
+    }
+    val plx    = readOptional(in).flatMap(Parallax.fromMas)
+    val z      = readOptional(in).map(Redshift.apply)
+    val mags   = ListBuffer.empty[Magnitude]
+    (0 until in.readUnsignedByte).foreach { _ =>
+      val band   = in.readUTF
+      val value  = in.readDouble
+      val error  = readOptional(in)
+      val system = in.readUTF
+      for {
+        b <- MagnitudeBand.fromString(band)
+        s <- MagnitudeSystem.fromString(system)
+      } mags += Magnitude(value, b, error, s)
+    }
+    SiderealTarget(name, Coordinates(ra, dec), pm, z, plx, mags.toList, None, None)
+  }
+}
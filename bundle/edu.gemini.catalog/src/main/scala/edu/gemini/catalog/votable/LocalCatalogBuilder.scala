@@ -0,0 +1,196 @@
+package edu.gemini.catalog.votable
+
+import java.io._
+import java.nio.file.{Files, Path, Paths}
+
+import edu.gemini.catalog.api.CatalogName
+import edu.gemini.spModel.core._
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+import scala.io.Source
+
+import scalaz._
+import Scalaz._
+
+/**
+ * Builds or extends a local catalog store for `LocalCatalogBackend` from
+ * catalog dumps.
+ *
+ * Targets are first appended to a part file per tile, keeping only a bounded
+ * number of them in memory, and each tile is then sorted and written along
+ * with the targets it already had.  Targets are identified by their name, the
+ * source id in the catalog, so a target that is added again replaces the one
+ * already in the tile.  Targets that the remote catalog would not
+ * return, such as Gaia targets outside of the `GaiaBackend` limits, are left
+ * out.
+ */
+final class LocalCatalogBuilder(dir: Path, catalog: CatalogName, bufferSize: Int = 100000) {
+  import LocalCatalogBackend._
+
+  private val PartSuffix = ".part"
+
+  private val buffer   = mutable.Map.empty[Tile, mutable.ListBuffer[SiderealTarget]]
+  private var buffered = 0
+  private var added    = 0
+
+  private val accepts: SiderealTarget => Boolean =
+    catalog match {
+      case CatalogName.GaiaEsa    => GaiaEsaBackend.satisfiesConstraints
+      case CatalogName.GaiaGemini => GaiaGeminiBackend.satisfiesConstraints
+      case _                      => _ => true
+    }
+
+  /** Adds a target to the store, unless the remote catalog would not return it. */
+  def add(t: SiderealTarget): Unit =
+    if (accepts(t)) {
+      buffer.getOrElseUpdate(tileOf(t.coordinates), mutable.ListBuffer.empty) += t
+      buffered += 1
+      added    += 1
+      if (buffered >= bufferSize) flush()
+    }
+
+  /**
+   * Adds the targets of a VOTable file in the format of the catalog, rows that
+   * cannot be read are skipped.
+   */
+  def addVoTable(file: Path): Unit = {
+    val in = Files.newInputStream(file)
+    try {
+      VoTableParser.parseStreaming(catalog, in, _ => true, validation = false) match {
+        case -\/(p) => throw new IOException(s"Could not read $file: ${p.displayValue}")
+        case \/-(r) => r.tables.foreach(_.rows.foreach(_.foreach(add)))
+      }
+    } finally {
+      in.close()
+    }
+  }
+
+  /**
+   * Adds the targets of a comma separated file.  The first line names the
+   * columns: `name`, `ra` and `dec` (degrees) are required, `pmra` and `pmdec`
+   * (mas/yr), `epoch`, `parallax` (mas) and `z` are optional.  Any column
+   * named after a magnitude band holds a magnitude in that band, with its
+   * error in a column with the band name followed by `_err`.  Quoted values
+   * are not supported and empty values are ignored.
+   */
+  def addCsv(file: Path): Unit = {
+    val src = Source.fromFile(file.toFile, "UTF-8")
+    try {
+      val lines  = src.getLines()
+      val header = lines.next().split(",", -1).map(_.trim).zipWithIndex.toMap
+      def column(n: String): Int = header.getOrElse(n, throw new IOException(s"Missing column $n in $file"))
+      val (name, ra, dec) = (column("name"), column("ra"), column("dec"))
+      val bands = MagnitudeBand.all.flatMap(b => header.get(b.name).map(i => (b, i, header.get(s"${b.name}_err"))))
+
+      lines.filter(_.trim.nonEmpty).foreach { line =>
+        val cells = line.split(",", -1).map(_.trim)
+        def double(i: Int): Option[Double] = cells.lift(i).filter(_.nonEmpty).map(_.toDouble)
+        def optional(n: String): Option[Double] = header.get(n).flatMap(double)
+
+        val pm = (optional("pmra") |@| optional("pmdec")) { (r, d) =>
+          ProperMotion(RightAscensionAngularVelocity(AngularVelocity(r)), DeclinationAngularVelocity(AngularVelocity(d)), optional("epoch").fold(Epoch.J2000)(Epoch.apply))
+        }
+        val mags = bands.flatMap { case (b, i, e) =>
+          double(i).map(v => Magnitude(v, b, e.flatMap(double), b.defaultSystem))
+        }
+        val coords = for {
+          r <- double(ra)
+          d <- double(dec).flatMap(d => Declination.fromAngle(Angle.fromDegrees(d)))
+        } yield Coordinates(RightAscension.fromAngle(Angle.fromDegrees(r)), d)
+
+        coords.foreach { c =>
+          add(SiderealTarget(cells(name), c, pm, optional("z").map(Redshift.apply), optional("parallax").flatMap(Parallax.fromMas), mags, None, None))
+        }
+      }
+    } finally {
+      src.close()
+    }
+  }
+
+  // Appends the buffered targets to the part files of their tiles.
+  private def flush(): Unit = {
+    buffer.foreach { case (t, ts) =>
+      val part = partFile(t)
+      Files.createDirectories(part.getParent)
+      val out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(part.toFile, true)))
+      try {
+        out.writeInt(ts.size)
+        ts.foreach(writeTarget(out, _))
+      } finally {
+        out.close()
+      }
+    }
+    buffer.clear()
+    buffered = 0
+  }
+
+  private def partFile(t: Tile): Path = {
+    val f = tileFile(dir, catalog, t)
+    f.resolveSibling(f.getFileName.toString + PartSuffix)
+  }
+
+  private def readPart(part: Path): List[SiderealTarget] = {
+    val in = new DataInputStream(new BufferedInputStream(Files.newInputStream(part)))
+    try {
+      val ts = mutable.ListBuffer.empty[SiderealTarget]
+      // Each flush wrote a count followed by the targets.
+      Iterator.continually(in.read()).takeWhile(_ != -1).foreach { b0 =>
+        val n = (b0 << 24) | (in.readUnsignedByte << 16) | (in.readUnsignedByte << 8) | in.readUnsignedByte
+        (0 until n).foreach(_ => ts += readTarget(in))
+      }
+      ts.toList
+    } finally {
+      in.close()
+    }
+  }
+
+  /**
+   * Writes the tiles that got new targets.
+   *
+   * @return number of targets added
+   */
+  def finish(): Int = {
+    flush()
+    val root = dir.resolve(catalog.id)
+    if (Files.isDirectory(root)) {
+      val stream = Files.walk(root)
+      val parts  = try stream.iterator.asScala.filter(_.getFileName.toString.endsWith(PartSuffix)).toList finally stream.close()
+      parts.foreach { part =>
+        val file     = part.resolveSibling(part.getFileName.toString.stripSuffix(PartSuffix))
+        val fresh    = readPart(part)
+        val names    = fresh.map(_.name).toSet
+        val existing = if (Files.exists(file)) readTile(file).filterNot(t => names.contains(t.name)) else Nil
+        writeTile(file, existing ++ fresh)
+        Files.delete(part)
+      }
+    }
+    added
+  }
+}
+
+object LocalCatalogBuilder {
+  import CatalogName._
+
+  private val Catalogs: List[CatalogName] =
+    List(SDSS, GSC234, PPMXL, UCAC4, GaiaEsa, GaiaGemini, TWOMASS_PSC, TWOMASS_XSC)
+
+  /**
+   * Usage: `LocalCatalogBuilder <catalog id> <store dir> <file>...` where
+   * files ending in `.csv` are read as comma separated files and any other
+   * file as a VOTable.
+   */
+  def main(args: Array[String]): Unit =
+    args.toList match {
+      case id :: d :: files if files.nonEmpty =>
+        val c       = Catalogs.find(_.id === id).getOrElse(sys.error(s"Unknown catalog $id"))
+        val builder = new LocalCatalogBuilder(Paths.get(d), c)
+        files.map(Paths.get(_)).foreach { f =>
+          if (f.getFileName.toString.toLowerCase.endsWith(".csv")) builder.addCsv(f) else builder.addVoTable(f)
+        }
+        println(s"Added ${builder.finish()} targets to ${c.displayName} in $d")
+
+      case _                                  =>
+        System.err.println("Usage: LocalCatalogBuilder <catalog id> <store dir> <file.xml|file.csv>...")
+    }
+}
@@ -0,0 +1,144 @@
+package edu.gemini.catalog.votable
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.function.BiFunction
+
+import edu.gemini.catalog.api.{CatalogQuery, ConeSearchCatalogQuery}
+import edu.gemini.spModel.core.Coordinates
+
+import scala.collection.JavaConverters._
+
+/**
+ * Cache of cone search results indexed by the region of the sky they cover.
+ *
+ * Each result is kept under the query that produced it and is reused by any
+ * query that the widened query is a superset of, ignoring the magnitude
+ * constraints of the query when the result has none.  The sky is divided in cells
+ * and each result is registered in all the cells its widened query touches, so
+ * a lookup only compares against the results in the cell of the query's base
+ * position.
+ *
+ * The cache is bounded by the estimated size of the results rather than by
+ * their number, the least recently used results are dropped first.  Lookups
+ * and insertions only lock the cells they touch.
+ *
+ * Name queries are never cached.
+ */
+final class QueryResultCache(widen: CatalogQuery => CatalogQuery, val maxBytes: Long) {
+  import QueryResultCache._
+
+  private final class Entry(val footprint: ConeSearchCatalogQuery, val result: QueryResult, val bytes: Long, val cells: List[java.lang.Long]) {
+    @volatile var lastUsed: Long = clock.incrementAndGet()
+  }
+
+  private val clock      = new AtomicLong(0)
+  private val cells      = new ConcurrentHashMap[java.lang.Long, List[Entry]]()
+  private val entries    = ConcurrentHashMap.newKeySet[Entry]()
+  private val totalBytes = new AtomicLong(0)
+
+  private val hits       = new AtomicLong(0)
+  private val misses     = new AtomicLong(0)
+  private val evictions  = new AtomicLong(0)
+
+  private val evictionLock = new Object
+
+  /** Finds a cached result that includes all the targets of the query. */
+  def get(q: CatalogQuery): Option[QueryResult] = {
+    val r = q match {
+      case c: ConeSearchCatalogQuery =>
+        val any = c.copy(magnitudeConstraints = Nil)
+        def covers(f: ConeSearchCatalogQuery): Boolean =
+          f.isSuperSetOf(c) || (f.magnitudeConstraints.isEmpty && f.isSuperSetOf(any))
+
+        Option(cells.get(cellOf(c.base))).flatMap(_.find(e => covers(e.footprint))).map { e =>
+          e.lastUsed = clock.incrementAndGet()
+          e.result
+        }
+      case _                         =>
+        None
+    }
+    (if (r.isDefined) hits else misses).incrementAndGet()
+    r
+  }
+
+  /** Stores the result of a query, dropping older results if needed. */
+  def put(q: CatalogQuery, r: QueryResult): Unit =
+    (q, widen(q)) match {
+      case (_: ConeSearchCatalogQuery, f: ConeSearchCatalogQuery) =>
+        val e = new Entry(f, r, estimatedBytes(r), cellsCovering(f))
+        entries.add(e)
+        totalBytes.addAndGet(e.bytes)
+        e.cells.foreach { id =>
+          cells.merge(id, List(e), new BiFunction[List[Entry], List[Entry], List[Entry]] {
+            def apply(old: List[Entry], es: List[Entry]): List[Entry] = es ++ old
+          })
+        }
+        if (totalBytes.get > maxBytes) evict()
+
+      case _                                                      =>
+        ()
+    }
+
+  /** Drops all the cached results. */
+  def clear(): Unit = evictionLock.synchronized {
+    entries.asScala.toList.foreach(remove)
+  }
+
+  def stats: Stats =
+    Stats(hits.get, misses.get, evictions.get, entries.size, totalBytes.get)
+
+  // Drops the least recently used results, always keeping the most recent.
+  private def evict(): Unit = evictionLock.synchronized {
+    val byAge = entries.asScala.toList.sortBy(_.lastUsed)
+    byAge.dropRight(1).iterator.takeWhile(_ => totalBytes.get > maxBytes).foreach { e =>
+      if (remove(e)) evictions.incrementAndGet()
+    }
+  }
+
+  private def remove(e: Entry): Boolean = {
+    val removed = entries.remove(e)
+    if (removed) {
+      totalBytes.addAndGet(-e.bytes)
+      e.cells.foreach { id =>
+        cells.computeIfPresent(id, new BiFunction[java.lang.Long, List[Entry], List[Entry]] {
+          def apply(id: java.lang.Long, es: List[Entry]): List[Entry] =
+            es.filterNot(_ eq e) match {
+              case Nil => null // removes the cell
+              case xs  => xs
+            }
+        })
+      }
+    }
+    removed
+  }
+}
+
+object QueryResultCache {
+
+  /** Cache usage counters, sizes are in bytes. */
+  final case class Stats(hits: Long, misses: Long, evictions: Long, entries: Int, bytes: Long)
+
+  // Cells are half a degree high and wide (in RA degrees).
+  private val Grid = SkyGrid(0.5)
+
+  private def cellId(cell: (Int, Int)): java.lang.Long =
+    cell._1.toLong * Grid.raCells + cell._2
+
+  private def cellOf(c: Coordinates): java.lang.Long =
+    cellId(Grid.cellOf(c))
+
+  // All the cells touched by the region of the query.
+  private def cellsCovering(q: ConeSearchCatalogQuery): List[java.lang.Long] =
+    Grid.cellsCovering(q).map(cellId)
+
+  // Rough size in memory of a target and of each of its magnitudes.
+  private val TargetBytes    = 400L
+  private val MagnitudeBytes = 64L
+
+  /** Rough estimate of the memory taken by a query result. */
+  def estimatedBytes(r: QueryResult): Long =
+    r.result.targets.rows.foldLeft(TargetBytes) { (bytes, t) =>
+      bytes + TargetBytes + 2L * t.name.length + MagnitudeBytes * t.magnitudes.size
+    }
+}
@@ -0,0 +1,55 @@
+package edu.gemini.catalog.votable
+
+import edu.gemini.catalog.api.ConeSearchCatalogQuery
+import edu.gemini.spModel.core.Coordinates
+
+/**
+ * Divides the sky in cells `cellSize` degrees high and wide (in RA degrees).
+ * Cells are identified by their declination zone, counted from the south
+ * pole, and their RA column.
+ */
+private[votable] final case class SkyGrid(cellSize: Double) {
+  import SkyGrid._
+
+  val decCells: Int = (180 / cellSize).toInt
+  val raCells: Int  = (360 / cellSize).toInt
+
+  def decCell(dec: Double): Int =
+    math.max(0, math.min(decCells - 1, math.floor((dec + 90) / cellSize).toInt))
+
+  def raCell(ra: Double): Int =
+    Math.floorMod(math.floor(ra / cellSize).toInt, raCells)
+
+  /** Declination zone and RA column of the cell that contains c. */
+  def cellOf(c: Coordinates): (Int, Int) =
+    (decCell(c.dec.toDegrees), raCell(c.ra.toAngle.toDegrees))
+
+  /** Declination zones and RA columns of the cells touched by the region of the query. */
+  def cellsCovering(q: ConeSearchCatalogQuery): List[(Int, Int)] = {
+    val r     = q.radiusConstraint.maxLimit.toDegrees + Margin
+    val ra    = q.base.ra.toAngle.toDegrees
+    val dec   = q.base.dec.toDegrees
+    val decLo = dec - r
+    val decHi = dec + r
+
+    // Half the width in RA of the region, at its widest.
+    val raHalf =
+      if (decLo <= -90 || decHi >= 90) 180.0
+      else r / math.cos(math.toRadians(math.max(decLo.abs, decHi.abs)))
+
+    val ras =
+      if (raHalf >= 180) (0 until raCells).toList
+      else (math.floor((ra - raHalf) / cellSize).toInt to math.floor((ra + raHalf) / cellSize).toInt).toList.map(Math.floorMod(_, raCells)).distinct
+
+    for {
+      d <- (decCell(decLo) to decCell(decHi)).toList
+      a <- ras
+    } yield (d, a)
+  }
+}
+
+private[votable] object SkyGrid {
+
+  // Margin in degrees added to the regions to absorb rounding errors.
+  private val Margin = 1.0 / 3600
+}
@@ -13,10 +13,10 @@ import org.apache.http.client.config.RequestConfig
 import org.apache.http.client.methods.HttpGet
 import org.apache.http.impl.client.HttpClients
 
-import scala.annotation.tailrec
-import scala.concurrent.{ExecutionContext, Promise, Future}
+import scala.concurrent.{Await, ExecutionContext, Promise, Future}
+import scala.concurrent.duration.Duration
 import scala.concurrent.ExecutionContext.Implicits.global
-import scala.util.{Failure, Success}
+import scala.util.{Failure, Success, Try}
 import scala.math.min
 
 import scalaz._
@@ -32,104 +32,147 @@ trait CachedBackend extends VoTableBackend {
 
   case class SearchKey(query: CatalogQuery, url: URL)
 
-  case class CacheEntry[K, V](k: K, v: V)
+  // Make the query wider increasing cache efficiency
+  protected def widen(q: CatalogQuery): CatalogQuery = q match {
+    case c: ConeSearchCatalogQuery =>
+      val widerLimit = min(c.radiusConstraint.maxLimit.toArcmins + 10, c.radiusConstraint.maxLimit.toArcmins * 1.5)
+      c.copy(radiusConstraint = RadiusConstraint.between(c.radiusConstraint.minLimit, Angle.fromArcmin(widerLimit)))
+    case x => x
+  }
 
   /**
-   * A function memoization strategy closely based on scalaz's Memo
+   * Cone searches that miss the cache at about the same time are coalesced.
+   * A search is sent right away unless another query on the same url and
+   * catalog is already waiting or running.  In that case it waits up to
+   * `CoalesceWindowMs` for other searches whose widened regions overlap its
+   * own and then a single query covering all of them is sent.  Searches that
+   * come in while a query is running and that are covered by it wait for its
+   * result instead of sending their own query.  The result is cached once, for
+   * the covering query, and each search then keeps only its own targets.
    */
-  sealed abstract class Cache[K, V] {
-    def apply(z: K => V): K => V
+  protected val CoalesceWindowMs: Long = 50
+
+  // Searches that are waiting to be sent or that are running.
+  private final class Batch(val url: URL, var covering: ConeSearchCatalogQuery) {
+    var started: Boolean = false
+    var largest: Angle   = covering.radiusConstraint.maxLimit
+    val result: Promise[QueryResult] = Promise()
   }
 
-  /**
-   * Cache for CatalogQueries. Key-based caching as in Memo doesn't fulfill the needs in this case as we can reuse queries
-   * done for different combinations of targets and radius even if the query 'key' doesn't match
-   * Instead we need a function that can traverse the cache finding matches to reuse the result
-   */
-  object QueryCache {
+  private val batchLock           = new Object
+  private var batches: List[Batch] = Nil
+
+  // Largest radius of a query covering several searches, the biggest of which
+  // has the given radius.
+  protected def maxCoalescedRadius(largest: Angle): Angle = largest * 2
 
-    // Container used internally on the cache, the type definition leaks into the client but that helps performance
-    // Vector was selected as it gives effective constant time for prepend, patch and dropRight
-    type CacheContainer[K, V] = Vector[CacheEntry[K, V]]
-    // Function provided by the caller to check if a value is on the cache
-    type FindFunction[K, V] = (CacheContainer[K, V], K) => Option[(Int, V)]
+  // Margin added to the radii to absorb rounding errors.
+  private val CoalesceMargin = Angle.fromArcsecs(1)
 
-    // based on scalaz's Memo.memo function
-    private def cache[K, V](f: (K => V) => K => V): Cache[K, V] = new Cache[K, V] {
-      def apply(z: K => V) = f(z)
+  private def widenedRadius(q: ConeSearchCatalogQuery): Angle = widen(q) match {
+    case c: ConeSearchCatalogQuery => c.radiusConstraint.maxLimit
+    case _                         => q.radiusConstraint.maxLimit
+  }
+
+  // Whether the query sent for outer would include all the targets that the
+  // query sent for inner would, as the result is cached for inner too.
+  // Responses are filtered by magnitude while they are parsed so outer must
+  // have either the same magnitude constraints as inner or none.
+  private def covers(outer: ConeSearchCatalogQuery, inner: ConeSearchCatalogQuery): Boolean =
+    outer.catalog == inner.catalog &&
+      (outer.magnitudeConstraints.isEmpty || outer.magnitudeConstraints == inner.magnitudeConstraints) &&
+      (outer.base.angularDistance(inner.base) + widenedRadius(inner) + CoalesceMargin).toDegrees <= widenedRadius(outer).toDegrees
+
+  // Smallest query covering both a and b, if their widened regions overlap and
+  // the covering query is not too large.
+  private def merged(a: ConeSearchCatalogQuery, b: ConeSearchCatalogQuery, largest: Angle): Option[ConeSearchCatalogQuery] = {
+    val d  = a.base.angularDistance(b.base).toDegrees
+    val ra = a.radiusConstraint.maxLimit.toDegrees
+    val rb = b.radiusConstraint.maxLimit.toDegrees
+
+    val (base, r) =
+      if (d + rb <= ra)      (a.base, ra)
+      else if (d + ra <= rb) (b.base, rb)
+      else {
+        val r = (d + ra + rb) / 2
+        (a.base.interpolate(b.base, (r - ra) / d), r)
+      }
+    val radius = Angle.fromDegrees(r) + CoalesceMargin
+
+    val overlap = d <= widenedRadius(a).toDegrees + widenedRadius(b).toDegrees
+    (a.catalog == b.catalog && overlap && radius.toDegrees <= maxCoalescedRadius(largest).toDegrees).option {
+      val mcs = if (a.magnitudeConstraints == b.magnitudeConstraints) a.magnitudeConstraints else Nil
+      a.copy(base = base, radiusConstraint = RadiusConstraint.between(Angle.zero, radius), magnitudeConstraints = mcs)
     }
+  }
 
-    // Build an LRU cache with a function that will traverse the cache finding suitable queries
-    private def lruCache[K, V](a: CacheContainer[K, V], findByKey: FindFunction[K, V], maxSize: Int = 100): Cache[K, V] = {
-      // Access needs to be synchronized
-      var m = a
-
-      cache[K, V](f => k => {
-        val value = a.synchronized {
-          val r = findByKey(m, k)
-          // Put it at the head if found
-          r.foreach {
-            case (pos, x) =>
-              // Remove it from its current position
-              val ce = m(pos)
-              m = m.patch(pos, Nil, 1)
-              // Move it to the front
-              m = ce +: m
-          }
-          r.map(_._2)
-        }
-        value.getOrElse {
-          val r = f(k)
-          // Using smaller locks increases the chances to make multiple calls to f(k) but
-          // calling f(k) inside the lock notably reduces concurrency doing remote queries
-          a.synchronized {
-            // prepend the result at the beginning
-            m = CacheEntry(k, r) +: m
-            // Keep size constrained
-            if (m.size > maxSize) {
-              m = m.dropRight(1)
+  private def coalescedQuery(k: SearchKey): QueryResult = k.query match {
+    case q: ConeSearchCatalogQuery =>
+      val (batch, leader, window) = batchLock.synchronized {
+        def running: Option[Batch] =
+          batches.find(b => b.url == k.url && b.started && covers(b.covering, q))
+
+        def pending: Option[Batch] =
+          batches.iterator.filter(b => b.url == k.url && !b.started).map { b =>
+            val largest = if (q.radiusConstraint.maxLimit.toDegrees > b.largest.toDegrees) q.radiusConstraint.maxLimit else b.largest
+            merged(b.covering, q, largest).map { c =>
+              b.covering = c
+              b.largest  = largest
+              b
             }
-          }
-          r
+          }.collectFirst { case Some(b) => b }
+
+        (running orElse pending).map((_, false, false)) | {
+          // Only wait for other searches if the catalog is already busy
+          val busy = batches.exists(b => b.url == k.url && b.covering.catalog == q.catalog)
+          val b    = new Batch(k.url, q)
+          b.started = !busy
+          batches = b :: batches
+          (b, true, busy)
         }
-      })
-    }
+      }
 
-    /**
-     * Builds a cache with a contains function to find cache hits
-     */
-    def buildCache[K, V](contains: FindFunction[K, V], maxSize: Int = 100) = lruCache(Vector.empty, contains, maxSize)
+      if (leader) {
+        try {
+          if (window) Thread.sleep(CoalesceWindowMs)
+          val covering = batchLock.synchronized {
+            batch.started = true
+            batch.covering
+          }
+          if (covering ne q) Log.fine(s"Coalesced catalog query $covering")
+          val r = Try(query(SearchKey(covering, k.url)))
+          r.foreach(resultCache.put(covering, _))
+          batch.result.complete(r)
+        } catch {
+          case t: Throwable =>
+            batch.result.tryFailure(t)
+            throw t
+        } finally {
+          batchLock.synchronized {
+            batches = batches.filterNot(_ eq batch)
+          }
+        }
+      }
+      Await.result(batch.result.future, Duration.Inf)
 
+    case _                         =>
+      val r = query(k)
+      resultCache.put(k.query, r)
+      r
   }
 
-  private val cache:Cache[SearchKey, QueryResult] = {
-    // Find if a search is already in the cache
-    // Note that this assumes all catalogues give the same result for a given query
-    def contains(a: QueryCache.CacheContainer[SearchKey, QueryResult], k: SearchKey):Option[(Int, QueryResult)] = {
-      @tailrec
-      def go(pos: Int):Option[(Int, QueryResult)] =
-        a.lift(pos) match {
-          case Some(CacheEntry(SearchKey(query:ConeSearchCatalogQuery, _), v)) =>
-            // Note we need to compare against the widened query
-            if (widen(query).isSuperSetOf(k.query)) Some((pos, v)) else go(pos + 1)
-          case _                                                               => None // Not caching named queries so far
-        }
-      go(0)
-    }
+  /** Maximum estimated size in bytes of the cached query results. */
+  protected def cacheMaxBytes: Long = 128L * 1024 * 1024
 
-    QueryCache.buildCache(contains)
-  }
+  // Note that this assumes all catalogues give the same result for a given query
+  private lazy val resultCache = new QueryResultCache(q => widen(q), cacheMaxBytes)
 
-  // Make the query wider increasing cache efficiency
-  protected def widen(q: CatalogQuery): CatalogQuery = q match {
-    case c: ConeSearchCatalogQuery =>
-      val widerLimit = min(c.radiusConstraint.maxLimit.toArcmins + 10, c.radiusConstraint.maxLimit.toArcmins * 1.5)
-      c.copy(radiusConstraint = RadiusConstraint.between(c.radiusConstraint.minLimit, Angle.fromArcmin(widerLimit)))
-    case x => x
-  }
+  /** Hits, misses and evictions of the query results cache. */
+  def cacheStats: QueryResultCache.Stats = resultCache.stats
 
   // Cache the query not the future so that failed queries are executed again
-  protected val cachedQuery = cache(query)
+  protected def cachedQuery(k: SearchKey): QueryResult =
+    resultCache.get(k.query).getOrElse(coalescedQuery(k))
 
   // Do a query to the appropriate backend
   protected def query(e: SearchKey): QueryResult
@@ -153,6 +196,18 @@ trait RemoteCallBackend { this: CachedBackend =>
   protected [votable] def queryParams(q: CatalogQuery): Array[(String, String)]
   protected [votable] def queryUrl(e: SearchKey): String
 
+  // Whether to check responses against the VOTable schema, which requires
+  // reading them in memory
+  protected val ValidateResponses: Boolean = false
+
+  // Targets worth keeping while parsing the response to the query.  Targets
+  // closer than the minimum radius are kept because cached results can be
+  // reused by queries with a smaller minimum radius.
+  private def keep(q: CatalogQuery): SiderealTarget => Boolean = q match {
+    case c: ConeSearchCatalogQuery => c.copy(radiusConstraint = RadiusConstraint.between(Angle.zero, c.radiusConstraint.maxLimit)).filter
+    case _                         => q.filter
+  }
+
   override protected def query(e: SearchKey): QueryResult = {
     val widerQuery = widen(e.query)
     val qs         = queryParams(widerQuery)
@@ -177,7 +232,7 @@ trait RemoteCallBackend { this: CachedBackend =>
     val response = client.execute(get)
     try {
       Option(response.getEntity).fold(noEntity(response)) { ent =>
-        VoTableParser.parse(e.query.catalog, ent.getContent) match {
+        VoTableParser.parseStreaming(e.query.catalog, ent.getContent, keep(widerQuery), ValidateResponses) match {
           case -\/(p) => problemResult(p)
           case \/-(y) => QueryResult(widerQuery, CatalogQueryResult(y))
         }
@@ -228,6 +283,24 @@ sealed trait GaiaBackend extends CachedBackend with RemoteCallBackend {
         q
     }
 
+  // Results are capped at MaxResultCount so only coalesce searches into a query
+  // that, once widened, is at most as wide as the widened query of the largest
+  // search.  Widening only ever grows the radius, so the covering query itself
+  // cannot be wider than the largest search.
+  override protected def maxCoalescedRadius(largest: Angle): Angle =
+    largest
+
+  /**
+   * Whether a target satisfies the constraints that `adql` puts on the query,
+   * for targets that come from a copy of the catalog rather than the server.
+   */
+  def satisfiesConstraints(t: SiderealTarget): Boolean =
+    t.parallax.exists(_.mas > 0) &&
+      gaia.gMagAndBpRp(t.magnitudes).exists { case (g, _) => g >= BrightLimit && g <= FaintLimit } &&
+      t.properMotion.exists { pm =>
+        Math.hypot(pm.deltaRA.velocity.masPerYear, pm.deltaDec.velocity.masPerYear) < ProperMotionLimitMasYr
+      }
+
   def adql(cs: ConeSearchCatalogQuery): String = {
 
     val fields = gaia.allFields.map(_.id).mkString(",")
@@ -334,12 +407,19 @@ trait VoTableClient {
 
 object VoTableClient extends VoTableClient {
 
+  /**
+   * The backend for a catalog, which is the local catalog store set with the
+   * `LocalCatalogBackend.DirProp` system property if it has a copy of the
+   * catalog or else the remote catalog server.
+   */
   def defaultBackend(n: CatalogName): VoTableBackend =
-    n match {
-      case CatalogName.GaiaEsa    => GaiaEsaBackend
-      case CatalogName.GaiaGemini => GaiaGeminiBackend
-      case CatalogName.SIMBAD     => SimbadNameBackend
-      case _                      => ConeSearchBackend
+    LocalCatalogBackend.configured.filter(_.contains(n)).getOrElse {
+      n match {
+        case CatalogName.GaiaEsa    => GaiaEsaBackend
+        case CatalogName.GaiaGemini => GaiaGeminiBackend
+        case CatalogName.SIMBAD     => SimbadNameBackend
+        case _                      => ConeSearchBackend
+      }
     }
 
   /**
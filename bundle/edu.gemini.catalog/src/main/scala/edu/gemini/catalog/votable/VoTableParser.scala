@@ -1,6 +1,9 @@
 package edu.gemini.catalog.votable
 
-import java.io.{ByteArrayInputStream, InputStream}
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, InputStream}
+import java.nio.charset.StandardCharsets
+import javax.xml.stream.{XMLInputFactory, XMLStreamConstants}
+
 import edu.gemini.catalog.api.CatalogName
 import edu.gemini.spModel.core._
 
@@ -46,6 +49,13 @@ object VoTableParser extends VoTableParser {
       validator.validate(new StreamSource(new ByteArrayInputStream(xmlText.getBytes(java.nio.charset.Charset.forName("UTF-8")))))
     }.leftMap(_ => ValidationError(catalogName))
 
+  private def readBytes(is: InputStream): Array[Byte] = {
+    val out = new ByteArrayOutputStream()
+    val buf = new Array[Byte](8192)
+    Iterator.continually(is.read(buf)).takeWhile(_ != -1).foreach(out.write(buf, 0, _))
+    out.toByteArray
+  }
+
   /**
    * parse takes an input stream and attempts to read the xml content and convert it to a VoTable resource
    */
@@ -70,6 +80,37 @@ object VoTableParser extends VoTableParser {
           validate(catalog, xmlText).as(parse(adapter, XML.loadString(xmlText)))
       }
     }
+
+  /**
+   * Like parse but converts the rows to targets as they are read from the
+   * input stream, without building the document in memory, and keeps only the
+   * targets accepted by `keep`.  Rows that cannot be converted are kept as
+   * problems.
+   *
+   * Schema validation is skipped unless requested, in which case the content
+   * is read into memory first.  Malformed xml is always reported as a
+   * validation error.
+   */
+  def parseStreaming(catalog: CatalogName, is: InputStream, keep: SiderealTarget => Boolean, validation: Boolean): CatalogResult =
+    (CatalogAdapter.forCatalog(catalog) \/> UnknownCatalog).flatMap { adapter =>
+      catalog match {
+        case CatalogName.SIMBAD =>
+          // Simbad responses are small but not votable-compliant
+          parse(catalog, is).map(r => ParsedVoResource(r.tables.map(t => ParsedTable(t.rows.filter(_.forall(keep))))))
+
+        case _                  =>
+          val in: CatalogProblem \/ InputStream =
+            if (validation) {
+              val bytes = readBytes(is)
+              validate(catalog, new String(bytes, StandardCharsets.UTF_8)).as(new ByteArrayInputStream(bytes))
+            } else {
+              \/.right(is)
+            }
+          in.flatMap { i =>
+            \/.fromTryCatchNonFatal(parseStreaming(adapter, i, keep)).leftMap(_ => ValidationError(catalog))
+          }
+      }
+    }
 }
 
 // A CatalogAdapter improves parsing handling catalog-specific options like parsing magnitudes and selecting key fields
@@ -356,6 +397,25 @@ object CatalogAdapter {
         Conversion(MagnitudeBand.J,   0.018830, -1.39400, 0.078930,  0.000000)
       )
 
+    /**
+     * Recovers the catalog g-mag and BP-RP color from the V and R magnitudes
+     * derived from them, for targets that no longer have the catalog values.
+     * V - R is quadratic in BP-RP and increasing over the range of colors.
+     */
+    def gMagAndBpRp(ms: List[Magnitude]): Option[(Double, Double)] =
+      for {
+        cv <- conversions.find(_.b === MagnitudeBand.V)
+        cr <- conversions.find(_.b === MagnitudeBand.R)
+        v  <- ms.find(_.band === MagnitudeBand.V)
+        r  <- ms.find(_.band === MagnitudeBand.R)
+      } yield {
+        val a    = cv.p2 - cr.p2
+        val b    = cv.p1 - cr.p1
+        val c    = cv.g  - cr.g - (v.value - r.value)
+        val bpRp = (-b + Math.sqrt(b*b - 4*a*c)) / (2*a)
+        (v.value - cv.convert(0.0, bpRp).value, bpRp)
+      }
+
     override def isMagnitudeField(v: (FieldId, String)): Boolean =
       sys.error("unused")
 
@@ -542,6 +602,86 @@ trait VoTableParser {
       }
     )
 
+  /**
+   * Reads the tables of a VOTable from an xml stream, converting each row to a
+   * target as soon as it is read.  Follows the same rules as the tree based
+   * parse: fields without id, ucd or name are ignored and rows whose number of
+   * cells does not match the fields are reported as problems.
+   */
+  protected def parseStreaming(adapter: CatalogAdapter, is: InputStream, keep: SiderealTarget => Boolean): ParsedVoResource = {
+    val factory = XMLInputFactory.newInstance()
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false)
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false)
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true)
+
+    val reader = factory.createXMLStreamReader(is)
+    try {
+      val tables = List.newBuilder[ParsedTable]
+      val fields = List.newBuilder[FieldDescriptor]
+      val rows   = List.newBuilder[CatalogProblem \/ SiderealTarget]
+      val cells  = List.newBuilder[String]
+
+      // The fields of the current table, known once its first row is read.
+      var tableFields: Option[List[FieldDescriptor]] = None
+
+      def currentFields: List[FieldDescriptor] =
+        tableFields | {
+          val fs = fields.result()
+          tableFields = Some(fs)
+          fs
+        }
+
+      def attr(n: String): Option[String] =
+        Option(reader.getAttributeValue(null, n))
+
+      while (reader.hasNext) {
+        reader.next() match {
+          case XMLStreamConstants.START_ELEMENT =>
+            reader.getLocalName match {
+              case "TABLE" =>
+                fields.clear()
+                rows.clear()
+                tableFields = None
+
+              case "FIELD" =>
+                val name = attr("name")
+                ^^(attr("ID") orElse name, attr("ucd"), name) { (i, u, n) =>
+                  fields += FieldDescriptor(FieldId(i, Ucd(u)), n)
+                }
+
+              case "TR"    =>
+                cells.clear()
+
+              case "TD"    =>
+                cells += reader.getElementText
+
+              case _       =>
+            }
+
+          case XMLStreamConstants.END_ELEMENT   =>
+            reader.getLocalName match {
+              case "TR"    =>
+                val fs  = currentFields
+                val tds = cells.result()
+                val row = if (tds.length == fs.length) TableRow(fs.zip(tds).map(TableRowItem.tupled)) else TableRow(Nil)
+                val t   = tableRow2Target(adapter, fs)(row)
+                if (t.forall(keep)) rows += t
+
+              case "TABLE" =>
+                tables += ParsedTable(rows.result())
+
+              case _       =>
+            }
+
+          case _                                =>
+        }
+      }
+      ParsedVoResource(tables.result())
+    } finally {
+      reader.close()
+    }
+  }
+
   /**
    * Convert a table row to a sidereal target or CatalogProblem
    */
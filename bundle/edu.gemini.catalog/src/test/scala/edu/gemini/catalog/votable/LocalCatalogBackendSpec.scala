@@ -0,0 +1,132 @@
+package edu.gemini.catalog.votable
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, Paths}
+
+import edu.gemini.catalog.api._
+import edu.gemini.spModel.core._
+import org.specs2.mutable.Specification
+
+import scala.collection.JavaConverters._
+import scala.concurrent.Await
+import scala.concurrent.duration._
+import scala.concurrent.ExecutionContext.Implicits.global
+
+class LocalCatalogBackendSpec extends Specification {
+  private val noMagnitudeConstraint = MagnitudeConstraints(SingleBand(MagnitudeBand.J), FaintnessConstraint(100), None)
+
+  private def query(ra: Double, dec: Double, radius: Double, catalog: CatalogName = CatalogName.UCAC4): ConeSearchCatalogQuery =
+    CatalogQuery.coneSearch(
+      Coordinates(RightAscension.fromAngle(Angle.fromDegrees(ra)), Declination.fromAngle(Angle.fromDegrees(dec)).getOrElse(Declination.zero)),
+      RadiusConstraint.between(Angle.zero, Angle.fromDegrees(radius)),
+      noMagnitudeConstraint,
+      catalog
+    ).asInstanceOf[ConeSearchCatalogQuery]
+
+  private def names(r: QueryResult): Set[String] =
+    r.result.targets.rows.map(_.name).toSet
+
+  // Targets on a grid around a point close to tile corners, and near the pole.
+  private val csv: List[(String, Double, Double)] =
+    (for {
+      i <- -20 to 20
+      j <- -20 to 20
+    } yield (s"t-$i-$j", (360 + 10.0 + i * 0.05) % 360, 20.0 + j * 0.05)).toList ++
+    (0 until 36).toList.map(i => (s"p-$i", i * 10.0, 89.9))
+
+  private def store(bufferSize: Int, dir: Path = Files.createTempDirectory("LocalCatalogBackendSpec-")): Path = {
+    val file = dir.resolve("dump.csv")
+    val rows = "name,ra,dec,J,J_err,pmra,pmdec" :: csv.map { case (n, ra, dec) => s"$n,$ra,$dec,12.5,0.1,1.5,-2.0" }
+    Files.write(file, rows.mkString("\n").getBytes(StandardCharsets.UTF_8))
+    val b = new LocalCatalogBuilder(dir.resolve("store"), CatalogName.UCAC4, bufferSize)
+    b.addCsv(file)
+    b.finish()
+    dir.resolve("store")
+  }
+
+  // Contents of the files of a store by path.
+  private def files(dir: Path): Map[Path, List[Byte]] = {
+    val stream = Files.walk(dir)
+    try stream.iterator.asScala.filter(Files.isRegularFile(_)).map(f => dir.relativize(f) -> Files.readAllBytes(f).toList).toMap finally stream.close()
+  }
+
+  private def expected(q: ConeSearchCatalogQuery): Set[String] =
+    csv.filter { case (_, ra, dec) => q.filter(SiderealTarget.empty.copy(coordinates = query(ra, dec, 0).base, magnitudes = List(new Magnitude(12.5, MagnitudeBand.J)))) }.map(_._1).toSet
+
+  "LocalCatalogBackend" should {
+    "find the same targets as a linear search" in {
+      val backend = LocalCatalogBackend(store(bufferSize = 100))
+      val queries = List(query(10, 20, 0.3), query(10.5, 20.5, 0.2), query(359.5, 19.5, 1.0), query(0, 89.95, 0.2), query(180, 89.5, 0.5))
+      queries.forall { q =>
+        val r = Await.result(VoTableClient.catalog(q, Some(backend))(implicitly), 10.seconds)
+        names(r) == expected(q) && r.query == q && !r.result.containsError
+      } must beTrue
+    }
+    "keep the target details" in {
+      val backend = LocalCatalogBackend(store(bufferSize = 100000))
+      val t       = backend.search(query(10, 20, 0.001)).result.targets.rows
+      (t.map(_.name) must_== List("t-0-0")) and
+      (t.flatMap(_.magnitudes) must_== List(new Magnitude(12.5, MagnitudeBand.J, 0.1))) and
+      (t.flatMap(_.properMotion).map(_.deltaRA.velocity.masPerYear) must_== List(1.5))
+    }
+    "extend an existing store" in {
+      val dir = store(bufferSize = 100)
+      val b   = new LocalCatalogBuilder(dir, CatalogName.UCAC4)
+      b.add(SiderealTarget.empty.copy(name = "extra", coordinates = query(10, 20, 0).base))
+      b.finish()
+      names(LocalCatalogBackend(dir).search(query(10, 20, 0.001).copy(magnitudeConstraints = Nil))) must_== Set("t-0-0", "extra")
+    }
+    "not duplicate targets when rebuilt from the same input" in {
+      val dir   = Files.createTempDirectory("LocalCatalogBackendSpec-")
+      val first = files(store(bufferSize = 100, dir))
+      (files(store(bufferSize = 100, dir)) must_== first) and
+      (first must not be empty)
+    }
+    "load VOTables" in {
+      val dir  = Files.createTempDirectory("LocalCatalogBackendSpec-")
+      val b    = new LocalCatalogBuilder(dir, CatalogName.UCAC4)
+      b.addVoTable(Paths.get(getClass.getResource("/votable-ucac4.xml").toURI))
+      val n    = b.finish()
+      val all  = VoTableParser.parse(CatalogName.UCAC4, getClass.getResourceAsStream("/votable-ucac4.xml")).toOption.toList.flatMap(_.tables.map(TargetsTable.apply)).flatMap(_.rows)
+      val base = all.head.coordinates
+      val q    = query(base.ra.toAngle.toDegrees, base.dec.toDegrees, 0.2).copy(magnitudeConstraints = Nil)
+      (n must_== all.size) and (names(LocalCatalogBackend(dir).search(q)) must_== all.filter(q.filter).map(_.name).toSet)
+    }
+    "stop reading tiles at the faintness limit" in {
+      val dir = Files.createTempDirectory("LocalCatalogBackendSpec-")
+      val b   = new LocalCatalogBuilder(dir, CatalogName.UCAC4)
+      (0 until 20).foreach { i =>
+        val mags = if (i % 5 == 0) Nil else List(new Magnitude(10.0 + (i * 7 % 20) * 0.5, MagnitudeBand.R))
+        b.add(SiderealTarget.empty.copy(name = s"r-$i", coordinates = query(10 + i * 0.01, 20, 0).base, magnitudes = mags))
+      }
+      b.finish()
+      val q   = query(10.1, 20, 0.2).copy(magnitudeConstraints = List(MagnitudeConstraints(RBandsList, FaintnessConstraint(14.0), None)))
+      val all = LocalCatalogBackend(dir).search(q.copy(magnitudeConstraints = Nil)).result.targets.rows
+      (names(LocalCatalogBackend(dir).search(q)) must_== all.filter(q.filter).map(_.name).toSet) and
+      (all.filter(q.filter) must not be empty)
+    }
+    "apply the Gaia constraints" in {
+      def gaia(name: String, g: Double, plx: Double, pmRa: Double): SiderealTarget =
+        SiderealTarget.empty.copy(
+          name         = name,
+          coordinates  = query(10, 20, 0).base,
+          properMotion = Some(ProperMotion(RightAscensionAngularVelocity(AngularVelocity(pmRa)), DeclinationAngularVelocity(AngularVelocity(1.0)))),
+          parallax     = Parallax.fromMas(plx),
+          magnitudes   = CatalogAdapter.GaiaEsa.conversions.map(_.convert(g, 0.8))
+        )
+
+      val dir = Files.createTempDirectory("LocalCatalogBackendSpec-")
+      val b   = new LocalCatalogBuilder(dir, CatalogName.GaiaEsa)
+      List(gaia("ok", 15, 1, 10), gaia("faint", 19.5, 1, 10), gaia("bright", 8.5, 1, 10), gaia("fast", 15, 1, 150), gaia("plx", 15, 0, 10)).foreach(b.add)
+      b.add(SiderealTarget.empty.copy(name = "color", coordinates = query(10, 20, 0).base, parallax = Parallax.fromMas(1)))
+      (b.finish() must_== 1) and
+      (CatalogAdapter.GaiaEsa.gMagAndBpRp(gaia("ok", 15, 1, 10).magnitudes).map { case (g, c) => (math.rint(g * 1e6) / 1e6, math.rint(c * 1e6) / 1e6) } must beSome((15.0, 0.8))) and
+      (names(LocalCatalogBackend(dir).search(query(10, 20, 0.01, CatalogName.GaiaEsa).copy(magnitudeConstraints = Nil))) must_== Set("ok"))
+    }
+    "report catalogs it does not have" in {
+      val backend = LocalCatalogBackend(store(bufferSize = 100))
+      (backend.contains(CatalogName.PPMXL) must beFalse) and
+      (backend.search(query(10, 20, 0.3, CatalogName.PPMXL)).result.containsError must beTrue)
+    }
+  }
+}
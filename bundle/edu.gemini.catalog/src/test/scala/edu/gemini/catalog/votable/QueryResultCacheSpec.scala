@@ -0,0 +1,79 @@
+package edu.gemini.catalog.votable
+
+import edu.gemini.catalog.api._
+import edu.gemini.spModel.core._
+import org.specs2.mutable.Specification
+
+class QueryResultCacheSpec extends Specification {
+  private val noMagnitudeConstraint = MagnitudeConstraints(SingleBand(MagnitudeBand.J), FaintnessConstraint(100), None)
+
+  private def coords(ra: Double, dec: Double): Coordinates =
+    Coordinates(RightAscension.fromAngle(Angle.fromDegrees(ra)), Declination.fromAngle(Angle.fromDegrees(dec)).getOrElse(Declination.zero))
+
+  private def query(ra: Double, dec: Double, radius: Double): CatalogQuery =
+    CatalogQuery.coneSearch(coords(ra, dec), RadiusConstraint.between(Angle.zero, Angle.fromDegrees(radius)), noMagnitudeConstraint, CatalogName.UCAC4)
+
+  private def result(q: CatalogQuery, n: Int): QueryResult =
+    QueryResult(q, CatalogQueryResult(TargetsTable(List.fill(n)(SiderealTarget.empty)), Nil))
+
+  private def widen(q: CatalogQuery): CatalogQuery = q match {
+    case c: ConeSearchCatalogQuery => c.copy(radiusConstraint = RadiusConstraint.between(Angle.zero, c.radiusConstraint.maxLimit * 1.5))
+    case x                         => x
+  }
+
+  "QueryResultCache" should {
+    "find results for queries inside the widened region" in {
+      val cache = new QueryResultCache(widen, Long.MaxValue)
+      val r     = result(query(10, 20, 0.2), 1)
+      cache.put(r.query, r)
+
+      (cache.get(query(10, 20, 0.3)) must beSome(r))    and
+      (cache.get(query(10, 20.1, 0.1)) must beSome(r))  and
+      (cache.get(query(10, 20.25, 0.1)) must beNone)    and
+      (cache.get(query(180, 20, 0.1)) must beNone)
+    }
+    "find the same results as a linear search" in {
+      val cache   = new QueryResultCache(widen, Long.MaxValue)
+      val rnd     = new scala.util.Random(42)
+      val decs    = List(-89.9, -60.0, 0.0, 45.0, 89.8)
+      def point() = (rnd.nextDouble * 360, decs(rnd.nextInt(decs.size)) + rnd.nextDouble * 0.1)
+      val cached  = List.fill(200) { val (ra, dec) = point(); result(query(ra, dec, 0.05 + rnd.nextDouble * 0.5), 1) }
+      cached.foreach(r => cache.put(r.query, r))
+
+      List.fill(1000) { val (ra, dec) = point(); query(ra, dec, rnd.nextDouble * 0.3) }.forall { q =>
+        cache.get(q).isDefined == cached.exists(r => widen(r.query).isSuperSetOf(q))
+      } must beTrue
+    }
+    "serve queries with magnitude constraints from results without" in {
+      val cache = new QueryResultCache(widen, Long.MaxValue)
+      val r     = result(query(10, 20, 0.2), 1)
+      val q     = r.query match {
+        case c: ConeSearchCatalogQuery => c.copy(magnitudeConstraints = Nil)
+        case x                         => x
+      }
+      cache.put(q, r)
+      (cache.get(query(10, 20, 0.3)) must beSome(r)) and (cache.stats.entries must_== 1)
+    }
+    "not cache name queries" in {
+      val cache = new QueryResultCache(widen, Long.MaxValue)
+      val q     = CatalogQuery.nameSearch("Vega")
+      cache.put(q, result(q, 1))
+      (cache.get(q) must beNone) and (cache.stats.entries must_== 0)
+    }
+    "evict the least recently used results by size" in {
+      val r0    = result(query(10, 20, 0.1), 100)
+      val cache = new QueryResultCache(widen, 2 * QueryResultCache.estimatedBytes(r0))
+      val r1    = result(query(50, 20, 0.1), 100)
+      val r2    = result(query(90, 20, 0.1), 100)
+      cache.put(r0.query, r0)
+      cache.put(r1.query, r1)
+      cache.get(r0.query)
+      cache.put(r2.query, r2)
+
+      (cache.get(r0.query) must beSome(r0)) and
+      (cache.get(r1.query) must beNone)     and
+      (cache.get(r2.query) must beSome(r2)) and
+      (cache.stats must_== QueryResultCache.Stats(hits = 3, misses = 1, evictions = 1, entries = 2, bytes = 2 * QueryResultCache.estimatedBytes(r0)))
+    }
+  }
+}
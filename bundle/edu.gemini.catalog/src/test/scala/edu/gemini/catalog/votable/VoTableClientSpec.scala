@@ -24,10 +24,12 @@ class VoTableClientSpec extends Specification with VoTableClient {
     val coordinates = Coordinates(ra, dec)
 
     val query = CatalogQuery.coneSearch(coordinates, RadiusConstraint.between(Angle.fromDegrees(0), Angle.fromDegrees(0.1)), noMagnitudeConstraint, CatalogName.UCAC4)
-    case class CountingCachedBackend(counter: AtomicInteger, file: String) extends CachedBackend {
+    case class CountingCachedBackend(counter: AtomicInteger, file: String, coalesceWindowMs: Long = 50, queryDelayMs: Long = 0) extends CachedBackend {
       override val catalogUrls = NonEmptyList(new URL(s"file://$file"))
+      override protected val CoalesceWindowMs = coalesceWindowMs
       override protected def query(e: SearchKey) = {
         counter.incrementAndGet()
+        Thread.sleep(queryDelayMs)
         VoTableParser.parse(CatalogName.UCAC4, this.getClass.getResourceAsStream(file)).fold(p => QueryResult(e.query, CatalogQueryResult(TargetsTable.Zero, List(p))), y => QueryResult(e.query, CatalogQueryResult(y)))
       }
     }
@@ -139,6 +141,31 @@ class VoTableClientSpec extends Specification with VoTableClient {
       // Check that the second query has less hits than the first given its smaller range
       result._2.result.targets.rows.length should beLessThan(result._1.result.targets.rows.length)
     }
+    "coalesce concurrent queries with overlapping regions" in {
+      val counter = new AtomicInteger(0)
+      // Wide enough a window for all the queries to join a single covering query
+      val countingBackend = CountingCachedBackend(counter, "/votable-ucac4.xml", 2000, 1000)
+      // A query far away keeps the catalog busy so that the next searches wait for each other
+      val far = Coordinates(ra, Declination.fromAngle(Angle.fromDegrees(-20)).getOrElse(Declination.zero))
+      val busy = VoTableClient.catalog(CatalogQuery.coneSearch(far, RadiusConstraint.between(Angle.fromDegrees(0), Angle.fromDegrees(0.1)), noMagnitudeConstraint, CatalogName.UCAC4), Some(countingBackend))(implicitly)
+      TimeUnit.MILLISECONDS.sleep(200)
+      val nearby = Coordinates(ra, Declination.fromAngle(Angle.fromDegrees(20.05)).getOrElse(Declination.zero))
+      val queries = List(query, CatalogQuery.coneSearch(nearby, RadiusConstraint.between(Angle.fromDegrees(0), Angle.fromDegrees(0.05)), noMagnitudeConstraint, CatalogName.UCAC4))
+      val results = Await.result(VoTableClient.catalogs(queries ++ queries, Some(countingBackend))(implicitly), 10.seconds)
+      Await.result(busy, 10.seconds)
+      // A single covering query per url besides the far one
+      counter.get() should be_<=(2 * countingBackend.catalogUrls.size)
+      // Each query keeps its own targets
+      results.map(_.query) should beEqualTo(queries ++ queries)
+      results.forall(r => r.result.targets.rows.forall(r.query.filter)) should beTrue
+    }
+    "send a query right away if the catalog is not busy" in {
+      val counter = new AtomicInteger(0)
+      val countingBackend = CountingCachedBackend(counter, "/votable-ucac4.xml", 20000)
+      // Would time out if the query waited for the coalescing window
+      Await.result(VoTableClient.catalog(query, Some(countingBackend))(implicitly), 10.seconds).result.containsError should beFalse
+      counter.get() should beEqualTo(1)
+    }
     "include query params" in {
       val counter = new AtomicInteger(0)
       val countingBackend = CountingCachedBackend(counter, "/votable-ucac4.xml")
@@ -734,6 +734,24 @@ class VoTableParserSpec extends Specification with VoTableParser {
       VoTableParser.parse(CatalogName.PPMXL, getClass.getResourceAsStream(s"/$xmlFile")).map(_.tables.forall(!_.containsError)) must beEqualTo(\/.right(true))
       VoTableParser.parse(CatalogName.PPMXL, getClass.getResourceAsStream(s"/$xmlFile")).getOrElse(ParsedVoResource(Nil)).tables should be size 1
     }
+    "stream the same targets as the tree parser" in {
+      List(CatalogName.UCAC4 -> "votable-ucac4.xml", CatalogName.PPMXL -> "votable-ppmxl.xml", CatalogName.PPMXL -> "votable-ppmxl-proper-motion.xml", CatalogName.UCAC4 -> "fmag.xml").forall { case (c, f) =>
+        VoTableParser.parseStreaming(c, getClass.getResourceAsStream(s"/$f"), _ => true, validation = true) == VoTableParser.parse(c, getClass.getResourceAsStream(s"/$f"))
+      } must beTrue
+    }
+    "only keep the streamed targets accepted by the filter" in {
+      val xmlFile = "votable-ucac4.xml"
+      val all     = VoTableParser.parse(CatalogName.UCAC4, getClass.getResourceAsStream(s"/$xmlFile")).map(_.tables.map(TargetsTable.apply).flatMap(_.rows))
+      val first   = all.toOption.flatMap(_.headOption).map(_.name)
+      val keep    = (t: SiderealTarget) => !first.contains(t.name)
+      val kept    = VoTableParser.parseStreaming(CatalogName.UCAC4, getClass.getResourceAsStream(s"/$xmlFile"), keep, validation = false).map(_.tables.map(TargetsTable.apply).flatMap(_.rows))
+      (first must beSome) and (kept must beEqualTo(all.map(_.filter(keep))))
+    }
+    "report streamed xml that does not validate or is malformed" in {
+      val badXml = "votable-non-validating.xml"
+      (VoTableParser.parseStreaming(CatalogName.UCAC4, getClass.getResourceAsStream(s"/$badXml"), _ => true, validation = true) should beEqualTo(-\/(ValidationError(CatalogName.UCAC4)))) and
+      (VoTableParser.parseStreaming(CatalogName.UCAC4, new java.io.ByteArrayInputStream("<VOTABLE><TABLE>".getBytes("UTF-8")), _ => true, validation = false) should beEqualTo(-\/(ValidationError(CatalogName.UCAC4))))
+    }
     "be able to select r1mag over r2mag and b2mag when b1mag is absent in ppmxl" in {
       val xmlFile = "votable-ppmxl.xml"
       val result = VoTableParser.parse(CatalogName.PPMXL, getClass.getResourceAsStream(s"/$xmlFile")).getOrElse(ParsedVoResource(Nil)).tables.map(TargetsTable.apply).map(_.rows).flatMap(_.find(_.name == "-1471224894")).headOption
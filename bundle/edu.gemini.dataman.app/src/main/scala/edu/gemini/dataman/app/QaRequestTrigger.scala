@@ -2,12 +2,13 @@ package edu.gemini.dataman.app
 
 import edu.gemini.dataman.core._
 import edu.gemini.gsa.query.QaRequest
-import edu.gemini.pot.sp.{ISPProgram, SPCompositeChange}
-import edu.gemini.pot.spdb.{ProgramEvent, ProgramEventListener, IDBTriggerAction, IDBTriggerCondition, IDBDatabaseService}
+import edu.gemini.pot.sp.{ISPProgram, SPComponentType, SPCompositeChange, SPUtil}
+import edu.gemini.pot.spdb.{ProgramEvent, ProgramEventListener, IDBTriggerAction, IDBIndexedTriggerCondition, IDBDatabaseService}
 import edu.gemini.spModel.dataset.{DatasetQaState, DatasetLabel}
 import edu.gemini.spModel.dataset.Implicits._
 import edu.gemini.spModel.obslog.ObsQaLog
 
+import java.util.Collections
 import java.util.logging.Logger
 
 import scala.collection.JavaConverters._
@@ -80,7 +81,14 @@ object QaRequestTrigger {
       case (lab, nqa) => oldMap.get(lab).forall(_ =/= nqa)
     }.toList.map((QaRequest.apply _).tupled)
 
-  object Condition extends IDBTriggerCondition {
+  object Condition extends IDBIndexedTriggerCondition {
+    // Only QA log data object updates can match.
+    override def getPropertyNames: java.util.Set[String] =
+      Collections.singleton(SPUtil.getDataObjectPropertyName)
+
+    override def getComponentTypes: java.util.Set[SPComponentType] =
+      Collections.singleton(ObsQaLog.SP_TYPE)
+
     /** Returns a List[QaRequest] if the change matches and there are updates,
       * `null` otherwise (as required by the `IDBTriggerCondition` contract).
       *
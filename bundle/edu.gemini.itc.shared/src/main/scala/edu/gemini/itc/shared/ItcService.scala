@@ -150,8 +150,9 @@ final case class SpcChartData(chartType: SpcChartType, title: String, xAxis: Cha
 /** The result of a spectroscopy ITC calculation contains some numbers per CCD and a set of groups of charts.
   * Individual charts and data series can be referenced by their types and group index. For most instruments there
   * is only one chart and data series of each type, however for NIFS and GMOS there will be several charts
-  * of each type for each IFU element. */
-final case class ItcSpectroscopyResult(ccds: List[ItcCcd], chartGroups: List[SpcChartGroup]) extends ItcResult {
+  * of each type for each IFU element. For integration time calculations the result also holds the number of exposures
+  * needed to reach the requested S/N, and the final S/N is the one for that number of exposures. */
+final case class ItcSpectroscopyResult(ccds: List[ItcCcd], chartGroups: List[SpcChartGroup], exposures: Option[ItcExposures] = None) extends ItcResult {
 
   /** Gets chart data by type and its group index.
     * This method will fail if the result you're looking for does not exist.
@@ -165,6 +166,11 @@ final case class ItcSpectroscopyResult(ccds: List[ItcCcd], chartGroups: List[Spc
 
 }
 
+/** The exposures found by an integration time calculation (see SpectroscopyInt). */
+final case class ItcExposures(exposures: Int, coadds: Int, exposureTime: Double) {
+  def totalTime: Double = exposures * coadds * exposureTime
+}
+
 object SpcChartData {
   def apply(chartType: SpcChartType, title: String, xAxisLabel: String, yAxisLabel: String, series: List[SpcSeriesData]) =
     new SpcChartData(chartType, title, ChartAxis(xAxisLabel), ChartAxis(yAxisLabel), series, List())
@@ -199,6 +205,16 @@ trait ItcService {
    */
   def calculate(p: ItcParameters, headless: Boolean): Result
 
+  /**
+   * Performs several ITC calculations in one go and returns their results in the same order as the parameters.
+   * Calculations whose parameters only differ in exposure time, number of exposures, coadds, source fraction or
+   * offset share the source and sky spectra, which are only calculated once, and the calculations are run in
+   * parallel.
+   * @param ps parameters for the ITC calculations.
+   * @param headless pass `true` for headless applications that do not require chart data.
+   */
+  def calculateBatch(ps: List[ItcParameters], headless: Boolean): List[Result]
+
 }
 
 sealed trait ItcMessage
@@ -222,4 +238,10 @@ object ItcService {
       r[ItcService].calculate(inputs, false)
     }
 
+  /** Performs a batch of ITC calls on the given host in a single round trip. */
+  def calculateBatch(peer: Peer, inputs: List[ItcParameters]): Future[List[Result]] =
+    TrpcClient(peer).withoutKeys future { r =>
+      r[ItcService].calculateBatch(inputs, false)
+    }
+
 }
@@ -29,8 +29,8 @@ final case class SourceDefinition(
 
 // ==== Calculation method
 
-// The calculation method denotes if we are doing spectroscopy or imaging and if we do integration (only for imaging)
-// or signal to noise calculations. The difference between imaging and spectroscopy is defined by the instrument
+// The calculation method denotes if we are doing spectroscopy or imaging and if we do integration or signal to noise
+// calculations. The difference between imaging and spectroscopy is defined by the instrument
 // parameters and should/could be derived from there in the future.
 
 sealed trait Imaging
@@ -77,6 +77,16 @@ final case class SpectroscopyS2N(
                     sourceFraction: Double,
                     offset: Double) extends Spectroscopy with S2NMethod
 
+// Finds the number of exposures needed to reach a final S/N of sigma, either at the given wavelength [nm] or at the
+// peak of the S/N spectrum. The number of exposures found is returned with the result (see ItcExposures).
+final case class SpectroscopyInt(
+                    sigma: Double,
+                    wavelength: Option[Double],
+                    exposureTime: Double,
+                    coadds: Option[Int],
+                    sourceFraction: Double,
+                    offset: Double) extends Spectroscopy with IntMethod
+
 
 // ==== Analysis method
 
@@ -62,7 +62,7 @@ public final class HtmlPrinter {
         if (odp.calculationMethod() instanceof S2NMethod) {
             sb.append(String.format("S/N ratio with %d", ((S2NMethod) odp.calculationMethod()).exposures()));
         } else {
-            sb.append(String.format("integration time from a S/N ratio of %.2f for", ((ImagingInt) odp.calculationMethod()).sigma()));
+            sb.append(String.format("integration time from a S/N ratio of %.2f for", ((IntMethod) odp.calculationMethod()).sigma()));
         }
         sb.append(String.format(" exposures of %.2f secs", odp.exposureTime()));
         if (odp.calculationMethod().coaddsOrElse(1) > 1) {
@@ -0,0 +1,154 @@
+package edu.gemini.itc.web.servlets;
+
+import edu.gemini.itc.shared.ItcSpectroscopyResult;
+import edu.gemini.itc.shared.SpcChartData;
+import edu.gemini.itc.shared.SpcChartGroup;
+import edu.gemini.itc.shared.SpcSeriesData;
+import scala.collection.JavaConversions;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Memory bounded caches for the results served by the {@link FilesServlet} and the chart images rendered from
+ * them. Both caches drop their least recently used entries once their estimated size exceeds the limit; images
+ * are dropped along with the result they were rendered from.
+ */
+final class FilesCache {
+
+    // Rough estimate of the memory retained by an entry apart from the chart data.
+    private static final long Overhead = 512L;
+
+    private final long maxResultBytes;
+    private final long maxImageBytes;
+
+    private final LinkedHashMap<UUID, Entry<ItcSpectroscopyResult>> results = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<ImageKey, Entry<byte[]>> images            = new LinkedHashMap<>(16, 0.75f, true);
+    private long resultBytes = 0;
+    private long imageBytes  = 0;
+
+    private static final class Entry<T> {
+        final T value;
+        final long bytes;
+
+        Entry(final T value, final long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    /** Identifies a chart image: result, chart and the plot limits it was rendered with. */
+    static final class ImageKey {
+        final UUID id;
+        final String chart;
+        final int index;
+        final String limits;
+
+        ImageKey(final UUID id, final String chart, final int index, final String limits) {
+            this.id     = id;
+            this.chart  = chart;
+            this.index  = index;
+            this.limits = limits;
+        }
+
+        @Override public boolean equals(final Object o) {
+            if (!(o instanceof ImageKey)) return false;
+            final ImageKey k = (ImageKey) o;
+            return id.equals(k.id) && chart.equals(k.chart) && index == k.index && limits.equals(k.limits);
+        }
+
+        @Override public int hashCode() {
+            return ((id.hashCode() * 31 + chart.hashCode()) * 31 + index) * 31 + limits.hashCode();
+        }
+    }
+
+    FilesCache(final long maxResultBytes, final long maxImageBytes) {
+        this.maxResultBytes = maxResultBytes;
+        this.maxImageBytes  = maxImageBytes;
+    }
+
+    /** Stores a result and returns its id. */
+    synchronized UUID put(final ItcSpectroscopyResult result) {
+        final UUID id = UUID.randomUUID();
+        final Entry<ItcSpectroscopyResult> e = new Entry<>(result, weight(result));
+        results.put(id, e);
+        resultBytes += e.bytes;
+        evictResults();
+        return id;
+    }
+
+    /** Gets a result, or null if it is unknown or was evicted. */
+    synchronized ItcSpectroscopyResult get(final UUID id) {
+        final Entry<ItcSpectroscopyResult> e = results.get(id);
+        return e == null ? null : e.value;
+    }
+
+    /**
+     * Gets a chart image, rendering it if it is not available. The image is only kept if the result it
+     * belongs to is still cached. Rendering happens outside of the lock, concurrent requests for the same
+     * image may therefore render it more than once.
+     */
+    byte[] image(final ImageKey key, final Supplier<byte[]> render) {
+        synchronized (this) {
+            final Entry<byte[]> e = images.get(key);
+            if (e != null) return e.value;
+        }
+        final byte[] png = render.get();
+        synchronized (this) {
+            if (results.containsKey(key.id) && !images.containsKey(key)) {
+                final Entry<byte[]> e = new Entry<>(png, Overhead + png.length);
+                images.put(key, e);
+                imageBytes += e.bytes;
+                evictImages();
+            }
+        }
+        return png;
+    }
+
+    private void evictResults() {
+        final Iterator<Map.Entry<UUID, Entry<ItcSpectroscopyResult>>> it = results.entrySet().iterator();
+        // always keep the most recent result, even if it is bigger than the limit on its own
+        while (resultBytes > maxResultBytes && results.size() > 1) {
+            final Map.Entry<UUID, Entry<ItcSpectroscopyResult>> eldest = it.next();
+            resultBytes -= eldest.getValue().bytes;
+            it.remove();
+            dropImages(eldest.getKey());
+        }
+    }
+
+    private void evictImages() {
+        final Iterator<Entry<byte[]>> it = images.values().iterator();
+        while (imageBytes > maxImageBytes && it.hasNext()) {
+            imageBytes -= it.next().bytes;
+            it.remove();
+        }
+    }
+
+    private void dropImages(final UUID id) {
+        final Iterator<Map.Entry<ImageKey, Entry<byte[]>>> it = images.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<ImageKey, Entry<byte[]>> e = it.next();
+            if (e.getKey().id.equals(id)) {
+                imageBytes -= e.getValue().bytes;
+                it.remove();
+            }
+        }
+    }
+
+    // Chart data dominates the size of a spectroscopy result.
+    private static long weight(final ItcSpectroscopyResult r) {
+        long bytes = Overhead * (1 + r.ccds().size());
+        for (final SpcChartGroup g : JavaConversions.seqAsJavaList(r.chartGroups())) {
+            for (final SpcChartData c : JavaConversions.seqAsJavaList(g.charts())) {
+                for (final SpcSeriesData s : JavaConversions.seqAsJavaList(c.series())) {
+                    for (final double[] d : s.data()) bytes += 8L * d.length;
+                }
+            }
+        }
+        return bytes;
+    }
+
+}
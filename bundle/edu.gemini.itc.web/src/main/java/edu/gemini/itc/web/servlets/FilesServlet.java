@@ -6,10 +6,11 @@ import org.jfree.chart.ChartUtilities;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.awt.image.BufferedImage;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.Charset;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -41,21 +42,19 @@ public final class FilesServlet extends HttpServlet {
 
     public static class IdTimedOutException extends RuntimeException {}
 
-    private static class LRU extends LinkedHashMap<UUID, ItcSpectroscopyResult> {
-        private static final int CacheLimit = 300;
-        @Override protected boolean removeEldestEntry(final Map.Entry<UUID, ItcSpectroscopyResult> eldest) {
-            return size() > CacheLimit;
-        }
-    }
+    /** System property for the memory available for results, in bytes. */
+    public static final String MaxResultBytesProp = FilesServlet.class.getName() + ".maxResultBytes";
+    /** System property for the memory available for rendered chart images, in bytes. */
+    public static final String MaxImageBytesProp  = FilesServlet.class.getName() + ".maxImageBytes";
 
-    /** Hash map that temporarily stores calculation results which will be needed for charts and data files. */
-    private static final Map<UUID, ItcSpectroscopyResult> cachedResult = Collections.synchronizedMap(new LRU());
+    /** Calculation results which will be needed for charts and data files and the charts rendered from them. */
+    private static final FilesCache cachedResult = new FilesCache(
+            Long.getLong(MaxResultBytesProp, 256L * 1024 * 1024),
+            Long.getLong(MaxImageBytesProp,   64L * 1024 * 1024));
 
     /** Caches a spectroscopy result. Called by Printer classes when creating HTML output. */
     public static UUID cache(final ItcSpectroscopyResult result) {
-        final UUID id = UUID.randomUUID();
-        cachedResult.put(id, result);
-        return id;
+        return cachedResult.put(result);
     }
 
     /** Retrieves a cached result from UUID string. */
@@ -82,14 +81,19 @@ public final class FilesServlet extends HttpServlet {
             switch (type) {
 
                 case TypeTxt:
+                    // look up the result before committing to a response so that errors can still be sent
+                    final ItcSpectroscopyResult r = result(id);
                     response.setContentType("text/plain");
-                    response.getOutputStream().write(toFile(id, filename, chartIndex, seriesIndex).getBytes());
+                    final Writer w = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), Charset.defaultCharset()));
+                    writeFile(w, r, filename, chartIndex, seriesIndex);
+                    w.flush();
                     break;
 
                 case TypeImg:
+                    final byte[] png = toImage(id, filename, chartIndex, toPlottingDetails(request));
                     response.setContentType("image/png");
-                    final PlottingDetails pd = toPlottingDetails(request);
-                    ChartUtilities.writeBufferedImageAsPNG(response.getOutputStream(), toImage(id, filename, chartIndex, pd));
+                    response.setContentLength(png.length);
+                    response.getOutputStream().write(png);
                     break;
 
                 default:
@@ -123,65 +127,56 @@ public final class FilesServlet extends HttpServlet {
         }
     }
 
-    private static BufferedImage toImage(final String id, final String filename, final int index, final PlottingDetails pd) {
+    // Charts are rendered once for each set of plot limits and then served from the cache.
+    private static byte[] toImage(final String id, final String filename, final int index, final PlottingDetails pd) {
         final ItcSpectroscopyResult results = result(id);
-        final ITCChart chart;
-        switch (filename) {
-            case "SignalChart":       chart = ITCChart.forSpcDataSet(results.chart(SignalChart.instance(),      index), pd); break;
-            case "S2NChart":          chart = ITCChart.forSpcDataSet(results.chart(S2NChart.instance(),         index), pd); break;
-            case "SignalPixelChart":  chart = ITCChart.forSpcDataSet(results.chart(SignalPixelChart.instance(), index), pd); break;
-            default:            throw new Error();
-        }
-        return chart.getBufferedImage(800, 600);
+        final String limits = pd.getPlotLimits() == PlottingDetails.PlotLimits.AUTO ? "auto" : pd.getPlotWaveL() + "-" + pd.getPlotWaveU();
+        return cachedResult.image(new FilesCache.ImageKey(UUID.fromString(id), filename, index, limits), () -> {
+            final ITCChart chart;
+            switch (filename) {
+                case "SignalChart":       chart = ITCChart.forSpcDataSet(results.chart(SignalChart.instance(),      index), pd); break;
+                case "S2NChart":          chart = ITCChart.forSpcDataSet(results.chart(S2NChart.instance(),         index), pd); break;
+                case "SignalPixelChart":  chart = ITCChart.forSpcDataSet(results.chart(SignalPixelChart.instance(), index), pd); break;
+                default:            throw new Error();
+            }
+            try {
+                return ChartUtilities.encodeAsPNG(chart.getBufferedImage(800, 600));
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
     }
 
     // this is public because we use it for testing
     public static String toFile(final String id, final String filename, final int chartIndex, final Optional<List<Integer>> seriesIndex) {
-        final ItcSpectroscopyResult result = result(id);
-        final String file;
-        switch (filename) {
-            case "SignalData":     file = toFile(result.chart(SignalChart.instance(), chartIndex).allSeriesAsJava(SignalData.instance()),     seriesIndex); break;
-            case "BackgroundData": file = toFile(result.chart(SignalChart.instance(), chartIndex).allSeriesAsJava(BackgroundData.instance()), seriesIndex); break;
-            case "SingleS2NData":  file = toFile(result.chart(S2NChart.instance(),    chartIndex).allSeriesAsJava(SingleS2NData.instance()),  seriesIndex); break;
-            case "FinalS2NData":   file = toFile(result.chart(S2NChart.instance(),    chartIndex).allSeriesAsJava(FinalS2NData.instance()),   seriesIndex); break;
-            case "PixSigData":     file = toFile(result.chart(SignalPixelChart.instance(),    chartIndex).allSeriesAsJava(SignalData.instance()),  seriesIndex); break;
-            case "PixBackData":    file = toFile(result.chart(SignalPixelChart.instance(),    chartIndex).allSeriesAsJava(BackgroundData.instance()),   seriesIndex); break;
-            default:               throw new Error();
-        }
-        return "# ITC Data: " + Calendar.getInstance().getTime() + "\n \n" + file;
-    }
-
-    private static String toFile(final List<SpcSeriesData> dataSeries, final Optional<List<Integer>> seriesIndex) {
-        return seriesIndex.
-                map(si -> toFiles(dataSeries, si)).
-                orElse(toFiles(dataSeries));
-    }
-
-    private static String toFiles(final List<SpcSeriesData> dataSeries) {
-        List<Integer> indices = new ArrayList<>();
-
-        for (int i = 0; i < dataSeries.size(); i++) {
-            indices.add(i);
+        final StringWriter w = new StringWriter();
+        try {
+            writeFile(w, result(id), filename, chartIndex, seriesIndex);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
         }
-
-        return toFiles(dataSeries, indices);
+        return w.toString();
     }
 
-    private static String toFiles(final List<SpcSeriesData> dataSeries, final List<Integer> indices) {
-        final StringBuilder sb = new StringBuilder();
-
-        for (int i: indices) {
-            sb.append(toFile(dataSeries.get(i)));
+    private static void writeFile(final Writer w, final ItcSpectroscopyResult result, final String filename, final int chartIndex, final Optional<List<Integer>> seriesIndex) throws IOException {
+        final List<SpcSeriesData> dataSeries;
+        switch (filename) {
+            case "SignalData":     dataSeries = result.chart(SignalChart.instance(), chartIndex).allSeriesAsJava(SignalData.instance());     break;
+            case "BackgroundData": dataSeries = result.chart(SignalChart.instance(), chartIndex).allSeriesAsJava(BackgroundData.instance()); break;
+            case "SingleS2NData":  dataSeries = result.chart(S2NChart.instance(),    chartIndex).allSeriesAsJava(SingleS2NData.instance());  break;
+            case "FinalS2NData":   dataSeries = result.chart(S2NChart.instance(),    chartIndex).allSeriesAsJava(FinalS2NData.instance());   break;
+            case "PixSigData":     dataSeries = result.chart(SignalPixelChart.instance(),    chartIndex).allSeriesAsJava(SignalData.instance());  break;
+            case "PixBackData":    dataSeries = result.chart(SignalPixelChart.instance(),    chartIndex).allSeriesAsJava(BackgroundData.instance());   break;
+            default:               throw new Error();
         }
-
-        return sb.toString();
-    }
-
-    private static String toFile(final SpcSeriesData data) {
-        final StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < data.data()[0].length; i++) {
-            sb.append(String.format("%.3f\t%.3f\n", data.data()[0][i], data.data()[1][i]));
+        w.write("# ITC Data: " + Calendar.getInstance().getTime() + "\n \n");
+        final Formatter f = new Formatter(w);
+        for (final int i : seriesIndex.orElseGet(() -> IntStream.range(0, dataSeries.size()).boxed().collect(Collectors.toList()))) {
+            final double[][] data = dataSeries.get(i).data();
+            for (int j = 0; j < data[0].length; j++) {
+                f.format("%.3f\t%.3f\n", data[0][j], data[1][j]);
+            }
         }
-        return sb.toString();
+        if (f.ioException() != null) throw f.ioException();
     }
-}
\ No newline at end of file
+}
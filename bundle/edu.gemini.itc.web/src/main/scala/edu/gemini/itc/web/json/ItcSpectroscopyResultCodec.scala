@@ -62,10 +62,18 @@ trait ItcSpectroscopyResultCodec {
       "charts"
     )
 
+  private implicit val ItcExposuresCodec: CodecJson[ItcExposures] =
+    casecodec3(ItcExposures.apply, ItcExposures.unapply)(
+      "exposures",
+      "coadds",
+      "exposureTime"
+    )
+
   val ItcSpectroscopyResultCodec: CodecJson[ItcSpectroscopyResult] =
-    casecodec2(ItcSpectroscopyResult.apply, ItcSpectroscopyResult.unapply)(
+    casecodec3(ItcSpectroscopyResult.apply, ItcSpectroscopyResult.unapply)(
       "ccds",
-      "chartGroups"
+      "chartGroups",
+      "exposures"
     )
 
 }
@@ -17,9 +17,20 @@ trait ObservationDetailsCodec {
       "offset"
     )
 
+  private val SpectroscopyIntCodec: CodecJson[SpectroscopyInt] =
+    casecodec6(SpectroscopyInt.apply, SpectroscopyInt.unapply)(
+      "sigma",
+      "wavelength",
+      "exposureTime",
+      "coadds",
+      "sourceFraction",
+      "offset"
+    )
+
   private val IntMethodCodec: CodecJson[IntMethod] =
     CoproductCodec[IntMethod]
-      .withCase("ImagingInt", ImagingIntCodec) { case a: ImagingInt => a }
+      .withCase("ImagingInt",      ImagingIntCodec)      { case a: ImagingInt      => a }
+      .withCase("SpectroscopyInt", SpectroscopyIntCodec) { case a: SpectroscopyInt => a }
       .asCodecJson
 
   private val ImagingS2NCodec: CodecJson[ImagingS2N] =
@@ -3,7 +3,8 @@ package edu.gemini.itc.web.servlets
 import argonaut._, Argonaut._
 import edu.gemini.itc.shared.{ ItcParameters, ItcResult, ItcService }
 import edu.gemini.itc.service.ItcServiceImpl
-import edu.gemini.itc.web.json.{ ItcParametersCodec, ItcResultCodec }
+import edu.gemini.itc.web.json.{ ItcErrorCodec, ItcParametersCodec, ItcResultCodec }
+import edu.gemini.json.DisjunctionCodec
 import javax.servlet.http.{ HttpServlet, HttpServletRequest, HttpServletResponse }
 import javax.servlet.http.HttpServletResponse.{ SC_BAD_REQUEST, SC_OK }
 import scala.io.Source
@@ -13,8 +14,12 @@ import scalaz._, Scalaz._
  * Servlet that accepts a JSON-encoded `ItcParameters` as its POST payload (no other methods are
  * supported) and responds with a JSON-encoded `ItcResult` on success, or `SC_BAD_REQUEST` with
  * an error message on failure. JSON codecs are defined in package `edu.gemini.itc.web.json`.
+ *
+ * A JSON array of `ItcParameters` is treated as a batch, which is calculated in one go (see
+ * `ItcService.calculateBatch`) and answered with a JSON array holding a `Left` error or a `Right`
+ * result for each element, in order.
  */
-class JsonServlet extends HttpServlet with ItcParametersCodec with ItcResultCodec {
+class JsonServlet extends HttpServlet with ItcParametersCodec with ItcResultCodec with ItcErrorCodec with DisjunctionCodec {
 
   override def doPost(req: HttpServletRequest, res: HttpServletResponse) = {
 
@@ -26,12 +31,23 @@ class JsonServlet extends HttpServlet with ItcParametersCodec with ItcResultCode
     val src  = Source.fromInputStream(req.getInputStream, enc)
     val json = try src.mkString finally src.close
 
+    // Decode the parsed body, reporting failures the way Parse.decodeEither does.
+    def decode[A: DecodeJson](j: Json): Either[String, A] =
+      j.as[A].fold[Either[String, A]]((msg, history) => Left(s"$msg: $history"), Right(_))
+
     // Do the things.
-    val result: Either[String, ItcResult] =
-      for {
-        itcReq <- Parse.decodeEither[ItcParameters](json)
-        itcRes <- itc.calculate(itcReq, true).toEither.leftMap(_.msg)
-      } yield itcRes
+    val result: Either[String, Json] =
+      Parse.parse(json).right.flatMap { j =>
+        if (j.isArray)
+          for {
+            itcReqs <- decode[List[ItcParameters]](j)
+          } yield itc.calculateBatch(itcReqs, true).asJson
+        else
+          for {
+            itcReq <- decode[ItcParameters](j)
+            itcRes <- itc.calculate(itcReq, true).toEither.leftMap(_.msg)
+          } yield itcRes.asJson
+      }
 
     // Send our result back.
     result match {
@@ -40,7 +56,7 @@ class JsonServlet extends HttpServlet with ItcParametersCodec with ItcResultCode
         res.setStatus(SC_OK)
         res.setContentType("text/json; charset=UTF-8")
         val writer = res.getWriter // can only be called once :-\
-        writer.write(itcRes.asJson.spaces2)
+        writer.write(itcRes.spaces2)
         writer.close
     }
 
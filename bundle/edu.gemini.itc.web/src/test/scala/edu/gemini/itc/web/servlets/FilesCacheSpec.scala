@@ -0,0 +1,63 @@
+package edu.gemini.itc.web.servlets
+
+import edu.gemini.itc.shared._
+import java.util.function.Supplier
+import org.specs2.mutable.Specification
+
+object FilesCacheSpec extends Specification {
+
+  // a result with n data points, roughly 16 * n bytes
+  private def result(n: Int): ItcSpectroscopyResult = {
+    val series = SpcSeriesData(FinalS2NData, "Final S/N", Array(Array.fill(n)(1.0), Array.fill(n)(2.0)))
+    ItcSpectroscopyResult(Nil, List(SpcChartGroup(List(SpcChartData(S2NChart, "S/N", ChartAxis("x"), ChartAxis("y"), List(series))))))
+  }
+
+  private class Renderer(bytes: Int) extends Supplier[Array[Byte]] {
+    var calls = 0
+    def get(): Array[Byte] = { calls += 1; new Array[Byte](bytes) }
+  }
+
+  "FilesCache" should {
+
+    "evict the least recently used results once the memory limit is reached" in {
+      val cache = new FilesCache(40000, 40000)
+      val a     = cache.put(result(1000))
+      val b     = cache.put(result(1000))
+      cache.get(a)                          // a is now more recent than b
+      val c     = cache.put(result(1000))
+
+      (cache.get(a) must not beNull) and
+      (cache.get(b) must beNull)     and
+      (cache.get(c) must not beNull)
+    }
+
+    "keep a single result that is bigger than the limit" in {
+      val cache = new FilesCache(100, 100)
+      val a     = cache.put(result(1000))
+      cache.get(a) must not beNull
+    }
+
+    "render chart images only once for the same plot limits" in {
+      val cache = new FilesCache(1000000, 1000000)
+      val id    = cache.put(result(10))
+      val r     = new Renderer(100)
+      cache.image(new FilesCache.ImageKey(id, "S2NChart", 0, "auto"), r)
+      cache.image(new FilesCache.ImageKey(id, "S2NChart", 0, "auto"), r)
+      cache.image(new FilesCache.ImageKey(id, "S2NChart", 0, "500.0-600.0"), r)
+      r.calls must_== 2
+    }
+
+    "drop the chart images along with their result" in {
+      val cache = new FilesCache(40000, 1000000)
+      val a     = cache.put(result(1000))
+      val r     = new Renderer(100)
+      cache.image(new FilesCache.ImageKey(a, "S2NChart", 0, "auto"), r)
+      cache.put(result(1000))
+      cache.put(result(1000))
+      cache.image(new FilesCache.ImageKey(a, "S2NChart", 0, "auto"), r)
+      r.calls must_== 2
+    }
+
+  }
+
+}
@@ -7,6 +7,7 @@ import edu.gemini.itc.web.json.itcparameters._
 import edu.gemini.itc.web.json.itcresult._
 import edu.gemini.itc.web.arb
 import edu.gemini.json.disjunction._
+import edu.gemini.itc.service.{ ItcResultCache, ItcServiceImpl }
 import javax.servlet.http.HttpServletResponse
 import org.scalacheck.{ Gen, Arbitrary }
 import org.scalacheck.Arbitrary.arbitrary
@@ -16,6 +17,7 @@ import org.specs2.scalacheck.ScalaCheckParameters
 import edu.gemini.spModel.gemini.gmos._
 import edu.gemini.spModel.core._
 import edu.gemini.spModel.gemini.obscomp.SPSiteQuality._
+import scalaz.\/
 
 object JsonServletSpec extends Specification with ScalaCheck {
 
@@ -122,6 +124,78 @@ object JsonServletSpec extends Specification with ScalaCheck {
 
       }
 
+    "return SC_OK with a result for each element of a batch" in {
+
+      val params = ItcParameters(
+        source         = SourceDefinition(
+          profile      = PointSource,
+          distribution = LibraryStar.A0V,
+          norm         = 20.0,
+          units        = MagnitudeSystem.Vega,
+          normBand     = MagnitudeBand.V,
+          redshift     = Redshift.zero
+        ),
+        observation = ObservationDetails(
+          calculationMethod = SpectroscopyS2N(
+            exposures      = 10,
+            coadds         = None,
+            exposureTime   = 1.0,
+            sourceFraction = 0.5,
+            offset         = 0.0
+          ),
+          analysisMethod = AutoAperture(
+            skyAperture  = 1.0
+          )
+        ),
+        conditions  = ObservingConditions(
+          iq      = ImageQuality.PERCENT_70,
+          cc      = CloudCover.PERCENT_50,
+          wv      = WaterVapor.ANY,
+          sb      = SkyBackground.PERCENT_50,
+          airmass = 1.5
+        ),
+        telescope   = new TelescopeDetails(
+          TelescopeDetails.Coating.SILVER,
+          edu.gemini.spModel.telescope.IssPort.SIDE_LOOKING,
+          edu.gemini.spModel.guide.GuideProbe.Type.PWFS
+        ),
+        instrument  = GmosParameters(
+          filter            = GmosNorthType.FilterNorth.g_G0301,
+          grating           = GmosNorthType.DisperserNorth.R831_G5302,
+          centralWavelength = Wavelength.fromNanometers(600),
+          fpMask            = GmosNorthType.FPUnitNorth.LONGSLIT_4,
+          ampGain           = GmosCommonType.AmpGain.HIGH,
+          ampReadMode       = GmosCommonType.AmpReadMode.FAST,
+          customSlitWidth   = None,
+          spatialBinning    = 1,
+          spectralBinning   = 1,
+          ccdType           = GmosCommonType.DetectorManufacturer.HAMAMATSU,
+          builtinROI        = GmosCommonType.BuiltinROI.FULL_FRAME,
+          site              = Site.GN
+        )
+      )
+
+      def withExposureTime(t: Double) =
+        params.copy(observation = params.observation.copy(calculationMethod = SpectroscopyS2N(10, None, t, 0.5, 0.0)))
+
+      val batch = List(withExposureTime(1.0), withExposureTime(10.0), withExposureTime(100.0))
+      val req   = MockHttpServletRequest(batch.asJson.spaces2)
+      val res   = MockHttpServletResponse()
+
+      req.setCharacterEncoding("UTF-8")
+      servlet.doPost(req, res)
+
+      res.getContentType() mustEqual "text/json; charset=UTF-8"
+      res.getStatus()      mustEqual HttpServletResponse.SC_OK
+
+      // Results come back in order and match the individual calculations
+      val uncached = new ItcServiceImpl(new ItcResultCache(0, 0))
+      val results = Parse.decodeOption[List[ItcError \/ ItcResult]](res.body).getOrElse(Nil)
+      results.length mustEqual 3
+      results.map(_.map(_.maxTotalSNRatio)) mustEqual batch.map(uncached.calculate(_, true).map(_.maxTotalSNRatio))
+
+    }
+
   }
 
 }
@@ -6,7 +6,7 @@ import edu.gemini.itc.base.*;
  * The AltairBackgroundVisitor class is designed to adjust the SED for the
  * background given off by altair.
  */
-public class AltairBackgroundVisitor implements SampledSpectrumVisitor {
+public class AltairBackgroundVisitor implements PointwiseVisitor {
 
     private ArraySpectrum _altairBack = null;
 
@@ -24,12 +24,10 @@ public class AltairBackgroundVisitor implements SampledSpectrumVisitor {
 
 
     /**
-     * Implements the SampledSpectrumVisitor interface
+     * Implements the PointwiseVisitor interface
      */
-    public void visit(SampledSpectrum sed) {
-        for (int i = 0; i < sed.getLength(); i++) {
-            sed.setY(i, _altairBack.getY(sed.getX(i)) + sed.getY(i));
-        }
+    public void apply(SampledSpectrum sed, int offset, double[] y, int len) {
+        SpectrumPipeline.add(_altairBack, sed, offset, y, len);
     }
 
 
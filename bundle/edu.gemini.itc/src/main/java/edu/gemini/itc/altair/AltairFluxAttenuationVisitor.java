@@ -1,13 +1,13 @@
 package edu.gemini.itc.altair;
 
+import edu.gemini.itc.base.PointwiseVisitor;
 import edu.gemini.itc.base.SampledSpectrum;
-import edu.gemini.itc.base.SampledSpectrumVisitor;
 
 /**
  * The AltairFluxAttenuationVisitor class is designed to adjust the SED for the
  * by the FluxAttenuation factor of altair.
  */
-public class AltairFluxAttenuationVisitor implements SampledSpectrumVisitor {
+public class AltairFluxAttenuationVisitor implements PointwiseVisitor {
 
     private double fluxAttenuationFactor;
 
@@ -22,15 +22,12 @@ public class AltairFluxAttenuationVisitor implements SampledSpectrumVisitor {
 
 
     /**
-     * Implements the SampledSpectrumVisitor interface
+     * Implements the PointwiseVisitor interface
      */
-    public void visit(SampledSpectrum sed) {
-        //for (int i=0; i < sed.getLength(); i++) {
-        //    sed.setY(i, sed.getY(i)*fluxAttenuationFactor);
-        //}
-
-        //use the sed provided rescale Y instead of above equivalent algorithm
-        sed.rescaleY(fluxAttenuationFactor);
+    public void apply(SampledSpectrum sed, int offset, double[] y, int len) {
+        for (int i = 0; i < len; i++) {
+            y[i] *= fluxAttenuationFactor;
+        }
     }
 
 
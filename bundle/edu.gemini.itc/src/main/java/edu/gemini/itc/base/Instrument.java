@@ -83,14 +83,21 @@ public abstract class Instrument {
         }
     }
 
+    /**
+     * Gets a visitor that adds the instrument background flux to a spectrum,
+     * so that this can be fused with other point-wise operations.
+     */
+    public PointwiseVisitor getBackgroundVisitor() {
+        return (sed, offset, y, len) -> SpectrumPipeline.add(background, sed, offset, y, len);
+    }
+
     /**
      * Method to iterate through the Components list and apply the
      * accept method of each component to a sed.
+     * All components are point-wise, so they are applied in a single pass.
      */
     public void convolveComponents(VisitableSampledSpectrum sed) {
-        for (final TransmissionElement te : components) {
-            sed.accept(te);
-        }
+        sed.accept(SpectrumPipeline.of(components));
     }
 
     /**
@@ -0,0 +1,126 @@
+package edu.gemini.itc.base;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * A compute pool shared by all ITC calculations for the independent parts of a recipe, e.g. the CCDs of a
+ * GMOS detector or the elements of an IFU.
+ *
+ * The pool has a fixed number of threads. Each call runs at most a given number of its tasks at the same time
+ * so that a single request can not take over the pool; the calling thread takes part in the work, so if the
+ * pool is busy the tasks simply run on the calling thread one after the other. Tasks started from within
+ * another task always run on the calling thread. Results are returned in the order of the tasks, independent
+ * of the order in which they were calculated.
+ */
+public final class ItcCompute {
+
+    /** System property for the number of threads in the pool, defaults to the number of processors. */
+    public static final String THREADS_PROP          = ItcCompute.class.getName() + ".threads";
+    /** System property for the number of tasks of a single call that can run at the same time. */
+    public static final String MAX_PER_REQUEST_PROP  = ItcCompute.class.getName() + ".maxPerRequest";
+
+    public static final int DEFAULT_MAX_PER_REQUEST  = 4;
+
+    private static final int THREADS          = Math.max(1, Integer.getInteger(THREADS_PROP, Runtime.getRuntime().availableProcessors()));
+    private static final int MAX_PER_REQUEST  = Math.max(1, Integer.getInteger(MAX_PER_REQUEST_PROP, DEFAULT_MAX_PER_REQUEST));
+
+    private static final ExecutorService POOL;
+    static {
+        final AtomicInteger count = new AtomicInteger();
+        POOL = Executors.newFixedThreadPool(THREADS, r -> {
+            final Thread t = new Thread(r, "ITC Compute-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // true while the current thread is running a task
+    private static final ThreadLocal<Boolean> IN_TASK = ThreadLocal.withInitial(() -> false);
+
+    private ItcCompute() {
+    }
+
+    /**
+     * Runs task(0) to task(n-1) and returns their results in that order. If any of the tasks fail the
+     * exception of the first failed task is thrown once all tasks are done.
+     */
+    public static <T> List<T> map(final int n, final IntFunction<T> task) {
+        final List<T> results = new ArrayList<>(n);
+        if (n <= 1 || MAX_PER_REQUEST == 1 || IN_TASK.get()) {
+            for (int i = 0; i < n; i++) results.add(task.apply(i));
+            return results;
+        }
+
+        final Object[] values               = new Object[n];
+        final Throwable[] errors            = new Throwable[n];
+        final AtomicInteger next            = new AtomicInteger();
+        final CountDownLatch done           = new CountDownLatch(n);
+        final SEDFactory.SharedSources shared = SEDFactory.sharedSources();
+
+        // takes tasks until there are none left; helpers that only start once all tasks are taken do nothing
+        final Runnable worker = () -> {
+            final boolean wasInTask = IN_TASK.get();
+            IN_TASK.set(true);
+            try {
+                int i;
+                while ((i = next.getAndIncrement()) < n) {
+                    try {
+                        values[i] = task.apply(i);
+                    } catch (final Throwable t) {
+                        errors[i] = t;
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            } finally {
+                IN_TASK.set(wasInTask);
+            }
+        };
+
+        // helpers run with the same shared source results as the calling thread
+        final Runnable helper = shared == null ? worker : () -> SEDFactory.withSharedSources(shared, () -> { worker.run(); return null; });
+        for (int h = 1; h < Math.min(n, MAX_PER_REQUEST); h++) POOL.execute(helper);
+        worker.run();
+
+        // all tasks are taken at this point, the ones still running are running on a helper thread
+        boolean interrupted = false;
+        while (done.getCount() > 0) {
+            try {
+                done.await();
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        for (final Throwable t : errors) {
+            if (t instanceof RuntimeException) throw (RuntimeException) t;
+            if (t instanceof Error)            throw (Error) t;
+            if (t != null)                     throw new RuntimeException(t);
+        }
+
+        for (final Object v : values) {
+            @SuppressWarnings("unchecked") final T t = (T) v;
+            results.add(t);
+        }
+        return results;
+    }
+
+    /**
+     * Runs task(0) to task(n-1), see {@link #map}.
+     */
+    public static void forEach(final int n, final IntConsumer task) {
+        map(n, i -> {
+            task.accept(i);
+            return null;
+        });
+    }
+
+}
@@ -0,0 +1,25 @@
+package edu.gemini.itc.base;
+
+/**
+ * A visitor that changes every value of a spectrum independently of all
+ * other values, e.g. by multiplying it with a transmission curve or adding
+ * a background.  Consecutive point-wise visitors can be fused by a
+ * {@link SpectrumPipeline} into a single pass over the spectrum.
+ */
+public interface PointwiseVisitor extends SampledSpectrumVisitor {
+
+    /**
+     * Applies this operation to a block of values.
+     *
+     * @param sed    the spectrum the values belong to, used to look up wavelengths
+     * @param offset index in the spectrum of the first value in the block
+     * @param y      the values, which are updated in place
+     * @param len    number of values in the block
+     */
+    void apply(SampledSpectrum sed, int offset, double[] y, int len);
+
+    @Override default void visit(final SampledSpectrum sed) {
+        SpectrumPipeline.of(this).visit(sed);
+    }
+
+}
@@ -1,6 +1,7 @@
 package edu.gemini.itc.base;
 
 import edu.gemini.itc.flamingos2.Flamingos2;
+import edu.gemini.itc.gmos.Gmos;
 import edu.gemini.itc.gnirs.Gnirs;
 import edu.gemini.itc.gsaoi.Gsaoi;
 import edu.gemini.itc.nifs.Nifs;
@@ -21,6 +22,15 @@ import edu.gemini.spModel.core.UserDefinedSpectrum;
 import edu.gemini.spModel.core.Wavelength;
 import scala.Option;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
 /**
  * This class encapsulates the process of creating a Spectral Energy
  * Distribution (SED).  (e.g. from a data file)
@@ -47,6 +57,66 @@ public final class SEDFactory {
         }
     }
 
+    /**
+     * Source results shared by a group of calculations whose parameters only differ in values that don't
+     * affect the source and sky spectra, like exposure time or coadds. The first calculation in the group
+     * to need the spectra for an instrument (or GMOS CCD) computes them, all others wait for it and then
+     * work on a copy. Calculations opt in by running inside {@link #withSharedSources}.
+     */
+    public static final class SharedSources {
+        private final ConcurrentMap<List<Object>, CompletableFuture<SourceResult>> results = new ConcurrentHashMap<>();
+
+        private SourceResult get(final List<Object> key, final Supplier<SourceResult> calc) {
+            final CompletableFuture<SourceResult> mine = new CompletableFuture<>();
+            final CompletableFuture<SourceResult> prev = results.putIfAbsent(key, mine);
+            if (prev == null) {
+                try {
+                    mine.complete(calc.get());
+                } catch (final RuntimeException | Error e) {
+                    mine.completeExceptionally(e);
+                    throw e;
+                }
+            }
+
+            final SourceResult r;
+            try {
+                r = (prev == null ? mine : prev).join();
+            } catch (final CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error)            throw (Error) e.getCause();
+                throw e;
+            }
+
+            // the spectra are modified by the recipes, so everybody gets their own copy
+            return new SourceResult(
+                    (VisitableSampledSpectrum) r.sed.clone(),
+                    (VisitableSampledSpectrum) r.sky.clone(),
+                    r.halo.isDefined() ? Option.apply((VisitableSampledSpectrum) r.halo.get().clone()) : r.halo);
+        }
+    }
+
+    private static final ThreadLocal<SharedSources> SHARED = new ThreadLocal<>();
+
+    /**
+     * Runs a calculation, taking the source and sky spectra from the given shared results where possible.
+     * The caller is responsible for only sharing results between calculations for the same source,
+     * conditions, telescope, instrument configuration and calculation method.
+     */
+    public static <T> T withSharedSources(final SharedSources shared, final Supplier<T> calc) {
+        final SharedSources prev = SHARED.get();
+        SHARED.set(shared);
+        try {
+            return calc.get();
+        } finally {
+            if (prev == null) SHARED.remove(); else SHARED.set(prev);
+        }
+    }
+
+    /** Gets the shared source results the current thread is running with, if any. */
+    static SharedSources sharedSources() {
+        return SHARED.get();
+    }
+
     /**
      * Location of SED data files
      */
@@ -188,6 +258,16 @@ public final class SEDFactory {
     }
 
     public static SourceResult calculate(final Instrument instrument, final SourceDefinition sdp, final ObservingConditions odp, final TelescopeDetails tp, final Option<AOSystem> ao) {
+        final SharedSources shared = SHARED.get();
+        if (shared == null) {
+            return calculateSource(instrument, sdp, odp, tp, ao);
+        } else {
+            final int ccd = (instrument instanceof Gmos) ? ((Gmos) instrument).getDetectorCcdIndex() : 0;
+            return shared.get(Arrays.asList(instrument.getClass(), ccd), () -> calculateSource(instrument, sdp, odp, tp, ao));
+        }
+    }
+
+    private static SourceResult calculateSource(final Instrument instrument, final SourceDefinition sdp, final ObservingConditions odp, final TelescopeDetails tp, final Option<AOSystem> ao) {
         // Module 1b
         // Define the source energy (as function of wavelength).
         //
@@ -240,8 +320,13 @@ public final class SEDFactory {
             sed.accept(norm);
         }
 
+        // Apart from the AO system all of the following steps are point-wise operations. They are
+        // collected and applied to the SED and the sky in as few passes as possible (see SpectrumPipeline).
+        final List<SampledSpectrumVisitor> sedOps = new ArrayList<>();
+        final List<SampledSpectrumVisitor> skyOps = new ArrayList<>();
+
         final SampledSpectrumVisitor tel = new TelescopeApertureVisitor();
-        sed.accept(tel);
+        sedOps.add(tel);
 
         // SED is now in units of photons/s/nm
 
@@ -253,14 +338,14 @@ public final class SEDFactory {
         // output: SED and sky background as they arrive at instruments
 
         final SampledSpectrumVisitor clouds = CloudTransmissionVisitor.create(odp.cc());
-        sed.accept(clouds);
+        sedOps.add(clouds);
 
         final SampledSpectrumVisitor water = WaterTransmissionVisitor.create(
                 instrument,
                 odp.wv(),
                 odp.airmass(),
                 getWater(instrument));
-        sed.accept(water);
+        sedOps.add(water);
 
         // Background spectrum is introduced here.
         final VisitableSampledSpectrum sky = SEDFactory.getSED(getSky(instrument, odp), instrument.getSampling());
@@ -268,48 +353,43 @@ public final class SEDFactory {
 
         // Apply telescope transmission to both sed and sky
         final SampledSpectrumVisitor t = TelescopeTransmissionVisitor.create(tp);
-        sed.accept(t);
-        sky.accept(t);
+        sedOps.add(t);
+        skyOps.add(t);
 
         // Create and Add background for the telescope.
         final SampledSpectrumVisitor tb = new TelescopeBackgroundVisitor(instrument, tp);
-        sky.accept(tb);
+        skyOps.add(tb);
+
+        // Module 5b
+        // The instrument with its detectors modifies the source and
+        // background spectra.
+        // input: instrument, source and background SED
+        // output: total flux of source and background.
+        // Nothing else happens to the source before the AO system is applied, so the source
+        // is convolved with the instrument right away for all instruments.
+        sedOps.addAll(instrument.getComponents());
+        sed.accept(SpectrumPipeline.of(sedOps));
 
         // FOR GSAOI and NIRI ADD AO STUFF HERE
         if (instrument instanceof Gsaoi || instrument instanceof Niri || instrument instanceof Gnirs) {
-            // Moved section where sky/sed is convolved with instrument below Altair/Gems
-            // section
-            // Module 5b
-            // The instrument with its detectors modifies the source and
-            // background spectra.
-            // input: instrument, source and background SED
-            // output: total flux of source and background.
-            // TODO: for GSAOI and NIRI convolve here, why??
-            instrument.convolveComponents(sed);
             if (ao.isDefined()) {
+                sky.accept(SpectrumPipeline.of(skyOps));
+                skyOps.clear();
                 halo = Option.apply(SEDFactory.applyAoSystem(ao.get(), sky, sed));
             }
         }
 
-        sky.accept(tel);
+        skyOps.add(tel);
 
         // Add instrument background to sky background for a total background.
         // At this point "sky" is not the right name.
-        instrument.addBackground(sky);
+        skyOps.add(instrument.getBackgroundVisitor());
 
         // Module 4 AO module not implemented
         // The AO module affects source and background SEDs.
 
-        // Module 5b
-        // The instrument with its detectors modifies the source and
-        // background spectra.
-        // input: instrument, source and background SED
-        // output: total flux of source and background.
-        if (!(instrument instanceof Gsaoi) && !(instrument instanceof Niri) && !(instrument instanceof Gnirs)) {
-            // TODO: for any instrument other than GSAOI and NIRI convolve here, why?
-            instrument.convolveComponents(sed);
-        }
-        instrument.convolveComponents(sky);
+        skyOps.addAll(instrument.getComponents());
+        sky.accept(SpectrumPipeline.of(skyOps));
 
         // TODO: AO (FOR NIFS DONE AT THE VERY END, WHY DIFFERENT FROM GSAOI/NIRI?)
         if (instrument instanceof Nifs && ao.isDefined()) {
@@ -321,9 +401,8 @@ public final class SEDFactory {
     }
 
     public static VisitableSampledSpectrum applyAoSystem(final AOSystem ao, final VisitableSampledSpectrum sky, final VisitableSampledSpectrum sed) {
-        sky.accept(ao.getBackgroundVisitor());
+        sky.accept(SpectrumPipeline.of(ao.getBackgroundVisitor(), ao.getTransmissionVisitor()));
         sed.accept(ao.getTransmissionVisitor());
-        sky.accept(ao.getTransmissionVisitor());
 
         final VisitableSampledSpectrum halo = (VisitableSampledSpectrum) sed.clone();
         halo.accept(ao.getHaloFluxAttenuationVisitor());
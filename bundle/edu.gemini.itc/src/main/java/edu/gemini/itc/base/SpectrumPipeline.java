@@ -0,0 +1,138 @@
+package edu.gemini.itc.base;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A chain of visitors applied to a spectrum one after the other.
+ * Runs of consecutive {@link PointwiseVisitor}s are fused: instead of each
+ * of them making its own pass over the spectrum, the spectrum is processed
+ * in small blocks which are copied into a per-thread scratch buffer, passed
+ * through all point-wise operations of the run and written back.  Only the
+ * visitors that need the whole spectrum (e.g. resampling or convolutions)
+ * are applied on their own.
+ * <p/>
+ * The result is exactly the same as the one from applying the visitors one
+ * by one.
+ */
+public final class SpectrumPipeline implements SampledSpectrumVisitor {
+
+    // Small enough for the block to stay in the L1 cache while all operations are applied.
+    private static final int BLOCK_SIZE = 512;
+
+    private static final ThreadLocal<double[]> SCRATCH = ThreadLocal.withInitial(() -> new double[BLOCK_SIZE]);
+
+    private final SampledSpectrumVisitor[] stages;
+
+    private SpectrumPipeline(final List<SampledSpectrumVisitor> visitors) {
+        final List<SampledSpectrumVisitor> stages = new ArrayList<>();
+        final List<PointwiseVisitor> run = new ArrayList<>();
+        for (final SampledSpectrumVisitor v : visitors) {
+            if (v instanceof PointwiseVisitor) {
+                run.add((PointwiseVisitor) v);
+            } else {
+                if (!run.isEmpty()) stages.add(new Fused(run));
+                run.clear();
+                stages.add(v);
+            }
+        }
+        if (!run.isEmpty()) stages.add(new Fused(run));
+        this.stages = stages.toArray(new SampledSpectrumVisitor[stages.size()]);
+    }
+
+    /**
+     * Creates a pipeline for the given visitors, to be applied in the given order.
+     */
+    public static SpectrumPipeline of(final SampledSpectrumVisitor... visitors) {
+        return new SpectrumPipeline(Arrays.asList(visitors));
+    }
+
+    /**
+     * Creates a pipeline for the given visitors, to be applied in the given order.
+     */
+    public static SpectrumPipeline of(final List<? extends SampledSpectrumVisitor> visitors) {
+        return new SpectrumPipeline(new ArrayList<>(visitors));
+    }
+
+    @Override public void visit(final SampledSpectrum sed) {
+        for (final SampledSpectrumVisitor v : stages) {
+            v.visit(sed);
+        }
+    }
+
+    // A run of point-wise visitors applied in a single pass.
+    private static final class Fused implements SampledSpectrumVisitor {
+        private final PointwiseVisitor[] ops;
+
+        Fused(final List<PointwiseVisitor> ops) {
+            this.ops = ops.toArray(new PointwiseVisitor[ops.size()]);
+        }
+
+        @Override public void visit(final SampledSpectrum sed) {
+            final double[] y = SCRATCH.get();
+            final int length = sed.getLength();
+            for (int offset = 0; offset < length; offset += BLOCK_SIZE) {
+                final int len = Math.min(BLOCK_SIZE, length - offset);
+                for (int k = 0; k < len; ++k) {
+                    y[k] = sed.getY(offset + k);
+                }
+                for (final PointwiseVisitor op : ops) {
+                    op.apply(sed, offset, y, len);
+                }
+                for (int k = 0; k < len; ++k) {
+                    sed.setY(offset + k, y[k]);
+                }
+            }
+        }
+    }
+
+    // ===== Helpers for point-wise operations
+
+    /**
+     * Multiplies a block of values with the given curve, linearly interpolated
+     * at the wavelengths of the values.  Same as <code>y * curve.getY(x)</code>
+     * for each value.
+     */
+    public static void multiply(final ArraySpectrum curve, final SampledSpectrum sed, final int offset, final double[] y, final int len) {
+        combine(curve, sed, offset, y, len, true);
+    }
+
+    /**
+     * Adds the given curve, linearly interpolated at the wavelengths of the
+     * values, to a block of values.  Same as <code>curve.getY(x) + y</code>
+     * for each value.
+     */
+    public static void add(final ArraySpectrum curve, final SampledSpectrum sed, final int offset, final double[] y, final int len) {
+        combine(curve, sed, offset, y, len, false);
+    }
+
+    // The wavelengths of a block are increasing, so rather than doing a binary search for
+    // every value as ArraySpectrum.getY(x) does we only search for the first one and then
+    // walk along the curve. The interpolation itself is identical to getY(x).
+    private static void combine(final ArraySpectrum curve, final SampledSpectrum sed, final int offset, final double[] y, final int len, final boolean multiply) {
+        final double start = curve.getStart();
+        final double end   = curve.getEnd();
+        int low = -1;
+        for (int k = 0; k < len; ++k) {
+            final double x = sed.getX(offset + k);
+            double v = 0;
+            if (x >= start && x <= end) {
+                // index of the point with the largest wavelength smaller than x, or 0
+                if (low < 0 || (low > 0 && curve.getX(low) >= x)) {
+                    low = curve.getLowerIndex(x);
+                } else {
+                    while (curve.getX(low + 1) < x) ++low;
+                }
+                final double y1    = curve.getY(low);
+                final double y2    = curve.getY(low + 1);
+                final double x1    = curve.getX(low);
+                final double x2    = curve.getX(low + 1);
+                final double slope = (y2 - y1) / (x2 - x1);
+                v = slope * (x - x1) + y1;
+            }
+            y[k] = multiply ? y[k] * v : v + y[k];
+        }
+    }
+
+}
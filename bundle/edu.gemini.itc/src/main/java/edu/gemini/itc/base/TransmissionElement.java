@@ -9,7 +9,7 @@ package edu.gemini.itc.base;
  * class that knows something about the data file naming conventions
  * for that type of element.
  */
-public class TransmissionElement implements SampledSpectrumVisitor {
+public class TransmissionElement implements PointwiseVisitor {
 
     private final ArraySpectrum _trans;
 
@@ -30,12 +30,8 @@ public class TransmissionElement implements SampledSpectrumVisitor {
     /**
      * Apply the transmission convolution for this component.
      */
-    public void visit(final SampledSpectrum sed) {
-        for (int i = 0; i < sed.getLength(); i++) {
-            final double startval = sed.getX(i);
-            final double multiplier = _trans.getY(startval);
-            sed.setY(i, sed.getY(i) * multiplier);
-        }
+    public void apply(final SampledSpectrum sed, final int offset, final double[] y, final int len) {
+        SpectrumPipeline.multiply(_trans, sed, offset, y, len);
     }
 
     public ArraySpectrum get_trans() {
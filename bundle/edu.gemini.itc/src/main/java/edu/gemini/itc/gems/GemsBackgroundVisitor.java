@@ -6,7 +6,7 @@ import edu.gemini.itc.base.*;
  * The GemsBackgroundVisitor class is designed to adjust the SED for the
  * background given off by gems.
  */
-public class GemsBackgroundVisitor implements SampledSpectrumVisitor {
+public class GemsBackgroundVisitor implements PointwiseVisitor {
 
     private ArraySpectrum _gemsBack = null;
 
@@ -24,12 +24,10 @@ public class GemsBackgroundVisitor implements SampledSpectrumVisitor {
 
 
     /**
-     * Implements the SampledSpectrumVisitor interface
+     * Implements the PointwiseVisitor interface
      */
-    public void visit(SampledSpectrum sed) {
-        for (int i = 0; i < sed.getLength(); i++) {
-            sed.setY(i, _gemsBack.getY(sed.getX(i)) + sed.getY(i));
-        }
+    public void apply(SampledSpectrum sed, int offset, double[] y, int len) {
+        SpectrumPipeline.add(_gemsBack, sed, offset, y, len);
     }
 
 
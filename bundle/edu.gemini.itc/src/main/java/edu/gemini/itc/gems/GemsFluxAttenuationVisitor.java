@@ -1,13 +1,13 @@
 package edu.gemini.itc.gems;
 
+import edu.gemini.itc.base.PointwiseVisitor;
 import edu.gemini.itc.base.SampledSpectrum;
-import edu.gemini.itc.base.SampledSpectrumVisitor;
 
 /**
  * The GemsFluxAttenuationVisitor class is designed to adjust the SED for the
  * by the FluxAttenuation factor of gems.
  */
-public class GemsFluxAttenuationVisitor implements SampledSpectrumVisitor {
+public class GemsFluxAttenuationVisitor implements PointwiseVisitor {
 
     private double fluxAttenuationFactor;
 
@@ -22,11 +22,12 @@ public class GemsFluxAttenuationVisitor implements SampledSpectrumVisitor {
 
 
     /**
-     * Implements the SampledSpectrumVisitor interface
+     * Implements the PointwiseVisitor interface
      */
-    public void visit(SampledSpectrum sed) {
-        //use the sed provided rescale Y instead of above equivalent algorithm
-        sed.rescaleY(fluxAttenuationFactor);
+    public void apply(SampledSpectrum sed, int offset, double[] y, int len) {
+        for (int i = 0; i < len; i++) {
+            y[i] *= fluxAttenuationFactor;
+        }
     }
 
 
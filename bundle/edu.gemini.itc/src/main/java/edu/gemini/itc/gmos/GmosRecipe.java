@@ -3,6 +3,7 @@ package edu.gemini.itc.gmos;
 import edu.gemini.itc.base.GaussianMorphology;
 import edu.gemini.itc.base.ImagingArrayRecipe;
 import edu.gemini.itc.base.ImagingResult;
+import edu.gemini.itc.base.ItcCompute;
 import edu.gemini.itc.base.Recipe$;
 import edu.gemini.itc.base.SEDFactory;
 import edu.gemini.itc.base.SpectroscopyArrayRecipe;
@@ -108,22 +109,16 @@ public final class GmosRecipe implements ImagingArrayRecipe, SpectroscopyArrayRe
         return Recipe$.MODULE$.serviceGroupedResult(r, groups, headless);
     }
 
+    // The calculations for the different CCDs are independent of each other and run in parallel.
     public SpectroscopyResult[] calculateSpectroscopy() {
         final Gmos[] ccdArray = mainInstrument.getDetectorCcdInstruments();
-        final SpectroscopyResult[] results = new SpectroscopyResult[ccdArray.length];
-        for (int i = 0; i < ccdArray.length; i++) {
-            final Gmos instrument = ccdArray[i];
-            results[i] = calculateSpectroscopy(mainInstrument, instrument, ccdArray.length);
-        }
-        return results;
+        final List<SpectroscopyResult> results = ItcCompute.map(ccdArray.length, i -> calculateSpectroscopy(mainInstrument, ccdArray[i], ccdArray.length));
+        return results.toArray(new SpectroscopyResult[results.size()]);
     }
 
     public ImagingResult[] calculateImaging() {
         final Gmos[] ccdArray = mainInstrument.getDetectorCcdInstruments();
-        final List<ImagingResult> results = new ArrayList<>();
-        for (final Gmos instrument : ccdArray) {
-            results.add(calculateImagingDo(instrument));
-        }
+        final List<ImagingResult> results = ItcCompute.map(ccdArray.length, i -> calculateImagingDo(ccdArray[i]));
         return results.toArray(new ImagingResult[results.size()]);
     }
 
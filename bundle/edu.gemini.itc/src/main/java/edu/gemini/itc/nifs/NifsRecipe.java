@@ -160,11 +160,15 @@ public final class NifsRecipe implements SpectroscopyRecipe {
             if (altair.isDefined()) {
                 specS2N.setHaloSpectrum(calcSource.halo.get(), new SlitThroughput(haloThroughput, haloThroughput), IQcalc.getImageQuality());
             }
-            calcSource.sed.accept(specS2N);
+            // the source and sky spectra are resampled again for every IFU element, so this has to be done in order,
+            // the rest of the calculations for the elements are independent of each other
+            specS2N.prepare();
 
             specS2Narr[i++] = specS2N;
         }
 
+        ItcCompute.forEach(specS2Narr.length, j -> ((SpecS2NSlitVisitor) specS2Narr[j]).calculate());
+
         return new SpectroscopyResult(p, instrument, IQcalc, specS2Narr, null, 0, altair);
     }
 
@@ -76,11 +76,12 @@ public class SpecS2NSlitVisitor implements SampledSpectrumVisitor, SpecS2N {
         this.darkCurrent    = darkCurrent;
         this.readNoise      = readNoise;
 
-        // Currently SpectroscopySN is the only supported calculation method for spectroscopy.
+        // For integration time calculations the S/N is calculated for a single exposure, the number of exposures
+        // needed to reach the requested S/N is derived from that (see ExposureSolver).
         final CalculationMethod calcMethod = odp.calculationMethod();
-        if (!(calcMethod instanceof SpectroscopyS2N)) throw new Error("Unsupported calculation method");
+        if (!(calcMethod instanceof SpectroscopyS2N) && !(calcMethod instanceof SpectroscopyInt)) throw new Error("Unsupported calculation method");
         this.coadds = calcMethod.coaddsOrElse(1);
-        this.numberExposures = ((SpectroscopyS2N) calcMethod).exposures();
+        this.numberExposures = calcMethod instanceof SpectroscopyS2N ? ((SpectroscopyS2N) calcMethod).exposures() : 1;
         this.sourceFraction  = calcMethod.sourceFraction();
         this.exposureTime    = calcMethod.exposureTime();
 
@@ -99,9 +100,28 @@ public class SpecS2NSlitVisitor implements SampledSpectrumVisitor, SpecS2N {
     public void visit(final SampledSpectrum sed) {
         // step one: do some resampling and preprocessing
         resample();
-        // step two: calculate S2N for single and final exposure for given slit
+        // step two and three: calculate S2N and signal and background for single pixel
+        calculate();
+    }
+
+    /**
+     * Does the resampling and preprocessing of the source and background spectra in the same way as
+     * {@link #visit} and then continues to work on copies of them. The remaining work done by {@link #calculate}
+     * does then not depend on the spectra anymore, which can be handed on to the next visitor, e.g. for the
+     * next IFU element, while the results of this one are calculated.
+     */
+    public void prepare() {
+        resample();
+        sourceFlux     = (VisitableSampledSpectrum) sourceFlux.clone();
+        backgroundFlux = (VisitableSampledSpectrum) backgroundFlux.clone();
+        if (haloIsUsed) haloFlux = (VisitableSampledSpectrum) haloFlux.clone();
+    }
+
+    /** Calculates the results from the resampled spectra, see {@link #prepare}. */
+    public void calculate() {
+        // calculate S2N for single and final exposure for given slit
         calculateS2N();
-        // step three: calculate signal and background for single pixel
+        // calculate signal and background for single pixel
         calculateSignal();
     }
 
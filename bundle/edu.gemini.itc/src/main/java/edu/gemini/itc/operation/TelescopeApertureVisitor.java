@@ -10,8 +10,8 @@
 //
 package edu.gemini.itc.operation;
 
+import edu.gemini.itc.base.PointwiseVisitor;
 import edu.gemini.itc.base.SampledSpectrum;
-import edu.gemini.itc.base.SampledSpectrumVisitor;
 
 /**
  * This class encapsulates information about the telescope aperture.
@@ -19,7 +19,7 @@ import edu.gemini.itc.base.SampledSpectrumVisitor;
  * It also functions as a visitor to a SED.
  * The main function is to convert a SED from "flux per m^2" to absolute flux.
  */
-public final class TelescopeApertureVisitor implements SampledSpectrumVisitor {
+public final class TelescopeApertureVisitor implements PointwiseVisitor {
     /**
      * Area of 8 meter-diameter mirror minus 1 meter hole in middle.
      * (radius = 4 meters)
@@ -31,10 +31,10 @@ public final class TelescopeApertureVisitor implements SampledSpectrumVisitor {
      * Current values in the SED are probably "per m^2".
      * This operation multiplies each spectrum value by the telescope area.
      */
-    public void visit(SampledSpectrum sed) {
-        sed.rescaleY(TELESCOPE_APERTURE);
-        //Total fudge just to do one quick calculation.  CHANGE THIS BACK
-        //sed.rescaleY(40.66);
+    public void apply(SampledSpectrum sed, int offset, double[] y, int len) {
+        for (int i = 0; i < len; i++) {
+            y[i] *= TELESCOPE_APERTURE;
+        }
     }
 
     public String toString() {
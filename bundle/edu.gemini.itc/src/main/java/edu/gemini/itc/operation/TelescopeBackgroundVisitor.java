@@ -8,7 +8,7 @@ import edu.gemini.spModel.core.Site;
  * The TelescopeBackgroundVisitor class is designed to adjust the SED for the
  * background given off by the telescope.
  */
-public class TelescopeBackgroundVisitor implements SampledSpectrumVisitor {
+public class TelescopeBackgroundVisitor implements PointwiseVisitor {
 
     private final ArraySpectrum telescopeBack;
     private final String setup;
@@ -68,12 +68,10 @@ public class TelescopeBackgroundVisitor implements SampledSpectrumVisitor {
     }
 
     /**
-     * Implements the SampledSpectrumVisitor interface
+     * Implements the PointwiseVisitor interface
      */
-    public void visit(SampledSpectrum sed) {
-        for (int i = 0; i < sed.getLength(); i++) {
-            sed.setY(i, telescopeBack.getY(sed.getX(i)) + sed.getY(i));
-        }
+    public void apply(SampledSpectrum sed, int offset, double[] y, int len) {
+        SpectrumPipeline.add(telescopeBack, sed, offset, y, len);
     }
 
     public String toString() {
@@ -0,0 +1,85 @@
+package edu.gemini.itc.base
+
+import java.io.{ByteArrayOutputStream, InputStream}
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.{Paths, StandardOpenOption}
+import java.util.logging.Logger
+
+/**
+ * Reader for the precompiled binary form of numeric data files, which is generated at build time for every
+ * .dat and .nm resource that contains only numbers (see `DatFileCompiler` in the build definition).
+ * The binary file sits next to the original resource with an additional ".bin" suffix and holds
+ *
+ *  - a header with magic number, format version, number of leading scalars k and number of rows n,
+ *  - the k leading scalars (e.g. the effective wavelength of a filter),
+ *  - the n values of the first column followed by the n values of the second column,
+ *
+ * all big-endian. Resources on the file system are memory mapped, resources in a jar or bundle are read in
+ * one go; either way the columns are copied straight into primitive arrays without any parsing.
+ */
+object BinaryDatFile {
+  lazy val Log = Logger.getLogger(getClass.getName)
+
+  val Magic   = 0x49544344    // "ITCD"
+  val Version = 1
+  val Suffix  = ".bin"
+
+  private val HeaderSize = 16
+
+  /** The content of a binary data file. */
+  final case class Content(scalars: Array[Double], data: DatFile.Data)
+
+  /**
+   * Loads the binary form of the given resource, if there is one. Returns None if no binary was generated
+   * for the resource or it is not in a format we understand, in which case the text must be parsed instead.
+   */
+  def load(f: String): Option[Content] =
+    Option(getClass.getResource(f + Suffix)).flatMap { url =>
+      val buf =
+        if (url.getProtocol == "file") {
+          val ch = FileChannel.open(Paths.get(url.toURI), StandardOpenOption.READ)
+          try ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size) finally ch.close()
+        } else {
+          val is = url.openStream()
+          try ByteBuffer.wrap(readAll(is)) finally is.close()
+        }
+      read(f, buf)
+    }
+
+  private def readAll(is: InputStream): Array[Byte] = {
+    val out = new ByteArrayOutputStream(64 * 1024)
+    val buf = new Array[Byte](64 * 1024)
+    var n   = is.read(buf)
+    while (n >= 0) {
+      out.write(buf, 0, n)
+      n = is.read(buf)
+    }
+    out.toByteArray
+  }
+
+  /** Decodes a binary data file. */
+  def read(f: String, buf: ByteBuffer): Option[Content] = {
+    if (buf.remaining < HeaderSize || buf.getInt(0) != Magic || buf.getInt(4) != Version) {
+      Log.warning(s"Ignoring binary data file for $f with unknown format")
+      None
+    } else {
+      val k  = buf.getInt(8)
+      val n  = buf.getInt(12)
+      if (buf.remaining != HeaderSize + 8L * (k + 2L * n)) {
+        Log.warning(s"Ignoring truncated binary data file for $f")
+        None
+      } else {
+        buf.position(HeaderSize)
+        val ds      = buf.asDoubleBuffer()
+        val scalars = new Array[Double](k)
+        val data    = Array(new Array[Double](n), new Array[Double](n))
+        ds.get(scalars)
+        ds.get(data(0))
+        ds.get(data(1))
+        Some(Content(scalars, data))
+      }
+    }
+  }
+
+}
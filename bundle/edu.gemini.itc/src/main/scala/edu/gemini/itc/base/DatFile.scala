@@ -5,7 +5,6 @@ import java.util.logging.Logger
 import java.util.regex.Pattern
 
 import scala.collection._
-import scalaz._
 
 /**
  * Set of tools to ingest dat files stored as resource files.
@@ -15,6 +14,8 @@ import scalaz._
  * know all the numbers are doubles. Using scan.next().toDouble is much more efficient than scan.nextDouble().
  * The contract regarding missing files and parsing errors is that this results in unchecked exceptions which
  * bubble all the way up to the servlet. This isn't better or worse than what we had originally.
+ * Purely numeric files are also precompiled into a binary form at build time (see [[BinaryDatFile]]) which
+ * the loaders below use instead of the text whenever it is available.
  */
 object DatFile {
   lazy val Log = Logger.getLogger(getClass.getName)
@@ -86,29 +87,55 @@ object DatFile {
 
   // ===== Cached data file loaders
 
-  val arrays = cache { s =>
-    scanArray(s)
+  // All loaders share one cache whose size is bounded by the estimated size of the loaded data. By default it
+  // is big enough to hold everything in the steady state.
+  val CacheSizeProp    = getClass.getName.stripSuffix("$") + ".cacheSize"
+  val DefaultCacheSize = 256L * 1024 * 1024
+
+  private val Files = new DatFileCache(java.lang.Long.getLong(CacheSizeProp, DefaultCacheSize))
+
+  val arrays: String => Data = cache(dataSize)(readArrays)
+
+  val filters: String => Filter = cache((f: Filter) => dataSize(f.data)) { f =>
+    BinaryDatFile.load(f).filter(_.scalars.length == 1).fold {
+      withScanner(f)(s => Filter(s.nextDouble(), scanArray(s)))
+    } { c =>
+      Filter(c.scalars(0), c.data)
+    }
   }
 
-  val filters = cache { s =>
-    Filter(s.nextDouble(), scanArray(s))
+  val gratings: String => immutable.Map[String, Grating] = cache((m: immutable.Map[String, Grating]) => 256L * m.size) { f =>
+    withScanner(f) { s =>
+      val l = mutable.MutableList[Grating]()
+      while (s.hasNext) {
+        val name           = s.next()
+        val blaze          = s.nextInt()
+        val resolvingPower = s.nextInt()
+        val resolution     = s.nextDouble()
+        val dispersion     = s.nextDouble()
+        l.+=(Grating(name, resolvingPower, blaze, dispersion, resolution))
+      }
+      l.map(l => l.name -> l).toMap
+    }
   }
 
-  val gratings = cache { s =>
-    val l = mutable.MutableList[Grating]()
-    while (s.hasNext) {
-      val name           = s.next()
-      val blaze          = s.nextInt()
-      val resolvingPower = s.nextInt()
-      val resolution     = s.nextDouble()
-      val dispersion     = s.nextDouble()
-      l.+=(Grating(name, resolvingPower, blaze, dispersion, resolution))
+  val instruments: String => Instrument = cache((_: Instrument) => 256L) { f =>
+    withScanner(f) { s =>
+      Instrument(s.next, s.nextInt, s.nextInt, s.nextDouble, s.next, s.nextDouble, s.nextDouble, s.nextDouble)
     }
-    l.map(l => l.name -> l).toMap
   }
 
-  val instruments = cache { s =>
-    Instrument(s.next, s.nextInt, s.nextInt, s.nextDouble, s.next, s.nextDouble, s.nextDouble, s.nextDouble)
+  /** Reads a two column data file, bypassing the cache. The binary form is used if there is one. */
+  def readArrays(f: String): Data =
+    BinaryDatFile.load(f).filter(_.scalars.isEmpty).fold(parseArrays(f))(_.data)
+
+  /** Parses the text form of a two column data file, bypassing the cache. */
+  def parseArrays(f: String): Data =
+    withScanner(f)(scanArray)
+
+  private def withScanner[T](f: String)(load: Scanner => T): T = {
+    val s = scanFile(f)
+    try load(s) finally s.close()
   }
 
   private def scanArray(s: Scanner): Array[Array[Double]] = {
@@ -123,11 +150,16 @@ object DatFile {
     data
   }
 
-  /** Loads a file and parses it using the given scanner unless it is already available in the cache. */
-  // Note: this could be changed to use a weak hash map in case we run into memory issues
-  private def cache[T](load: Scanner => T): String => T = Memo.immutableHashMapMemo[String, T] { f =>
-    Log.fine(s"Caching file $f")
-    load(scanFile(f))
+  private def dataSize(d: Data): Long =
+    d.map(16L + 8L * _.length).sum
+
+  /** Loads a file using the given loader unless it is already available in the cache. */
+  private def cache[T](size: T => Long)(load: String => T): String => T = {
+    val loader = new AnyRef  // identifies the loader in the cache key
+    f => Files.get(loader, f, size) {
+      Log.fine(s"Caching file $f")
+      load(f)
+    }
   }
 
 }
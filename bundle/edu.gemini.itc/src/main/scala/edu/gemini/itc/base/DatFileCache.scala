@@ -0,0 +1,62 @@
+package edu.gemini.itc.base
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+import scala.collection.JavaConverters._
+
+/**
+ * A concurrent cache for the content of data files, bounded by the estimated size of the content.
+ * Lookups don't take any locks; they only stamp the entry with a counter so that the least recently used
+ * entries can be dropped once the limit is exceeded. Two threads that miss on the same file at the same time
+ * may both load it; since the files never change that is harmless and only one of the results is kept.
+ */
+final class DatFileCache(maxBytes: Long) {
+
+  private final case class Key(loader: AnyRef, file: String)
+
+  private final class Entry(val value: Any, val size: Long) {
+    @volatile var used: Long = clock.incrementAndGet()
+  }
+
+  private val clock   = new AtomicLong
+  private val bytes   = new AtomicLong
+  private val entries = new ConcurrentHashMap[Key, Entry]()
+
+  /**
+   * Gets the content of the file as loaded by the given loader, loading it if necessary.
+   * @param loader identifies the loader, since the same file can be loaded in different ways
+   * @param size   estimates the memory used by the loaded content, in bytes
+   */
+  def get[T](loader: AnyRef, file: String, size: T => Long)(load: => T): T = {
+    val key = Key(loader, file)
+    val e   = Option(entries.get(key)).getOrElse {
+      val v = load
+      val n = new Entry(v, size(v))
+      Option(entries.putIfAbsent(key, n)).getOrElse {
+        if (bytes.addAndGet(n.size) > maxBytes) evict()
+        n
+      }
+    }
+    e.used = clock.incrementAndGet()
+    e.value.asInstanceOf[T]
+  }
+
+  // Drops the least recently used entries until we're back under the limit.
+  private def evict(): Unit = synchronized {
+    if (bytes.get > maxBytes) {
+      val lru = entries.entrySet.asScala.toArray.sortBy(_.getValue.used).iterator
+      while (bytes.get > maxBytes && lru.hasNext) {
+        val e = lru.next()
+        if (entries.remove(e.getKey, e.getValue)) bytes.addAndGet(-e.getValue.size)
+      }
+    }
+  }
+
+  /** Number of cached files. */
+  def size: Int = entries.size
+
+  /** Estimated memory used by the cached content, in bytes. */
+  def estimatedBytes: Long = bytes.get
+
+}
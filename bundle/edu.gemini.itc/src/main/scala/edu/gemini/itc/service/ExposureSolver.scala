@@ -0,0 +1,88 @@
+package edu.gemini.itc.service
+
+import edu.gemini.itc.shared._
+
+import scalaz._
+import Scalaz._
+
+/**
+ * Solves spectroscopy integration time calculations. The recipes calculate the final S/N for a single exposure,
+ * the number of exposures needed to reach the requested S/N is then found from that result. Since the final S/N
+ * grows with the square root of the number of exposures (all noise terms are per exposure) this only needs the
+ * final S/N of one exposure; the source and sky spectra don't need to be calculated again for each candidate.
+ * The number of exposures is rounded up to one that puts a whole number of exposures on source, as required by
+ * `Validation`.
+ */
+object ExposureSolver {
+
+  // How far past the number of exposures needed for the S/N to look for one that suits the source fraction.
+  private val MaxExtraExposures = 1000
+
+  /**
+   * Finds the number of exposures needed to reach the S/N requested by the given method and updates the final
+   * S/N values of the single exposure result accordingly. The result must contain the S/N charts.
+   */
+  def solve(m: SpectroscopyInt, single: ItcSpectroscopyResult): ItcError \/ ItcSpectroscopyResult = {
+    val series = single.chartGroups.flatMap(_.charts).filter(_.chartType == S2NChart).flatMap(_.allSeries(FinalS2NData))
+
+    for {
+      s1 <- singleS2N(m, series)
+      n  <- exposures(m.sigma, s1, m.sourceFraction)
+    } yield {
+      val f = math.sqrt(n.toDouble)
+      ItcSpectroscopyResult(
+        single.ccds.map(c => c.copy(totalSNRatio = c.totalSNRatio * f)),
+        single.chartGroups.map(g => SpcChartGroup(g.charts.map(c => c.copy(series = c.series.map(scaled(_, f)))))),
+        Some(ItcExposures(n, m.coaddsOrElse(1), m.exposureTime))
+      )
+    }
+  }
+
+  // The final S/N for a single exposure at the requested wavelength, or the peak S/N if no wavelength is given.
+  private def singleS2N(m: SpectroscopyInt, series: List[SpcSeriesData]): ItcError \/ Double =
+    m.wavelength match {
+      case None    =>
+        series.flatMap(_.yValues).filterNot(_.isNaN) match {
+          case Nil => ItcError("No S/N values available to calculate the number of exposures.").left
+          case ys  => ys.max.right
+        }
+      case Some(w) =>
+        series.flatMap(interpolated(_, w)) match {
+          case Nil => ItcError(f"The wavelength $w%.2f nm is outside of the observed range.").left
+          case ys  => ys.max.right
+        }
+    }
+
+  // Linear interpolation of the series data at wavelength w, if w is covered by the series.
+  private def interpolated(s: SpcSeriesData, w: Double): Option[Double] = {
+    val xs = s.xValues
+    val ys = s.yValues
+    val i  = xs.indexWhere(_ >= w)
+    if (xs.isEmpty || i < 0 || w < xs(0)) None
+    else if (i == 0 || xs(i) == w) Some(ys(i))
+    else Some(ys(i - 1) + (ys(i) - ys(i - 1)) * (w - xs(i - 1)) / (xs(i) - xs(i - 1)))
+  }
+
+  // The smallest number of exposures n with sqrt(n) * s1 >= sigma that puts a whole number of exposures on source.
+  private def exposures(sigma: Double, s1: Double, sourceFraction: Double): ItcError \/ Int =
+    if (s1 <= 0 || s1.isNaN) {
+      ItcError("The S/N for a single exposure is zero, the requested S/N can not be reached.").left
+    } else {
+      // allow for rounding errors when sigma / s1 is very close to a whole number
+      val n = math.max(1.0, math.ceil((sigma / s1) * (sigma / s1) - 1e-9))
+      if (n > Int.MaxValue - MaxExtraExposures) ItcError(f"The requested S/N of $sigma%.2f can not be reached in a reasonable number of exposures.").left
+      else (n.toInt to n.toInt + MaxExtraExposures).find(wholeOnSource(_, sourceFraction)) \/> ItcError(f"No number of exposures gives a whole number of exposures on source for a source fraction of $sourceFraction%.2f.")
+    }
+
+  // Whether n exposures put a whole number of exposures on source, give or take 0.2, which is what
+  // Validation.checkSourceFraction accepts.
+  private def wholeOnSource(n: Int, sourceFraction: Double): Boolean = {
+    val onSource = n * sourceFraction
+    math.abs(onSource - (onSource + 0.5).toInt) <= 0.2
+  }
+
+  private def scaled(s: SpcSeriesData, f: Double): SpcSeriesData =
+    if (s.dataType != FinalS2NData) s
+    else SpcSeriesData.withVisibility(s.displayInLegend, s.dataType, s.title, Array(s.xValues, s.yValues.map(_ * f)), s.color)
+
+}
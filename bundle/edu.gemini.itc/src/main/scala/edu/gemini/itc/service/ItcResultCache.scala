@@ -0,0 +1,195 @@
+package edu.gemini.itc.service
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+
+import edu.gemini.itc.shared._
+import edu.gemini.itc.shared.ItcService.Result
+import edu.gemini.spModel.core.UserDefinedSpectrum
+
+import scala.concurrent.duration.Duration
+import scala.concurrent.{Await, Future, Promise}
+
+/**
+ * A bounded cache of ITC results keyed by the calculation parameters.
+ *
+ * ITC calculations are pure functions of their parameters, so the parameters themselves, compared by their
+ * structural (case class) equality and hash, serve as the key. Parameters must be given after any user defined
+ * SED has been read from its aux file, which makes the key depend on the SED content rather than the file name.
+ *
+ * Entries are evicted in least recently used order once the estimated size of all cached results exceeds a
+ * limit, and expire after a fixed time to live. Only successful results are cached. Concurrent requests for the
+ * same parameters are collapsed into a single calculation.
+ *
+ * Cached results are shared between callers and must not be modified.
+ */
+final class ItcResultCache(maxBytes: Long, ttlMillis: Long, clock: () => Long = () => System.currentTimeMillis) {
+
+  import ItcResultCache._
+
+  private case class Key(params: ItcParameters, headless: Boolean)
+  private case class Entry(result: Result, bytes: Long, created: Long)
+
+  // LRU ordered entries and their total estimated size, guarded by `this`
+  private val entries = new java.util.LinkedHashMap[Key, Entry](16, 0.75f, true)
+  private var bytes   = 0L
+
+  // calculations currently running
+  private val inFlight = new ConcurrentHashMap[Key, Future[Result]]()
+
+  private val hits          = new LongAdder
+  private val misses        = new LongAdder
+  private val joined        = new LongAdder
+  private val evictions     = new LongAdder
+  private val expirations   = new LongAdder
+  private val invalidations = new LongAdder
+
+  /**
+   * Gets the cached result for the given parameters or calculates, caches and returns it.
+   */
+  def getOrCompute(p: ItcParameters, headless: Boolean)(calc: => Result): Result = {
+    val key = Key(p, headless)
+    lookup(key).fold(compute(key, calc)) { r =>
+      hits.increment()
+      r
+    }
+  }
+
+  private def compute(key: Key, calc: => Result): Result = {
+    val promise = Promise[Result]()
+    Option(inFlight.putIfAbsent(key, promise.future)) match {
+      case Some(running) =>
+        // somebody else is already doing this calculation, wait for it
+        joined.increment()
+        Await.result(running, Duration.Inf)
+
+      case None          =>
+        misses.increment()
+        try {
+          val r = calc
+          r.foreach(res => store(key, r, weight(key.params) + weight(res)))
+          promise.success(r)
+          r
+        } catch {
+          case t: Throwable =>
+            promise.failure(t)
+            throw t
+        } finally {
+          inFlight.remove(key)
+        }
+    }
+  }
+
+  private def lookup(key: Key): Option[Result] = synchronized {
+    Option(entries.get(key)).flatMap { e =>
+      if (clock() - e.created < ttlMillis) Some(e.result)
+      else {
+        entries.remove(key)
+        bytes -= e.bytes
+        expirations.increment()
+        None
+      }
+    }
+  }
+
+  private def store(key: Key, r: Result, size: Long): Unit = synchronized {
+    // a result larger than the whole cache is not worth keeping
+    if (size <= maxBytes) {
+      Option(entries.put(key, Entry(r, size, clock()))).foreach(old => bytes -= old.bytes)
+      bytes += size
+
+      val it = entries.values.iterator
+      while (bytes > maxBytes && it.hasNext) {
+        bytes -= it.next.bytes
+        it.remove()
+        evictions.increment()
+      }
+    }
+  }
+
+  /**
+   * Removes all entries whose parameters match the given predicate.
+   * @return the number of entries removed
+   */
+  def invalidate(f: ItcParameters => Boolean): Int = synchronized {
+    val it = entries.entrySet.iterator
+    var n  = 0
+    while (it.hasNext) {
+      val e = it.next
+      if (f(e.getKey.params)) {
+        bytes -= e.getValue.bytes
+        it.remove()
+        n += 1
+      }
+    }
+    invalidations.add(n)
+    n
+  }
+
+  /** Removes all entries. */
+  def clear(): Unit = synchronized {
+    entries.clear()
+    bytes = 0
+  }
+
+  def stats: Stats = synchronized {
+    Stats(hits.sum, misses.sum, joined.sum, evictions.sum, expirations.sum, invalidations.sum, entries.size, bytes)
+  }
+
+}
+
+object ItcResultCache {
+
+  val MaxBytesProp = classOf[ItcResultCache].getName + ".maxBytes"
+  val TtlProp      = classOf[ItcResultCache].getName + ".ttl"
+
+  val DefaultMaxBytes: Long = 64L * 1024 * 1024
+  val DefaultTtlSecs: Long  = 30L * 60
+
+  /** Creates a cache sized from the system properties, falling back to the defaults. */
+  def fromSystemProperties(): ItcResultCache =
+    new ItcResultCache(
+      java.lang.Long.getLong(MaxBytesProp, DefaultMaxBytes),
+      java.lang.Long.getLong(TtlProp, DefaultTtlSecs) * 1000)
+
+  final case class Stats(
+    hits:          Long,      // requests answered from the cache
+    misses:        Long,      // requests that were calculated
+    joined:        Long,      // requests that waited for an identical calculation in progress
+    evictions:     Long,      // entries dropped to make room
+    expirations:   Long,      // entries dropped because they were too old
+    invalidations: Long,      // entries dropped because their SED changed
+    entries:       Int,
+    bytes:         Long       // estimated size of the cached results
+  ) {
+    def hitRatio: Double = {
+      val total = hits + misses + joined
+      if (total == 0) 0.0 else (hits + joined).toDouble / total
+    }
+
+    override def toString: String =
+      f"hits=$hits, misses=$misses, joined=$joined, hit ratio=${hitRatio * 100}%.1f%%, evictions=$evictions, expirations=$expirations, invalidations=$invalidations, entries=$entries, size=${bytes / 1024} KiB"
+  }
+
+  // Rough estimates of the memory retained by an entry. Chart data dominates spectroscopy results, and a user
+  // defined SED can make the key itself sizable.
+  private val Overhead = 512L
+
+  private def weight(p: ItcParameters): Long = p.source.distribution match {
+    case UserDefinedSpectrum(_, s) => Overhead + 2L * s.length
+    case _                         => Overhead
+  }
+
+  private def weight(r: ItcResult): Long = r match {
+    case ItcImagingResult(ccds)              =>
+      Overhead * ccds.size
+    case ItcSpectroscopyResult(ccds, groups, _) =>
+      val data = for {
+        g <- groups
+        c <- g.charts
+        s <- c.series
+      } yield s.data.map(_.length.toLong).sum * 8
+      Overhead * ccds.size + data.sum
+  }
+
+}
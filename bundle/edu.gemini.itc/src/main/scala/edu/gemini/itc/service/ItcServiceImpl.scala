@@ -12,54 +12,142 @@ import edu.gemini.itc.niri.NiriRecipe
 import edu.gemini.itc.shared._
 import edu.gemini.spModel.core.{AuxFileSpectrum, UserDefinedSpectrum, SpectralDistribution, SPProgramID}
 
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{ConcurrentHashMap, Executors, ThreadFactory}
+import java.util.function.Supplier
+
+import scala.collection.JavaConverters._
+import scala.concurrent.duration.Duration
+import scala.concurrent.{Await, ExecutionContext, Future}
+
 import scalaz._
 import Scalaz._
 
+object ItcServiceImpl {
+
+  /** Results are shared by all service instances; the web servlets create a new instance for every request. */
+  val ResultCache: ItcResultCache = ItcResultCache.fromSystemProperties()
+
+  // User defined SEDs along with the modification time and size of the aux files they were read from.
+  private case class AuxSed(lastModified: Long, size: Long, sed: SpectralDistribution)
+  private val auxSeds = new ConcurrentHashMap[(String, String), AuxSed]()
+
+  // Runs the calculations of a batch in parallel.
+  private lazy val BatchContext: ExecutionContext = {
+    val count = new AtomicInteger()
+    ExecutionContext.fromExecutorService(Executors.newFixedThreadPool(Runtime.getRuntime.availableProcessors, new ThreadFactory {
+      def newThread(r: Runnable): Thread = {
+        val t = new Thread(r, s"ITC Batch-${count.incrementAndGet()}")
+        t.setDaemon(true)
+        t
+      }
+    }))
+  }
+
+  // Calculations with the same shared key produce the same source and sky spectra; the remaining parameters
+  // (exposure time, coadds, source fraction, offset) only come into play afterwards.
+  private def sharedKey(p: ItcParameters): Any =
+    (p.source, p.conditions, p.telescope, p.instrument, p.observation.calculationMethod.getClass, p.observation.analysisMethod)
+
+}
+
 /**
  * The ITC service implementation.
  *
  * Note that all results are repacked in simplified Scala case classes in order not to leak out any of the
  * implementation details of the underlying ITC functionality.
  */
-class ItcServiceImpl extends ItcService {
+class ItcServiceImpl(cache: ItcResultCache = ItcServiceImpl.ResultCache) extends ItcService {
 
   import ItcService._
+  import ItcServiceImpl._
+
+  /** Gets the hit and miss statistics of the result cache. */
+  def cacheStats: ItcResultCache.Stats = cache.stats
 
   def calculate(p: ItcParameters, headless: Boolean): Result = try {
+    calculateUpdated(updated(p), headless)
+  } catch {
+    case e: Throwable => ItcResult.forException(e)
+  }
 
-    // update parameters sent from client with stuff that needs to be done on the server
-    val updatedParams: ItcParameters = {
+  def calculateBatch(ps: List[ItcParameters], headless: Boolean): List[Result] = {
+
+    // read any aux file SEDs first, a failure here only fails the calculations that need the SED
+    val updatedPs = ps.map(p => \/.fromTryCatchNonFatal(updated(p)))
+
+    // one set of shared source results for each group of calculations that can share them
+    val shared: Map[ItcParameters, SEDFactory.SharedSources] =
+      updatedPs.collect { case \/-(p) => p }.distinct.groupBy(sharedKey).values.flatMap { g =>
+        val s = new SEDFactory.SharedSources
+        g.map(_ -> s)
+      }.toMap
+
+    val results = updatedPs.map {
+      case -\/(e) =>
+        Future.successful(ItcResult.forException(e))
+      case \/-(p) =>
+        Future {
+          try {
+            SEDFactory.withSharedSources(shared(p), new Supplier[Result] {
+              def get(): Result = calculateUpdated(p, headless)
+            })
+          } catch {
+            case e: Throwable => ItcResult.forException(e)
+          }
+        }(BatchContext)
+    }
 
-      // Get the SED data from an aux file. For now we can assume that the ITC service is running on the same
-      // machine as the database (localhost). In case this setup changes, we need to change this here, too.
-      def readAuxFile(id: String, name: String): SpectralDistribution = {
-        val programId     = SPProgramID.toProgramID(id)
-        val spectrumBytes = new AuxFileClient("localhost", 8443).fetchToMemory(programId, name)
-        val spectrum      = new String(spectrumBytes)
-        UserDefinedSpectrum(name, spectrum)
-      }
+    results.map(Await.result(_, Duration.Inf))
+  }
 
-      // if a user defined source distribution is involved we need to read the aux file and update the parameters accordingly
-      def updatedSrc(s: SourceDefinition) = s.distribution match {
-        case AuxFileSpectrum.Undefined    => throw new RuntimeException("The user SED is undefined.")   // "User Defined", but no SED file was available
-        case AuxFileSpectrum(anId, aName) => s.copy(distribution = readAuxFile(anId, aName))            // "User Defined", we need to replace placeholder with aux file
-        case _                            => s                                                          // for all other cases we can use what's there
+  // update parameters sent from client with stuff that needs to be done on the server
+  private def updated(p: ItcParameters): ItcParameters = {
+
+    // Get the SED data from an aux file. For now we can assume that the ITC service is running on the same
+    // machine as the database (localhost). In case this setup changes, we need to change this here, too.
+    // The file is only downloaded again if it was modified since we last read it, in which case any results
+    // calculated for the old SED are dropped from the cache.
+    def readAuxFile(id: String, name: String): SpectralDistribution = {
+      val programId     = SPProgramID.toProgramID(id)
+      val client        = new AuxFileClient("localhost", 8443)
+      val current       = client.list(programId, java.util.Collections.singleton(name)).asScala.headOption
+      val previous      = Option(auxSeds.get((id, name)))
+
+      (current, previous) match {
+        case (Some(f), Some(a)) if f.getLastModified == a.lastModified && f.getSize == a.size =>
+          a.sed
+
+        case _ =>
+          val spectrumBytes = client.fetchToMemory(programId, name)
+          val spectrum      = new String(spectrumBytes)
+          val sed           = UserDefinedSpectrum(name, spectrum)
+          current.foreach(f => auxSeds.put((id, name), AuxSed(f.getLastModified, f.getSize, sed)))
+          previous.filter(_.sed != sed).foreach(a => cache.invalidate(_.source.distribution == a.sed))
+          sed
       }
-
-      // do any updates necessary
-      p.copy(source = updatedSrc(p.source))
     }
 
-    // execute ITC service call with updated parameters
-    updatedParams.observation.calculationMethod match {
-      case _: Imaging       => calculateImaging(updatedParams)
-      case _: Spectroscopy  => calculateSpectroscopy(updatedParams, headless)
+    // if a user defined source distribution is involved we need to read the aux file and update the parameters accordingly
+    def updatedSrc(s: SourceDefinition) = s.distribution match {
+      case AuxFileSpectrum.Undefined    => throw new RuntimeException("The user SED is undefined.")   // "User Defined", but no SED file was available
+      case AuxFileSpectrum(anId, aName) => s.copy(distribution = readAuxFile(anId, aName))            // "User Defined", we need to replace placeholder with aux file
+      case _                            => s                                                          // for all other cases we can use what's there
     }
 
-  } catch {
-    case e: Throwable => ItcResult.forException(e)
+    // do any updates necessary
+    p.copy(source = updatedSrc(p.source))
   }
 
+  // execute ITC service call with updated parameters, unless we've done that already
+  private def calculateUpdated(p: ItcParameters, headless: Boolean): Result =
+    cache.getOrCompute(p, headless) {
+      p.observation.calculationMethod match {
+        case _: Imaging       => calculateImaging(p)
+        case _: Spectroscopy  => calculateSpectroscopy(p, headless)
+      }
+    }
+
   // === Imaging
 
   private def calculateImaging(p: ItcParameters): Result =
@@ -94,27 +182,33 @@ class ItcServiceImpl extends ItcService {
     p.instrument match {
       case i: MichelleParameters          => ItcResult.forMessage ("Spectroscopy not implemented.")
       case i: TRecsParameters             => ItcResult.forMessage ("Spectroscopy not implemented.")
-      case i: Flamingos2Parameters        => spectroscopyResult   (new Flamingos2Recipe(p, i), headless )
-      case i: GmosParameters              => spectroscopyResult   (new GmosRecipe(p, i),       headless )
-      case i: GnirsParameters             => spectroscopyResult   (new GnirsRecipe(p, i),      headless )
-      case i: NifsParameters              => spectroscopyResult   (new NifsRecipe(p, i),       headless )
-      case i: NiriParameters              => spectroscopyResult   (new NiriRecipe(p, i),       headless )
+      case i: Flamingos2Parameters        => spectroscopyResult   (new Flamingos2Recipe(p, i), p, headless )
+      case i: GmosParameters              => spectroscopyResult   (new GmosRecipe(p, i),       p, headless )
+      case i: GnirsParameters             => spectroscopyResult   (new GnirsRecipe(p, i),      p, headless )
+      case i: NifsParameters              => spectroscopyResult   (new NifsRecipe(p, i),       p, headless )
+      case i: NiriParameters              => spectroscopyResult   (new NiriRecipe(p, i),       p, headless )
       case _                              => ItcResult.forMessage ("Spectroscopy with this instrument is not supported by ITC.")
 
     }
 
-  private def spectroscopyResult(recipe: SpectroscopyRecipe, headless: Boolean): Result = {
+  private def spectroscopyResult(recipe: SpectroscopyRecipe, p: ItcParameters, headless: Boolean): Result = {
     val r = recipe.calculateSpectroscopy()
-    val s = recipe.serviceResult(r, headless)
-    ItcResult.forResult(s)
+    spectroscopyResult(p, headless)(recipe.serviceResult(r, _))
   }
 
-  private def spectroscopyResult(recipe: SpectroscopyArrayRecipe, headless: Boolean): Result = {
+  private def spectroscopyResult(recipe: SpectroscopyArrayRecipe, p: ItcParameters, headless: Boolean): Result = {
     val r = recipe.calculateSpectroscopy()
-    val s = recipe.serviceResult(r, headless)
-    ItcResult.forResult(s)
+    spectroscopyResult(p, headless)(recipe.serviceResult(r, _))
   }
 
-
+  // For integration time calculations the recipes calculate a single exposure, the S/N charts of that result
+  // are needed to find the number of exposures, so they are created even for headless calculations.
+  private def spectroscopyResult(p: ItcParameters, headless: Boolean)(serviceResult: Boolean => ItcSpectroscopyResult): Result =
+    p.observation.calculationMethod match {
+      case m: SpectroscopyInt =>
+        ExposureSolver.solve(m, serviceResult(false)).map(s => if (headless) s.copy(chartGroups = Nil) else s)
+      case _                  =>
+        ItcResult.forResult(serviceResult(headless))
+    }
 
 }
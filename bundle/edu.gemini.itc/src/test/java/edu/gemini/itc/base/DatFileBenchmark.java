@@ -0,0 +1,56 @@
+package edu.gemini.itc.base;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of loading data files by parsing their text form, which
+ * is what every first use after a restart used to pay, with reading the
+ * precompiled binary form, and with a lookup in the loader cache once the
+ * file has been loaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DatFileBenchmark {
+
+    @Param({
+        "/acqcam/colfilt_B_G0152.dat",
+        "/flamingos2/HK.dat",
+        "/sed/stellar/t0800k.nm",
+        "/HI-Res/cp1-5/tele_emiss/telEmiss_2ag.dat"
+    })
+    public String file;
+
+    @Setup
+    public void setUp() {
+        final double[][] text   = DatFile.parseArrays(file);
+        final double[][] binary = DatFile.readArrays(file);
+        if (text[0].length != binary[0].length) {
+            throw new IllegalStateException("Binary form of " + file + " differs from text");
+        }
+        DatFile.arrays().apply(file);
+    }
+
+    /** Cold start before: parse the text with the scanner. */
+    @Benchmark
+    public double[][] parseText() {
+        return DatFile.parseArrays(file);
+    }
+
+    /** Cold start now: read the precompiled binary. */
+    @Benchmark
+    public double[][] readBinary() {
+        return DatFile.readArrays(file);
+    }
+
+    /** Steady state: the file is already in the cache. */
+    @Benchmark
+    public double[][] cached() {
+        return DatFile.arrays().apply(file);
+    }
+}
@@ -0,0 +1,142 @@
+package edu.gemini.itc.benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs all ITC benchmarks measuring throughput and allocation per operation
+ * and compares the results with a baseline file, e.g.
+ * <pre>
+ *   sbt "bundle_edu_gemini_itc/test:runMain edu.gemini.itc.benchmark.ItcBenchmarks"
+ *   sbt "bundle_edu_gemini_itc/test:runMain edu.gemini.itc.benchmark.ItcBenchmarks --update"
+ * </pre>
+ * The first form fails if a benchmark got slower or allocates more than the
+ * baseline by more than the tolerance, the second one replaces the baseline
+ * with the new results.  Optionally a regular expression selecting the
+ * benchmarks to run can be given as well.  The baseline is only meaningful
+ * for the machine it was recorded on, so it should be updated before making
+ * a change whose performance is to be checked.
+ */
+public final class ItcBenchmarks {
+
+    /** System property for the baseline file. */
+    public static final String BASELINE_PROP  = ItcBenchmarks.class.getName() + ".baseline";
+    /**
+     * System property for the project directory, set by the build, against
+     * which the default baseline file is resolved.
+     */
+    public static final String BASE_DIR_PROP  = ItcBenchmarks.class.getName() + ".baseDir";
+    /** System property for the accepted relative change, e.g. 0.1 for 10%. */
+    public static final String TOLERANCE_PROP = ItcBenchmarks.class.getName() + ".tolerance";
+
+    private static final String DEFAULT_BASELINE = "jmh-baseline.txt";
+    private static final String ALLOCATION       = "\u00b7gc.alloc.rate.norm";
+
+    private ItcBenchmarks() {
+    }
+
+    // Throughput and allocation for one benchmark and set of parameters.
+    private static final class Score {
+        final double opsPerSecond;
+        final double bytesPerOp;
+
+        Score(final double opsPerSecond, final double bytesPerOp) {
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerOp   = bytesPerOp;
+        }
+    }
+
+    public static void main(final String[] args) throws RunnerException, IOException {
+        final boolean update    = Arrays.asList(args).contains("--update");
+        final String include    = Arrays.stream(args).filter(a -> !a.startsWith("--")).findFirst().orElse("edu\\.gemini\\.itc\\..*Benchmark");
+        final Path baseline     = Optional.ofNullable(System.getProperty(BASELINE_PROP)).map(Paths::get)
+                                          .orElseGet(() -> Paths.get(System.getProperty(BASE_DIR_PROP, ".")).resolve(DEFAULT_BASELINE));
+        final double tolerance  = Double.parseDouble(System.getProperty(TOLERANCE_PROP, "0.1"));
+
+        final Options options = new OptionsBuilder()
+                .include(include)
+                .mode(Mode.Throughput)
+                .timeUnit(TimeUnit.SECONDS)
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        final SortedMap<String, Score> results = new TreeMap<>();
+        for (final RunResult r : new Runner(options).run()) {
+            final Result alloc = r.getSecondaryResults().get(ALLOCATION);
+            results.put(label(r.getParams()), new Score(r.getPrimaryResult().getScore(), alloc == null ? Double.NaN : alloc.getScore()));
+        }
+
+        if (update || !Files.exists(baseline)) {
+            write(baseline, results);
+            System.out.println("Wrote baseline " + baseline.toAbsolutePath());
+        } else if (!compare(read(baseline), results, tolerance)) {
+            System.exit(1);
+        }
+    }
+
+    private static String label(final BenchmarkParams p) {
+        final StringBuilder sb = new StringBuilder(p.getBenchmark());
+        for (final String k : p.getParamsKeys()) {
+            sb.append(' ').append(k).append('=').append(p.getParam(k));
+        }
+        return sb.toString();
+    }
+
+    private static boolean compare(final Map<String, Score> baseline, final SortedMap<String, Score> results, final double tolerance) {
+        boolean ok = true;
+        System.out.println(String.format("%-90s %14s %14s %14s %14s", "Benchmark", "ops/s", "baseline", "B/op", "baseline"));
+        for (final Map.Entry<String, Score> e : results.entrySet()) {
+            final Score now  = e.getValue();
+            final Score then = baseline.get(e.getKey());
+            String verdict   = "";
+            if (then == null) {
+                verdict = "new";
+            } else {
+                if (now.opsPerSecond < then.opsPerSecond * (1 - tolerance)) verdict += " SLOWER";
+                if (now.bytesPerOp   > then.bytesPerOp   * (1 + tolerance)) verdict += " MORE ALLOCATION";
+                ok &= verdict.isEmpty();
+            }
+            System.out.println(String.format("%-90s %14.2f %14.2f %14.0f %14.0f %s",
+                    e.getKey(), now.opsPerSecond, then == null ? Double.NaN : then.opsPerSecond,
+                    now.bytesPerOp, then == null ? Double.NaN : then.bytesPerOp, verdict));
+        }
+        System.out.println(ok ? "No regressions." : String.format("Regressions beyond %.0f%% found.", tolerance * 100));
+        return ok;
+    }
+
+    // One line per benchmark: label, tab, ops/s, tab, bytes/op.
+    private static Map<String, Score> read(final Path file) throws IOException {
+        final Map<String, Score> m = new HashMap<>();
+        for (final String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            final String[] cols = line.split("\t");
+            m.put(cols[0], new Score(Double.parseDouble(cols[1]), Double.parseDouble(cols[2])));
+        }
+        return m;
+    }
+
+    private static void write(final Path file, final SortedMap<String, Score> results) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        lines.add("# ITC benchmark baseline: benchmark, ops/s, bytes/op; recorded " + new Date() +
+                  " on " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version"));
+        for (final Map.Entry<String, Score> e : results.entrySet()) {
+            lines.add(e.getKey() + "\t" + e.getValue().opsPerSecond + "\t" + e.getValue().bytesPerOp);
+        }
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,86 @@
+package edu.gemini.itc.benchmark;
+
+import edu.gemini.itc.flamingos2.Flamingos2Recipe;
+import edu.gemini.itc.gmos.GmosRecipe;
+import edu.gemini.itc.gnirs.GnirsRecipe;
+import edu.gemini.itc.nifs.NifsRecipe;
+import edu.gemini.itc.shared.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end recipe calculations, from the ITC parameters to the recipe
+ * results, for the imaging and spectroscopy modes of the main instruments.
+ * This is what a single ITC request costs, apart from turning the results
+ * into charts and tables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class RecipeBenchmark {
+
+    @Param({
+        "Flamingos2Imaging",
+        "Flamingos2Spectroscopy",
+        "GmosImaging",
+        "GmosSpectroscopy",
+        "GnirsImaging",
+        "GnirsSpectroscopy",
+        "NifsSpectroscopy"
+    })
+    public String setup;
+
+    private ItcParameters params;
+
+    @Setup
+    public void setUp() {
+        params = firstValid(setup);
+    }
+
+    @Benchmark
+    public Object recipe() {
+        return calculate(params);
+    }
+
+    /**
+     * Gets the first of the canned parameters for the given setup that can
+     * be calculated without errors.
+     */
+    static ItcParameters firstValid(final String setup) {
+        for (final ItcParameters p : BenchmarkParameters.candidates(setup)) {
+            try {
+                calculate(p);
+                return p;
+            } catch (final RuntimeException e) {
+                // not a valid configuration, try the next one
+            }
+        }
+        throw new IllegalStateException("No valid parameters for " + setup);
+    }
+
+    /**
+     * Runs the recipe for the given parameters.
+     */
+    static Object calculate(final ItcParameters p) {
+        final InstrumentDetails i = p.instrument();
+        final boolean imaging     = p.observation().calculationMethod() instanceof Imaging;
+        if (i instanceof Flamingos2Parameters) {
+            final Flamingos2Recipe r = new Flamingos2Recipe(p, (Flamingos2Parameters) i);
+            return imaging ? r.calculateImaging() : r.calculateSpectroscopy();
+        } else if (i instanceof GmosParameters) {
+            final GmosRecipe r = new GmosRecipe(p, (GmosParameters) i);
+            return imaging ? r.calculateImaging() : r.calculateSpectroscopy();
+        } else if (i instanceof GnirsParameters) {
+            final GnirsRecipe r = new GnirsRecipe(p, (GnirsParameters) i);
+            return imaging ? r.calculateImaging() : r.calculateSpectroscopy();
+        } else if (i instanceof NifsParameters) {
+            return new NifsRecipe(p, (NifsParameters) i).calculateSpectroscopy();
+        } else {
+            throw new IllegalArgumentException("No benchmark recipe for " + i.getClass().getName());
+        }
+    }
+}
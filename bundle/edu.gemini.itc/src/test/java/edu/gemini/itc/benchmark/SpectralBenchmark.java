@@ -0,0 +1,100 @@
+package edu.gemini.itc.benchmark;
+
+import edu.gemini.itc.base.SEDFactory;
+import edu.gemini.itc.base.VisitableSampledSpectrum;
+import edu.gemini.itc.flamingos2.Flamingos2;
+import edu.gemini.itc.operation.*;
+import edu.gemini.itc.shared.Flamingos2Parameters;
+import edu.gemini.itc.shared.ItcParameters;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The individual spectral operations that make up most of a spectroscopy
+ * calculation, measured on a Flamingos2 long slit setup.  The visitors
+ * change the spectra they are applied to, so the benchmarks that apply
+ * them start from a copy of the source and sky spectra; the cost of the
+ * copy is measured on its own in {@link #copy()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SpectralBenchmark {
+
+    private ItcParameters params;
+    private Flamingos2 instrument;
+    private VisitableSampledSpectrum sed;
+    private VisitableSampledSpectrum sky;
+    private Slit slit;
+    private SlitThroughput throughput;
+    private double imageQuality;
+
+    @Setup
+    public void setUp() {
+        params     = RecipeBenchmark.firstValid("Flamingos2Spectroscopy");
+        instrument = new Flamingos2((Flamingos2Parameters) params.instrument());
+
+        final SEDFactory.SourceResult src = SEDFactory.calculate(instrument, params.source(), params.conditions(), params.telescope());
+        sed = src.sed;
+        sky = src.sky;
+
+        final ImageQualityCalculatable iq = ImageQualityCalculationFactory.getCalculationInstance(params.source(), params.conditions(), params.telescope(), instrument);
+        iq.calculate();
+        imageQuality = iq.getImageQuality();
+        slit         = Slit$.MODULE$.apply(params.source(), params.observation(), instrument, instrument.getSlitWidth(), imageQuality);
+        throughput   = new SlitThroughput(params.source(), slit, imageQuality);
+    }
+
+    /** Source and sky spectra as they arrive at the detector. */
+    @Benchmark
+    public SEDFactory.SourceResult sedFactory() {
+        return SEDFactory.calculate(instrument, params.source(), params.conditions(), params.telescope());
+    }
+
+    /** Signal to noise calculation for a slit, including smoothing and resampling of source and sky. */
+    @Benchmark
+    public SpecS2NSlitVisitor specS2N() {
+        final VisitableSampledSpectrum s = (VisitableSampledSpectrum) sed.clone();
+        final SpecS2NSlitVisitor v = new SpecS2NSlitVisitor(
+                slit,
+                instrument.disperser(),
+                throughput,
+                instrument.getSpectralPixelWidth(),
+                instrument.getObservingStart(),
+                instrument.getObservingEnd(),
+                imageQuality,
+                instrument.getReadNoise(),
+                instrument.getDarkCurrent(),
+                params.observation());
+        v.setSourceSpectrum(s);
+        v.setBackgroundSpectrum((VisitableSampledSpectrum) sky.clone());
+        s.accept(v);
+        return v;
+    }
+
+    /** Resampling of the sky to the detector pixels. */
+    @Benchmark
+    public VisitableSampledSpectrum resample() {
+        final VisitableSampledSpectrum s = (VisitableSampledSpectrum) sky.clone();
+        s.accept(new ResampleVisitor(instrument.getObservingStart(), instrument.getObservingEnd(), instrument.getSpectralPixelWidth()));
+        return s;
+    }
+
+    /** Resampling of the sky to the detector pixels as done by the S2N calculation. */
+    @Benchmark
+    public VisitableSampledSpectrum resampleWithPadding() {
+        final VisitableSampledSpectrum s = (VisitableSampledSpectrum) sky.clone();
+        s.accept(new ResampleWithPaddingVisitor(instrument.getObservingStart(), instrument.getObservingEnd() - 1, instrument.getSpectralPixelWidth(), 0));
+        return s;
+    }
+
+    /** Baseline for the benchmarks above: copying the spectrum. */
+    @Benchmark
+    public VisitableSampledSpectrum copy() {
+        return (VisitableSampledSpectrum) sky.clone();
+    }
+}
@@ -202,4 +202,43 @@ class DatFileTest {
     assert(data(1).size == 25)
   }
 
+  @Test
+  def binaryMatchesText(): Unit = {
+    List("/acqcam/colfilt_B_G0152.dat", "/flamingos2/HK.dat", "/gems/canopus_background.dat").foreach { f =>
+      val text   = DatFile.parseArrays(f)
+      val binary = BinaryDatFile.load(f).get
+      assert(binary.scalars.isEmpty)
+      assert(text(0) sameElements binary.data(0))
+      assert(text(1) sameElements binary.data(1))
+    }
+  }
+
+  @Test
+  def binaryFilter(): Unit = {
+    val binary = BinaryDatFile.load("/michelle/michelle_SI_1.dat").get
+    assert(binary.scalars.toList == List(7734.0))
+    assert(binary.data(0).size == 13)
+  }
+
+  @Test
+  def noBinaryForTextFiles(): Unit = {
+    assert(BinaryDatFile.load("/gmos/gmos_n_gratings.dat").isEmpty)
+  }
+
+  @Test
+  def boundedCache(): Unit = {
+    val cache  = new DatFileCache(100)
+    val loader = new AnyRef
+    var loads  = 0
+    def get(f: String) = cache.get(loader, f, (_: String) => 40L) { loads += 1; f }
+
+    get("a"); get("b"); get("a"); get("c")    // over the limit, b is the least recently used
+    assert(cache.size == 2)
+    assert(cache.estimatedBytes == 80)
+    get("a")
+    assert(loads == 3)
+    get("b")
+    assert(loads == 4)
+  }
+
 }
@@ -0,0 +1,42 @@
+package edu.gemini.itc.base
+
+import java.util.function.IntFunction
+
+import org.junit.Assert._
+import org.junit.Test
+
+import scala.collection.JavaConverters._
+
+/**
+ * Tests for the ITC compute pool.
+ */
+class ItcComputeTest {
+
+  private def task[T](f: Int => T): IntFunction[T] = new IntFunction[T] {
+    def apply(i: Int): T = f(i)
+  }
+
+  @Test
+  def resultsInTaskOrder(): Unit = {
+    // later tasks finish first
+    val rs = ItcCompute.map(8, task { i => Thread.sleep(8L * (8 - i)); i })
+    assertEquals((0 until 8).toList, rs.asScala.toList.map(_.intValue))
+  }
+
+  @Test
+  def nestedTasks(): Unit = {
+    val rs = ItcCompute.map(4, task { i => ItcCompute.map(3, task(j => i * 10 + j)).asScala.toList.map(_.intValue) })
+    assertEquals((0 until 4).toList.map(i => (0 until 3).toList.map(i * 10 + _)), rs.asScala.toList)
+  }
+
+  @Test
+  def firstFailureIsThrown(): Unit = {
+    try {
+      ItcCompute.map(6, task { i => if (i >= 2) throw new IllegalArgumentException(s"task $i") else i })
+      fail("expected an exception")
+    } catch {
+      case e: IllegalArgumentException => assertEquals("task 2", e.getMessage)
+    }
+  }
+
+}
@@ -0,0 +1,84 @@
+package edu.gemini.itc.base
+
+import org.junit.Assert._
+import org.junit.Test
+
+import scala.util.Random
+
+/**
+ * Checks that fused point-wise operations give exactly the same results as applying them one by one.
+ */
+class SpectrumPipelineTest {
+
+  private val rnd = new Random(42)
+
+  // irregularly spaced curve covering only part of the spectrum, with a repeated wavelength
+  private val curve = {
+    val xs = (Vector(350.0, 350.0) ++ Vector.iterate(350.0, 400)(_ + 0.1 + rnd.nextDouble)).sorted
+    val ys = xs.map(_ => rnd.nextDouble)
+    new DefaultArraySpectrum(Array(xs.toArray, ys.toArray))
+  }
+
+  private def spectrum(n: Int): VisitableSampledSpectrum =
+    new DefaultSampledSpectrum(Array.fill(n)(rnd.nextDouble * 100), 300.0, 0.37)
+
+  private def visitor(f: SampledSpectrum => Unit): SampledSpectrumVisitor = new SampledSpectrumVisitor {
+    def visit(sed: SampledSpectrum): Unit = f(sed)
+  }
+
+  private def pointwise(f: (SampledSpectrum, Int, Array[Double], Int) => Unit): PointwiseVisitor = new PointwiseVisitor {
+    def apply(sed: SampledSpectrum, offset: Int, y: Array[Double], len: Int): Unit = f(sed, offset, y, len)
+  }
+
+  // the visitors as they were implemented before they could be fused
+  private val multiply = visitor { sed =>
+    for (i <- 0 until sed.getLength) sed.setY(i, sed.getY(i) * curve.getY(sed.getX(i)))
+  }
+  private val add      = visitor { sed =>
+    for (i <- 0 until sed.getLength) sed.setY(i, curve.getY(sed.getX(i)) + sed.getY(i))
+  }
+  private val scale    = visitor(_.rescaleY(3.7))
+  private val resample = visitor(_.rescaleX(1.01))
+
+  private val pwMultiply = new TransmissionElement(curve)
+  private val pwAdd      = pointwise(SpectrumPipeline.add(curve, _, _, _, _))
+  private val pwScale    = pointwise((_, _, y, len) => for (i <- 0 until len) y(i) *= 3.7)
+
+  private def check(n: Int, expected: Seq[SampledSpectrumVisitor], fused: SampledSpectrumVisitor*): Unit = {
+    val s0 = spectrum(n)
+    val s1 = s0.clone().asInstanceOf[VisitableSampledSpectrum]
+    expected.foreach(s0.accept)
+    s1.accept(SpectrumPipeline.of(fused: _*))
+    assertEquals(s0.getStart, s1.getStart, 0)
+    assertArrayEquals(s0.getValues, s1.getValues, 0)
+  }
+
+  @Test
+  def singleVisitor(): Unit = {
+    check(2000, Seq(multiply), pwMultiply)
+    check(2000, Seq(add),      pwAdd)
+  }
+
+  @Test
+  def fusedVisitors(): Unit = {
+    // spectrum lengths below, at and across block boundaries
+    Seq(1, 511, 512, 513, 1024, 2000).foreach { n =>
+      check(n, Seq(scale, multiply, multiply, add), pwScale, pwMultiply, pwMultiply, pwAdd)
+    }
+  }
+
+  @Test
+  def mixedVisitors(): Unit = {
+    check(2000, Seq(multiply, resample, add, scale), pwMultiply, resample, pwAdd, pwScale)
+  }
+
+  @Test
+  def unfusedVisit(): Unit = {
+    val s0 = spectrum(1000)
+    val s1 = s0.clone().asInstanceOf[VisitableSampledSpectrum]
+    s0.accept(multiply)
+    s1.accept(pwMultiply)
+    assertArrayEquals(s0.getValues, s1.getValues, 0)
+  }
+
+}
@@ -0,0 +1,41 @@
+package edu.gemini.itc.benchmark
+
+import edu.gemini.itc.baseline._
+import edu.gemini.itc.baseline.util.Fixture
+import edu.gemini.itc.shared._
+
+import scala.collection.JavaConverters._
+
+/**
+ * Canned ITC parameters for the benchmarks, taken from the baseline fixtures so that the benchmarks exercise
+ * the same configurations that are checked for correctness.
+ */
+object BenchmarkParameters {
+
+  private def params(fs: List[Fixture[_ <: InstrumentDetails]]): List[ItcParameters] =
+    fs.map(f => ItcParameters(f.src, f.odp, f.ocp, f.tep, f.ins))
+
+  private def imaging(fs: List[Fixture[_ <: InstrumentDetails]]): List[ItcParameters] =
+    params(fs.filter(_.odp.calculationMethod.isInstanceOf[Imaging]))
+
+  private def spectroscopy(fs: List[Fixture[_ <: InstrumentDetails]]): List[ItcParameters] =
+    params(fs.filter(_.odp.calculationMethod.isInstanceOf[Spectroscopy]))
+
+  private lazy val Setups: Map[String, List[ItcParameters]] = Map(
+    "Flamingos2Imaging"      -> imaging(BaselineF2.Fixtures),
+    "Flamingos2Spectroscopy" -> spectroscopy(BaselineF2.Fixtures),
+    "GmosImaging"            -> imaging(BaselineGmos.Fixtures),
+    "GmosSpectroscopy"       -> spectroscopy(BaselineGmos.Fixtures),
+    "GnirsImaging"           -> imaging(BaselineGnirs.Fixtures),
+    "GnirsSpectroscopy"      -> spectroscopy(BaselineGnirs.Fixtures),
+    "NifsSpectroscopy"       -> spectroscopy(BaselineNifs.Fixtures)
+  )
+
+  /**
+   * All parameters available for the given setup, in a stable order. Not all of them are necessarily valid
+   * (the baselines also cover some error cases), so benchmarks pick the first one that can be calculated.
+   */
+  def candidates(setup: String): java.util.List[ItcParameters] =
+    Setups.getOrElse(setup, throw new IllegalArgumentException(s"Unknown benchmark setup $setup")).asJava
+
+}
@@ -0,0 +1,103 @@
+package edu.gemini.itc.service
+
+import edu.gemini.itc.baseline.BaselineF2
+import edu.gemini.itc.shared._
+import org.junit.Assert._
+import org.junit.Test
+
+/**
+ * Tests for spectroscopy integration time calculations.
+ */
+class ExposureSolverTest {
+
+  private val service = new ItcServiceImpl(new ItcResultCache(0, 0))
+
+  private def withMethod(p: ItcParameters, m: CalculationMethod): ItcParameters =
+    p.copy(observation = p.observation.copy(calculationMethod = m))
+
+  private def s2n(p: ItcParameters, exposures: Int): ItcSpectroscopyResult = {
+    val m = p.observation.calculationMethod
+    service.calculate(withMethod(p, SpectroscopyS2N(exposures, m.coadds, m.exposureTime, m.sourceFraction, m.offset)), headless = true)
+      .toOption.get.asInstanceOf[ItcSpectroscopyResult]
+  }
+
+  // a long slit configuration that can be calculated without errors
+  private lazy val params: ItcParameters =
+    BaselineF2.Fixtures
+      .filter(_.odp.calculationMethod.isInstanceOf[Spectroscopy])
+      .map(f => ItcParameters(f.src, f.odp, f.ocp, f.tep, f.ins))
+      .find(p => service.calculate(p, headless = true).isRight)
+      .get
+
+  private def withSourceFraction(p: ItcParameters, f: Double): ItcParameters = {
+    val m = p.observation.calculationMethod
+    withMethod(p, SpectroscopyS2N(2, m.coadds, m.exposureTime, f, m.offset))
+  }
+
+  private def int(p: ItcParameters, sigma: Double, wavelength: Option[Double], headless: Boolean): ItcSpectroscopyResult = {
+    val m = p.observation.calculationMethod
+    service.calculate(withMethod(p, SpectroscopyInt(sigma, wavelength, m.exposureTime, m.coadds, m.sourceFraction, m.offset)), headless)
+      .toOption.get.asInstanceOf[ItcSpectroscopyResult]
+  }
+
+  private def int(sigma: Double, wavelength: Option[Double], headless: Boolean): ItcSpectroscopyResult =
+    int(params, sigma, wavelength, headless)
+
+  // The fixture is on source half of the time, so only an even number of exposures is valid. The S/N of a single
+  // exposure is derived from that of two.
+  private lazy val single: Double = {
+    assertEquals(0.5, params.observation.calculationMethod.sourceFraction, 0.0)
+    s2n(params, 2).maxTotalSNRatio / math.sqrt(2)
+  }
+
+  @Test
+  def peakS2N(): Unit = {
+    val r = int(3.5 * single, None, headless = true)
+
+    // (3.5)^2 = 12.25 exposures, rounded up to 13 and then to 14 for a whole number of exposures on source
+    assertEquals(14, r.exposures.get.exposures)
+    assertEquals(s2n(params, 14).maxTotalSNRatio, r.maxTotalSNRatio, 1e-6 * r.maxTotalSNRatio)
+    assertTrue(r.maxTotalSNRatio >= 3.5 * single)
+    assertTrue(s2n(params, 12).maxTotalSNRatio < 3.5 * single)
+    assertTrue(r.chartGroups.isEmpty)
+  }
+
+  @Test
+  def reachedWithFewestExposures(): Unit = {
+    val r = int(0.5 * single, None, headless = false)
+    assertEquals(2, r.exposures.get.exposures)
+    assertFalse(r.chartGroups.isEmpty)
+  }
+
+  @Test
+  def validNumberOfExposures(): Unit = {
+    // the number of exposures found must pass validation when used for an S/N calculation
+    for {
+      f     <- List(0.5, 0.3, 1.0 / 3)
+      sigma <- List(0.5, 2.2, 3.5, 7.1).map(_ * single)
+    } {
+      val p = withSourceFraction(params, f)
+      val n = int(p, sigma, None, headless = true).exposures.get.exposures
+      val m = p.observation.calculationMethod
+      assertTrue(s"$n exposures with source fraction $f", service.calculate(withMethod(p, SpectroscopyS2N(n, m.coadds, m.exposureTime, f, m.offset)), headless = true).isRight)
+    }
+  }
+
+  @Test
+  def wavelengthS2N(): Unit = {
+    val r = int(10.0, None, headless = false)
+    val s = r.allSeries(S2NChart, FinalS2NData).head
+    val w = s.x(s.data(0).length / 2)
+
+    // S/N at a given wavelength is at most the peak S/N, so at least as many exposures are needed
+    assertTrue(int(10.0, Some(w), headless = true).exposures.get.exposures >= r.exposures.get.exposures)
+  }
+
+  @Test
+  def wavelengthOutOfRange(): Unit = {
+    val m = params.observation.calculationMethod
+    val r = service.calculate(withMethod(params, SpectroscopyInt(10.0, Some(1.0), m.exposureTime, m.coadds, m.sourceFraction, m.offset)), headless = true)
+    assertTrue(r.isLeft)
+  }
+
+}
@@ -0,0 +1,108 @@
+package edu.gemini.itc.service
+
+import edu.gemini.itc.baseline.util.Fixture
+import edu.gemini.itc.shared._
+import org.junit.Assert._
+import org.junit.Test
+
+/**
+ * Tests for the ITC result cache.
+ */
+class ItcResultCacheTest {
+
+  private def params(i: Int): ItcParameters =
+    ItcParameters(
+      (Fixture.RBandSources ++ Fixture.KBandSources)(i),
+      Fixture.ImagingModes.head,
+      Fixture.ObservingConditions.head,
+      Fixture.TelescopeConfigurations.head,
+      GhostParameters())
+
+  private val result = ItcResult.forResult(ItcImagingResult(List(ItcCcd(1.0, 2.0, 3.0, 4.0, 5.0, Nil))))
+
+  private class Counter {
+    var calls = 0
+    def calc: ItcService.Result = { calls += 1; result }
+  }
+
+  @Test
+  def equalParametersHit(): Unit = {
+    val cache = new ItcResultCache(1024 * 1024, 60000)
+    val c     = new Counter
+
+    assertEquals(result, cache.getOrCompute(params(0), headless = true)(c.calc))
+    assertEquals(result, cache.getOrCompute(params(0).copy(), headless = true)(c.calc))
+    assertEquals(1, c.calls)
+
+    // headless is part of the key
+    cache.getOrCompute(params(0), headless = false)(c.calc)
+    assertEquals(2, c.calls)
+
+    val s = cache.stats
+    assertEquals(1, s.hits)
+    assertEquals(2, s.misses)
+    assertEquals(2, s.entries)
+  }
+
+  @Test
+  def errorsAreNotCached(): Unit = {
+    val cache = new ItcResultCache(1024 * 1024, 60000)
+    var calls = 0
+    def fail  = { calls += 1; ItcResult.forMessage("nope") }
+
+    cache.getOrCompute(params(0), headless = true)(fail)
+    cache.getOrCompute(params(0), headless = true)(fail)
+    assertEquals(2, calls)
+    assertEquals(0, cache.stats.entries)
+  }
+
+  @Test
+  def expiresAfterTtl(): Unit = {
+    var now   = 0L
+    val cache = new ItcResultCache(1024 * 1024, 1000, () => now)
+    val c     = new Counter
+
+    cache.getOrCompute(params(0), headless = true)(c.calc)
+    now = 999
+    cache.getOrCompute(params(0), headless = true)(c.calc)
+    now = 1000
+    cache.getOrCompute(params(0), headless = true)(c.calc)
+
+    assertEquals(2, c.calls)
+    assertEquals(1, cache.stats.expirations)
+  }
+
+  @Test
+  def evictsLeastRecentlyUsed(): Unit = {
+    // room for two small entries only
+    val cache = new ItcResultCache(2500, 60000)
+    val c     = new Counter
+
+    cache.getOrCompute(params(0), headless = true)(c.calc)
+    cache.getOrCompute(params(1), headless = true)(c.calc)
+    cache.getOrCompute(params(0), headless = true)(c.calc)  // touch 0, making 1 the eldest
+    cache.getOrCompute(params(2), headless = true)(c.calc)
+    assertEquals(3, c.calls)
+    assertEquals(1, cache.stats.evictions)
+
+    cache.getOrCompute(params(0), headless = true)(c.calc)
+    assertEquals(3, c.calls)
+    cache.getOrCompute(params(1), headless = true)(c.calc)
+    assertEquals(4, c.calls)
+  }
+
+  @Test
+  def invalidate(): Unit = {
+    val cache = new ItcResultCache(1024 * 1024, 60000)
+    val c     = new Counter
+
+    cache.getOrCompute(params(0), headless = true)(c.calc)
+    cache.getOrCompute(params(1), headless = true)(c.calc)
+    assertEquals(1, cache.invalidate(_.source == params(0).source))
+
+    cache.getOrCompute(params(0), headless = true)(c.calc)
+    cache.getOrCompute(params(1), headless = true)(c.calc)
+    assertEquals(3, c.calls)
+  }
+
+}
@@ -48,5 +48,13 @@ public interface ISPProgram extends ISPGroupContainer, ISPObservationContainer,
 
     VersionVector<LifespanId, Integer> getVersions(SPNodeKey key);
     void setVersions(SPNodeKey key, VersionVector<LifespanId, Integer> vv);
+
+    /**
+     * Gets an immutable snapshot of the program as of the end of the most
+     * recent write.  The snapshot is built on demand after each write, which
+     * briefly takes the program read lock, but may then be used without any
+     * locking.
+     */
+    SPProgramSnapshot getSnapshot();
 }
 
@@ -1,42 +1,217 @@
 package edu.gemini.pot.sp;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Provides a low-level API for getting read/write locks associated with
- * SPNodeKeys.  Locks are created on demand but never removed.
+ * SPNodeKeys.  Locks are created on demand and discarded again once nobody
+ * holds or is waiting for them.
+ *
+ * <p>Each lock entry is reference counted: every acquisition (including one
+ * that is still waiting) counts as a reference and every release drops one.
+ * Entries are looked up and counted with atomic map operations that only
+ * contend on the same key, so there is no global monitor.
+ *
+ * <p>Contention statistics are kept overall and for each key that currently
+ * has an entry.  Since entries are discarded when idle, the per-key numbers
+ * describe the period over which the key has been continuously in use,
+ * which for a busy program is where contention matters.
  */
 public enum SPNodeKeyLocks {
     instance;
 
-    private Map<SPNodeKey, ReentrantReadWriteLock> locks = new HashMap<SPNodeKey, ReentrantReadWriteLock>();
+    // A lock along with the number of threads holding or waiting for it and
+    // its contention statistics.  The reference count is only read and
+    // written inside map operations on the entry's key.
+    private static final class Entry {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final AtomicLong contended = new AtomicLong();
+        final AtomicLong waitNanos = new AtomicLong();
+        int refs;
+    }
+
+    private final ConcurrentMap<SPNodeKey, Entry> locks = new ConcurrentHashMap<>();
+
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder contended    = new LongAdder();
+    private final LongAdder waitNanos    = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    // Time each thread has spent waiting for locks, only touched when a
+    // thread actually has to wait.
+    private final ThreadLocal<long[]> threadWaitNanos = ThreadLocal.withInitial(() -> new long[1]);
+
+    private Entry retain(SPNodeKey key) {
+        return locks.compute(key, (k, e) -> {
+            final Entry res = (e == null) ? new Entry() : e;
+            ++res.refs;
+            return res;
+        });
+    }
+
+    private void release(SPNodeKey key, Entry entry) {
+        locks.computeIfPresent(key, (k, e) -> ((e == entry) && (--e.refs == 0)) ? null : e);
+    }
+
+    // Gets the entry for a lock that the caller holds.
+    private Entry held(SPNodeKey key) {
+        final Entry e = locks.get(key);
+        if (e == null) throw new IllegalMonitorStateException("Lock for " + key + " is not held");
+        return e;
+    }
+
+    private void lock(SPNodeKey key, boolean write) {
+        final Entry e = retain(key);
+        try {
+            final Lock l = write ? e.lock.writeLock() : e.lock.readLock();
+
+            // Only try to barge in when nobody is queued, so that readers
+            // don't starve a waiting writer.
+            if (!e.lock.hasQueuedThreads() && l.tryLock()) {
+                acquisitions.increment();
+                return;
+            }
+
+            final long start = System.nanoTime();
+            l.lock();
+            final long wait = System.nanoTime() - start;
 
-    private synchronized ReentrantReadWriteLock getLock(SPNodeKey key) {
-        ReentrantReadWriteLock l = locks.get(key);
-        if (l == null) {
-            l = new ReentrantReadWriteLock();
-            locks.put(key, l);
+            acquisitions.increment();
+            contended.increment();
+            waitNanos.add(wait);
+            maxWaitNanos.accumulateAndGet(wait, Math::max);
+            e.contended.incrementAndGet();
+            e.waitNanos.addAndGet(wait);
+            threadWaitNanos.get()[0] += wait;
+        } catch (RuntimeException | Error ex) {
+            release(key, e);
+            throw ex;
         }
-        return l;
     }
 
-    private Lock getReadLock(SPNodeKey key)  { return getLock(key).readLock();  }
-    private Lock getWriteLock(SPNodeKey key) { return getLock(key).writeLock(); }
+    private void unlock(SPNodeKey key, boolean write) {
+        final Entry e = held(key);
+        if (write) e.lock.writeLock().unlock(); else e.lock.readLock().unlock();
+        release(key, e);
+    }
 
-    public void readLock(SPNodeKey key)     { getReadLock(key).lock();   }
-    public void readUnlock(SPNodeKey key)   { getReadLock(key).unlock(); }
+    public void readLock(SPNodeKey key)     { lock(key, false);   }
+    public void readUnlock(SPNodeKey key)   { unlock(key, false); }
 
-    public void writeLock(SPNodeKey key)    { getWriteLock(key).lock();   }
-    public void writeUnlock(SPNodeKey key)  { getWriteLock(key).unlock(); }
+    public void writeLock(SPNodeKey key)    { lock(key, true);    }
+    public void writeUnlock(SPNodeKey key)  { unlock(key, true);  }
 
     /**
      * Returns <code>true</code> if the current thread has a write lock for the
      * indicated program key.
      */
     public boolean isWriteLockHeld(SPNodeKey key) {
-        return getLock(key).isWriteLockedByCurrentThread();
+        final Entry e = locks.get(key);
+        return (e != null) && e.lock.isWriteLockedByCurrentThread();
+    }
+
+    /**
+     * Returns the total time the current thread has spent waiting for locks,
+     * in nanoseconds.  Callers sample it before and after an operation to
+     * find the time the operation waited.
+     */
+    public long threadWaitNanos() {
+        return threadWaitNanos.get()[0];
+    }
+
+    /**
+     * Returns the number of keys that currently have a lock entry, which is
+     * the number of keys locked or waited upon.
+     */
+    public int size() {
+        return locks.size();
+    }
+
+    /**
+     * Overall lock statistics since startup.
+     */
+    public static final class Stats {
+        /** Number of locks acquired. */
+        public final long acquisitions;
+
+        /** Number of acquisitions that had to wait. */
+        public final long contended;
+
+        /** Total time spent waiting for locks, in nanoseconds. */
+        public final long waitNanos;
+
+        /** Longest single wait for a lock, in nanoseconds. */
+        public final long maxWaitNanos;
+
+        Stats(long acquisitions, long contended, long waitNanos, long maxWaitNanos) {
+            this.acquisitions = acquisitions;
+            this.contended    = contended;
+            this.waitNanos    = waitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+        }
+
+        @Override public String toString() {
+            return String.format("acquisitions=%d, contended=%d, wait=%d ms, max wait=%d ms",
+                    acquisitions, contended, waitNanos / 1000000, maxWaitNanos / 1000000);
+        }
+    }
+
+    /**
+     * The state of the lock for a single key.
+     */
+    public static final class KeyStats {
+        public final SPNodeKey key;
+
+        /** Number of read locks held, counting reentrant holds. */
+        public final int readHolds;
+
+        /** Whether the write lock is held. */
+        public final boolean writeLocked;
+
+        /** Estimated number of threads waiting for the lock. */
+        public final int queued;
+
+        /** Number of acquisitions that had to wait since the entry was made. */
+        public final long contended;
+
+        /** Time spent waiting since the entry was made, in nanoseconds. */
+        public final long waitNanos;
+
+        KeyStats(SPNodeKey key, Entry e) {
+            this.key         = key;
+            this.readHolds   = e.lock.getReadLockCount();
+            this.writeLocked = e.lock.isWriteLocked();
+            this.queued      = e.lock.getQueueLength();
+            this.contended   = e.contended.get();
+            this.waitNanos   = e.waitNanos.get();
+        }
+
+        @Override public String toString() {
+            return String.format("%s: reads=%d, write=%b, queued=%d, contended=%d, wait=%d ms",
+                    key, readHolds, writeLocked, queued, contended, waitNanos / 1000000);
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(acquisitions.sum(), contended.sum(), waitNanos.sum(), maxWaitNanos.get());
+    }
+
+    /**
+     * Gets the state of each lock that is currently held or waited upon,
+     * ordered from most to least time spent waiting.
+     */
+    public List<KeyStats> getKeyStats() {
+        final List<KeyStats> res = new ArrayList<>();
+        locks.forEach((k, e) -> res.add(new KeyStats(k, e)));
+        res.sort((a, b) -> Long.compare(b.waitNanos, a.waitNanos));
+        return Collections.unmodifiableList(res);
     }
 }
@@ -0,0 +1,112 @@
+package edu.gemini.pot.sp;
+
+import edu.gemini.pot.sp.version.LifespanId;
+import edu.gemini.shared.util.VersionVector;
+import edu.gemini.spModel.data.ISPDataObject;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable copy of a program node and its descendants as of the end of
+ * some write transaction.  Snapshots are obtained from
+ * {@link ISPProgram#getSnapshot()} and can be read without locking the
+ * program.  Successive snapshots of a program share the nodes of subtrees
+ * that did not change in between.
+ */
+public final class SPNodeSnapshot implements Serializable {
+    private final SPNodeKey key;
+    private final Class<? extends ISPNode> nodeType;
+    private final ISPDataObject dataObject;
+    private final VersionVector<LifespanId, Integer> version;
+    private final boolean conflicts;
+    private final int observationNumber;
+    private final List<SPNodeSnapshot> children;
+
+    /**
+     * Creates a snapshot node, taking ownership of the data object and list
+     * of children, neither of which may be modified afterwards.
+     */
+    public SPNodeSnapshot(SPNodeKey key, Class<? extends ISPNode> nodeType,
+                          ISPDataObject dataObject,
+                          VersionVector<LifespanId, Integer> version,
+                          boolean conflicts, int observationNumber,
+                          List<SPNodeSnapshot> children) {
+        this.key               = key;
+        this.nodeType          = nodeType;
+        this.dataObject        = dataObject;
+        this.version           = version;
+        this.conflicts         = conflicts;
+        this.observationNumber = observationNumber;
+        this.children          = Collections.unmodifiableList(children);
+    }
+
+    public SPNodeKey getNodeKey() {
+        return key;
+    }
+
+    /**
+     * Gets the node interface that the live node implements, for example
+     * <code>ISPObservation.class</code>.
+     */
+    public Class<? extends ISPNode> getNodeType() {
+        return nodeType;
+    }
+
+    /**
+     * Returns <code>true</code> if the live node implements the given node
+     * interface.
+     */
+    public boolean is(Class<? extends ISPNode> type) {
+        return type.isAssignableFrom(nodeType);
+    }
+
+    /**
+     * Gets the component type of the node's data object, if any.
+     */
+    public SPComponentType getType() {
+        return (dataObject == null) ? null : dataObject.getType();
+    }
+
+    /**
+     * Gets a copy of the node's data object, which the caller is free to
+     * modify.
+     */
+    public ISPDataObject getDataObject() {
+        return (dataObject == null) ? null : dataObject.clone(dataObject);
+    }
+
+    /**
+     * Gets the data object shared by this snapshot without making a copy.
+     * This avoids the copy for callers that only read values from the data
+     * object, but it must never be modified.
+     */
+    public ISPDataObject peekDataObject() {
+        return dataObject;
+    }
+
+    public VersionVector<LifespanId, Integer> getVersion() {
+        return version;
+    }
+
+    public boolean hasConflicts() {
+        return conflicts;
+    }
+
+    /**
+     * Gets the observation number for observation nodes, or -1 for any other
+     * node.
+     */
+    public int getObservationNumber() {
+        return observationNumber;
+    }
+
+    public List<SPNodeSnapshot> getChildren() {
+        return children;
+    }
+
+    @Override public String toString() {
+        return nodeType.getSimpleName() + "(" + key + ")";
+    }
+}
@@ -0,0 +1,91 @@
+package edu.gemini.pot.sp;
+
+import edu.gemini.pot.sp.version.LifespanId;
+import edu.gemini.shared.util.VersionVector;
+import edu.gemini.spModel.core.SPProgramID;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable view of an entire program as of the end of the most recent
+ * write transaction, obtained from {@link ISPProgram#getSnapshot()}.  Query
+ * functors that only read program content can work from a snapshot without
+ * holding the program lock, so they don't hold up writers no matter how long
+ * they run.
+ */
+public final class SPProgramSnapshot implements Serializable {
+    private final SPProgramID programId;
+    private final long lastModified;
+    private final scala.collection.immutable.Map<SPNodeKey, VersionVector<LifespanId, Integer>> versions;
+    private final SPNodeSnapshot root;
+
+    public SPProgramSnapshot(SPProgramID programId, long lastModified,
+                             scala.collection.immutable.Map<SPNodeKey, VersionVector<LifespanId, Integer>> versions,
+                             SPNodeSnapshot root) {
+        this.programId    = programId;
+        this.lastModified = lastModified;
+        this.versions     = versions;
+        this.root         = root;
+    }
+
+    public SPNodeKey getProgramKey() {
+        return root.getNodeKey();
+    }
+
+    public SPProgramID getProgramID() {
+        return programId;
+    }
+
+    public long lastModified() {
+        return lastModified;
+    }
+
+    public scala.collection.immutable.Map<SPNodeKey, VersionVector<LifespanId, Integer>> getVersions() {
+        return versions;
+    }
+
+    /**
+     * Gets the snapshot of the program node itself.
+     */
+    public SPNodeSnapshot getRoot() {
+        return root;
+    }
+
+    /**
+     * Gets all the observations in the program, those directly in the
+     * program followed by those in groups, as in
+     * {@link ISPProgram#getAllObservations()}.
+     */
+    public List<SPNodeSnapshot> getAllObservations() {
+        final List<SPNodeSnapshot> res = new ArrayList<>();
+        for (SPNodeSnapshot c : root.getChildren()) {
+            if (c.is(ISPObservation.class)) res.add(c);
+        }
+        for (SPNodeSnapshot g : root.getChildren()) {
+            if (!g.is(ISPGroup.class)) continue;
+            for (SPNodeSnapshot c : g.getChildren()) {
+                if (c.is(ISPObservation.class)) res.add(c);
+            }
+        }
+        return Collections.unmodifiableList(res);
+    }
+
+    /**
+     * Finds the node with the given key, if any.
+     */
+    public SPNodeSnapshot find(SPNodeKey key) {
+        return find(root, key);
+    }
+
+    private static SPNodeSnapshot find(SPNodeSnapshot n, SPNodeKey key) {
+        if (n.getNodeKey().equals(key)) return n;
+        for (SPNodeSnapshot c : n.getChildren()) {
+            final SPNodeSnapshot res = find(c, key);
+            if (res != null) return res;
+        }
+        return null;
+    }
+}
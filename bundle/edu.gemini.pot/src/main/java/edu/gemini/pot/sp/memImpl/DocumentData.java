@@ -6,6 +6,7 @@ import edu.gemini.pot.sp.version.LifespanId;
 import edu.gemini.pot.spdb.Locking;
 import edu.gemini.pot.sp.SPNodeKeyLocks;
 import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.sp.SPProgramSnapshot;
 import edu.gemini.spModel.core.SPProgramID;
 import edu.gemini.shared.util.VersionVector;
 
@@ -36,6 +37,25 @@ public class DocumentData implements Serializable {
     // The last modification timestamp.
     private long _lastModified;
 
+    // Incremented whenever a write lock is released, so that a snapshot
+    // taken at one generation is known to be current as long as the
+    // generation doesn't change.
+    private volatile long _generation;
+
+    // The most recent program snapshot, if any, and the generation at which
+    // it was taken.
+    private static final class Snapshot {
+        final long generation;
+        final SPProgramSnapshot snapshot;
+
+        Snapshot(long generation, SPProgramSnapshot snapshot) {
+            this.generation = generation;
+            this.snapshot   = snapshot;
+        }
+    }
+
+    private transient volatile Snapshot _snapshot;
+
     DocumentData(SPNodeKey docKey, SPProgramID docId, UUID uuid, LifespanId lifespanId) {
         if (docKey == null) throw new IllegalArgumentException("docKey == null");
         if (uuid == null) throw new IllegalArgumentException("uuid == null");
@@ -71,6 +91,15 @@ public class DocumentData implements Serializable {
         }
     }
 
+    void setLastModified(long time) {
+        getProgramWriteLock();
+        try {
+            _lastModified = time;
+        } finally {
+            returnProgramWriteLock();
+        }
+    }
+
     void markModified(MemAbstractBase node) {
         getProgramWriteLock();
         try {
@@ -200,9 +229,36 @@ public class DocumentData implements Serializable {
     }
 
     public void returnProgramWriteLock() {
+        // Only the write lock holder updates the generation, so the increment
+        // doesn't race.
+        ++_generation;
         SPNodeKeyLocks.instance.writeUnlock(_docKey);
     }
 
+    /**
+     * Gets a snapshot of the given program, which must be the root of this
+     * document.  The snapshot of the last completed write is returned if it
+     * has already been taken, otherwise one is built under the read lock,
+     * sharing what it can with the previous snapshot.
+     */
+    SPProgramSnapshot snapshot(MemProgram root) {
+        final Snapshot cur = _snapshot;
+        if ((cur != null) && (cur.generation == _generation)) return cur.snapshot;
+
+        getProgramReadLock();
+        try {
+            final long     gen  = _generation;
+            final Snapshot prev = _snapshot;
+            if ((prev != null) && (prev.generation == gen)) return prev.snapshot;
+
+            final SPProgramSnapshot s = MemSnapshot.build(root, (prev == null) ? null : prev.snapshot);
+            _snapshot = new Snapshot(gen, s);
+            return s;
+        } finally {
+            returnProgramReadLock();
+        }
+    }
+
     public boolean haveProgramWriteLock() {
         return SPNodeKeyLocks.instance.isWriteLockHeld(_docKey);
     }
@@ -449,6 +449,27 @@ public abstract class MemAbstractBase implements ISPNode, Serializable {
         }
     }
 
+    /**
+     * Replaces this node's data object, conflicts and version without firing
+     * any events.  Used when restoring a stored program, before anybody could
+     * be listening.  Other client data is left as the node initializer
+     * created it.
+     */
+    void restoreState(ISPDataObject dataObject, Conflicts conflicts, VersionVector<LifespanId, Integer> version) {
+        getProgramWriteLock();
+        try {
+            if (dataObject != null) _clientData.put(DATA_OBJECT_KEY, dataObject);
+            if ((conflicts == null) || conflicts.isEmpty()) {
+                _clientData.remove(CONFLICTS_KEY);
+            } else {
+                _clientData.put(CONFLICTS_KEY, conflicts);
+            }
+            _docData.setVersionVector(_nodeKey, version);
+        } finally {
+            returnProgramWriteLock();
+        }
+    }
+
     public Set<String> getClientDataKeys() {
         getProgramReadLock();
         try {
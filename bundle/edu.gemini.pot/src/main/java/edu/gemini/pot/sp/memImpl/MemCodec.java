@@ -0,0 +1,750 @@
+package edu.gemini.pot.sp.memImpl;
+
+import edu.gemini.pot.sp.*;
+import edu.gemini.pot.sp.version.JavaVersionMapOps;
+import edu.gemini.pot.sp.version.LifespanId;
+import edu.gemini.shared.util.VersionVector;
+import edu.gemini.spModel.core.SPBadIDException;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.data.ISPDataObject;
+import edu.gemini.spModel.gemini.init.NodeInitializers;
+import edu.gemini.spModel.gemini.init.ObservationNI;
+import edu.gemini.spModel.pio.Param;
+import edu.gemini.spModel.pio.ParamSet;
+import edu.gemini.spModel.pio.PioFactory;
+import edu.gemini.spModel.pio.PioNode;
+import edu.gemini.spModel.pio.xml.PioXmlFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A compact, versioned binary encoding of a program or nightly record tree.
+ * Unlike Java serialization, the encoding does not depend upon the classes
+ * that implement the nodes or their data objects, so stored programs survive
+ * changes to those classes in the same way that XML exports do.
+ *
+ * <p>For each node the encoding records its kind, component type, key,
+ * observation number, data object (as its <code>ParamSet</code>) and
+ * conflicts.  The program's version vectors and the document level data
+ * (database and lifespan ids, last modification time and highest
+ * observation number) are recorded as well.  Other client data is not
+ * stored, but is recreated by the node initializers when the tree is
+ * rebuilt.
+ *
+ * <p>Strings and ids are interned: each distinct value is written once and
+ * subsequent occurrences refer to it by index.  The body may additionally
+ * be compressed in independent blocks.
+ *
+ * <p>The stream begins with {@link #MAGIC} followed by the format version.
+ * Readers reject versions newer than {@link #VERSION}; when the encoding is
+ * changed the version must be bumped and older versions still read.
+ */
+public final class MemCodec {
+    private static final Logger LOG = Logger.getLogger(MemCodec.class.getName());
+
+    static final int MAGIC   = 0x53504D42; // "SPMB"
+    static final int VERSION = 1;
+
+    private static final int FLAG_COMPRESSED = 0x01;
+
+    private static final int BLOCK_SIZE     = 64 * 1024;
+    private static final int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+
+    // Node kinds.  Never renumber these, they are part of the format.
+    private static final int PROGRAM             =  0;
+    private static final int NIGHTLY_RECORD      =  1;
+    private static final int CONFLICT_FOLDER     =  2;
+    private static final int TEMPLATE_FOLDER     =  3;
+    private static final int TEMPLATE_GROUP      =  4;
+    private static final int TEMPLATE_PARAMETERS =  5;
+    private static final int GROUP               =  6;
+    private static final int OBSERVATION         =  7;
+    private static final int OBS_COMPONENT       =  8;
+    private static final int SEQ_COMPONENT       =  9;
+    private static final int OBS_QA_LOG          = 10;
+    private static final int OBS_EXEC_LOG        = 11;
+
+    // ParamSet child kinds.
+    private static final int PARAM     = 0;
+    private static final int PARAM_SET = 1;
+
+    // ParamSet attribute flags.
+    private static final int PS_NOT_EDITABLE = 0x01;
+    private static final int PS_PRIVATE      = 0x02;
+    private static final int PS_SEQUENCE     = 0x04;
+
+    private MemCodec() {}
+
+    /**
+     * Writes the given program or nightly record to the stream.  The program
+     * read lock is held while the tree is written.  The stream is flushed but
+     * not closed.
+     *
+     * @param compress whether to compress the body of the encoding
+     */
+    public static void encode(ISPRootNode root, OutputStream os, boolean compress) throws IOException {
+        final DataOutputStream hdr = new DataOutputStream(os);
+        hdr.writeInt(MAGIC);
+        hdr.writeShort(VERSION);
+        hdr.writeByte(compress ? FLAG_COMPRESSED : 0);
+
+        final BlockOutputStream blocks = compress ? new BlockOutputStream(os) : null;
+        final DataOutputStream  body   = new DataOutputStream(compress ? blocks : os);
+
+        root.getProgramReadLock();
+        try {
+            new Encoder(body).writeDocument((MemAbstractBase) root);
+        } finally {
+            root.returnProgramReadLock();
+        }
+
+        body.flush();
+        if (blocks != null) blocks.finish();
+        os.flush();
+    }
+
+    /**
+     * Reads a program or nightly record written by {@link #encode}.  The
+     * stream is not closed.
+     */
+    public static MemAbstractBase decode(InputStream is) throws IOException {
+        final DataInputStream hdr = new DataInputStream(is);
+        if (hdr.readInt() != MAGIC) throw new IOException("Not an encoded program");
+
+        final int version = hdr.readUnsignedShort();
+        if (version > VERSION) {
+            throw new IOException("Unsupported program format version " + version + " (expected " + VERSION + " or earlier)");
+        }
+
+        final int flags = hdr.readUnsignedByte();
+        final InputStream body = ((flags & FLAG_COMPRESSED) != 0) ? new BlockInputStream(is) : is;
+        return new Decoder(new DataInputStream(body)).readDocument();
+    }
+
+    private static int kindOf(ISPNode n) throws IOException {
+        if (n instanceof ISPProgram)            return PROGRAM;
+        if (n instanceof ISPNightlyRecord)      return NIGHTLY_RECORD;
+        if (n instanceof ISPConflictFolder)     return CONFLICT_FOLDER;
+        if (n instanceof ISPTemplateFolder)     return TEMPLATE_FOLDER;
+        if (n instanceof ISPTemplateGroup)      return TEMPLATE_GROUP;
+        if (n instanceof ISPTemplateParameters) return TEMPLATE_PARAMETERS;
+        if (n instanceof ISPGroup)              return GROUP;
+        if (n instanceof ISPObservation)        return OBSERVATION;
+        if (n instanceof ISPObsComponent)       return OBS_COMPONENT;
+        if (n instanceof ISPSeqComponent)       return SEQ_COMPONENT;
+        if (n instanceof ISPObsQaLog)           return OBS_QA_LOG;
+        if (n instanceof ISPObsExecLog)         return OBS_EXEC_LOG;
+        throw new IOException("Cannot encode node of type " + n.getClass().getName());
+    }
+
+    /**
+     * Writes the parts of a program to a stream, interning strings and ids
+     * as it goes.  Also used by the {@link MemJournal} to record individual
+     * nodes.
+     */
+    static final class Encoder {
+        private final DataOutputStream out;
+        private final PioFactory pio = new PioXmlFactory();
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<UUID, Integer> uuids = new HashMap<>();
+
+        Encoder(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeVarInt(int i) throws IOException {
+            while ((i & ~0x7F) != 0) {
+                out.writeByte((i & 0x7F) | 0x80);
+                i >>>= 7;
+            }
+            out.writeByte(i);
+        }
+
+        void writeLong(long l) throws IOException {
+            out.writeLong(l);
+        }
+
+        // 0 is null, 1 introduces a new string, n > 1 refers to string n-2
+        void writeString(String s) throws IOException {
+            if (s == null) {
+                writeVarInt(0);
+                return;
+            }
+
+            final Integer index = strings.get(s);
+            if (index != null) {
+                writeVarInt(index + 2);
+            } else {
+                strings.put(s, strings.size());
+                final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                writeVarInt(1);
+                writeVarInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        // 0 introduces a new id, n > 0 refers to id n-1
+        void writeUuid(UUID u) throws IOException {
+            final Integer index = uuids.get(u);
+            if (index != null) {
+                writeVarInt(index + 1);
+            } else {
+                uuids.put(u, uuids.size());
+                writeVarInt(0);
+                out.writeLong(u.getMostSignificantBits());
+                out.writeLong(u.getLeastSignificantBits());
+            }
+        }
+
+        void writeKey(SPNodeKey key) throws IOException {
+            writeUuid(key.uuid);
+        }
+
+        void writeVersion(VersionVector<LifespanId, Integer> vv) throws IOException {
+            final Map<LifespanId, Integer> clocks = JavaVersionMapOps.clocks(vv);
+            writeVarInt(clocks.size());
+            for (Map.Entry<LifespanId, Integer> me : clocks.entrySet()) {
+                writeUuid(me.getKey().uuid());
+                writeVarInt(me.getValue());
+            }
+        }
+
+        void writeParamSet(ParamSet ps) throws IOException {
+            writeString(ps.getName());
+            writeString(ps.getKind());
+            writeString(ps.getId());
+            writeString(ps.getReferenceId());
+
+            final int seq   = ps.getSequence();
+            final int flags = (ps.isEditable()     ? 0 : PS_NOT_EDITABLE) |
+                              (ps.isPublicAccess() ? 0 : PS_PRIVATE)      |
+                              ((seq == -1)         ? 0 : PS_SEQUENCE);
+            writeVarInt(flags);
+            if (seq != -1) out.writeInt(seq);
+
+            final List<PioNode> children = new ArrayList<>();
+            for (PioNode child : ps.getChildren()) {
+                if ((child instanceof Param) || (child instanceof ParamSet)) children.add(child);
+            }
+
+            writeVarInt(children.size());
+            for (PioNode child : children) {
+                if (child instanceof Param) {
+                    final Param p = (Param) child;
+                    writeVarInt(PARAM);
+                    writeString(p.getName());
+                    writeString(p.getUnits());
+                    final List<String> values = p.getValues();
+                    writeVarInt(values.size());
+                    for (String v : values) writeString(v);
+                } else {
+                    writeVarInt(PARAM_SET);
+                    writeParamSet((ParamSet) child);
+                }
+            }
+        }
+
+        void writeDataObject(ISPNode n) throws IOException {
+            final ISPDataObject dataObj = n.getDataObject();
+            if (dataObj == null) {
+                out.writeBoolean(false);
+            } else {
+                out.writeBoolean(true);
+                writeParamSet(dataObj.getParamSet(pio));
+            }
+        }
+
+        // Conflicts are rare and have no ParamSet representation in this
+        // bundle, so they are written with Java serialization.
+        void writeConflicts(ISPNode n) throws IOException {
+            final Conflicts c = n.getConflicts();
+            if (c.isEmpty()) {
+                writeVarInt(0);
+            } else {
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+                    oos.writeObject(c);
+                }
+                writeVarInt(baos.size());
+                baos.writeTo(out);
+            }
+        }
+
+        void writeNode(ISPNode n) throws IOException {
+            final int kind = kindOf(n);
+            writeVarInt(kind);
+            if (kind == OBS_COMPONENT) writeType(((ISPObsComponent) n).getType());
+            if (kind == SEQ_COMPONENT) writeType(((ISPSeqComponent) n).getType());
+            if (kind == OBSERVATION)   writeVarInt(((ISPObservation) n).getObservationNumber());
+
+            writeKey(n.getNodeKey());
+            writeDataObject(n);
+            writeConflicts(n);
+
+            final List<ISPNode> children = (n instanceof ISPContainerNode) ?
+                    ((ISPContainerNode) n).getChildren() : Collections.<ISPNode>emptyList();
+            writeVarInt(children.size());
+            for (ISPNode child : children) writeNode(child);
+        }
+
+        private void writeType(SPComponentType type) throws IOException {
+            writeString(type.broadType.value);
+            writeString(type.narrowType);
+        }
+
+        void writeDocument(MemAbstractBase root) throws IOException {
+            final DocumentData doc = root.getDocumentData();
+            final SPProgramID  id  = doc.getDocumentID();
+
+            writeVarInt(kindOf(root));
+            writeString((id == null) ? null : id.stringValue());
+            writeUuid(doc.getDatabaseUuid());
+            writeUuid(doc.getLifespanId().uuid());
+            writeLong(doc.lastModified());
+            if (doc instanceof ProgramData) writeVarInt(((ProgramData) doc).getMaxObsNumber());
+
+            writeNode(root);
+
+            final Map<SPNodeKey, VersionVector<LifespanId, Integer>> versions = JavaVersionMapOps.toJava(doc.getVersions());
+            writeVarInt(versions.size());
+            for (Map.Entry<SPNodeKey, VersionVector<LifespanId, Integer>> me : versions.entrySet()) {
+                writeKey(me.getKey());
+                writeVersion(me.getValue());
+            }
+        }
+    }
+
+    /**
+     * Reads what the {@link Encoder} writes.
+     */
+    static final class Decoder {
+        private final DataInputStream in;
+        private final PioFactory pio = new PioXmlFactory();
+        private final List<String> strings = new ArrayList<>();
+        private final List<UUID> uuids = new ArrayList<>();
+
+        private ISPFactory factory;
+        private MemAbstractBase root;
+
+        Decoder(DataInputStream in) {
+            this.in = in;
+        }
+
+        int readVarInt() throws IOException {
+            int res   = 0;
+            int shift = 0;
+            while (true) {
+                final int b = in.readUnsignedByte();
+                res |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return res;
+                shift += 7;
+                if (shift > 28) throw new IOException("Malformed integer");
+            }
+        }
+
+        long readLong() throws IOException {
+            return in.readLong();
+        }
+
+        String readString() throws IOException {
+            final int tag = readVarInt();
+            switch (tag) {
+                case 0:
+                    return null;
+                case 1:
+                    final byte[] bytes = new byte[readVarInt()];
+                    in.readFully(bytes);
+                    final String s = new String(bytes, StandardCharsets.UTF_8);
+                    strings.add(s);
+                    return s;
+                default:
+                    return lookup(strings, tag - 2);
+            }
+        }
+
+        UUID readUuid() throws IOException {
+            final int tag = readVarInt();
+            if (tag > 0) return lookup(uuids, tag - 1);
+
+            final UUID u = new UUID(in.readLong(), in.readLong());
+            uuids.add(u);
+            return u;
+        }
+
+        private static <T> T lookup(List<T> table, int index) throws IOException {
+            if (index >= table.size()) throw new IOException("Reference to unknown interned value " + index);
+            return table.get(index);
+        }
+
+        SPNodeKey readKey() throws IOException {
+            return new SPNodeKey(readUuid());
+        }
+
+        VersionVector<LifespanId, Integer> readVersion() throws IOException {
+            final int size = readVarInt();
+            final Map<LifespanId, Integer> clocks = new LinkedHashMap<>();
+            for (int i=0; i<size; ++i) {
+                final LifespanId id = new LifespanId(readUuid());
+                clocks.put(id, readVarInt());
+            }
+            return JavaVersionMapOps.nodeVersions(clocks);
+        }
+
+        ParamSet readParamSet() throws IOException {
+            final ParamSet ps = pio.createParamSet(readString());
+
+            final String kind  = readString();
+            final String id    = readString();
+            final String refId = readString();
+            if (kind  != null) ps.setKind(kind);
+            if (id    != null) ps.setId(id);
+            if (refId != null) ps.setReferenceId(refId);
+
+            final int flags = readVarInt();
+            if ((flags & PS_NOT_EDITABLE) != 0) ps.setEditable(false);
+            if ((flags & PS_PRIVATE)      != 0) ps.setPublicAccess(false);
+            if ((flags & PS_SEQUENCE)     != 0) ps.setSequence(in.readInt());
+
+            final int count = readVarInt();
+            for (int i=0; i<count; ++i) {
+                final int childKind = readVarInt();
+                switch (childKind) {
+                    case PARAM:
+                        final Param p = pio.createParam(readString());
+                        final String units = readString();
+                        if (units != null) p.setUnits(units);
+
+                        final int size = readVarInt();
+                        final List<String> values = new ArrayList<>(size);
+                        for (int j=0; j<size; ++j) values.add(readString());
+                        if (size == 1) {
+                            p.setValue(values.get(0));
+                        } else if (size > 1) {
+                            p.setValues(values);
+                        }
+                        ps.addParam(p);
+                        break;
+
+                    case PARAM_SET:
+                        ps.addParamSet(readParamSet());
+                        break;
+
+                    default:
+                        throw new IOException("Unexpected param set child kind " + childKind);
+                }
+            }
+            return ps;
+        }
+
+        ParamSet readDataObject() throws IOException {
+            return in.readBoolean() ? readParamSet() : null;
+        }
+
+        Conflicts readConflicts() throws IOException {
+            final int len = readVarInt();
+            if (len == 0) return Conflicts.EMPTY;
+
+            final byte[] bytes = new byte[len];
+            in.readFully(bytes);
+            try (ObjectInputStream ois = new MemSerializer.ClassLoaderObjectInputStream(MemSerializer.getLoader(), new ByteArrayInputStream(bytes))) {
+                return (Conflicts) ois.readObject();
+            } catch (ClassNotFoundException ex) {
+                throw new IOException(ex);
+            }
+        }
+
+        /**
+         * Applies a data object, conflicts and version that were read from
+         * the stream to an existing node.
+         */
+        static void restore(MemAbstractBase n, ParamSet ps, Conflicts c, VersionVector<LifespanId, Integer> version) {
+            ISPDataObject dataObj = null;
+            if (ps != null) {
+                dataObj = n.getDataObject();
+                if (dataObj != null) dataObj.setParamSet(ps);
+            }
+            n.restoreState(dataObj, c, version);
+        }
+
+        // Creates the root node once its key is known.
+        private interface RootMaker {
+            MemAbstractBase make(SPNodeKey key);
+        }
+
+        // Reads a node and its descendants, returning null if the node
+        // cannot be created in this version of the software.  The root is
+        // made with the given maker, other nodes with the factory.
+        private ISPNode readNode(RootMaker maker) throws IOException {
+            final int     kind   = readVarInt();
+            final boolean isRoot = (kind == PROGRAM) || (kind == NIGHTLY_RECORD);
+            if (isRoot != (maker != null)) throw new IOException("Unexpected node kind " + kind);
+
+            SPComponentType type = null;
+            String unknownType   = null;
+            if ((kind == OBS_COMPONENT) || (kind == SEQ_COMPONENT)) {
+                final String broad  = readString();
+                final String narrow = readString();
+                try {
+                    type = SPComponentType.getInstance(broad, narrow);
+                } catch (NoSuchElementException ex) {
+                    unknownType = broad + "/" + narrow;
+                }
+            }
+            final int obsNumber = (kind == OBSERVATION) ? readVarInt() : -1;
+
+            final SPNodeKey key = readKey();
+            final ParamSet  ps  = readDataObject();
+            final Conflicts c   = readConflicts();
+
+            final ISPNode n;
+            if (isRoot) {
+                root = maker.make(key);
+                n    = root;
+            } else if (unknownType != null) {
+                LOG.warning("Ignoring node " + key + " with unknown type " + unknownType);
+                n = null;
+            } else {
+                n = create(kind, type, obsNumber, key);
+            }
+            if (n != null) restore((MemAbstractBase) n, ps, c, JavaVersionMapOps.emptyNodeVersions());
+
+            final int count = readVarInt();
+            final List<ISPNode> children = new ArrayList<>(count);
+            for (int i=0; i<count; ++i) {
+                final ISPNode child = readNode(null);
+                if (child != null) children.add(child);
+            }
+
+            if ((n instanceof ISPContainerNode) && !children.isEmpty()) {
+                try {
+                    ((ISPContainerNode) n).setChildren(children);
+                } catch (SPException ex) {
+                    throw new IOException("Could not restore the children of node " + key, ex);
+                }
+            }
+            return n;
+        }
+
+        private ISPNode create(int kind, SPComponentType type, int obsNumber, SPNodeKey key) throws IOException {
+            if (!(root instanceof ISPProgram)) throw new IOException("Unexpected node kind " + kind + " in nightly record");
+
+            final ISPProgram p = (ISPProgram) root;
+            try {
+                switch (kind) {
+                    case CONFLICT_FOLDER:     return factory.createConflictFolder(p, key);
+                    case TEMPLATE_FOLDER:     return factory.createTemplateFolder(p, key);
+                    case TEMPLATE_GROUP:      return factory.createTemplateGroup(p, key);
+                    case TEMPLATE_PARAMETERS: return factory.createTemplateParameters(p, key);
+                    case GROUP:               return factory.createGroup(p, key);
+                    case OBSERVATION:         return factory.createObservation(p, obsNumber, ObservationNI.NO_CHILDREN_INSTANCE, key);
+                    case OBS_COMPONENT:       return factory.createObsComponent(p, type, key);
+                    case SEQ_COMPONENT:       return factory.createSeqComponent(p, type, key);
+                    case OBS_QA_LOG:          return factory.createObsQaLog(p, key);
+                    case OBS_EXEC_LOG:        return factory.createObsExecLog(p, key);
+                    default:
+                        throw new IOException("Unexpected node kind " + kind);
+                }
+            } catch (SPException ex) {
+                throw new IOException("Could not create node " + key, ex);
+            }
+        }
+
+        MemAbstractBase readDocument() throws IOException {
+            final int        kind         = readVarInt();
+            final String     idStr        = readString();
+            final UUID       dbId         = readUuid();
+            final LifespanId lifespanId   = new LifespanId(readUuid());
+            final long       lastModified = readLong();
+
+            final SPProgramID id;
+            try {
+                id = (idStr == null) ? null : SPProgramID.toProgramID(idStr);
+            } catch (SPBadIDException ex) {
+                throw new IOException("Bad program id " + idStr, ex);
+            }
+
+            factory = new MemFactory(dbId);
+
+            // The document data needs the root key, which is written with the
+            // root node itself, so the root is made once the key has been read.
+            switch (kind) {
+                case PROGRAM:
+                    final int maxObs = readVarInt();
+                    readNode(key -> {
+                        final ProgramData pd = new ProgramData(key, id, dbId, lifespanId);
+                        pd.ensureMaxEqualToOrGreaterThan(maxObs);
+                        final MemProgram prog = MemProgram.restore(pd);
+                        NodeInitializers.instance.program.initNode(factory, prog);
+                        return prog;
+                    });
+                    break;
+                case NIGHTLY_RECORD:
+                    readNode(key -> {
+                        final MemNightlyRecord rec = MemNightlyRecord.restore(new NightlyRecordData(key, id, dbId, lifespanId));
+                        NodeInitializers.instance.record.initNode(factory, rec);
+                        return rec;
+                    });
+                    break;
+                default:
+                    throw new IOException("Unexpected root node kind " + kind);
+            }
+
+            // Building the tree bumped versions and the modification time, so
+            // restore them last.
+            final int size = readVarInt();
+            final Map<SPNodeKey, VersionVector<LifespanId, Integer>> versions = new HashMap<>(size * 2);
+            for (int i=0; i<size; ++i) {
+                final SPNodeKey k = readKey();
+                versions.put(k, readVersion());
+            }
+
+            final DocumentData doc = root.getDocumentData();
+            doc.setVersions(JavaVersionMapOps.fromJava(versions));
+            doc.setLastModified(lastModified);
+            return root;
+        }
+    }
+
+    // Compresses the stream in independent blocks of at most BLOCK_SIZE
+    // bytes.  Each block is preceded by its uncompressed and stored sizes,
+    // which are equal when the block did not compress.  A zero size marks
+    // the end.
+    private static final class BlockOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final byte[] buf  = new byte[BLOCK_SIZE];
+        private final byte[] zbuf = new byte[BLOCK_SIZE];
+        private int count;
+
+        BlockOutputStream(OutputStream out) {
+            this.out = new DataOutputStream(out);
+        }
+
+        @Override public void write(int b) throws IOException {
+            if (count == buf.length) writeBlock();
+            buf[count++] = (byte) b;
+        }
+
+        @Override public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buf.length) writeBlock();
+                final int n = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off   += n;
+                len   -= n;
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (count == 0) return;
+
+            deflater.reset();
+            deflater.setInput(buf, 0, count);
+            deflater.finish();
+            int zlen = 0;
+            while (!deflater.finished() && (zlen < zbuf.length)) {
+                zlen += deflater.deflate(zbuf, zlen, zbuf.length - zlen);
+            }
+
+            out.writeInt(count);
+            if (deflater.finished() && (zlen < count)) {
+                out.writeInt(zlen);
+                out.write(zbuf, 0, zlen);
+            } else {
+                out.writeInt(count);
+                out.write(buf, 0, count);
+            }
+            count = 0;
+        }
+
+        // Writes any buffered data and the end marker, leaving the
+        // underlying stream open.
+        void finish() throws IOException {
+            writeBlock();
+            out.writeInt(0);
+            out.flush();
+            deflater.end();
+        }
+    }
+
+    // Reads what the BlockOutputStream writes.
+    private static final class BlockInputStream extends InputStream {
+        private final DataInputStream in;
+        private final Inflater inflater = new Inflater();
+        private byte[] buf  = new byte[BLOCK_SIZE];
+        private byte[] zbuf = new byte[BLOCK_SIZE];
+        private int pos;
+        private int limit;
+        private boolean eof;
+
+        BlockInputStream(InputStream in) {
+            this.in = new DataInputStream(in);
+        }
+
+        private boolean readBlock() throws IOException {
+            if (eof) return false;
+
+            final int size = in.readInt();
+            if (size == 0) {
+                eof = true;
+                inflater.end();
+                return false;
+            }
+
+            final int stored = in.readInt();
+            if ((size < 0) || (size > MAX_BLOCK_SIZE) || (stored <= 0) || (stored > size)) {
+                throw new IOException("Corrupt block");
+            }
+            if (buf.length < size) buf = new byte[size];
+
+            if (stored == size) {
+                in.readFully(buf, 0, size);
+            } else {
+                if (zbuf.length < stored) zbuf = new byte[stored];
+                in.readFully(zbuf, 0, stored);
+                inflater.reset();
+                inflater.setInput(zbuf, 0, stored);
+                try {
+                    int n = 0;
+                    while (n < size) {
+                        final int r = inflater.inflate(buf, n, size - n);
+                        if ((r == 0) && (inflater.finished() || inflater.needsInput())) break;
+                        n += r;
+                    }
+                    if (n != size) throw new IOException("Corrupt block");
+                } catch (DataFormatException ex) {
+                    throw new IOException("Corrupt block", ex);
+                }
+            }
+
+            pos   = 0;
+            limit = size;
+            return true;
+        }
+
+        @Override public int read() throws IOException {
+            if ((pos == limit) && !readBlock()) return -1;
+            return buf[pos++] & 0xFF;
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if ((pos == limit) && !readBlock()) return -1;
+            final int n = Math.min(len, limit - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override public int available() {
+            return limit - pos;
+        }
+    }
+}
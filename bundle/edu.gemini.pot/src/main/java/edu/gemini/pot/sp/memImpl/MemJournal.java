@@ -0,0 +1,277 @@
+package edu.gemini.pot.sp.memImpl;
+
+import edu.gemini.pot.sp.Conflicts;
+import edu.gemini.pot.sp.ISPContainerNode;
+import edu.gemini.pot.sp.ISPNode;
+import edu.gemini.pot.sp.ISPRootNode;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.sp.version.LifespanId;
+import edu.gemini.shared.util.VersionVector;
+import edu.gemini.spModel.pio.ParamSet;
+
+import java.io.*;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An append-only journal of node updates that accompanies a program snapshot
+ * written by the {@link MemSerializer}.  Rather than rewriting an entire
+ * program when a few of its nodes are edited, the data object, conflicts and
+ * version of just the edited nodes are appended to the journal using the
+ * {@link MemCodec} encoding.  On load, the snapshot is read and then the journal is replayed
+ * on top of it.
+ *
+ * <p>The journal only records changes to existing nodes.  Any change to the
+ * structure of the program requires a new snapshot, which also discards the
+ * journal.  Each snapshot ends with a random id, written by
+ * {@link #writeSnapshotId}, and the journal header records the id of the
+ * snapshot to which it applies, so a journal left behind when a new snapshot
+ * is written is recognized as stale and ignored.
+ *
+ * <p>The journal file has the same name as the snapshot with
+ * {@link #SUFFIX} appended. Following the header, it contains a sequence of
+ * length-prefixed frames, one per {@link #append} call.  A partially written
+ * final frame (for example after a crash) is ignored.
+ */
+public final class MemJournal {
+    private static final Logger LOG = Logger.getLogger(MemJournal.class.getName());
+
+    /** Suffix appended to the snapshot file name to form the journal name. */
+    public static final String SUFFIX = ".journal";
+
+    private static final int MAGIC   = 0x4A524E4C; // "JRNL"
+    private static final int VERSION = 1;
+
+    // Marks the snapshot id at the end of a snapshot file.
+    private static final int ID_MAGIC = 0x534E4944; // "SNID"
+    private static final int ID_SIZE  = 12;
+
+    // Stands for the id of a snapshot written without one.
+    private static final long NO_ID = 0;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private MemJournal() {}
+
+    /**
+     * Gets the journal file associated with the given snapshot file.
+     */
+    public static File journalFile(File snapshot) {
+        return new File(snapshot.getParentFile(), snapshot.getName() + SUFFIX);
+    }
+
+    /**
+     * Writes a new random snapshot id to the stream, which should be
+     * positioned at the end of a snapshot that has just been written.  The
+     * snapshot readers ignore anything after the program.
+     */
+    static void writeSnapshotId(DataOutput out) throws IOException {
+        long id;
+        do {
+            id = RANDOM.nextLong();
+        } while (id == NO_ID);
+        out.writeLong(id);
+        out.writeInt(ID_MAGIC);
+    }
+
+    /**
+     * Reads the id of the given snapshot, or {@link #NO_ID} if it has none.
+     */
+    private static long snapshotId(File snapshot) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(snapshot, "r")) {
+            final long len = raf.length();
+            if (len < ID_SIZE) return NO_ID;
+            raf.seek(len - ID_SIZE);
+            final long id = raf.readLong();
+            return (raf.readInt() == ID_MAGIC) ? id : NO_ID;
+        }
+    }
+
+    /**
+     * Determines whether updates may be appended to the journal of the given
+     * snapshot.  Snapshots written before snapshot ids were introduced must
+     * be rewritten first.
+     */
+    public static boolean canAppend(File snapshot) throws IOException {
+        return snapshot.exists() && (snapshotId(snapshot) != NO_ID);
+    }
+
+    /**
+     * Gets the size of the journal associated with the given snapshot, or 0
+     * if there is none.
+     */
+    public static long length(File snapshot) {
+        final File j = journalFile(snapshot);
+        return j.exists() ? j.length() : 0;
+    }
+
+    /**
+     * Deletes the journal associated with the given snapshot, if any.  This
+     * should be done after a new snapshot has been written.
+     */
+    public static void delete(File snapshot) {
+        final File j = journalFile(snapshot);
+        if (j.exists() && !j.delete()) {
+            LOG.warning("Could not delete journal " + j.getPath());
+        }
+    }
+
+    /**
+     * Appends the current state of the given nodes to the journal associated
+     * with the snapshot, creating the journal if necessary.  The program read
+     * lock is held while the nodes are written so that a consistent state is
+     * recorded.  Nodes that are no longer part of the program are skipped.
+     *
+     * @param snapshot snapshot file to which the journal applies; must exist
+     * and have an id (see {@link #canAppend})
+     * @param root root of the program containing the nodes
+     * @param nodes nodes whose state should be recorded
+     */
+    public static void append(File snapshot, ISPRootNode root, Collection<? extends ISPNode> nodes) throws IOException {
+        final long id = snapshotId(snapshot);
+        if (id == NO_ID) throw new IOException("Snapshot " + snapshot.getPath() + " has no id");
+
+        final byte[] frame = writeFrame(root, nodes);
+        if (frame == null) return;
+
+        final File    j   = journalFile(snapshot);
+        final boolean hdr = !(j.exists() && matches(j, id));
+
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(j, !hdr)))) {
+            if (hdr) {
+                dos.writeInt(MAGIC);
+                dos.writeInt(VERSION);
+                dos.writeLong(id);
+            }
+            dos.writeInt(frame.length);
+            dos.write(frame);
+        }
+    }
+
+    private static byte[] writeFrame(ISPRootNode root, Collection<? extends ISPNode> nodes) throws IOException {
+        root.getProgramReadLock();
+        try {
+            final List<MemAbstractBase> live = new ArrayList<>(nodes.size());
+            for (ISPNode n : nodes) {
+                if (n.getRootAncestor() == root) live.add((MemAbstractBase) n);
+            }
+            if (live.isEmpty()) return null;
+
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (DataOutputStream dos = new DataOutputStream(baos)) {
+                final MemCodec.Encoder enc = new MemCodec.Encoder(dos);
+                enc.writeLong(((MemAbstractBase) root).getDocumentData().lastModified());
+                enc.writeVarInt(live.size());
+                for (MemAbstractBase n : live) {
+                    enc.writeKey(n.getNodeKey());
+                    enc.writeVersion(n.getVersion());
+                    enc.writeDataObject(n);
+                    enc.writeConflicts(n);
+                }
+            }
+            return baos.toByteArray();
+        } finally {
+            root.returnProgramReadLock();
+        }
+    }
+
+    // Reads the header, returning whether it belongs to the snapshot with
+    // the given id.
+    private static boolean readHeader(DataInputStream dis, long id) throws IOException {
+        try {
+            return (dis.readInt() == MAGIC) &&
+                   (dis.readInt() == VERSION) &&
+                   (dis.readLong() == id);
+        } catch (EOFException ex) {
+            return false;
+        }
+    }
+
+    private static boolean matches(File journal, long id) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(journal))) {
+            return readHeader(dis, id);
+        }
+    }
+
+    /**
+     * Replays the journal associated with the given snapshot, if any, on top
+     * of the program that was loaded from the snapshot.  This should be done
+     * immediately after loading, before the program is shared.
+     *
+     * @return <code>true</code> if the journal was absent, stale or fully
+     * applied; <code>false</code> if it ends with a partial or corrupt frame,
+     * in which case a new snapshot should be written before the journal is
+     * appended to again
+     */
+    public static boolean replay(File snapshot, MemAbstractBase root) throws IOException {
+        final File j = journalFile(snapshot);
+        if (!j.exists()) return true;
+
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(j)))) {
+            final long id = snapshotId(snapshot);
+            if ((id == NO_ID) || !readHeader(dis, id)) {
+                LOG.info("Ignoring stale journal " + j.getPath());
+                return true;
+            }
+
+            final Map<SPNodeKey, MemAbstractBase> nodes = new HashMap<>();
+            index(root, nodes);
+
+            while (true) {
+                final int len;
+                try {
+                    len = dis.readInt();
+                } catch (EOFException ex) {
+                    return true;
+                }
+
+                if (len < 0) {
+                    LOG.warning("Corrupt journal " + j.getPath() + ", ignoring remaining frames");
+                    return false;
+                }
+
+                final byte[] frame = new byte[len];
+                try {
+                    dis.readFully(frame);
+                } catch (EOFException ex) {
+                    LOG.warning("Partial frame at the end of journal " + j.getPath());
+                    return false;
+                }
+                applyFrame(frame, root, nodes);
+            }
+        }
+    }
+
+    private static void index(ISPNode n, Map<SPNodeKey, MemAbstractBase> m) {
+        m.put(n.getNodeKey(), (MemAbstractBase) n);
+        if (n instanceof ISPContainerNode) {
+            for (ISPNode child : ((ISPContainerNode) n).getChildren()) index(child, m);
+        }
+    }
+
+    private static void applyFrame(byte[] frame, MemAbstractBase root, Map<SPNodeKey, MemAbstractBase> nodes) throws IOException {
+        final MemCodec.Decoder dec = new MemCodec.Decoder(new DataInputStream(new ByteArrayInputStream(frame)));
+        final long lastModified = dec.readLong();
+        final int  size         = dec.readVarInt();
+        for (int i=0; i<size; ++i) {
+            final SPNodeKey                          key     = dec.readKey();
+            final VersionVector<LifespanId, Integer> version = dec.readVersion();
+            final ParamSet                           ps      = dec.readDataObject();
+            final Conflicts                          c       = dec.readConflicts();
+
+            final MemAbstractBase n = nodes.get(key);
+            if (n == null) {
+                LOG.log(Level.WARNING, "Journal refers to unknown node " + key + " in program " + root.getProgramKey());
+            } else {
+                MemCodec.Decoder.restore(n, ps, c, version);
+            }
+        }
+        root.getDocumentData().setLastModified(lastModified);
+    }
+}
@@ -25,6 +25,10 @@ public final class MemNightlyRecord extends MemAbstractBase implements ISPNightl
         return new MemNightlyRecord(new NightlyRecordData(key, progId, databaseId, LifespanId.random()), that);
     }
 
+    static MemNightlyRecord restore(NightlyRecordData data) {
+        return new MemNightlyRecord(data);
+    }
+
     private MemNightlyRecord(NightlyRecordData data) {
         super(data, data.getDocumentKey());
     }
@@ -23,6 +23,14 @@ public final class MemProgram extends MemAbstractContainer implements ISPProgram
         return new MemProgram(new ProgramData(key, progId, databaseId, LifespanId.random()));
     }
 
+    /**
+     * Creates an empty program around existing program data, as when
+     * restoring a stored program.
+     */
+    static MemProgram restore(ProgramData progData) {
+        return new MemProgram(progData);
+    }
+
     /**
      * Creates a copy of the given program with new keys and a new program id.
      * The copy is identical in structure but each node has unique keys and the
@@ -142,6 +150,10 @@ public final class MemProgram extends MemAbstractContainer implements ISPProgram
         return getDocumentData().lastModified();
     }
 
+    public SPProgramSnapshot getSnapshot() {
+        return getDocumentData().snapshot(this);
+    }
+
     public ISPTemplateFolder getTemplateFolder() {
         getProgramReadLock();
         try {
@@ -3,15 +3,77 @@ package edu.gemini.pot.sp.memImpl;
 import edu.gemini.pot.sp.ISPRootNode;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Stores and loads program and nightly record trees.  Programs are stored
+ * in one of the supported {@link Format}s, chosen when the serializer is
+ * created.  Loading recognizes either format regardless of that choice, so
+ * existing files continue to load and are converted as they are stored
+ * again.
+ */
 public final class MemSerializer {
     private static final Logger LOG = Logger.getLogger(MemSerializer.class.getName());
 
+    /**
+     * Formats in which programs may be stored.
+     */
+    public enum Format {
+        /** Plain Java serialization of the node objects. */
+        JAVA,
+
+        /** The {@link MemCodec} binary encoding. */
+        BINARY,
+    }
+
+    /** System property naming the {@link Format} used by default. */
+    public static final String FORMAT_PROP = "edu.gemini.pot.sp.memImpl.MemSerializer.format";
+
+    /** System property that disables compression of the binary format when "false". */
+    public static final String COMPRESS_PROP = "edu.gemini.pot.sp.memImpl.MemSerializer.compress";
+
+    private static Format defaultFormat() {
+        final String f = System.getProperty(FORMAT_PROP);
+        if (f == null) return Format.BINARY;
+        try {
+            return Format.valueOf(f.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            LOG.warning("Unknown program format '" + f + "', using " + Format.BINARY);
+            return Format.BINARY;
+        }
+    }
+
+    private final Format format;
+    private final boolean compress;
+
+    /**
+     * Creates a serializer that stores programs in the format named by the
+     * {@link #FORMAT_PROP} property, if set, or else in the binary format.
+     */
+    public MemSerializer() {
+        this(defaultFormat(), !"false".equalsIgnoreCase(System.getProperty(COMPRESS_PROP)));
+    }
+
+    /**
+     * Creates a serializer that stores programs in the given format.
+     *
+     * @param compress whether to compress the binary format; ignored for
+     * Java serialization
+     */
+    public MemSerializer(Format format, boolean compress) {
+        this.format   = format;
+        this.compress = compress;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
     // An ObjectInputStream that uses the bundle's class loader if possible to
     // resolve classes.
-    private final class ClassLoaderObjectInputStream extends ObjectInputStream {
+    static final class ClassLoaderObjectInputStream extends ObjectInputStream {
         private final ClassLoader loader;
 
         ClassLoaderObjectInputStream(ClassLoader loader, InputStream is) throws IOException {
@@ -28,21 +90,49 @@ public final class MemSerializer {
         }
     }
 
-    private ClassLoader getLoader() {
+    static ClassLoader getLoader() {
         return MemSerializer.class.getClassLoader();
     }
 
     public MemAbstractBase load(File file) throws IOException {
         final FileInputStream fis = new FileInputStream(file);
-        return loadAndClose(new ClassLoaderObjectInputStream(getLoader(), new BufferedInputStream(fis)));
+        return loadAndClose(new BufferedInputStream(fis));
+    }
+
+    /**
+     * Loads the program in the given file by reading all of it into memory
+     * before decoding rather than through a buffered stream.  The file is
+     * closed as soon as it has been read.
+     */
+    public MemAbstractBase loadFully(File file) throws IOException {
+        return load(Files.readAllBytes(file.toPath()));
     }
 
     public MemAbstractBase load(byte[] blob) throws IOException {
-        return loadAndClose(new ClassLoaderObjectInputStream(getLoader(), new ByteArrayInputStream(blob)));
+        return loadAndClose(new ByteArrayInputStream(blob));
     }
 
-    private MemAbstractBase loadAndClose(ObjectInputStream ois) throws IOException {
-        try { return load(ois); } finally { ois.close(); }
+    // Determines the format from the first few bytes of the stream, which
+    // must support mark and reset.
+    private MemAbstractBase loadAndClose(InputStream is) throws IOException {
+        try {
+            is.mark(4);
+            boolean binary;
+            try {
+                binary = new DataInputStream(is).readInt() == MemCodec.MAGIC;
+            } catch (EOFException ex) {
+                binary = false;
+            }
+            is.reset();
+
+            if (binary) {
+                return MemCodec.decode(is);
+            } else {
+                return load(new ClassLoaderObjectInputStream(getLoader(), is));
+            }
+        } finally {
+            is.close();
+        }
     }
 
     public MemAbstractBase load(ObjectInputStream ois) throws IOException {
@@ -54,17 +144,32 @@ public final class MemSerializer {
         }
     }
 
+    /**
+     * Stores the program in the given file, followed by a new snapshot id
+     * that identifies the {@link MemJournal} entries that apply to it.
+     */
     public void store(ISPRootNode mab, File file) throws IOException {
         final FileOutputStream fos = new FileOutputStream(file);
-        storeAndClose(mab, new ObjectOutputStream(new BufferedOutputStream(fos)));
+        storeAndClose(mab, new BufferedOutputStream(fos));
+        try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(file, true))) {
+            MemJournal.writeSnapshotId(dos);
+        }
     }
 
     public byte[] store(ISPRootNode mab) throws IOException {
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        storeAndClose(mab, new ObjectOutputStream(baos));
+        storeAndClose(mab, baos);
         return baos.toByteArray();
     }
 
+    private void storeAndClose(ISPRootNode mab, OutputStream os) throws IOException {
+        if (format == Format.BINARY) {
+            try { MemCodec.encode(mab, os, compress); } finally { os.close(); }
+        } else {
+            storeAndClose(mab, new ObjectOutputStream(os));
+        }
+    }
+
     private void storeAndClose(ISPRootNode mab, ObjectOutputStream oos) throws IOException {
         try { store(mab, oos); oos.flush(); } finally { oos.close(); }
     }
@@ -0,0 +1,100 @@
+package edu.gemini.pot.sp.memImpl;
+
+import edu.gemini.pot.sp.*;
+import edu.gemini.pot.sp.version.JavaVersionMapOps;
+import edu.gemini.pot.sp.version.LifespanId;
+import edu.gemini.shared.util.VersionVector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds {@link SPProgramSnapshot}s, reusing the nodes of the previous
+ * snapshot for any subtree whose versions, conflict state and children are
+ * unchanged.  Only the data objects of modified nodes are copied, so the cost
+ * of a new snapshot after an edit is a walk over the program comparing
+ * version vectors plus a copy of whatever was edited.
+ */
+final class MemSnapshot {
+    private MemSnapshot() {}
+
+    // Node interfaces in the order they should be tested, most specific
+    // first.
+    private static final List<Class<? extends ISPNode>> NODE_TYPES = Arrays.<Class<? extends ISPNode>>asList(
+            ISPProgram.class,
+            ISPNightlyRecord.class,
+            ISPConflictFolder.class,
+            ISPTemplateFolder.class,
+            ISPTemplateGroup.class,
+            ISPTemplateParameters.class,
+            ISPGroup.class,
+            ISPObservation.class,
+            ISPObsComponent.class,
+            ISPSeqComponent.class,
+            ISPObsQaLog.class,
+            ISPObsExecLog.class
+    );
+
+    private static Class<? extends ISPNode> nodeType(ISPNode n) {
+        for (Class<? extends ISPNode> c : NODE_TYPES) {
+            if (c.isInstance(n)) return c;
+        }
+        return ISPNode.class;
+    }
+
+    /**
+     * Builds a snapshot of the given program, which the caller must have
+     * read locked.
+     *
+     * @param prev previous snapshot of the same program, if any, from which
+     * unchanged nodes are taken
+     */
+    static SPProgramSnapshot build(MemProgram prog, SPProgramSnapshot prev) {
+        final Map<SPNodeKey, SPNodeSnapshot> old = new HashMap<>();
+        if (prev != null) index(prev.getRoot(), old);
+
+        final scala.collection.immutable.Map<SPNodeKey, VersionVector<LifespanId, Integer>> versions = prog.getVersions();
+        final SPNodeSnapshot root = build(prog, versions, old);
+        return new SPProgramSnapshot(prog.getProgramID(), prog.lastModified(), versions, root);
+    }
+
+    private static void index(SPNodeSnapshot n, Map<SPNodeKey, SPNodeSnapshot> m) {
+        m.put(n.getNodeKey(), n);
+        for (SPNodeSnapshot c : n.getChildren()) index(c, m);
+    }
+
+    private static SPNodeSnapshot build(ISPNode n,
+                                        scala.collection.immutable.Map<SPNodeKey, VersionVector<LifespanId, Integer>> versions,
+                                        Map<SPNodeKey, SPNodeSnapshot> old) {
+        final List<SPNodeSnapshot> children = new ArrayList<>();
+        if (n instanceof ISPContainerNode) {
+            for (ISPNode c : ((ISPContainerNode) n).getChildren()) {
+                children.add(build(c, versions, old));
+            }
+        }
+
+        final SPNodeKey key = n.getNodeKey();
+        final VersionVector<LifespanId, Integer> version = JavaVersionMapOps.getOrEmpty(versions, key);
+        final boolean conflicts = n.hasConflicts();
+
+        final SPNodeSnapshot prev = old.get(key);
+        if ((prev != null) && prev.getVersion().equals(version) &&
+                (prev.hasConflicts() == conflicts) && sameNodes(prev.getChildren(), children)) {
+            return prev;
+        }
+
+        final int obsNum = (n instanceof ISPObservation) ? ((ISPObservation) n).getObservationNumber() : -1;
+        return new SPNodeSnapshot(key, nodeType(n), n.getDataObject(), version, conflicts, obsNum, children);
+    }
+
+    private static boolean sameNodes(List<SPNodeSnapshot> a, List<SPNodeSnapshot> b) {
+        if (a.size() != b.size()) return false;
+        for (int i=0; i<a.size(); ++i) {
+            if (a.get(i) != b.get(i)) return false;
+        }
+        return true;
+    }
+}
@@ -26,6 +26,18 @@ final class ProgramData extends DocumentData {
         super(progKey, progId, uuid, lifespanId);
     }
 
+    /**
+     * Gets the highest observation number ever assigned in this program.
+     */
+    int getMaxObsNumber() {
+        getProgramReadLock();
+        try {
+            return _maxObsNumber;
+        } finally {
+            returnProgramReadLock();
+        }
+    }
+
     /**
      * Increments the maximum observation number in the program and returns it.
      * This method is intended to be used for setting the observation number
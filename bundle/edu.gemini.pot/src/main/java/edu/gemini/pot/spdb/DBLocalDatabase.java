@@ -86,7 +86,7 @@ public final class DBLocalDatabase implements IDBDatabaseService {
         _admin       = new DBAdmin(_dataMan);
 
         // Handle trigger registrations.
-        _triggerRegistrar = new TriggerRegistrar(_dataMan.getProgramManager());
+        _triggerRegistrar = _dataMan.getTriggerRegistrar();
     }
 
     private static final class UuidIo {
@@ -161,15 +161,7 @@ public final class DBLocalDatabase implements IDBDatabaseService {
             LOG.fine("DBDatabase.lookupObservationByID(" + obsID + ")");
         }
 
-        ISPProgram prog = lookupProgramByID(obsID.getProgramID());
-        if (prog == null) return null;
-
-        for (ISPObservation obs : prog.getAllObservations()) {
-            if (obs.getObservationNumber() == obsID.getObservationNumber()) {
-                return obs;
-            }
-        }
-        return null;
+        return _dataMan.getObservationIndex().lookup(obsID);
     }
 
     /**
@@ -304,10 +296,12 @@ public final class DBLocalDatabase implements IDBDatabaseService {
 
         WithPriority.exec(functor.getPriority(), new Runnable() {
             public void run() {
-                FunctorLogger.Handback hb = _dataMan.functorLogger.logStart(functor);
+                FunctorLogger.Handback hb = _dataMan.functorLogger.logStart(functor, ps);
                 try {
+                    hb.visited(1);
                     functor.execute(DBLocalDatabase.this, node, ps);
                 } catch (Exception ex) {
+                    hb.failed(ex);
                     functor.setException(ex);
                 }
                 _dataMan.functorLogger.logEnd(functor, hb);
@@ -336,6 +330,18 @@ public final class DBLocalDatabase implements IDBDatabaseService {
         _triggerRegistrar.unregister(condition, action);
     }
 
+    public TriggerStats getTriggerStats() {
+        return _triggerRegistrar.getStats();
+    }
+
+    public FunctorMetrics getFunctorMetrics() {
+        return _dataMan.functorLogger.metrics;
+    }
+
+    public IDBDirtyNodeTracker trackDirtyNodes() {
+        return new DirtyNodeTracker(_dataMan.getProgramManager());
+    }
+
 }
 
 
@@ -12,6 +12,7 @@ import edu.gemini.pot.util.POTUtil;
 
 import java.io.IOException;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
 
 
 /**
@@ -25,12 +26,17 @@ final class DatabaseManager {
     private final ProgramManager<ISPNightlyRecord> _planMan;
     private final StorageManager<ISPProgram> _progStoreMan;
     private final StorageManager<ISPNightlyRecord> _planStoreMan;
+    private final ObservationIndex _obsIndex;
+    private final TriggerRegistrar _triggers;
 
     //private DBAdmin _admin;
     private final ISPFactory _fact;
 
     final FunctorLogger functorLogger;
 
+    // Bounded pool in which partitioned query functors are executed.
+    final ForkJoinPool queryPool;
+
     /**
      * Constructs with the database directory to use.
      *
@@ -38,7 +44,8 @@ final class DatabaseManager {
      * writable (or creatable if not existent)
      */
     DatabaseManager(IDBPersister persister, UUID uuid) throws IOException {
-        this.functorLogger = new FunctorLogger();
+        this.functorLogger = new FunctorLogger(uuid);
+        this.queryPool     = QueryRunner.createPool();
 
         // Create the file manager and load the programs in the database.
         _persister = persister;
@@ -48,6 +55,12 @@ final class DatabaseManager {
         _progMan = new ProgramManager<ISPProgram>(_persister.reloadPrograms());
         _planMan = new ProgramManager<ISPNightlyRecord>(_persister.reloadPlans());
 
+        // Index observations by id for quick lookup.
+        _obsIndex = new ObservationIndex(_progMan);
+
+        // Evaluate and dispatch triggers on program changes.
+        _triggers = new TriggerRegistrar(_progMan);
+
         // Create the storage manager to keep the program files up-to-date
         // as they change and to store/remove programs as necessary.
         _progStoreMan = new StorageManager<ISPProgram>(_progMan, _persister);
@@ -85,6 +98,20 @@ final class DatabaseManager {
         return _planMan;
     }
 
+    /**
+     * Obtains a reference to the <code>ObservationIndex</code>.
+     */
+    ObservationIndex getObservationIndex() {
+        return _obsIndex;
+    }
+
+    /**
+     * Obtains a reference to the <code>TriggerRegistrar</code>.
+     */
+    TriggerRegistrar getTriggerRegistrar() {
+        return _triggers;
+    }
+
     /**
      * Obtains a reference to the <code>StorageManager</code>.
      */
@@ -105,9 +132,12 @@ final class DatabaseManager {
     void shutdown() {
         _progStoreMan.shutdown();
         _planStoreMan.shutdown();
+        _obsIndex.shutdown();
+        _triggers.shutdown();
         _progMan.shutdown();
         _planMan.shutdown();
         functorLogger.cancel();
+        queryPool.shutdown();
     }
 
     /**
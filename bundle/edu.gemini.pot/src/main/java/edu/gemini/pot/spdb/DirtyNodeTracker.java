@@ -0,0 +1,78 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.SPNodeKey;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementation of {@link IDBDirtyNodeTracker} based on its own
+ * {@link DirtyProgramListener} attached to every program.
+ */
+final class DirtyNodeTracker implements IDBDirtyNodeTracker, ProgramEventListener<ISPProgram> {
+
+    private final ProgramManager<ISPProgram> _progMan;
+    private final DirtyProgramListener<ISPProgram> _dirty = new DirtyProgramListener<>();
+
+    // Programs added, replaced or removed since the last drain, guarded by
+    // itself.
+    private final Map<SPNodeKey, DirtyNodes> _whole = new LinkedHashMap<>();
+
+    DirtyNodeTracker(ProgramManager<ISPProgram> progMan) {
+        _progMan = progMan;
+
+        progMan.addListener(this);
+        for (ISPProgram prog : progMan.getPrograms()) {
+            prog.addCompositeChangeListener(_dirty);
+        }
+    }
+
+    private void _markWhole(ISPProgram prog) {
+        final SPNodeKey key = prog.getProgramKey();
+        synchronized (_whole) {
+            _whole.put(key, DirtyNodes.wholeProgram(key));
+        }
+    }
+
+    @Override public List<DirtyNodes> drain() {
+        final Map<SPNodeKey, DirtyNodes> res;
+        synchronized (_whole) {
+            res = new LinkedHashMap<>(_whole);
+            _whole.clear();
+        }
+
+        for (DirtyProgramListener.Changes<ISPProgram> c : _dirty.getDirtyPrograms()) {
+            final DirtyNodes dn = c.toDirtyNodes();
+            res.merge(dn.getProgramKey(), dn, DirtyNodes::merge);
+        }
+        return new ArrayList<>(res.values());
+    }
+
+    @Override public void close() {
+        _progMan.removeListener(this);
+        for (ISPProgram prog : _progMan.getPrograms()) {
+            prog.removeCompositeChangeListener(_dirty);
+        }
+    }
+
+    @Override public void programAdded(ProgramEvent<ISPProgram> pme) {
+        final ISPProgram prog = pme.getNewProgram();
+        prog.addCompositeChangeListener(_dirty);
+        _markWhole(prog);
+    }
+
+    @Override public void programReplaced(ProgramEvent<ISPProgram> pme) {
+        programRemoved(pme);
+        programAdded(pme);
+    }
+
+    @Override public void programRemoved(ProgramEvent<ISPProgram> pme) {
+        final ISPProgram prog = pme.getOldProgram();
+        prog.removeCompositeChangeListener(_dirty);
+        _dirty.removeProgram(prog);
+        _markWhole(prog);
+    }
+}
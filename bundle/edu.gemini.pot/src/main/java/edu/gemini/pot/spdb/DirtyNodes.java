@@ -0,0 +1,89 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.SPNodeKey;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Describes which nodes of a program were modified over some period, so that
+ * work that depends on the program contents can be limited to the nodes that
+ * actually changed.
+ */
+public final class DirtyNodes implements Serializable {
+    private final SPNodeKey programKey;
+    private final Set<SPNodeKey> dataKeys;
+    private final Set<SPNodeKey> structureKeys;
+    private final boolean wholeProgram;
+
+    DirtyNodes(SPNodeKey programKey, Set<SPNodeKey> dataKeys, Set<SPNodeKey> structureKeys, boolean wholeProgram) {
+        this.programKey    = programKey;
+        this.dataKeys      = Collections.unmodifiableSet(new HashSet<>(dataKeys));
+        this.structureKeys = Collections.unmodifiableSet(new HashSet<>(structureKeys));
+        this.wholeProgram  = wholeProgram;
+    }
+
+    static DirtyNodes wholeProgram(SPNodeKey programKey) {
+        return new DirtyNodes(programKey, Collections.<SPNodeKey>emptySet(), Collections.<SPNodeKey>emptySet(), true);
+    }
+
+    public SPNodeKey getProgramKey() {
+        return programKey;
+    }
+
+    /**
+     * Keys of the nodes whose client data (for example the data object or
+     * the conflicts) was updated.
+     */
+    public Set<SPNodeKey> getDataKeys() {
+        return dataKeys;
+    }
+
+    /**
+     * Keys of the nodes with any other modification, for example to their
+     * children.  A node that gains or loses children appears
+     * here, but the children themselves appear only if they were modified
+     * in their own right.
+     */
+    public Set<SPNodeKey> getStructureKeys() {
+        return structureKeys;
+    }
+
+    /**
+     * Keys of all the modified nodes.
+     */
+    public Set<SPNodeKey> getKeys() {
+        final Set<SPNodeKey> res = new HashSet<>(dataKeys);
+        res.addAll(structureKeys);
+        return Collections.unmodifiableSet(res);
+    }
+
+    /**
+     * Returns <code>true</code> if the program was added, replaced or removed
+     * so that the whole program should be considered modified.
+     */
+    public boolean isWholeProgram() {
+        return wholeProgram;
+    }
+
+    /**
+     * Combines two sets of modifications to the same program.
+     */
+    DirtyNodes merge(DirtyNodes that) {
+        if (wholeProgram) return this;
+        if (that.wholeProgram) return that;
+
+        final Set<SPNodeKey> data = new HashSet<>(dataKeys);
+        data.addAll(that.dataKeys);
+        final Set<SPNodeKey> structure = new HashSet<>(structureKeys);
+        structure.addAll(that.structureKeys);
+        return new DirtyNodes(programKey, data, structure, false);
+    }
+
+    @Override public String toString() {
+        return wholeProgram ? String.format("DirtyNodes(%s, whole program)", programKey) :
+                String.format("DirtyNodes(%s, data=%s, structure=%s)", programKey, dataKeys, structureKeys);
+    }
+}
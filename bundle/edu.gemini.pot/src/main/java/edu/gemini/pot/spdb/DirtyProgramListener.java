@@ -9,6 +9,7 @@ package edu.gemini.pot.spdb;
 
 import edu.gemini.pot.sp.ISPNode;
 import edu.gemini.pot.sp.ISPRootNode;
+import edu.gemini.pot.sp.SPNodeKey;
 import edu.gemini.pot.sp.SPUtil;
 
 import java.beans.PropertyChangeEvent;
@@ -24,28 +25,109 @@ import java.util.*;
  * <code>{@link StorageManager}</code>.  It contains a thread that
  * periodically checks for "dirty" programs (via the
  * <code>getDirtyPrograms()</code> method of this class) and saves.
+ *
+ * <p>Along with each dirty program, the listener records the keys of the
+ * nodes that were modified, taken from the source of each change.  Nodes
+ * whose client data (e.g., data object) was updated are kept separately from
+ * nodes with any other change (to their children for example).  If only
+ * client data changed, the storage manager can store just those nodes.  Any
+ * other change requires storing the whole program.
  */
 @SuppressWarnings("unchecked")
 final class DirtyProgramListener<N extends ISPRootNode> implements PropertyChangeListener {
-    private final Set<N> _progSet;
+
+    /**
+     * The changes to a dirty program since the last time it was collected.
+     */
+    static final class Changes<N extends ISPRootNode> {
+        final N root;
+
+        // Nodes whose client data was modified.
+        private final Map<SPNodeKey, ISPNode> nodes;
+
+        // Nodes with any other modification.
+        private final Set<SPNodeKey> structure;
+
+        private Changes(N root, Map<SPNodeKey, ISPNode> nodes, Set<SPNodeKey> structure) {
+            this.root      = root;
+            this.nodes     = nodes;
+            this.structure = structure;
+        }
+
+        /**
+         * Returns <code>true</code> if more than just the client data of
+         * existing nodes changed.
+         */
+        boolean isStructural() {
+            return !structure.isEmpty();
+        }
+
+        /**
+         * Gets the nodes whose client data was modified.
+         */
+        Collection<ISPNode> getNodes() {
+            return Collections.unmodifiableCollection(nodes.values());
+        }
+
+        /**
+         * Gets the keys of the nodes with modifications other than to their
+         * client data.
+         */
+        Set<SPNodeKey> getStructureKeys() {
+            return Collections.unmodifiableSet(structure);
+        }
+
+        DirtyNodes toDirtyNodes() {
+            return new DirtyNodes(root.getProgramKey(), nodes.keySet(), structure, false);
+        }
+    }
+
+    // The modifications made to one program.
+    private static final class Dirty {
+        final Map<SPNodeKey, ISPNode> nodes = new HashMap<SPNodeKey, ISPNode>();
+        final Set<SPNodeKey> structure      = new HashSet<SPNodeKey>();
+    }
+
+    private static final String CLIENT_DATA_PREFIX = SPUtil.getClientDataPropertyName("");
+
+    // Maps dirty programs to their modifications.
+    private final Map<N, Dirty> _progMap;
 
     /**
      * Default constructor declared because superclass default constructor
      * throws <code>RemoteException</code>.
      */
     DirtyProgramListener()  {
-        _progSet = new HashSet<N>();
+        _progMap = new HashMap<N, Dirty>();
+    }
+
+    private static boolean isClientDataPropertyName(String propName) {
+        return (propName != null) && propName.startsWith(CLIENT_DATA_PREFIX);
     }
 
     @Override public void propertyChange(PropertyChangeEvent pce) {
-        if (SPUtil.isTransientClientDataPropertyName(pce.getPropertyName())) return;
+        final String propName = pce.getPropertyName();
+        if (SPUtil.isTransientClientDataPropertyName(propName)) return;
 
         final Object src = pce.getSource();
         if (!(src instanceof ISPNode)) return;
 
-        ISPRootNode root = ((ISPNode) src).getRootAncestor();
+        final ISPNode node = (ISPNode) src;
+        ISPRootNode root = node.getRootAncestor();
         if (root != null) {
-            synchronized (this) { _progSet.add((N)root); }
+            synchronized (this) {
+                final N prog = (N) root;
+                Dirty d = _progMap.get(prog);
+                if (d == null) {
+                    d = new Dirty();
+                    _progMap.put(prog, d);
+                }
+                if (isClientDataPropertyName(propName)) {
+                    d.nodes.put(node.getNodeKey(), node);
+                } else {
+                    d.structure.add(node.getNodeKey());
+                }
+            }
         }
     }
 
@@ -54,11 +136,17 @@ final class DirtyProgramListener<N extends ISPRootNode> implements PropertyChang
      * being dirty.  In other words, immediately after this method is called
      * no programs are marked dirty.
      *
-     * @return the modified programs, or <code>null</code> if there are none
+     * @return the changes to modified programs, if any
      */
-    synchronized List<N> getDirtyPrograms() {
-        final List<N> lst = _progSet.isEmpty() ? Collections.<N>emptyList() : new ArrayList<N>(_progSet);
-        _progSet.clear();
+    synchronized List<Changes<N>> getDirtyPrograms() {
+        if (_progMap.isEmpty()) return Collections.emptyList();
+
+        final List<Changes<N>> lst = new ArrayList<Changes<N>>(_progMap.size());
+        for (Map.Entry<N, Dirty> me : _progMap.entrySet()) {
+            final Dirty d = me.getValue();
+            lst.add(new Changes<N>(me.getKey(), d.nodes, d.structure));
+        }
+        _progMap.clear();
         return lst;
     }
 
@@ -67,7 +155,7 @@ final class DirtyProgramListener<N extends ISPRootNode> implements PropertyChang
      * programs.  If the program isn't in the collection, then nothing is done.
      */
     synchronized void removeProgram(N prog) {
-        if (_progSet.size() == 0) return;
-        _progSet.remove(prog);
+        if (_progMap.size() == 0) return;
+        _progMap.remove(prog);
     }
 }
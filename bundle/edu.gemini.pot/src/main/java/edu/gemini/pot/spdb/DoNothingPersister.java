@@ -1,9 +1,11 @@
 package edu.gemini.pot.spdb;
 
 import edu.gemini.pot.sp.ISPNightlyRecord;
+import edu.gemini.pot.sp.ISPNode;
 import edu.gemini.pot.sp.ISPProgram;
 import edu.gemini.pot.sp.ISPRootNode;
 import edu.gemini.pot.sp.SPNodeKey;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
@@ -31,6 +33,10 @@ public final class DoNothingPersister implements IDBPersister {
         // Do nothing.
     }
 
+    @Override public void storeNodes(ISPRootNode root, Collection<ISPNode> nodes) {
+        // Do nothing.
+    }
+
     @Override public void remove(SPNodeKey key) {
         // Do nothing.
     }
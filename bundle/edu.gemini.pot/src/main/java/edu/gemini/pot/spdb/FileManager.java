@@ -1,12 +1,20 @@
 package edu.gemini.pot.spdb;
 
 import edu.gemini.pot.sp.*;
+import edu.gemini.pot.sp.memImpl.MemAbstractBase;
+import edu.gemini.pot.sp.memImpl.MemJournal;
 import edu.gemini.pot.sp.memImpl.MemSerializer;
 import edu.gemini.shared.util.GeminiRuntimeException;
 import edu.gemini.spModel.core.SPProgramID;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -15,6 +23,12 @@ import java.util.*;
  * of the public methods.  That is sufficient for now because after startup
  * only the <code>{@link StorageManager}</code> uses the
  * <code>FileManager</code>.
+ *
+ * <p>Each program is kept in a snapshot file, possibly followed by a
+ * {@link MemJournal journal} of updates to individual nodes.  Small edits are
+ * appended to the journal and the journal is folded back into a new snapshot
+ * when it grows too large relative to the snapshot, or whenever the structure
+ * of the program changes.
  */
 final class FileManager implements IDBPersister {
 
@@ -45,6 +59,24 @@ final class FileManager implements IDBPersister {
 
     }
 
+    /**
+     * Once a journal reaches this fraction of the size of the snapshot, the
+     * next update writes a new snapshot instead.
+     */
+    private static final double COMPACTION_RATIO = 0.5;
+
+    /**
+     * System property that sets the number of threads used to load programs
+     * at startup.  Defaults to the number of available processors.
+     */
+    private static final String LOAD_THREADS_PROP = FileManager.class.getName() + ".loadThreads";
+
+    /** Files that take at least this long to load are reported. */
+    private static final long SLOW_LOAD_MS = 2000;
+
+    /** Number of progress messages to print while loading. */
+    private static final int PROGRESS_STEPS = 10;
+
     private static final ISPFileFilter _progFilter = new ISPFileFilter(PROGRAM_SUFFIX);
     private static final ISPFileFilter _planFilter = new ISPFileFilter(PLAN_SUFFIX);
 
@@ -52,6 +84,10 @@ final class FileManager implements IDBPersister {
     private final MemSerializer _ser;
     private final Map<SPNodeKey, File> _fileMap = new HashMap<SPNodeKey, File>();
 
+    // Serializes writes (snapshots and journal appends) to the same program.
+    // Always acquired with the program read lock already held.
+    private final ConcurrentMap<SPNodeKey, Object> _storeLocks = new ConcurrentHashMap<SPNodeKey, Object>();
+
     /**
      * Constructs the <code>FileManager</code> with the database directory
      * to use.  The <code>dbDir</code> argument must either be non-existent
@@ -137,6 +173,65 @@ final class FileManager implements IDBPersister {
         return reload("plan", _planFilter);
     }
 
+    /**
+     * Result of loading a single file, or <code>null</code> if it could not
+     * be loaded.
+     */
+    private static final class Loaded<T extends ISPRootNode> {
+        final File file;
+        final T prog;
+        final boolean needsSnapshot;
+
+        Loaded(File file, T prog, boolean needsSnapshot) {
+            this.file          = file;
+            this.prog          = prog;
+            this.needsSnapshot = needsSnapshot;
+        }
+    }
+
+    private static int _getLoadThreads() {
+        final int procs = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Integer.getInteger(LOAD_THREADS_PROP, procs));
+    }
+
+    /**
+     * Loads the given file, replaying its journal if any.  Returns
+     * <code>null</code> and reports the problem if the file cannot be read.
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends ISPRootNode> Loaded<T> _load(File progFile) {
+        final long start = System.currentTimeMillis();
+
+        // Load the program file.
+        final T prog;
+        try {
+            prog = (T) _ser.loadFully(progFile);
+            if (prog == null) return null;
+        } catch (Exception ex) {
+            String path = _getPath(progFile);
+            if (ex.getCause() instanceof InvalidClassException) {
+                System.err.println("Warning: incompatible file: '" + path + "'. Please delete and reimport from XML");
+            } else {
+                System.err.println("Problem reading program file `" + path + "': " + ex);
+            }
+            return null;
+        }
+
+        // Apply any updates recorded since the snapshot was written.
+        boolean needsSnapshot = false;
+        try {
+            needsSnapshot = !MemJournal.replay(progFile, (MemAbstractBase) prog);
+        } catch (Exception ex) {
+            System.err.println("Problem reading journal for `" + _getPath(progFile) + "': " + ex);
+        }
+
+        final long time = System.currentTimeMillis() - start;
+        if (time >= SLOW_LOAD_MS) {
+            System.out.println(String.format("Slow load: %s (%d bytes) in %d ms", progFile.getName(), progFile.length(), time));
+        }
+        return new Loaded<T>(progFile, prog, needsSnapshot);
+    }
+
     private <T extends ISPRootNode> List<T> reload(final String name, final FileFilter filter) throws IOException {
         System.out.println(String.format("Loading the %s database ...", name));
 
@@ -144,53 +239,83 @@ final class FileManager implements IDBPersister {
         final File[] fileA    = _dbDir.listFiles(filter);
         final List<T> retList = new ArrayList<T>(fileA.length);
 
-        // Try to load each file.
-        for (final File progFile : fileA) {
-
-            // Load the program file.
-            final T prog;
-            try {
-                prog = (T) _ser.load(progFile);
-                if (prog == null) continue;
-            } catch (Exception ex) {
-                String path = _getPath(progFile);
-                if (ex.getCause() instanceof InvalidClassException) {
-                    System.err.println("Warning: incompatible file: '" + path + "'. Please delete and reimport from XML");
-                } else {
-                    System.err.println("Problem reading program file `" + path + "': " + ex);
-                }
-                continue;
+        // Deserialize the files in parallel.  Results are collected in file
+        // order so that duplicate handling is the same regardless of which
+        // file finishes first.
+        final int threads = Math.min(_getLoadThreads(), Math.max(1, fileA.length));
+        final ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            final Thread t = new Thread(r, "ODB Loader");
+            t.setDaemon(true);
+            return t;
+        });
+
+        final List<Future<Loaded<T>>> futures = new ArrayList<Future<Loaded<T>>>(fileA.length);
+        try {
+            for (final File progFile : fileA) {
+                futures.add(pool.submit(() -> this.<T>_load(progFile)));
             }
 
-            // If there are two program files with the same program (i.e.,
-            // with the same key), just skip the next one read.
-            final SPNodeKey key = prog.getNodeKey();
-            if (_fileMap.get(key) != null) {
-                System.out.println("Already loaded: " + key);
-                continue; // already loaded
-            }
-            _fileMap.put(key, progFile);
+            final int step = Math.max(1, fileA.length / PROGRESS_STEPS);
+            for (int i=0; i<futures.size(); ++i) {
+                final Loaded<T> l;
+                try {
+                    l = futures.get(i).get();
+                } catch (InterruptedException ex) {
+                    throw new InterruptedIOException("Interrupted while loading the " + name + " database");
+                } catch (ExecutionException ex) {
+                    System.err.println("Problem reading program file `" + _getPath(fileA[i]) + "': " + ex.getCause());
+                    continue;
+                }
+
+                if ((i + 1) % step == 0) {
+                    System.out.println(String.format("  ... %d of %d %ss (%d ms)", i + 1, fileA.length, name, System.currentTimeMillis() - time1));
+                }
+
+                if (l == null) continue;
 
-            retList.add(prog);
+                // If there are two program files with the same program (i.e.,
+                // with the same key), just skip the next one read.
+                final SPNodeKey key = l.prog.getNodeKey();
+                if (_fileMap.get(key) != null) {
+                    System.out.println("Already loaded: " + key);
+                    continue; // already loaded
+                }
+                _fileMap.put(key, l.file);
+
+                // If the journal is damaged, fold what we could read into a
+                // new snapshot so future updates aren't appended after
+                // garbage.
+                if (l.needsSnapshot) {
+                    try {
+                        _storeProgram(l.prog, l.file);
+                    } catch (IOException ex) {
+                        System.err.println("Problem compacting journal for `" + _getPath(l.file) + "': " + ex);
+                    }
+                }
+
+                retList.add(l.prog);
+            }
+        } finally {
+            pool.shutdownNow();
         }
 
         final long time2 = System.currentTimeMillis();
 
-        final String msg = String.format("Finished loading: %d ms, %d %ss", time2-time1, fileA.length, name);
+        final String msg = String.format("Finished loading: %d ms, %d %ss, %d threads", time2-time1, fileA.length, name, threads);
         System.out.println(msg);
         return retList;
 
     }
 
     public void store(ISPRootNode mab) throws IOException {
-        if (mab instanceof ISPNightlyRecord) {
-            _storeProgram(mab, PLAN_SUFFIX);
-        } else {
-            _storeProgram(mab, PROGRAM_SUFFIX);
-        }
+        _storeProgram(mab, _getSuffix(mab));
     }
 
 
+    private static String _getSuffix(ISPRootNode node) {
+        return (node instanceof ISPNightlyRecord) ? PLAN_SUFFIX : PROGRAM_SUFFIX;
+    }
+
     private File _storeProgram(ISPRootNode node, String suffix) throws IOException {
         final SPNodeKey key = node.getNodeKey();
         final File newFile = _getDocumentFile(node, suffix);
@@ -202,6 +327,7 @@ final class FileManager implements IDBPersister {
             if ((oldFile != null) && !newFile.equals(oldFile) && oldFile.exists()) {
                 // Cleanup the old file
                 oldFile.delete();
+                MemJournal.delete(oldFile);
             }
             _fileMap.put(key, newFile);
         }
@@ -209,6 +335,43 @@ final class FileManager implements IDBPersister {
         return newFile;
     }
 
+    private Object _getStoreLock(SPNodeKey key) {
+        final Object lock = _storeLocks.get(key);
+        if (lock != null) return lock;
+
+        final Object newLock = new Object();
+        final Object oldLock = _storeLocks.putIfAbsent(key, newLock);
+        return (oldLock == null) ? newLock : oldLock;
+    }
+
+    /**
+     * Appends the given nodes to the program's journal, or stores the whole
+     * program if there is no current snapshot to which the journal can
+     * apply or if it is time to compact the journal.
+     */
+    public void storeNodes(ISPRootNode root, Collection<ISPNode> nodes) throws IOException {
+        final SPNodeKey key = root.getProgramKey();
+        SPNodeKeyLocks.instance.readLock(key);
+        try {
+            synchronized (_getStoreLock(key)) {
+                final File expected = _getDocumentFile(root, _getSuffix(root));
+                final File snapshot;
+                synchronized (this) {
+                    snapshot = _fileMap.get(key);
+                }
+
+                if ((snapshot == null) || !snapshot.equals(expected) || !MemJournal.canAppend(snapshot) ||
+                    (MemJournal.length(snapshot) >= snapshot.length() * COMPACTION_RATIO)) {
+                    store(root);
+                } else {
+                    MemJournal.append(snapshot, root, nodes);
+                }
+            }
+        } finally {
+            SPNodeKeyLocks.instance.readUnlock(key);
+        }
+    }
+
     /**
      * Stores the given <code>prog</code>ram in the given <code>progFile</code>.
      */
@@ -219,12 +382,17 @@ final class FileManager implements IDBPersister {
         final SPNodeKey key = node.getProgramKey();
         SPNodeKeyLocks.instance.readLock(key);
         try {
-            // Write the object to the temp file.
-            _ser.store(node, tmpFile);
+            synchronized (_getStoreLock(key)) {
+                // Write the object to the temp file.
+                _ser.store(node, tmpFile);
+
+                // Rename the temp file to the destination file.
+                file.delete(); // under win2k, rename fails if file exists
+                if (!tmpFile.renameTo(file)) throw new IOException("Couldn't store the program.");
 
-            // Rename the temp file to the destination file.
-            file.delete(); // under win2k, rename fails if file exists
-            if (!tmpFile.renameTo(file)) throw new IOException("Couldn't store the program.");
+                // The snapshot now includes everything in the journal.
+                MemJournal.delete(file);
+            }
         } finally {
             SPNodeKeyLocks.instance.readUnlock(key);
         }
@@ -232,7 +400,7 @@ final class FileManager implements IDBPersister {
 
     @Override public synchronized long size(SPNodeKey key) {
         final File f = _fileMap.get(key);
-        return (f == null) ? -1 : f.length();
+        return (f == null) ? -1 : f.length() + MemJournal.length(f);
     }
 
     /**
@@ -240,7 +408,11 @@ final class FileManager implements IDBPersister {
      */
     public synchronized void remove(SPNodeKey key) {
         final File progFile = _fileMap.remove(key);
-        if (progFile != null) progFile.delete();
+        if (progFile != null) {
+            progFile.delete();
+            MemJournal.delete(progFile);
+        }
+        _storeLocks.remove(key);
     }
 
     /**
@@ -273,7 +445,7 @@ final class FileManager implements IDBPersister {
         final File[] fileA    = _dbDir.listFiles(filter);
         long total = 0L;
         for (final File progFile : fileA)
-            total = total + progFile.length();
+            total = total + progFile.length() + MemJournal.length(progFile);
         return total;
     }
 
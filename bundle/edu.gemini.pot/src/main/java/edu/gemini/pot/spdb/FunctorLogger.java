@@ -4,13 +4,24 @@
 
 package edu.gemini.pot.spdb;
 
+import edu.gemini.pot.sp.SPNodeKeyLocks;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.security.Principal;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Logs functor start/finish and is used to track down problems in the database.
+ * Each execution is also recorded in the database's {@link FunctorMetrics},
+ * which is published via JMX.
  */
 final class FunctorLogger {
     private static final Logger LOG = Logger.getLogger("SpdbFunctorLogger");
@@ -42,9 +53,60 @@ final class FunctorLogger {
         }
     }
 
+    /**
+     * Tracks a functor execution from start to end.  Query execution adds
+     * the nodes visited and, for work done on other threads, the allocation
+     * and lock wait of that work.
+     */
     public static class Handback {
         private long startTime;
         private TimerTask task;
+
+        private Set<Principal> principals;
+        private long startNanos;
+        private long startAllocated;
+        private long startLockWait;
+        private Exception failure;
+
+        private final LongAdder nodes         = new LongAdder();
+        private final LongAdder workAllocated = new LongAdder();
+        private final LongAdder workLockWait  = new LongAdder();
+
+        void visited(int count) {
+            nodes.add(count);
+        }
+
+        void addWork(long allocatedBytes, long lockWaitNanos) {
+            workAllocated.add(allocatedBytes);
+            workLockWait.add(lockWaitNanos);
+        }
+
+        void failed(Exception ex) {
+            failure = ex;
+        }
+    }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATION_SUPPORTED = allocationSupported();
+
+    private static boolean allocationSupported() {
+        try {
+            return (THREADS instanceof com.sun.management.ThreadMXBean) &&
+                   ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported() &&
+                   ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemoryEnabled();
+        } catch (LinkageError | UnsupportedOperationException ex) {
+            LOG.log(Level.INFO, "Functor allocation will not be measured", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Gets the number of bytes allocated so far by the current thread, or 0
+     * if not supported.
+     */
+    static long allocatedBytes() {
+        return ALLOCATION_SUPPORTED ?
+                ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
     }
 
     private static synchronized long getWarningThreshold() {
@@ -93,21 +155,41 @@ final class FunctorLogger {
 
     private final Timer functorTimer = new Timer("Functor Timer", true);
 
-    Handback logStart(IDBFunctor functor) {
-        return logStart(functor, false);
+    final FunctorMetrics metrics = new FunctorMetrics();
+    private final ObjectName metricsName;
+
+    FunctorLogger(UUID uuid) {
+        ObjectName name = null;
+        try {
+            name = new ObjectName("edu.gemini.pot.spdb:type=FunctorMetrics,name=" + uuid);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+        } catch (Exception ex) {
+            LOG.log(Level.WARNING, "Could not register functor metrics with JMX", ex);
+            name = null;
+        }
+        metricsName = name;
+    }
+
+    Handback logStart(IDBFunctor functor, Set<Principal> principals) {
+        return logStart(functor, principals, false);
     }
 
-    Handback logQueryStart(IDBFunctor functor) {
-        return logStart(functor, true);
+    Handback logQueryStart(IDBFunctor functor, Set<Principal> principals) {
+        return logStart(functor, principals, true);
     }
 
-    private Handback logStart(IDBFunctor functor, boolean query) {
+    private Handback logStart(IDBFunctor functor, Set<Principal> principals, boolean query) {
         LOG.fine("Starting" + (query ? " query " : " ") + "functor " + functor.getClass().getName() + " on thread " + Thread.currentThread().getName());
 
         Handback hb = new Handback();
         hb.startTime = System.currentTimeMillis();
         hb.task      = new FunctorWarning(functor);
 
+        hb.principals     = principals;
+        hb.startAllocated = allocatedBytes();
+        hb.startLockWait  = SPNodeKeyLocks.instance.threadWaitNanos();
+        hb.startNanos     = System.nanoTime();
+
         functorTimer.schedule(hb.task, getTimeout());
 
         return hb;
@@ -125,6 +207,12 @@ final class FunctorLogger {
 
         handback.task.cancel();
 
+        final long elapsed   = System.nanoTime() - handback.startNanos;
+        final long allocated = allocatedBytes() - handback.startAllocated + handback.workAllocated.sum();
+        final long lockWait  = SPNodeKeyLocks.instance.threadWaitNanos() - handback.startLockWait + handback.workLockWait.sum();
+        metrics.record(functor.getClass(), query, elapsed, handback.nodes.sum(),
+                       allocated, lockWait, handback.principals, handback.failure);
+
         long endTime = System.currentTimeMillis();
         long execTime = Math.max(endTime - handback.startTime, 0);
         Level level = Level.FINE;
@@ -136,5 +224,12 @@ final class FunctorLogger {
 
     void cancel() {
         functorTimer.cancel();
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (Exception ex) {
+                LOG.log(Level.WARNING, "Could not unregister functor metrics", ex);
+            }
+        }
     }
 }
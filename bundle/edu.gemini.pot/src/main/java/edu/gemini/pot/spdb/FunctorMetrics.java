@@ -0,0 +1,248 @@
+package edu.gemini.pot.spdb;
+
+import java.io.Serializable;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Collects execution statistics for the functors run by the database, both
+ * those executed directly on a node and query functors run over the whole
+ * database.  For each functor class it keeps histograms of the execution
+ * time, number of nodes handed to the functor, bytes allocated and time spent
+ * waiting for program locks.  In addition the last few executions that took
+ * longer than a threshold are kept along with the user they ran for.
+ *
+ * <p>Allocation is only measured where the JVM supports per-thread allocation
+ * counters, and is otherwise reported as zero.
+ */
+public final class FunctorMetrics implements FunctorMetricsMXBean {
+
+    private static final String SLOW_THRESHOLD_PROP = FunctorMetrics.class.getName() + ".slowThreshold";
+    private static final String SLOW_HISTORY_PROP   = FunctorMetrics.class.getName() + ".slowHistory";
+
+    /**
+     * Statistics for a single functor class.
+     */
+    public static final class ClassStats implements Serializable {
+        private final String functorClass;
+        private final boolean query;
+        private final long count;
+        private final long failures;
+        private final double totalMs;
+        private final double meanMs;
+        private final double p50Ms;
+        private final double p95Ms;
+        private final double p99Ms;
+        private final double maxMs;
+        private final double meanNodes;
+        private final long maxNodes;
+        private final long totalAllocatedBytes;
+        private final long maxAllocatedBytes;
+        private final double totalLockWaitMs;
+        private final double maxLockWaitMs;
+
+        private ClassStats(Recorder r) {
+            functorClass        = r.functorClass;
+            query               = r.query;
+            count               = r.latency.getCount();
+            failures            = r.failures.sum();
+            totalMs             = toMs(r.latency.getTotal());
+            meanMs              = toMs(r.latency.getMean());
+            p50Ms               = toMs(r.latency.getPercentile(0.50));
+            p95Ms               = toMs(r.latency.getPercentile(0.95));
+            p99Ms               = toMs(r.latency.getPercentile(0.99));
+            maxMs               = toMs(r.latency.getMax());
+            meanNodes           = r.nodes.getMean();
+            maxNodes            = r.nodes.getMax();
+            totalAllocatedBytes = r.allocation.getTotal();
+            maxAllocatedBytes   = r.allocation.getMax();
+            totalLockWaitMs     = toMs(r.lockWait.getTotal());
+            maxLockWaitMs       = toMs(r.lockWait.getMax());
+        }
+
+        private static double toMs(long us) {
+            return toMs((double) us);
+        }
+
+        private static double toMs(double us) {
+            return us / 1000.0;
+        }
+
+        public String getFunctorClass()      { return functorClass;        }
+        public boolean isQuery()             { return query;               }
+        public long getCount()               { return count;               }
+        public long getFailures()            { return failures;            }
+        public double getTotalMs()           { return totalMs;             }
+        public double getMeanMs()            { return meanMs;              }
+        public double getP50Ms()             { return p50Ms;               }
+        public double getP95Ms()             { return p95Ms;               }
+        public double getP99Ms()             { return p99Ms;               }
+        public double getMaxMs()             { return maxMs;               }
+        public double getMeanNodes()         { return meanNodes;           }
+        public long getMaxNodes()            { return maxNodes;            }
+        public long getTotalAllocatedBytes() { return totalAllocatedBytes; }
+        public long getMaxAllocatedBytes()   { return maxAllocatedBytes;   }
+        public double getTotalLockWaitMs()   { return totalLockWaitMs;     }
+        public double getMaxLockWaitMs()     { return maxLockWaitMs;       }
+
+        @Override public String toString() {
+            return String.format("%s%s: count=%d, failures=%d, total=%.1f ms, mean=%.1f ms, p50<=%.1f ms, p95<=%.1f ms, p99<=%.1f ms, max=%.1f ms, nodes=%.1f (max %d), alloc=%,d bytes (max %,d), lock wait=%.1f ms (max %.1f)",
+                    functorClass, query ? " (query)" : "", count, failures, totalMs, meanMs,
+                    p50Ms, p95Ms, p99Ms, maxMs, meanNodes, maxNodes,
+                    totalAllocatedBytes, maxAllocatedBytes, totalLockWaitMs, maxLockWaitMs);
+        }
+    }
+
+    /**
+     * A record of one execution that exceeded the slow threshold.
+     */
+    public static final class SlowExecution implements Serializable {
+        private final Date time;
+        private final String functorClass;
+        private final boolean query;
+        private final long elapsedMs;
+        private final long nodes;
+        private final long allocatedBytes;
+        private final long lockWaitMs;
+        private final String principals;
+        private final String thread;
+        private final String failure;
+
+        SlowExecution(Date time, String functorClass, boolean query, long elapsedMs,
+                      long nodes, long allocatedBytes, long lockWaitMs,
+                      Set<Principal> principals, String thread, Exception failure) {
+            this.time           = time;
+            this.functorClass   = functorClass;
+            this.query          = query;
+            this.elapsedMs      = elapsedMs;
+            this.nodes          = nodes;
+            this.allocatedBytes = allocatedBytes;
+            this.lockWaitMs     = lockWaitMs;
+            this.principals     = (principals == null) ? "" :
+                    principals.stream().map(Principal::getName).sorted().collect(Collectors.joining(", "));
+            this.thread         = thread;
+            this.failure        = (failure == null) ? null : failure.toString();
+        }
+
+        public Date getTime()            { return time;           }
+        public String getFunctorClass()  { return functorClass;   }
+        public boolean isQuery()         { return query;          }
+        public long getElapsedMs()       { return elapsedMs;      }
+        public long getNodes()           { return nodes;          }
+        public long getAllocatedBytes()  { return allocatedBytes; }
+        public long getLockWaitMs()      { return lockWaitMs;     }
+        public String getPrincipals()    { return principals;     }
+        public String getThread()        { return thread;         }
+        public String getFailure()       { return failure;        }
+
+        @Override public String toString() {
+            return String.format("%tF %<tT %s%s: %d ms, nodes=%d, alloc=%,d bytes, lock wait=%d ms, user=[%s], thread=%s%s",
+                    time, functorClass, query ? " (query)" : "", elapsedMs, nodes,
+                    allocatedBytes, lockWaitMs, principals, thread,
+                    (failure == null) ? "" : ", failed: " + failure);
+        }
+    }
+
+    // Live statistics for a functor class.
+    private static final class Recorder {
+        final String functorClass;
+        final boolean query;
+        final Histogram latency    = new Histogram(); // microseconds
+        final Histogram nodes      = new Histogram();
+        final Histogram allocation = new Histogram(); // bytes
+        final Histogram lockWait   = new Histogram(); // microseconds
+        final LongAdder failures   = new LongAdder();
+
+        Recorder(String functorClass, boolean query) {
+            this.functorClass = functorClass;
+            this.query        = query;
+        }
+    }
+
+    private final ConcurrentMap<String, Recorder> recorders = new ConcurrentHashMap<>();
+
+    private volatile long slowThresholdMs;
+
+    // Ring buffer of slow executions, guarded by itself.
+    private final SlowExecution[] slow;
+    private int slowNext;
+
+    FunctorMetrics() {
+        slowThresholdMs = Math.max(0, Long.getLong(SLOW_THRESHOLD_PROP, 1000));
+        slow            = new SlowExecution[Math.max(1, Integer.getInteger(SLOW_HISTORY_PROP, 100))];
+    }
+
+    /**
+     * Records the completion of a functor execution.
+     */
+    void record(Class<?> functorClass, boolean query, long elapsedNanos, long nodes,
+                long allocatedBytes, long lockWaitNanos, Set<Principal> principals,
+                Exception failure) {
+        final String name = functorClass.getName();
+        final Recorder r  = recorders.computeIfAbsent(name + (query ? "/q" : ""), k -> new Recorder(name, query));
+
+        r.latency.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+        r.nodes.record(nodes);
+        r.allocation.record(allocatedBytes);
+        r.lockWait.record(TimeUnit.NANOSECONDS.toMicros(lockWaitNanos));
+        if (failure != null) r.failures.increment();
+
+        final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        if (elapsedMs >= slowThresholdMs) {
+            final SlowExecution se = new SlowExecution(new Date(), name, query,
+                    elapsedMs, nodes, allocatedBytes,
+                    TimeUnit.NANOSECONDS.toMillis(lockWaitNanos), principals,
+                    Thread.currentThread().getName(), failure);
+            synchronized (slow) {
+                slow[slowNext] = se;
+                slowNext = (slowNext + 1) % slow.length;
+            }
+        }
+    }
+
+    @Override public List<ClassStats> getFunctorStats() {
+        final List<ClassStats> res = new ArrayList<>();
+        for (Recorder r : recorders.values()) res.add(new ClassStats(r));
+        res.sort((a, b) -> Double.compare(b.getTotalMs(), a.getTotalMs()));
+        return Collections.unmodifiableList(res);
+    }
+
+    @Override public List<SlowExecution> getSlowExecutions() {
+        final List<SlowExecution> res = new ArrayList<>();
+        synchronized (slow) {
+            for (int i=1; i<=slow.length; ++i) {
+                final SlowExecution se = slow[(slowNext - i + slow.length) % slow.length];
+                if (se == null) break;
+                res.add(se);
+            }
+        }
+        return Collections.unmodifiableList(res);
+    }
+
+    @Override public long getSlowThresholdMs() {
+        return slowThresholdMs;
+    }
+
+    @Override public void setSlowThresholdMs(long ms) {
+        if (ms < 0) throw new IllegalArgumentException("Slow threshold must be non-negative: " + ms);
+        slowThresholdMs = ms;
+    }
+
+    @Override public void reset() {
+        recorders.clear();
+        synchronized (slow) {
+            Arrays.fill(slow, null);
+            slowNext = 0;
+        }
+    }
+}
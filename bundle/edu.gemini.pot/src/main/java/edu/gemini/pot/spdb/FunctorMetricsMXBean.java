@@ -0,0 +1,34 @@
+package edu.gemini.pot.spdb;
+
+import java.util.List;
+
+/**
+ * JMX view of the functor execution metrics.  The ODB registers one under
+ * <code>edu.gemini.pot.spdb:type=FunctorMetrics,name=&lt;database uuid&gt;</code>.
+ */
+public interface FunctorMetricsMXBean {
+
+    /**
+     * Gets the statistics for each functor class that has run, ordered from
+     * the most to the least total execution time.
+     */
+    List<FunctorMetrics.ClassStats> getFunctorStats();
+
+    /**
+     * Gets the most recent slow executions, newest first.
+     */
+    List<FunctorMetrics.SlowExecution> getSlowExecutions();
+
+    /**
+     * Gets the execution time (in ms) at or above which a functor execution
+     * is recorded as slow.
+     */
+    long getSlowThresholdMs();
+
+    void setSlowThresholdMs(long ms);
+
+    /**
+     * Discards all statistics and recorded slow executions.
+     */
+    void reset();
+}
@@ -0,0 +1,68 @@
+package edu.gemini.pot.spdb;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values with power-of-two buckets.
+ * Bucket <code>i</code> counts values whose highest set bit is bit
+ * <code>i - 1</code>, with bucket 0 holding zero.  Percentiles are reported
+ * as the upper bound of the bucket in which they fall, so they are accurate
+ * to within a factor of two, which is plenty to tell a 5 ms functor from a
+ * 5 s one.
+ */
+final class Histogram {
+    private static final int BUCKETS = 65;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max  = new AtomicLong();
+
+    void record(long value) {
+        final long v = Math.max(0, value);
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(v));
+        count.increment();
+        total.add(v);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getTotal() {
+        return total.sum();
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    double getMean() {
+        final long c = getCount();
+        return (c == 0) ? 0.0 : ((double) getTotal()) / c;
+    }
+
+    /**
+     * Gets an upper bound for the value below which the given fraction of
+     * the recorded values fall.
+     */
+    long getPercentile(double fraction) {
+        long seen = 0;
+        for (int i=0; i<BUCKETS; ++i) seen += buckets.get(i);
+        if (seen == 0) return 0;
+
+        final long rank = (long) Math.ceil(fraction * seen);
+        long acc = 0;
+        for (int i=0; i<BUCKETS; ++i) {
+            acc += buckets.get(i);
+            if (acc >= rank) {
+                final long upper = (i == 0) ? 0 : ((i >= 64) ? Long.MAX_VALUE : (1L << i) - 1);
+                return Math.min(upper, getMax());
+            }
+        }
+        return getMax();
+    }
+}
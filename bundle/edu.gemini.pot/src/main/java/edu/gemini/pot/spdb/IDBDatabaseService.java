@@ -191,6 +191,25 @@ public interface IDBDatabaseService {
 
     void unregisterTrigger(IDBTriggerCondition condition, IDBTriggerAction action);
 
+    /**
+     * Gets statistics describing trigger evaluation and dispatch, including
+     * the number of actions waiting to run and how long they have waited.
+     */
+    TriggerStats getTriggerStats();
+
+    /**
+     * Gets the execution statistics of the functors that have been run
+     * against this database.
+     */
+    FunctorMetrics getFunctorMetrics();
+
+    /**
+     * Starts recording which nodes are modified in the programs of this
+     * database.  The caller should {@link IDBDirtyNodeTracker#close close}
+     * the tracker when it is no longer needed.
+     */
+    IDBDirtyNodeTracker trackDirtyNodes();
+
     /**
      * Finds the program node key associated with the given program id, if any.
      * @return the program key that identifies the program with the given
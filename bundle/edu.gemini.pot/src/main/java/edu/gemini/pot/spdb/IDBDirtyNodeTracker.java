@@ -0,0 +1,23 @@
+package edu.gemini.pot.spdb;
+
+import java.util.List;
+
+/**
+ * Records the nodes modified in the programs of a database so that a client
+ * can periodically find out what changed without examining every program.
+ * Obtained from {@link IDBDatabaseService#trackDirtyNodes()}.
+ */
+public interface IDBDirtyNodeTracker {
+
+    /**
+     * Gets the modifications made since the tracker was created or since the
+     * last call to <code>drain</code>, whichever is more recent, and clears
+     * them.  There is at most one entry per program.
+     */
+    List<DirtyNodes> drain();
+
+    /**
+     * Stops tracking modifications.
+     */
+    void close();
+}
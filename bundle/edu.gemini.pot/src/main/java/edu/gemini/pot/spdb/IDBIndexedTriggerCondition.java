@@ -0,0 +1,31 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.SPComponentType;
+
+import java.util.Set;
+
+/**
+ * A trigger condition that declares which changes it could possibly match,
+ * so that it need only be evaluated against those changes.  Plain
+ * {@link IDBTriggerCondition}s are evaluated against every change.
+ *
+ * <p>A change is described by its property name and, when the old or new
+ * value is an {@link edu.gemini.spModel.data.ISPDataObject}, the component
+ * type of that data object.  Changes that aren't data object updates have no
+ * component type and so are never offered to a condition that restricts the
+ * component types it handles.
+ */
+public interface IDBIndexedTriggerCondition extends IDBTriggerCondition {
+
+    /**
+     * Gets the names of the properties whose changes may match this
+     * condition, or <code>null</code> if any property may match.
+     */
+    Set<String> getPropertyNames();
+
+    /**
+     * Gets the types of the data objects whose changes may match this
+     * condition, or <code>null</code> if changes to any node may match.
+     */
+    Set<SPComponentType> getComponentTypes();
+}
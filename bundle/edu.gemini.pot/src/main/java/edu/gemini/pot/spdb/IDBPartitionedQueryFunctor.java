@@ -0,0 +1,51 @@
+package edu.gemini.pot.spdb;
+
+/**
+ * An <code>{@link IDBQueryFunctor}</code> that may be safely applied in
+ * parallel to disjoint partitions of the nodes in the database.  When a
+ * query functor implements this interface, the
+ * <code>{@link IDBQueryRunner}</code> is free to split the nodes into
+ * partitions, create a fresh functor for each partition via
+ * <code>{@link #newPartition}</code>, execute the partitions concurrently and
+ * finally combine the results with <code>{@link #mergePartition}</code>.
+ *
+ * <p>The contract is:
+ * <ul>
+ *   <li><code>init()</code> is called on the original functor and on each
+ *   partition before any node is visited.</li>
+ *   <li>Each partition is executed on a single thread, with the program
+ *   read lock held while each node is visited.  Partitions must therefore
+ *   only read the nodes they are given, never modify them.</li>
+ *   <li>Each partition's
+ *   <code>isDone()</code> is consulted between nodes, but only stops the
+ *   partition itself.</li>
+ *   <li>Partitions are merged into the original functor one at a time, on the
+ *   calling thread, in the order of the nodes they visited.</li>
+ *   <li><code>finished()</code> is called once, on the original functor,
+ *   after all partitions have been merged.  It is never called on a
+ *   partition.</li>
+ * </ul>
+ *
+ * <p>Functors that do not implement this interface continue to run serially.
+ *
+ * @param <F> the concrete functor type
+ */
+public interface IDBPartitionedQueryFunctor<F extends IDBPartitionedQueryFunctor<F>> extends IDBQueryFunctor {
+
+    /**
+     * Creates a new, empty functor that will be applied to one partition of
+     * the nodes.  The partition must not share mutable state with this
+     * functor or with other partitions.
+     */
+    F newPartition();
+
+    /**
+     * Combines the results collected by the given partition into this
+     * functor.
+     *
+     * @param partition a functor previously created by
+     * <code>{@link #newPartition}</code> that has been applied to its share
+     * of the nodes
+     */
+    void mergePartition(F partition);
+}
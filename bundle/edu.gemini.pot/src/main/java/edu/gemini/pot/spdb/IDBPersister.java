@@ -3,6 +3,7 @@ package edu.gemini.pot.spdb;
 import edu.gemini.pot.sp.*;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 
 // A lame interface that closely matches the existing FileManager so as to
@@ -12,6 +13,13 @@ interface IDBPersister {
     List<ISPProgram> reloadPrograms() throws IOException;
     List<ISPNightlyRecord> reloadPlans() throws IOException;
     void store(ISPRootNode node) throws IOException;
+
+    /**
+     * Stores the client data of the given nodes of an already stored root,
+     * whose structure hasn't changed since it was last stored.  Persisters
+     * are free to store the entire root instead.
+     */
+    void storeNodes(ISPRootNode root, Collection<ISPNode> nodes) throws IOException;
     void remove(SPNodeKey key);
 
     /** Gets the size of the program file on disk, or -1 if not known. */
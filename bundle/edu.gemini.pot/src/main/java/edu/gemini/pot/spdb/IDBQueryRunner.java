@@ -16,6 +16,11 @@ import edu.gemini.pot.sp.SPNodeNotLocalException;
  * nodes of the matching type, applying the functor to each node.  It is
  * anticipated that the functor implementation will collect its result and
  * make it available to the client.
+ *
+ * <p>Query functors that implement
+ * <code>{@link IDBPartitionedQueryFunctor}</code> may be applied to
+ * partitions of the nodes in parallel.  All others are applied to one node at
+ * a time, in order, on the calling thread.
  */
 public interface IDBQueryRunner {
     /**
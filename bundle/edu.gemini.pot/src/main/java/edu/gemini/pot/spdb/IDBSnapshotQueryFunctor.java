@@ -0,0 +1,33 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.SPProgramSnapshot;
+
+import java.security.Principal;
+import java.util.Set;
+
+/**
+ * An <code>{@link IDBQueryFunctor}</code> that works from immutable program
+ * snapshots rather than the live program nodes.  When a query over programs
+ * is run with such a functor, the <code>{@link IDBQueryRunner}</code> calls
+ * the snapshot version of <code>execute</code> for each program, without
+ * holding any program lock while it runs.  The functor therefore never
+ * delays updates to the programs it examines, but it sees each program as it
+ * was at the end of the last write before the program was reached.
+ *
+ * <p>Queries over anything other than programs (observations or nightly
+ * plans for example) still call the ordinary <code>execute</code> method with
+ * the live node.
+ *
+ * <p>May be combined with <code>{@link IDBPartitionedQueryFunctor}</code>.
+ */
+public interface IDBSnapshotQueryFunctor extends IDBQueryFunctor {
+
+    /**
+     * Applies the functor to a snapshot of one program.
+     *
+     * @param db the database in which the functor is running
+     * @param snapshot the program to examine
+     * @param principals the user for whom this functor is being executed
+     */
+    void execute(IDBDatabaseService db, SPProgramSnapshot snapshot, Set<Principal> principals);
+}
@@ -0,0 +1,144 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.ISPGroupContainer;
+import edu.gemini.pot.sp.ISPNode;
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.ISPObservationContainer;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.sp.SPObservationID;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An index from <code>{@link SPObservationID}</code> to the corresponding
+ * <code>{@link ISPObservation}</code> in the database.
+ *
+ * <p>The index holds one observation number map per program.  A program's
+ * map is built on the first lookup that needs it and is discarded whenever
+ * the program's observation structure changes (observations or groups added,
+ * removed or replaced), or the program itself is replaced or removed.  Maps
+ * are built with the program read lock held and structure changes are fired
+ * with the program write lock held, so a map is never built from a tree that
+ * is in the middle of being modified.  Each map is tagged with the program
+ * instance it was built from so that it is never used for a replacement
+ * program with the same key.
+ */
+final class ObservationIndex implements PropertyChangeListener, ProgramEventListener<ISPProgram> {
+
+    private final ProgramManager<ISPProgram> _progMan;
+    private final ConcurrentMap<SPNodeKey, Entry> _index = new ConcurrentHashMap<>();
+
+    // Observations by number for one particular program instance.
+    private static final class Entry {
+        final ISPProgram prog;
+        final Map<Integer, ISPObservation> obsMap;
+
+        Entry(ISPProgram prog, Map<Integer, ISPObservation> obsMap) {
+            this.prog   = prog;
+            this.obsMap = obsMap;
+        }
+    }
+
+    ObservationIndex(ProgramManager<ISPProgram> progMan) {
+        _progMan = progMan;
+
+        // Listen to the program manager first so that we don't miss programs
+        // that are added while we are registering with the existing ones.
+        progMan.addListener(this);
+        for (ISPProgram prog : progMan.getPrograms()) {
+            prog.addCompositeChangeListener(this);
+        }
+    }
+
+    /**
+     * Finds the observation with the given id, if any.
+     *
+     * @return matching observation, or <code>null</code> if there is no
+     * such program or observation in the database
+     */
+    ISPObservation lookup(SPObservationID obsId) {
+        final ISPProgram prog = _progMan.lookupProgramByID(obsId.getProgramID());
+        if (prog == null) return null;
+        return _observations(prog).get(obsId.getObservationNumber());
+    }
+
+    private Map<Integer, ISPObservation> _observations(ISPProgram prog) {
+        final Entry e = _index.get(prog.getProgramKey());
+        return ((e == null) || (e.prog != prog)) ? _build(prog) : e.obsMap;
+    }
+
+    private Map<Integer, ISPObservation> _build(ISPProgram prog) {
+        prog.getProgramReadLock();
+        try {
+            final Map<Integer, ISPObservation> m = new HashMap<>();
+            for (ISPObservation obs : prog.getAllObservations()) {
+                m.put(obs.getObservationNumber(), obs);
+            }
+            final Map<Integer, ISPObservation> res = Collections.unmodifiableMap(m);
+
+            // Entries are tagged with the program instance so that an entry
+            // recorded for a program that has since been replaced is ignored.
+            // If it was replaced or removed while we were working, drop the
+            // entry so that we don't hang on to the old program.
+            final SPNodeKey key = prog.getProgramKey();
+            final Entry     e   = new Entry(prog, res);
+            _index.put(key, e);
+            if (_progMan.lookupProgram(key) != prog) _index.remove(key, e);
+            return res;
+        } finally {
+            prog.returnProgramReadLock();
+        }
+    }
+
+    private void _invalidate(SPNodeKey progKey) {
+        _index.remove(progKey);
+    }
+
+    private static boolean _isStructural(String propName) {
+        return ISPObservationContainer.OBSERVATIONS_PROP.equals(propName) ||
+               ISPGroupContainer.OBS_GROUP_PROP.equals(propName) ||
+               ISPNode.EVENTS_ACTIVATED.equals(propName);
+    }
+
+    @Override public void propertyChange(PropertyChangeEvent evt) {
+        if (!_isStructural(evt.getPropertyName())) return;
+
+        final Object src = evt.getSource();
+        if (src instanceof ISPNode) _invalidate(((ISPNode) src).getProgramKey());
+    }
+
+    @Override public void programAdded(ProgramEvent<ISPProgram> pme) {
+        final ISPProgram prog = pme.getNewProgram();
+        _invalidate(prog.getProgramKey());
+        prog.addCompositeChangeListener(this);
+    }
+
+    @Override public void programReplaced(ProgramEvent<ISPProgram> pme) {
+        programRemoved(pme);
+        programAdded(pme);
+    }
+
+    @Override public void programRemoved(ProgramEvent<ISPProgram> pme) {
+        final ISPProgram prog = pme.getOldProgram();
+        prog.removeCompositeChangeListener(this);
+        _invalidate(prog.getProgramKey());
+    }
+
+    /**
+     * Stops listening for program changes and clears the index.
+     */
+    void shutdown() {
+        _progMan.removeListener(this);
+        for (ISPProgram prog : _progMan.getPrograms()) {
+            prog.removeCompositeChangeListener(this);
+        }
+        _index.clear();
+    }
+}
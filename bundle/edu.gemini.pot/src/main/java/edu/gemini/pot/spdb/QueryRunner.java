@@ -3,10 +3,15 @@ package edu.gemini.pot.spdb;
 import edu.gemini.pot.sp.*;
 
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -18,6 +23,31 @@ import java.util.logging.Logger;
 final class QueryRunner implements IDBQueryRunner {
     private static final Logger LOG = Logger.getLogger(QueryRunner.class.getName());
 
+    private static final String PARALLELISM_PROP = QueryRunner.class.getName() + ".parallelism";
+
+    // Number of partitions to create per worker thread.  More than one keeps
+    // the workers busy when some programs are much larger than others.
+    private static final int PARTITIONS_PER_THREAD = 4;
+
+    /**
+     * Creates the bounded pool used to execute partitioned query functors.
+     * The parallelism defaults to the number of available processors but may
+     * be set with the <code>edu.gemini.pot.spdb.QueryRunner.parallelism</code>
+     * system property.  A value of 1 disables parallel execution altogether.
+     */
+    static ForkJoinPool createPool() {
+        final int procs       = Runtime.getRuntime().availableProcessors();
+        final int parallelism = Math.max(1, Integer.getInteger(PARALLELISM_PROP, procs));
+        LOG.fine("Query functor parallelism: " + parallelism);
+
+        return new ForkJoinPool(parallelism, pool -> {
+            final ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("ODB Query Worker-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+    }
+
     private DBLocalDatabase _database;
     private DatabaseManager _dataMan;
     private Set<Principal> _principals;
@@ -65,19 +95,21 @@ final class QueryRunner implements IDBQueryRunner {
     /**
      * Runs the query on the given node list using the given functor.
      */
+    @SuppressWarnings("unchecked")
     <T extends IDBQueryFunctor> T _doQuery(final List<? extends ISPNode> nodeList, final T queryFunctor) {
         WithPriority.exec(queryFunctor.getPriority(), () -> {
-            Iterator<? extends ISPNode> it = nodeList.iterator();
-            FunctorLogger.Handback hb = _dataMan.functorLogger.logQueryStart(queryFunctor);
+            FunctorLogger.Handback hb = _dataMan.functorLogger.logQueryStart(queryFunctor, _principals);
             try {
                 queryFunctor.init();
-                while (!queryFunctor.isDone() && it.hasNext()) {
-                    ISPNode node = it.next();
-                    queryFunctor.execute(_database, node, _principals);
+                if (_isPartitioned(nodeList, queryFunctor)) {
+                    _doPartitionedQuery(nodeList, (IDBPartitionedQueryFunctor) queryFunctor, hb);
+                } else {
+                    _doSerialQuery(nodeList, queryFunctor, hb);
                 }
                 queryFunctor.finished();
             } catch (Exception ex) {
                 LOG.log(Level.WARNING, "Problem running functor: " + queryFunctor, ex);
+                hb.failed(ex);
                 queryFunctor.setException(ex);
             }
             _dataMan.functorLogger.logQueryEnd(queryFunctor, hb);
@@ -85,4 +117,91 @@ final class QueryRunner implements IDBQueryRunner {
         return queryFunctor;
     }
 
+    private boolean _isPartitioned(List<? extends ISPNode> nodeList, IDBQueryFunctor queryFunctor) {
+        return (queryFunctor instanceof IDBPartitionedQueryFunctor) &&
+               (_dataMan.queryPool.getParallelism() > 1) &&
+               (nodeList.size() > 1);
+    }
+
+    private void _doSerialQuery(List<? extends ISPNode> nodeList, IDBQueryFunctor queryFunctor, FunctorLogger.Handback hb) {
+        Iterator<? extends ISPNode> it = nodeList.iterator();
+        while (!queryFunctor.isDone() && it.hasNext()) {
+            ISPNode node = it.next();
+            hb.visited(1);
+            if (!_executeSnapshot(queryFunctor, node)) {
+                queryFunctor.execute(_database, node, _principals);
+            }
+        }
+    }
+
+    /**
+     * Applies a snapshot functor to the snapshot of a program node, without
+     * locking the program.
+     *
+     * @return <code>true</code> if the functor was applied, <code>false</code>
+     * if it must be applied to the live node instead
+     */
+    private boolean _executeSnapshot(IDBQueryFunctor queryFunctor, ISPNode node) {
+        if (!(queryFunctor instanceof IDBSnapshotQueryFunctor) || !(node instanceof ISPProgram)) return false;
+        ((IDBSnapshotQueryFunctor) queryFunctor).execute(_database, ((ISPProgram) node).getSnapshot(), _principals);
+        return true;
+    }
+
+    /**
+     * Splits the node list into contiguous partitions, runs a fresh copy of
+     * the functor on each in the query pool and merges the results back into
+     * the original functor in node order.
+     */
+    private <F extends IDBPartitionedQueryFunctor<F>> void _doPartitionedQuery(List<? extends ISPNode> nodeList, F queryFunctor, FunctorLogger.Handback hb) throws Exception {
+        final List<ISPNode> nodes = new ArrayList<>(nodeList);
+        final int size  = nodes.size();
+        final int count = Math.min(size, _dataMan.queryPool.getParallelism() * PARTITIONS_PER_THREAD);
+
+        final List<ForkJoinTask<F>> tasks = new ArrayList<>(count);
+        for (int i=0; i<count; ++i) {
+            final List<ISPNode> part = nodes.subList(i * size / count, (i + 1) * size / count);
+            final F partition = queryFunctor.newPartition();
+            tasks.add(_dataMan.queryPool.submit(() -> _runPartition(part, partition, queryFunctor.getPriority(), hb)));
+        }
+
+        try {
+            for (ForkJoinTask<F> task : tasks) {
+                queryFunctor.mergePartition(task.get());
+            }
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw ex;
+        } finally {
+            for (ForkJoinTask<F> task : tasks) task.cancel(false);
+        }
+    }
+
+    private <F extends IDBPartitionedQueryFunctor<F>> F _runPartition(List<ISPNode> part, F partition, IDBFunctor.Priority priority, FunctorLogger.Handback hb) {
+        final long allocated = FunctorLogger.allocatedBytes();
+        final long lockWait  = SPNodeKeyLocks.instance.threadWaitNanos();
+        try {
+            WithPriority.exec(priority, () -> {
+                partition.init();
+                Iterator<ISPNode> it = part.iterator();
+                while (!partition.isDone() && it.hasNext()) {
+                    ISPNode node = it.next();
+                    hb.visited(1);
+                    if (_executeSnapshot(partition, node)) continue;
+
+                    node.getProgramReadLock();
+                    try {
+                        partition.execute(_database, node, _principals);
+                    } finally {
+                        node.returnProgramReadLock();
+                    }
+                }
+            });
+        } finally {
+            hb.addWork(FunctorLogger.allocatedBytes() - allocated,
+                       SPNodeKeyLocks.instance.threadWaitNanos() - lockWait);
+        }
+        return partition;
+    }
+
 }
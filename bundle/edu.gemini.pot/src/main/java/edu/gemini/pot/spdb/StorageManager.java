@@ -198,14 +198,19 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
     }
 
     /**
-     * Stores all the modified programs, if any.
+     * Stores all the modified programs, if any.  Programs in which only the
+     * client data of existing nodes changed are stored incrementally.
      */
     private void _storeDirtyPrograms() {
-        for (N n : _dirty.getDirtyPrograms()) {
+        for (DirtyProgramListener.Changes<N> c : _dirty.getDirtyPrograms()) {
             try {
-                _persister.store(n);
+                if (c.isStructural()) {
+                    _persister.store(c.root);
+                } else {
+                    _persister.storeNodes(c.root, c.getNodes());
+                }
             } catch (Exception ex) {
-                log(n, ex);
+                log(c.root, ex);
             }
         }
     }
@@ -1,35 +1,115 @@
 package edu.gemini.pot.spdb;
 
 import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.SPComponentType;
 import edu.gemini.pot.sp.SPCompositeChange;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.spModel.data.ISPDataObject;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
+import java.util.Objects;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Handles trigger registration (and execution).
+ *
+ * <p>Conditions are evaluated synchronously as each change is fired, since
+ * they may examine the state of the program at the time of the change.
+ * Conditions implementing {@link IDBIndexedTriggerCondition} are only
+ * evaluated against the changes they declare an interest in.
+ *
+ * <p>The resulting actions are not run immediately but collected per program
+ * for a short window, during which repeated matches with the same action,
+ * node, property and handback are coalesced into one.  Each program's batch
+ * then runs, in order, on a small pool.  A program has at most one batch
+ * running at a time; while it runs, the next batch keeps collecting (and
+ * coalescing) matches and is only handed to the pool when the running one
+ * finishes.
+ *
+ * <p>Changes are fired while the program is locked, so matching never waits
+ * and no action is ever discarded: a match always joins its program's open
+ * batch, however large.  The work is bounded on the pool side instead, which
+ * holds at most one batch per program.
+ *
+ * <p>The window and number of action threads are set with the
+ * <code>window</code> (ms) and <code>threads</code> system properties
+ * prefixed with <code>edu.gemini.pot.spdb.TriggerRegistrar.</code>
  */
 final class TriggerRegistrar implements PropertyChangeListener, ProgramEventListener<ISPProgram> {
     private static final Logger LOG = Logger.getLogger(TriggerRegistrar.class.getName());
 
+    static final String WINDOW_PROP  = "edu.gemini.pot.spdb.TriggerRegistrar.window";
+    static final String THREADS_PROP = "edu.gemini.pot.spdb.TriggerRegistrar.threads";
+
     private final ProgramManager<ISPProgram> _progMan;
-    private final ExecutorService _pool;
-    private Map<IDBTriggerCondition, List<TriggerReg>> _triggerMap = new HashMap<>();
+
+    // Registrations, replaced wholesale when modified so that events can be
+    // matched without locking.
+    private volatile Index _index = Index.EMPTY;
+
+    // Batches by program key, guarded by itself.  The count of actions
+    // waiting to run includes those in batches queued in the pool.
+    private final Map<SPNodeKey, Lane> _lanes = new HashMap<>();
+    private int _pendingCount;
+
+    private final long _window;
+    private final ScheduledExecutorService _timer;
+    private final ThreadPoolExecutor _pool;
+
+    private final LongAdder _events      = new LongAdder();
+    private final LongAdder _evaluations = new LongAdder();
+    private final LongAdder _matches     = new LongAdder();
+    private final LongAdder _coalesced   = new LongAdder();
+    private final LongAdder _executed    = new LongAdder();
+    private final LongAdder _failed      = new LongAdder();
+    private final LongAdder _latency     = new LongAdder();
+    private final AtomicLong _maxLatency = new AtomicLong();
 
     /**
      * Constructs with the program manager.
      */
     TriggerRegistrar(ProgramManager<ISPProgram> programMan) {
         _progMan = programMan;
-        _pool = Executors.newCachedThreadPool();
+        _window  = Math.max(0, Long.getLong(WINDOW_PROP, 50));
+
+        _timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "ODB Trigger Dispatcher");
+            t.setDaemon(true);
+            return t;
+        });
+
+        // The pool holds at most one batch per program, so its queue needs
+        // no bound of its own.  Batches handed over once it has shut down get
+        // a thread of their own rather than being discarded.
+        final int threads = Math.max(1, Integer.getInteger(THREADS_PROP, 4));
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadFactory factory = r -> {
+            final Thread t = new Thread(r, "ODB Trigger Action-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        _pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), factory,
+                (r, pool) -> factory.newThread(r).start());
+        _pool.allowCoreThreadTimeOut(true);
 
         // Listen to all the programs.
         List<ISPProgram> progs = programMan.getPrograms();
@@ -41,17 +121,91 @@ final class TriggerRegistrar implements PropertyChangeListener, ProgramEventList
         programMan.addListener(this);
     }
 
+    /**
+     * An immutable index from property name and component type to the
+     * conditions that may match a change with that name and type.  A
+     * <code>null</code> name or type collects the conditions that accept any.
+     */
+    private static final class Index {
+        static final Index EMPTY = new Index(Collections.emptyMap());
+
+        final Map<IDBTriggerCondition, List<TriggerReg>> regs;
+        final Map<String, Map<SPComponentType, List<IDBTriggerCondition>>> conditions = new HashMap<>();
+        final boolean typed;
+
+        Index(Map<IDBTriggerCondition, List<TriggerReg>> regs) {
+            this.regs = regs;
+
+            boolean typed = false;
+            for (IDBTriggerCondition tc : regs.keySet()) {
+                Collection<String> names          = Collections.singleton(null);
+                Collection<SPComponentType> types = Collections.singleton(null);
+                if (tc instanceof IDBIndexedTriggerCondition) {
+                    final IDBIndexedTriggerCondition itc = (IDBIndexedTriggerCondition) tc;
+                    if (itc.getPropertyNames() != null) names = itc.getPropertyNames();
+                    if (itc.getComponentTypes() != null) {
+                        types = itc.getComponentTypes();
+                        typed = true;
+                    }
+                }
+                for (String name : names) {
+                    final Map<SPComponentType, List<IDBTriggerCondition>> m =
+                            conditions.computeIfAbsent(name, k -> new HashMap<>());
+                    for (SPComponentType type : types) {
+                        m.computeIfAbsent(type, k -> new ArrayList<>()).add(tc);
+                    }
+                }
+            }
+            this.typed = typed;
+        }
+
+        boolean isEmpty() {
+            return regs.isEmpty();
+        }
+
+        private void collect(String name, SPComponentType type, List<IDBTriggerCondition> res) {
+            final Map<SPComponentType, List<IDBTriggerCondition>> m = conditions.get(name);
+            if (m == null) return;
+            final List<IDBTriggerCondition> l = m.get(type);
+            if (l != null) res.addAll(l);
+            if (type != null) {
+                final List<IDBTriggerCondition> any = m.get(null);
+                if (any != null) res.addAll(any);
+            }
+        }
+
+        /**
+         * Gets the conditions that may match the given change.  Each
+         * condition is filed under exactly one name and type combination
+         * that a change can hit, so none is returned twice.
+         */
+        List<IDBTriggerCondition> candidates(SPCompositeChange change) {
+            final String name          = change.getPropertyName();
+            final SPComponentType type = typed ? componentType(change) : null;
+
+            final List<IDBTriggerCondition> res = new ArrayList<>();
+            if (name != null) collect(name, type, res);
+            collect(null, type, res);
+            return res;
+        }
+
+        private static SPComponentType componentType(SPCompositeChange change) {
+            final Object o = (change.getNewValue() != null) ? change.getNewValue() : change.getOldValue();
+            return (o instanceof ISPDataObject) ? ((ISPDataObject) o).getType() : null;
+        }
+    }
 
     public void register(IDBTriggerCondition condition, IDBTriggerAction action) {
         LOG.log(Level.INFO, "Registering trigger condition: " + condition);
         TriggerReg tr = new TriggerReg(condition, action);
         synchronized (this) {
-            List<TriggerReg> actionList = _triggerMap.get(condition);
-            if (actionList == null) {
-                actionList = new ArrayList<>();
-                _triggerMap.put(condition, actionList);
-            }
+            final Map<IDBTriggerCondition, List<TriggerReg>> regs = new HashMap<>(_index.regs);
+            final List<TriggerReg> actionList = new ArrayList<>();
+            final List<TriggerReg> old = regs.get(condition);
+            if (old != null) actionList.addAll(old);
             actionList.add(tr);
+            regs.put(condition, actionList);
+            _index = new Index(regs);
         }
     }
 
@@ -59,104 +213,283 @@ final class TriggerRegistrar implements PropertyChangeListener, ProgramEventList
         LOG.log(Level.INFO, "Unregistering trigger condition: " + condition);
         TriggerReg tr = new TriggerReg(condition, action);
         synchronized (this) {
-            List<TriggerReg> actionList = _triggerMap.get(condition);
-            if (actionList != null) {
-                actionList.remove(tr);
-                if (actionList.isEmpty())
-                    _triggerMap.remove(condition);
+            final List<TriggerReg> old = _index.regs.get(condition);
+            if (old == null) return;
+
+            final Map<IDBTriggerCondition, List<TriggerReg>> regs = new HashMap<>(_index.regs);
+            final List<TriggerReg> actionList = new ArrayList<>(old);
+            actionList.remove(tr);
+            if (actionList.isEmpty()) {
+                regs.remove(condition);
+            } else {
+                regs.put(condition, actionList);
             }
+            _index = new Index(regs);
+        }
+    }
+
+    /**
+     * A matched trigger waiting to be executed.
+     */
+    private static final class Firing {
+        final TriggerReg reg;
+        final SPCompositeChange change;
+        final Object handback;
+        final long matchTime;
+
+        Firing(TriggerReg reg, SPCompositeChange change, Object handback, long matchTime) {
+            this.reg       = reg;
+            this.change    = change;
+            this.handback  = handback;
+            this.matchTime = matchTime;
         }
     }
 
+    /**
+     * Identifies firings that would repeat the same action.
+     */
+    private static final class FiringKey {
+        final TriggerReg reg;
+        final SPNodeKey node;
+        final String prop;
+        final Object handback;
+
+        FiringKey(Firing f) {
+            this.reg      = f.reg;
+            this.node     = f.change.getModifiedNode().getNodeKey();
+            this.prop     = f.change.getPropertyName();
+            this.handback = f.handback;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            final FiringKey that = (FiringKey) o;
+            return reg.equals(that.reg) && node.equals(that.node) &&
+                   Objects.equals(prop, that.prop) && handback.equals(that.handback);
+        }
 
-    private static class TriggerEvent {
-        TriggerReg reg;
-        Object handback;
-        TriggerEvent(TriggerReg reg, Object handback) {
-            this.reg = reg;
-            this.handback = handback;
+        @Override public int hashCode() {
+            return Objects.hash(reg, node, prop, handback);
         }
     }
 
     /**
-     * Extracts the TriggerReg objects that are interested in
-     * handling the given composite change event.
-     *
-     * @return List of {@link TriggerEvent}
+     * The firings collected for a program during one window, in the order
+     * they first matched.
      */
-    private synchronized List<TriggerEvent> _getMatchingRegs(SPCompositeChange change) {
-        List<TriggerEvent> res = null;
-
-        for (Map.Entry<IDBTriggerCondition, List<TriggerReg>> me : _triggerMap.entrySet()) {
-
-            IDBTriggerCondition tc = me.getKey();
-            Object handback = tc.matches(change);
-            if (handback != null) {
-                if (res == null) res = new ArrayList<>();
-                List<TriggerReg> triggerRegList = me.getValue();
-                for (TriggerReg reg : triggerRegList) {
-                    res.add(new TriggerEvent(reg, handback));
-                }
+    private static final class Batch {
+        final Map<FiringKey, Firing> firings = new LinkedHashMap<>();
+
+        /**
+         * Adds the firing, returning <code>true</code> if it replaced an
+         * identical one.  The replacement keeps the earlier match time and
+         * position but carries the latest change.
+         */
+        boolean add(Firing f) {
+            final FiringKey k   = new FiringKey(f);
+            final Firing    old = firings.get(k);
+            if (old == null) {
+                firings.put(k, f);
+                return false;
             }
+            firings.put(k, new Firing(f.reg, f.change, f.handback, old.matchTime));
+            return true;
         }
-
-        return res;
     }
 
     /**
-     * A Runnable used to execute a trigger action within a thread pool.
+     * The batches of one program.  At most one of them is running (or
+     * queued in the pool) while the next collects firings.
      */
-    private static class TriggerTask implements Runnable {
-        private final SPCompositeChange change;
+    private static final class Lane {
+        // Collecting firings, or null if there are none.
+        Batch open;
 
-        private final IDBTriggerAction action;
-        private final Object handback;
+        // Whether the window of the open batch has closed while another batch
+        // of the program was running.
+        boolean due;
 
-        TriggerTask(SPCompositeChange change, TriggerEvent evt) {
-            this.change = change;
+        // Whether a batch of the program is queued or running in the pool.
+        boolean running;
+    }
 
-            TriggerReg ltr = evt.reg;
-            this.action = ltr.getTriggerAction();
-            this.handback = evt.handback;
+    /**
+     * A Runnable used to execute a batch of trigger actions within the thread
+     * pool.
+     */
+    private final class BatchTask implements Runnable {
+        private final SPNodeKey progKey;
+        private final Collection<Firing> firings;
+
+        BatchTask(SPNodeKey progKey, Batch batch) {
+            this.progKey = progKey;
+            this.firings = batch.firings.values();
         }
 
         public void run() {
+            _started(firings.size());
+            try {
+                _runAll();
+            } finally {
+                _finished(progKey);
+            }
+        }
 
-            // Record the start time
-            long startTime = 0;
-            if (action.getClass().getName().contains("TooAction")) {
-                startTime = System.currentTimeMillis();
-                LOG.log(Level.WARNING, "Sending a ToO alert...");
+        private void _runAll() {
+            for (Firing f : firings) {
+                final long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - f.matchTime);
+                _latency.add(latency);
+                _maxLatency.accumulateAndGet(latency, Math::max);
+                _executed.increment();
+
+                try {
+                    _run(f);
+                } catch (Exception ex) {
+                    _failed.increment();
+                    LOG.log(Level.WARNING, "Trigger action failed: " + f.reg.getTriggerAction(), ex);
+                }
             }
+        }
+    }
+
+    private static void _run(Firing f) {
+        final IDBTriggerAction action = f.reg.getTriggerAction();
 
-            action.doTriggerAction(change, handback);
+        // Record the start time
+        long startTime = 0;
+        if (action.getClass().getName().contains("TooAction")) {
+            startTime = System.currentTimeMillis();
+            LOG.log(Level.WARNING, "Sending a ToO alert...");
+        }
 
-            // Record the end time and warn if it took too long.
-            if (startTime != 0) {
-                long curTime = System.currentTimeMillis();
-                LOG.log(Level.WARNING, "Sent ToO alert");
+        action.doTriggerAction(f.change, f.handback);
 
-                long elapsed = curTime - startTime;
-                if (elapsed > 5000) {
-                    LOG.log(Level.WARNING, "Long delay sending ToO alert: " + elapsed);
-                }
+        // Record the end time and warn if it took too long.
+        if (startTime != 0) {
+            long curTime = System.currentTimeMillis();
+            LOG.log(Level.WARNING, "Sent ToO alert");
+
+            long elapsed = curTime - startTime;
+            if (elapsed > 5000) {
+                LOG.log(Level.WARNING, "Long delay sending ToO alert: " + elapsed);
+            }
+        }
+    }
+
+    /**
+     * Adds a firing to its program's open batch, opening a new batch if
+     * necessary.  Never waits, since it is called while the program is
+     * locked.
+     */
+    private void _enqueue(SPNodeKey progKey, Firing f) {
+        final boolean open;
+        synchronized (_lanes) {
+            final Lane lane = _lanes.computeIfAbsent(progKey, k -> new Lane());
+            open = (lane.open == null);
+            if (open) lane.open = new Batch();
+            if (lane.open.add(f)) {
+                _coalesced.increment();
+            } else {
+                ++_pendingCount;
+            }
+        }
+
+        if (open) {
+            if (_timer.isShutdown()) {
+                _close(progKey);
+            } else {
+                _timer.schedule(() -> _close(progKey), _window, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Closes a program's open batch at the end of its window and hands it to
+     * the action pool, unless a batch of the program is still running, in
+     * which case it is handed over when that one finishes.
+     */
+    private void _close(SPNodeKey progKey) {
+        final Batch b;
+        synchronized (_lanes) {
+            final Lane lane = _lanes.get(progKey);
+            if ((lane == null) || (lane.open == null)) return;
+            if (lane.running) {
+                lane.due = true;
+                return;
+            }
+            b = lane.open;
+            lane.open    = null;
+            lane.running = true;
+        }
+        _pool.execute(new BatchTask(progKey, b));
+    }
+
+    /**
+     * Hands the program's next batch to the pool, if its window has closed,
+     * once the previous batch has finished.
+     */
+    private void _finished(SPNodeKey progKey) {
+        final Batch next;
+        synchronized (_lanes) {
+            final Lane lane = _lanes.get(progKey);
+            if (lane.due) {
+                next = lane.open;
+                lane.open = null;
+                lane.due  = false;
+            } else {
+                next = null;
+                lane.running = false;
+                if (lane.open == null) _lanes.remove(progKey);
             }
+        }
+        if (next != null) _pool.execute(new BatchTask(progKey, next));
+    }
 
+    // Records that the given number of actions are about to run.
+    private void _started(int count) {
+        synchronized (_lanes) {
+            _pendingCount -= count;
         }
     }
 
     /**
-     * Fires a composite event to registered listeners.  Passes the event
-     * along to any parent(s) to notify their composite listeners.
+     * Evaluates the registered conditions against a composite event and
+     * schedules the actions of those that match.
      */
     void handleEvent(SPCompositeChange change) {
-        List<TriggerEvent> actionList = _getMatchingRegs(change);
-        if (actionList == null) return;  // nobody cares
+        _events.increment();
+
+        final Index index = _index;
+        if (index.isEmpty()) return;  // nobody cares
+
+        SPNodeKey progKey = null;
+        for (IDBTriggerCondition tc : index.candidates(change)) {
+            _evaluations.increment();
+            final Object handback = tc.matches(change);
+            if (handback == null) continue;
+
+            if (progKey == null) progKey = change.getModifiedNode().getProgramKey();
+            final long now = System.nanoTime();
+            for (TriggerReg reg : index.regs.get(tc)) {
+                _matches.increment();
+                _enqueue(progKey, new Firing(reg, change, handback, now));
+            }
+        }
+    }
 
-        // notify everyone
-        for (TriggerEvent evt : actionList) {
-            _pool.submit(new TriggerTask(change, evt));
+    /**
+     * Gets the trigger dispatch statistics.
+     */
+    TriggerStats getStats() {
+        final int pending;
+        synchronized (_lanes) {
+            pending = _pendingCount;
         }
+        return new TriggerStats(_events.sum(), _evaluations.sum(), _matches.sum(),
+                _coalesced.sum(), _executed.sum(), _failed.sum(),
+                pending, _pool.getQueue().size(), _latency.sum(), _maxLatency.get());
     }
 
     @Override
@@ -179,10 +512,21 @@ final class TriggerRegistrar implements PropertyChangeListener, ProgramEventList
     }
 
     /**
-     * Cleans up.
+     * Cleans up.  Batches still collecting firings are closed right away and
+     * the actions that have not yet started still run.
      */
     void shutdown() {
-        _pool.shutdownNow();
+        _timer.shutdownNow();
+
+        final List<SPNodeKey> open = new ArrayList<>();
+        synchronized (_lanes) {
+            for (Map.Entry<SPNodeKey, Lane> me : _lanes.entrySet()) {
+                if (me.getValue().open != null) open.add(me.getKey());
+            }
+        }
+        for (SPNodeKey k : open) _close(k);
+        _pool.shutdown();
+
         _progMan.removeListener(this);
 
         for (ISPProgram o : _progMan.getPrograms())
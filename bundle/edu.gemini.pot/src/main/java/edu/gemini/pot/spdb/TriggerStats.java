@@ -0,0 +1,70 @@
+package edu.gemini.pot.spdb;
+
+import java.io.Serializable;
+
+/**
+ * Trigger dispatch statistics since startup, along with the current depth of
+ * the dispatch queues.
+ */
+public final class TriggerStats implements Serializable {
+    /** Number of composite change events examined. */
+    public final long events;
+
+    /** Number of times a trigger condition was evaluated. */
+    public final long evaluations;
+
+    /** Number of trigger actions produced by matching conditions. */
+    public final long matches;
+
+    /**
+     * Number of matches that were merged into an identical pending action
+     * rather than producing an action of their own.
+     */
+    public final long coalesced;
+
+    /** Number of trigger actions executed. */
+    public final long executed;
+
+    /** Number of trigger actions that failed with an exception. */
+    public final long failed;
+
+    /** Actions waiting to run, whether or not their batch has closed. */
+    public final int pending;
+
+    /** Batches waiting for a free action thread. */
+    public final int queued;
+
+    /** Total time from match to the start of the action, in milliseconds. */
+    public final long latencyMs;
+
+    /** Longest time from match to the start of an action, in milliseconds. */
+    public final long maxLatencyMs;
+
+    TriggerStats(long events, long evaluations, long matches, long coalesced,
+                 long executed, long failed, int pending, int queued,
+                 long latencyMs, long maxLatencyMs) {
+        this.events       = events;
+        this.evaluations  = evaluations;
+        this.matches      = matches;
+        this.coalesced    = coalesced;
+        this.executed     = executed;
+        this.failed       = failed;
+        this.pending      = pending;
+        this.queued       = queued;
+        this.latencyMs    = latencyMs;
+        this.maxLatencyMs = maxLatencyMs;
+    }
+
+    /**
+     * Gets the average time from match to the start of an action, in
+     * milliseconds.
+     */
+    public double getAverageLatencyMs() {
+        return (executed == 0) ? 0.0 : ((double) latencyMs) / executed;
+    }
+
+    @Override public String toString() {
+        return String.format("events=%d, evaluations=%d, matches=%d, coalesced=%d, executed=%d, failed=%d, pending=%d, queued=%d, avg latency=%.1f ms, max latency=%d ms",
+                events, evaluations, matches, coalesced, executed, failed, pending, queued, getAverageLatencyMs(), maxLatencyMs);
+    }
+}
@@ -1,6 +1,9 @@
 package edu.gemini.pot.sp.version
 
 import edu.gemini.pot.sp.SPNodeKey
+import edu.gemini.shared.util.VersionVector
+
+import scala.collection.JavaConverters._
 
 /**
  * Basic operations required from Java but difficult or awkward without this
@@ -13,6 +16,12 @@ object JavaVersionMapOps {
   def getOrNull(m: VersionMap, k: SPNodeKey): NodeVersions  = m.get(k).orNull
   def getOrEmpty(m: VersionMap, k: SPNodeKey): NodeVersions = m.getOrElse(k, EmptyNodeVersions)
 
+  def toJava(m: VersionMap): java.util.Map[SPNodeKey, NodeVersions] = m.asJava
+  def fromJava(m: java.util.Map[SPNodeKey, NodeVersions]): VersionMap = m.asScala.toMap
+
+  def clocks(nv: NodeVersions): java.util.Map[LifespanId, java.lang.Integer] = nv.clocks.asJava
+  def nodeVersions(m: java.util.Map[LifespanId, java.lang.Integer]): NodeVersions = VersionVector.javaInt(m)
+
   def isNewLocally(k: SPNodeKey, local: VersionMap, remote: VersionMap): Boolean =
     local.get(k).isDefined && remote.get(k).isEmpty
 
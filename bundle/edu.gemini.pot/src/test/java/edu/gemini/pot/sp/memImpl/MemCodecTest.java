@@ -0,0 +1,125 @@
+package edu.gemini.pot.sp.memImpl;
+
+import edu.gemini.pot.sp.ISPContainerNode;
+import edu.gemini.pot.sp.ISPGroup;
+import edu.gemini.pot.sp.ISPNode;
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.Instrument;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.spdb.DBLocalDatabase;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.data.ISPDataObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that programs survive a round trip through the binary encoding.
+ */
+public final class MemCodecTest {
+    private IDBDatabaseService odb;
+    private ISPProgram prog;
+    private ISPObservation obs;
+
+    @Before
+    public void setUp() throws Exception {
+        odb  = DBLocalDatabase.createTransient();
+        prog = odb.getFactory().createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2016A-Q-1"));
+
+        obs  = odb.getFactory().createObservation(prog, Instrument.none, null);
+        prog.addObservation(obs);
+
+        final ISPGroup grp = odb.getFactory().createGroup(prog, null);
+        prog.addGroup(grp);
+        grp.addObservation(odb.getFactory().createObservation(prog, Instrument.none, null));
+
+        // Use up a few observation numbers without keeping the observations.
+        odb.getFactory().createObservation(prog, Instrument.none, null);
+        odb.getFactory().createObservation(prog, Instrument.none, null);
+
+        final ISPDataObject dobj = obs.getDataObject();
+        dobj.setTitle("The Über Observation");
+        obs.setDataObject(dobj);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        odb.getDBAdmin().shutdown();
+    }
+
+    private static ISPProgram roundTrip(ISPProgram p, boolean compress) throws Exception {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        MemCodec.encode(p, baos, compress);
+        return (ISPProgram) MemCodec.decode(new ByteArrayInputStream(baos.toByteArray()));
+    }
+
+    private static void assertSameTree(ISPNode expected, ISPNode actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getNodeKey(), actual.getNodeKey());
+        assertEquals(expected.getDataObject().getTitle(), actual.getDataObject().getTitle());
+        assertEquals(expected.getConflicts().isEmpty(), actual.getConflicts().isEmpty());
+
+        if (expected instanceof ISPObservation) {
+            assertEquals(((ISPObservation) expected).getObservationNumber(), ((ISPObservation) actual).getObservationNumber());
+        }
+
+        if (expected instanceof ISPContainerNode) {
+            final List<ISPNode> ec = ((ISPContainerNode) expected).getChildren();
+            final List<ISPNode> ac = ((ISPContainerNode) actual).getChildren();
+            assertEquals(ec.size(), ac.size());
+            for (int i=0; i<ec.size(); ++i) assertSameTree(ec.get(i), ac.get(i));
+        }
+    }
+
+    private void checkRoundTrip(boolean compress) throws Exception {
+        final ISPProgram copy = roundTrip(prog, compress);
+        assertSameTree(prog, copy);
+        assertEquals(prog.getProgramID(), copy.getProgramID());
+        assertEquals(prog.getLifespanId(), copy.getLifespanId());
+        assertEquals(prog.getVersions(), copy.getVersions());
+        assertEquals(prog.lastModified(), copy.lastModified());
+
+        // New observations continue the numbering.
+        final ISPObservation next = odb.getFactory().createObservation(copy, Instrument.none, null);
+        assertEquals(5, next.getObservationNumber());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        checkRoundTrip(false);
+    }
+
+    @Test
+    public void testCompressedRoundTrip() throws Exception {
+        checkRoundTrip(true);
+    }
+
+    @Test
+    public void testConflicts() throws Exception {
+        final ISPDataObject dobj = obs.getDataObject();
+        dobj.setTitle("conflicting");
+        obs.setDataObject(dobj, true);
+
+        final ISPProgram copy = roundTrip(prog, true);
+        final ISPObservation obsCopy = copy.getObservations().get(0);
+        assertTrue(obsCopy.hasConflicts());
+        assertSameTree(prog, copy);
+    }
+
+    @Test
+    public void testSerializerReadsEitherFormat() throws Exception {
+        final MemSerializer java   = new MemSerializer(MemSerializer.Format.JAVA, false);
+        final MemSerializer binary = new MemSerializer(MemSerializer.Format.BINARY, true);
+
+        assertSameTree(prog, binary.load(java.store(prog)));
+        assertSameTree(prog, java.load(binary.store(prog)));
+    }
+}
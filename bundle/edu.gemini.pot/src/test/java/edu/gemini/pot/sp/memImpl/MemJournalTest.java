@@ -0,0 +1,108 @@
+package edu.gemini.pot.sp.memImpl;
+
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.Instrument;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.spdb.DBLocalDatabase;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.spModel.data.ISPDataObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that node updates appended to a journal are replayed on top of the
+ * snapshot.
+ */
+public final class MemJournalTest {
+    private IDBDatabaseService odb;
+    private ISPProgram prog;
+    private ISPObservation obs;
+    private File snapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        odb  = DBLocalDatabase.createTransient();
+        prog = odb.getFactory().createProgram(new SPNodeKey(), null);
+        obs  = odb.getFactory().createObservation(prog, Instrument.none, null);
+        prog.addObservation(obs);
+
+        snapshot = File.createTempFile("MemJournalTest", ".sp");
+        new MemSerializer().store(prog, snapshot);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        MemJournal.delete(snapshot);
+        snapshot.delete();
+        odb.getDBAdmin().shutdown();
+    }
+
+    private void setTitle(String title) {
+        final ISPDataObject dobj = obs.getDataObject();
+        dobj.setTitle(title);
+        obs.setDataObject(dobj);
+    }
+
+    private ISPObservation reload() throws Exception {
+        final MemAbstractBase root = new MemSerializer().load(snapshot);
+        assertTrue(MemJournal.replay(snapshot, root));
+        return ((ISPProgram) root).getAllObservations().get(0);
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        setTitle("first");
+        MemJournal.append(snapshot, prog, Collections.singleton(obs));
+        setTitle("second");
+        MemJournal.append(snapshot, prog, Collections.singleton(obs));
+
+        final ISPObservation copy = reload();
+        assertEquals("second", copy.getDataObject().getTitle());
+        assertEquals(obs.getVersion(), copy.getVersion());
+    }
+
+    @Test
+    public void testNewSnapshotDiscardsJournal() throws Exception {
+        setTitle("journaled");
+        MemJournal.append(snapshot, prog, Collections.singleton(obs));
+
+        // Simulate a new snapshot written without removing the journal.
+        setTitle("snapshot");
+        new MemSerializer().store(prog, snapshot);
+
+        assertEquals("snapshot", reload().getDataObject().getTitle());
+    }
+
+    @Test
+    public void testSnapshotWithoutId() throws Exception {
+        try (FileOutputStream fos = new FileOutputStream(snapshot)) {
+            fos.write(new MemSerializer().store(prog));
+        }
+        assertFalse(MemJournal.canAppend(snapshot));
+
+        new MemSerializer().store(prog, snapshot);
+        assertTrue(MemJournal.canAppend(snapshot));
+    }
+
+    @Test
+    public void testPartialFrame() throws Exception {
+        setTitle("complete");
+        MemJournal.append(snapshot, prog, Collections.singleton(obs));
+
+        try (FileOutputStream fos = new FileOutputStream(MemJournal.journalFile(snapshot), true)) {
+            fos.write(new byte[] { 0, 0, 1, 0, 42 });
+        }
+
+        final MemAbstractBase root = new MemSerializer().load(snapshot);
+        assertFalse(MemJournal.replay(snapshot, root));
+        assertEquals("complete", ((ISPProgram) root).getAllObservations().get(0).getDataObject().getTitle());
+    }
+}
@@ -0,0 +1,77 @@
+package edu.gemini.pot.sp.memImpl;
+
+import edu.gemini.pot.sp.ISPGroup;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.Instrument;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.spdb.DBLocalDatabase;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.shared.util.immutable.Some;
+import edu.gemini.spModel.core.SPProgramID;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the time to store and load a program with Java serialization and
+ * with the binary encoding, with and without compression.  The stored size
+ * of each combination is printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MemSerializerBenchmark {
+
+    @Param({"JAVA", "BINARY", "BINARY_COMPRESSED"})
+    public String format;
+
+    @Param({"20", "200"})
+    public int observations;
+
+    private IDBDatabaseService odb;
+    private ISPProgram prog;
+    private MemSerializer ser;
+    private byte[] stored;
+
+    @Setup
+    public void setUp() throws Exception {
+        odb  = DBLocalDatabase.createTransient();
+        prog = odb.getFactory().createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2016A-Q-1"));
+
+        ISPGroup grp = null;
+        for (int i=0; i<observations; ++i) {
+            if (i % 10 == 0) {
+                grp = odb.getFactory().createGroup(prog, null);
+                prog.addGroup(grp);
+            }
+            grp.addObservation(odb.getFactory().createObservation(prog, new Some<>(Instrument.GmosSouth), null));
+        }
+
+        switch (format) {
+            case "JAVA":   ser = new MemSerializer(MemSerializer.Format.JAVA,   false); break;
+            case "BINARY": ser = new MemSerializer(MemSerializer.Format.BINARY, false); break;
+            default:       ser = new MemSerializer(MemSerializer.Format.BINARY, true);  break;
+        }
+
+        stored = ser.store(prog);
+        System.out.println(String.format("%n%s, %d observations: %d bytes", format, observations, stored.length));
+    }
+
+    @TearDown
+    public void tearDown() {
+        odb.getDBAdmin().shutdown();
+    }
+
+    @Benchmark
+    public byte[] store() throws Exception {
+        return ser.store(prog);
+    }
+
+    @Benchmark
+    public MemAbstractBase load() throws Exception {
+        return ser.load(stored);
+    }
+}
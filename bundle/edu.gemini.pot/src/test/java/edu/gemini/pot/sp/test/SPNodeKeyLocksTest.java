@@ -0,0 +1,72 @@
+package edu.gemini.pot.sp.test;
+
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.sp.SPNodeKeyLocks;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that program key locks are shared while in use and discarded when
+ * idle, and that waits are recorded.
+ */
+public final class SPNodeKeyLocksTest {
+    private static final SPNodeKeyLocks LOCKS = SPNodeKeyLocks.instance;
+
+    private static SPNodeKeyLocks.KeyStats stats(SPNodeKey key) {
+        for (SPNodeKeyLocks.KeyStats ks : LOCKS.getKeyStats()) {
+            if (ks.key.equals(key)) return ks;
+        }
+        return null;
+    }
+
+    @Test
+    public void testEntryDiscardedWhenIdle() {
+        final SPNodeKey key = new SPNodeKey();
+
+        LOCKS.writeLock(key);
+        LOCKS.readLock(key);
+        assertTrue(LOCKS.isWriteLockHeld(key));
+        assertEquals(1, stats(key).readHolds);
+
+        LOCKS.readUnlock(key);
+        assertNotNull(stats(key));
+
+        LOCKS.writeUnlock(key);
+        assertFalse(LOCKS.isWriteLockHeld(key));
+        assertNull(stats(key));
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testUnlockWithoutLock() {
+        LOCKS.readUnlock(new SPNodeKey());
+    }
+
+    @Test
+    public void testWriterWaitsForReader() throws Exception {
+        final SPNodeKey key = new SPNodeKey();
+        final long before   = LOCKS.getStats().contended;
+
+        final CountDownLatch locked = new CountDownLatch(1);
+        final Thread writer = new Thread(() -> {
+            LOCKS.writeLock(key);
+            locked.countDown();
+            LOCKS.writeUnlock(key);
+        });
+
+        LOCKS.readLock(key);
+        writer.start();
+        while (stats(key).queued == 0) Thread.sleep(1);
+        assertFalse(locked.await(50, TimeUnit.MILLISECONDS));
+
+        LOCKS.readUnlock(key);
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+        writer.join();
+
+        assertNull(stats(key));
+        assertTrue(LOCKS.getStats().contended > before);
+    }
+}
@@ -0,0 +1,98 @@
+package edu.gemini.pot.spdb.test;
+
+import edu.gemini.pot.sp.*;
+import edu.gemini.pot.spdb.DBLocalDatabase;
+import edu.gemini.pot.spdb.DirtyNodes;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.pot.spdb.IDBDirtyNodeTracker;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.data.ISPDataObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the dirty node tracker reports the nodes that were modified.
+ */
+public final class DirtyNodeTrackerTest {
+    private IDBDatabaseService odb;
+    private ISPProgram prog;
+    private ISPObservation obs;
+    private IDBDirtyNodeTracker tracker;
+
+    @Before
+    public void setUp() throws Exception {
+        odb  = DBLocalDatabase.createTransient();
+        prog = odb.getFactory().createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2018B-Q-2"));
+        obs  = odb.getFactory().createObservation(prog, Instrument.none, null);
+        prog.addObservation(obs);
+        odb.put(prog);
+
+        tracker = odb.trackDirtyNodes();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tracker.close();
+        odb.getDBAdmin().shutdown();
+    }
+
+    private DirtyNodes drainOne() {
+        final List<DirtyNodes> lst = tracker.drain();
+        assertEquals(1, lst.size());
+        return lst.get(0);
+    }
+
+    @Test
+    public void testDataChange() throws Exception {
+        final ISPDataObject dobj = obs.getDataObject();
+        dobj.setTitle("changed");
+        obs.setDataObject(dobj);
+
+        final DirtyNodes dn = drainOne();
+        assertEquals(prog.getProgramKey(), dn.getProgramKey());
+        assertFalse(dn.isWholeProgram());
+        assertEquals(Collections.singleton(obs.getNodeKey()), dn.getDataKeys());
+        assertTrue(dn.getStructureKeys().isEmpty());
+
+        // Draining clears the record.
+        assertTrue(tracker.drain().isEmpty());
+    }
+
+    @Test
+    public void testStructureChange() throws Exception {
+        final ISPGroup group = odb.getFactory().createGroup(prog, null);
+        prog.addGroup(group);
+
+        final DirtyNodes dn = drainOne();
+        assertFalse(dn.isWholeProgram());
+        assertTrue(dn.getStructureKeys().contains(prog.getNodeKey()));
+        assertFalse(dn.getKeys().contains(obs.getNodeKey()));
+    }
+
+    @Test
+    public void testNewProgram() throws Exception {
+        final ISPProgram p = odb.getFactory().createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2018B-Q-3"));
+        odb.put(p);
+
+        final DirtyNodes dn = drainOne();
+        assertEquals(p.getProgramKey(), dn.getProgramKey());
+        assertTrue(dn.isWholeProgram());
+    }
+
+    @Test
+    public void testClosed() throws Exception {
+        tracker.close();
+
+        final ISPDataObject dobj = obs.getDataObject();
+        dobj.setTitle("changed");
+        obs.setDataObject(dobj);
+
+        assertTrue(tracker.drain().isEmpty());
+    }
+}
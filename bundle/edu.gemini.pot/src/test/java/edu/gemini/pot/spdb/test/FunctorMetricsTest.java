@@ -0,0 +1,66 @@
+package edu.gemini.pot.spdb.test;
+
+import edu.gemini.pot.sp.ISPNode;
+import edu.gemini.pot.spdb.DBAbstractQueryFunctor;
+import edu.gemini.pot.spdb.FunctorMetrics;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import org.junit.Test;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that functor executions are counted per class and that slow ones
+ * are remembered along with the user.
+ */
+public final class FunctorMetricsTest extends SpdbBaseTestCase {
+
+    public static final class Counter extends DBAbstractQueryFunctor {
+        int count;
+
+        @Override public void execute(IDBDatabaseService db, ISPNode node, Set<Principal> principals) {
+            ++count;
+        }
+    }
+
+    private FunctorMetrics.ClassStats stats(String className) {
+        for (FunctorMetrics.ClassStats cs : getDatabase().getFunctorMetrics().getFunctorStats()) {
+            if (cs.getFunctorClass().equals(className)) return cs;
+        }
+        return null;
+    }
+
+    @Test
+    public void testQueryRecorded() throws Exception {
+        createProgram();
+        createProgram();
+        createProgram();
+
+        final Principal user = () -> "tester";
+        final FunctorMetrics m = getDatabase().getFunctorMetrics();
+        m.setSlowThresholdMs(0);
+
+        getDatabase().getQueryRunner(Collections.singleton(user)).queryPrograms(new Counter());
+        getDatabase().getQueryRunner(Collections.singleton(user)).queryPrograms(new Counter());
+
+        final FunctorMetrics.ClassStats cs = stats(Counter.class.getName());
+        assertNotNull(cs);
+        assertTrue(cs.isQuery());
+        assertEquals(2, cs.getCount());
+        assertEquals(0, cs.getFailures());
+        assertEquals(3, cs.getMaxNodes());
+
+        final List<FunctorMetrics.SlowExecution> slow = m.getSlowExecutions();
+        assertEquals(2, slow.size());
+        assertEquals(Counter.class.getName(), slow.get(0).getFunctorClass());
+        assertEquals("tester", slow.get(0).getPrincipals());
+
+        m.reset();
+        assertNull(stats(Counter.class.getName()));
+        assertTrue(m.getSlowExecutions().isEmpty());
+    }
+}
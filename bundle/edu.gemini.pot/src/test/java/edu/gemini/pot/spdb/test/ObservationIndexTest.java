@@ -0,0 +1,91 @@
+package edu.gemini.pot.spdb.test;
+
+import edu.gemini.pot.sp.*;
+import edu.gemini.pot.spdb.DBLocalDatabase;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.spModel.core.SPProgramID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that observation lookup by id follows structure changes and program
+ * replacement.
+ */
+public final class ObservationIndexTest {
+    private IDBDatabaseService odb;
+    private SPProgramID progId;
+    private ISPProgram prog;
+
+    @Before
+    public void setUp() throws Exception {
+        odb    = DBLocalDatabase.createTransient();
+        progId = SPProgramID.toProgramID("GS-2018B-Q-1");
+        prog   = odb.getFactory().createProgram(new SPNodeKey(), progId);
+        odb.put(prog);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        odb.getDBAdmin().shutdown();
+    }
+
+    private ISPObservation addObs(ISPObservationContainer container) throws Exception {
+        final ISPObservation obs = odb.getFactory().createObservation(prog, Instrument.none, null);
+        container.addObservation(obs);
+        return obs;
+    }
+
+    private ISPObservation lookup(int obsNum) {
+        return odb.lookupObservationByID(new SPObservationID(progId, obsNum));
+    }
+
+    @Test
+    public void testAddRemove() throws Exception {
+        final ISPObservation obs1 = addObs(prog);
+        assertSame(obs1, lookup(obs1.getObservationNumber()));
+
+        final ISPObservation obs2 = addObs(prog);
+        assertSame(obs2, lookup(obs2.getObservationNumber()));
+
+        prog.removeObservation(obs1);
+        assertNull(lookup(obs1.getObservationNumber()));
+        assertSame(obs2, lookup(obs2.getObservationNumber()));
+    }
+
+    @Test
+    public void testGroups() throws Exception {
+        final ISPGroup group = odb.getFactory().createGroup(prog, null);
+        prog.addGroup(group);
+
+        final ISPObservation obs = addObs(group);
+        assertSame(obs, lookup(obs.getObservationNumber()));
+
+        prog.removeGroup(group);
+        assertNull(lookup(obs.getObservationNumber()));
+    }
+
+    @Test
+    public void testReplaceProgram() throws Exception {
+        final ISPObservation obs = addObs(prog);
+        assertSame(obs, lookup(obs.getObservationNumber()));
+
+        final ISPProgram copy = odb.getFactory().copyWithSameKeys(prog);
+        odb.put(copy);
+
+        final ISPObservation found = lookup(obs.getObservationNumber());
+        assertNotSame(obs, found);
+        assertSame(copy, found.getProgram());
+    }
+
+    @Test
+    public void testRemoveProgram() throws Exception {
+        final ISPObservation obs = addObs(prog);
+        assertSame(obs, lookup(obs.getObservationNumber()));
+
+        odb.remove(prog);
+        assertNull(lookup(obs.getObservationNumber()));
+    }
+}
@@ -0,0 +1,81 @@
+package edu.gemini.pot.spdb.test;
+
+import edu.gemini.pot.sp.ISPNode;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.spdb.DBAbstractQueryFunctor;
+import edu.gemini.pot.spdb.DBProgramListFunctor;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.pot.spdb.IDBPartitionedQueryFunctor;
+import org.junit.Test;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that partitioned query functors see every program exactly once and
+ * that their partial results are merged in program order.
+ */
+public final class PartitionedQueryTest extends SpdbBaseTestCase {
+
+    public static final class KeyCollector extends DBAbstractQueryFunctor implements IDBPartitionedQueryFunctor<KeyCollector> {
+        private final List<SPNodeKey> keys = new ArrayList<>();
+        private int inits;
+        private int finishes;
+
+        @Override public KeyCollector newPartition() {
+            return new KeyCollector();
+        }
+
+        @Override public void mergePartition(KeyCollector partition) {
+            keys.addAll(partition.keys);
+        }
+
+        @Override public void init() {
+            ++inits;
+        }
+
+        @Override public void finished() {
+            ++finishes;
+        }
+
+        @Override public void execute(IDBDatabaseService db, ISPNode node, Set<Principal> principals) {
+            keys.add(((ISPProgram) node).getProgramKey());
+        }
+    }
+
+    public static final class Failing extends DBAbstractQueryFunctor implements IDBPartitionedQueryFunctor<Failing> {
+        @Override public Failing newPartition() { return new Failing(); }
+        @Override public void mergePartition(Failing partition) { }
+
+        @Override public void execute(IDBDatabaseService db, ISPNode node, Set<Principal> principals) {
+            throw new IllegalStateException("boom");
+        }
+    }
+
+    @Test
+    public void testMatchesSerialQuery() throws Exception {
+        for (int i=0; i<50; ++i) createProgram();
+
+        final List<SPNodeKey> expected = getDatabase().getQueryRunner().queryPrograms(new DBProgramListFunctor()).getKeyList();
+        final KeyCollector    actual   = getDatabase().getQueryRunner().queryPrograms(new KeyCollector());
+
+        assertNull(actual.getException());
+        assertEquals(50, expected.size());
+        assertEquals(expected, actual.keys);
+        assertEquals(1, actual.inits);
+        assertEquals(1, actual.finishes);
+    }
+
+    @Test
+    public void testPartitionException() throws Exception {
+        for (int i=0; i<10; ++i) createProgram();
+
+        final Failing f = getDatabase().getQueryRunner().queryPrograms(new Failing());
+        assertTrue(f.getException() instanceof IllegalStateException);
+    }
+}
@@ -0,0 +1,86 @@
+package edu.gemini.pot.spdb.test;
+
+import edu.gemini.pot.sp.*;
+import edu.gemini.pot.spdb.DBAbstractQueryFunctor;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.pot.spdb.IDBSnapshotQueryFunctor;
+import edu.gemini.spModel.data.ISPDataObject;
+import org.junit.Test;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that program snapshots reflect the latest write, share unchanged
+ * nodes with earlier snapshots and are handed to snapshot query functors.
+ */
+public final class ProgramSnapshotTest extends SpdbBaseTestCase {
+
+    public static final class TitleCollector extends DBAbstractQueryFunctor implements IDBSnapshotQueryFunctor {
+        private final List<String> titles = new ArrayList<>();
+
+        @Override public void execute(IDBDatabaseService db, SPProgramSnapshot snapshot, Set<Principal> principals) {
+            for (SPNodeSnapshot obs : snapshot.getAllObservations()) {
+                titles.add(obs.peekDataObject().getTitle());
+            }
+        }
+
+        @Override public void execute(IDBDatabaseService db, ISPNode node, Set<Principal> principals) {
+            fail("live node passed to a snapshot functor");
+        }
+    }
+
+    private ISPObservation addObservation(ISPProgram prog, String title) throws Exception {
+        final ISPObservation obs = getDatabase().getFactory().createObservation(prog, Instrument.none, null);
+        final ISPDataObject dobj = obs.getDataObject();
+        dobj.setTitle(title);
+        obs.setDataObject(dobj);
+        prog.addObservation(obs);
+        return obs;
+    }
+
+    @Test
+    public void testReusedUntilWritten() throws Exception {
+        final ISPProgram prog = createProgram();
+        addObservation(prog, "a");
+
+        final SPProgramSnapshot s0 = prog.getSnapshot();
+        assertSame(s0, prog.getSnapshot());
+        assertEquals(prog.getProgramKey(), s0.getProgramKey());
+    }
+
+    @Test
+    public void testEditSharesUnchangedNodes() throws Exception {
+        final ISPProgram prog     = createProgram();
+        final ISPObservation obsA = addObservation(prog, "a");
+        final ISPObservation obsB = addObservation(prog, "b");
+
+        final SPProgramSnapshot s0 = prog.getSnapshot();
+
+        final ISPDataObject dobj = obsA.getDataObject();
+        dobj.setTitle("a2");
+        obsA.setDataObject(dobj);
+
+        final SPProgramSnapshot s1 = prog.getSnapshot();
+        assertNotSame(s0, s1);
+        assertEquals("a",  s0.find(obsA.getNodeKey()).peekDataObject().getTitle());
+        assertEquals("a2", s1.find(obsA.getNodeKey()).peekDataObject().getTitle());
+        assertSame(s0.find(obsB.getNodeKey()), s1.find(obsB.getNodeKey()));
+    }
+
+    @Test
+    public void testSnapshotFunctor() throws Exception {
+        final ISPProgram prog = createProgram();
+        addObservation(prog, "a");
+        addObservation(prog, "b");
+
+        final TitleCollector tc = getDatabase().getQueryRunner().queryPrograms(new TitleCollector());
+        assertNull(tc.getException());
+        assertTrue(tc.titles.contains("a"));
+        assertTrue(tc.titles.contains("b"));
+    }
+}
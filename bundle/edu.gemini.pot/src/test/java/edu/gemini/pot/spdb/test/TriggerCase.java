@@ -4,6 +4,7 @@
 package edu.gemini.pot.spdb.test;
 
 import edu.gemini.pot.sp.*;
+import edu.gemini.pot.spdb.IDBIndexedTriggerCondition;
 import edu.gemini.pot.spdb.IDBTriggerAction;
 import edu.gemini.pot.spdb.IDBTriggerCondition;
 import edu.gemini.spModel.data.ISPDataObject;
@@ -18,7 +19,13 @@ import java.util.logging.Logger;
 import java.util.logging.Level;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -231,6 +238,54 @@ public class TriggerCase extends SpdbBaseTestCase {
         }
     }
 
+    /**
+     * A condition that is only interested in a property that is never
+     * changed, and counts how often it is asked anyway.
+     */
+    public static class IndexedTriggerCondition extends TestTriggerCondition implements IDBIndexedTriggerCondition {
+        final AtomicInteger evaluations = new AtomicInteger();
+
+        public Set<String> getPropertyNames() {
+            return Collections.singleton("noSuchProperty");
+        }
+
+        public Set<SPComponentType> getComponentTypes() {
+            return null;
+        }
+
+        public Object matches(SPCompositeChange change) {
+            evaluations.incrementAndGet();
+            return super.matches(change);
+        }
+    }
+
+    /**
+     * Records the message of each change it is run for.  The first run waits
+     * until released, and each run counts down when it is done.
+     */
+    public static class BlockingTriggerAction implements IDBTriggerAction {
+        final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done;
+
+        BlockingTriggerAction(int runs) {
+            done = new CountDownLatch(runs);
+        }
+
+        public void doTriggerAction(SPCompositeChange change, Object handback) {
+            started.countDown();
+            try {
+                release.await();
+                messages.add(((TriggerDataObject) change.getNewValue()).getTriggerMessage());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
     private ISPProgram _prog;
     private ISPObsComponent _triggerComp;
     private ISPObsComponent _nonTriggerComp;
@@ -303,4 +358,42 @@ public class TriggerCase extends SpdbBaseTestCase {
         _assertMessages(new String[] {"message1", "message2"});
      }
 
+    private void _setTriggerMessage(String message) {
+        final TriggerDataObject tdo = new TriggerDataObject();
+        tdo.setTriggerMessage(message);
+        _triggerComp.setDataObject(tdo);
+    }
+
+    @Test public void testCoalesced() throws Exception {
+        final BlockingTriggerAction action = new BlockingTriggerAction(2);
+        getDatabase().registerTrigger(new TestTriggerCondition(), action);
+
+        // Hold up the first action.  The program's next batch cannot start
+        // until it finishes.
+        _setTriggerMessage("message1");
+        assertTrue(action.started.await(10, TimeUnit.SECONDS));
+
+        // Two changes meanwhile produce a single action, which sees the latest.
+        _setTriggerMessage("message2");
+        _setTriggerMessage("message3");
+        assertEquals(1, getDatabase().getTriggerStats().coalesced);
+
+        action.release.countDown();
+        assertTrue(action.done.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("message1", "message3"), action.messages);
+        assertEquals(2, getDatabase().getTriggerStats().executed);
+    }
+
+    @Test public void testIndexed() throws Exception {
+        final IndexedTriggerCondition cond = new IndexedTriggerCondition();
+        getDatabase().registerTrigger(cond, new TestTriggerAction());
+
+        TriggerDataObject tdo = (TriggerDataObject) _triggerComp.getDataObject();
+        tdo.setTriggerMessage("message1");
+        _triggerComp.setDataObject(tdo);
+
+        // Conditions are evaluated as the change is fired.
+        assertEquals(0, cond.evaluations.get());
+        assertEquals(0, getDatabase().getTriggerStats().matches);
+    }
 }
@@ -36,6 +36,7 @@ public class Activator implements BundleActivator, ServiceTrackerCustomizer<IDBD
                 "exportOcs3",
                 "exportSmartGcal",
                 "du",
+                "functorStats",
                 "purge",
                 "migrateAltair",
                 "purgeEphemeris"
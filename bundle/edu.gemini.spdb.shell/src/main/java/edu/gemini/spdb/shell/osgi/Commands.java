@@ -4,6 +4,7 @@ import edu.gemini.pot.sp.ISPNode;
 import edu.gemini.pot.sp.ISPProgram;
 import edu.gemini.pot.sp.SPComponentType;
 import edu.gemini.pot.spdb.DBAbstractQueryFunctor;
+import edu.gemini.pot.spdb.FunctorMetrics;
 import edu.gemini.pot.spdb.IDBDatabaseService;
 import edu.gemini.pot.spdb.IDBQueryFunctor;
 import edu.gemini.pot.spdb.IDBQueryRunner;
@@ -216,6 +217,38 @@ class Commands {
         return String.format("Total SPDB storage %,d bytes.", db().getDBAdmin().getTotalStorage());
     }
 
+    // functor execution statistics, most expensive first
+    public String functorStats() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-60s %7s %5s %10s %9s %9s %9s %9s %8s %12s %10s%n",
+                "Functor", "Count", "Fail", "Total ms", "Mean ms", "p95 ms", "Max ms", "Nodes", "MaxNodes", "Alloc MB", "Wait ms"));
+        for (final FunctorMetrics.ClassStats cs : db().getFunctorMetrics().getFunctorStats()) {
+            final String name = cs.getFunctorClass() + (cs.isQuery() ? " (q)" : "");
+            sb.append(String.format("%-60s %7d %5d %10.1f %9.1f %9.1f %9.1f %9.1f %8d %12.1f %10.1f%n",
+                    name, cs.getCount(), cs.getFailures(), cs.getTotalMs(), cs.getMeanMs(),
+                    cs.getP95Ms(), cs.getMaxMs(), cs.getMeanNodes(), cs.getMaxNodes(),
+                    cs.getTotalAllocatedBytes() / (1024.0 * 1024.0), cs.getTotalLockWaitMs()));
+        }
+        return sb.toString();
+    }
+
+    public String functorStats(String option) {
+        if ("reset".equals(option)) {
+            db().getFunctorMetrics().reset();
+            return "Done.";
+        } else if ("slow".equals(option)) {
+            final FunctorMetrics m = db().getFunctorMetrics();
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Executions taking at least %d ms, newest first:%n", m.getSlowThresholdMs()));
+            for (final FunctorMetrics.SlowExecution se : m.getSlowExecutions()) {
+                sb.append(se).append('\n');
+            }
+            return sb.toString();
+        } else {
+            return "Usage: functorStats [slow | reset]";
+        }
+    }
+
     private final String PURGE_CONFIRMATION = "" + System.currentTimeMillis();
 
     public String purge() {
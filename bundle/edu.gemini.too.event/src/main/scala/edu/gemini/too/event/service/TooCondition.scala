@@ -1,12 +1,14 @@
 package edu.gemini.too.event.service
 
-import edu.gemini.pot.spdb.IDBTriggerCondition
-import edu.gemini.pot.sp.{ISPObservation, SPUtil, SPCompositeChange}
+import edu.gemini.pot.spdb.IDBIndexedTriggerCondition
+import edu.gemini.pot.sp.{ISPObservation, SPComponentType, SPUtil, SPCompositeChange}
 import edu.gemini.spModel.obs.{ObservationStatus, SPObservation}
 import edu.gemini.spModel.obs.ObsPhase2Status.ON_HOLD
 import edu.gemini.spModel.obs.ObservationStatus.READY
 import edu.gemini.spModel.too.Too
 
+import java.util.Collections
+
 
 /**
  * Condition that must be met in order to register a ToO event. Namely, an
@@ -16,7 +18,14 @@ import edu.gemini.spModel.too.Too
  * This condition is registered with the database such that when it occurs, the
  * [[edu.gemini.too.event.service.TooService]] is executed to record the event.
  */
-object TooCondition extends IDBTriggerCondition {
+object TooCondition extends IDBIndexedTriggerCondition {
+  // Only observation data object updates can match.
+  override def getPropertyNames: java.util.Set[String] =
+    Collections.singleton(SPUtil.getDataObjectPropertyName)
+
+  override def getComponentTypes: java.util.Set[SPComponentType] =
+    Collections.singleton(SPObservation.SP_TYPE)
+
   private def isDataObjectUpdate(change: SPCompositeChange): Boolean =
     change.getPropertyName == SPUtil.getDataObjectPropertyName
 
@@ -8,9 +8,9 @@ import java.beans.{PropertyChangeEvent, PropertyChangeListener}
 import java.time.Instant
 import java.util.concurrent.TimeoutException
 import java.util.concurrent._
-import java.util.logging.Logger
+import java.util.logging.{Level, Logger}
 import javax.swing.SwingUtilities
-import edu.gemini.ags.api.{AgsHash, AgsRegistrar, AgsStrategy}
+import edu.gemini.ags.api.{AgsHash, AgsRegistrar, AgsResultStore, AgsStrategy}
 import edu.gemini.catalog.votable.{CatalogException, GenericError}
 import edu.gemini.pot.sp._
 import edu.gemini.spModel.guide.GuideProbe
@@ -25,9 +25,10 @@ import jsky.app.ot.gemini.altair.Altair_WFS_Feature
 import jsky.app.ot.gemini.inst.OIWFS_Feature
 import jsky.app.ot.gemini.tpe.TpePWFSFeature
 import jsky.app.ot.tpe.{TpeContext, TpeManager}
+import jsky.util.Preferences
 
 import scala.collection.JavaConverters._
-import scala.concurrent.ExecutionContext
+import scala.concurrent.{ExecutionContext, Future}
 import scala.swing.Swing
 import scala.util.{Failure, Success}
 import scalaz._
@@ -70,10 +71,12 @@ object BagsState {
   val ErrorTransition: StateTransition =
     (ErrorState, ioUnit)  // Default transition for unexpected events
 
-  def hashObs(ctx: ObsContext): AgsHashVal = {
-    val when = ctx.getSchedulingBlockStart.asScalaOpt | Instant.now.toEpochMilli
-    AgsHash.hash(ctx, when)
-  }
+  /** Time for which the base position of the observation is calculated. */
+  def agsTime(ctx: ObsContext): Long =
+    ctx.getSchedulingBlockStart.asScalaOpt | Instant.now.toEpochMilli
+
+  def hashObs(ctx: ObsContext): AgsHashVal =
+    AgsHash.hash(ctx, agsTime(ctx))
 
   def hashObs(o: ISPObservation): Option[AgsHashVal] =
     ObsContext.create(o).asScalaOpt.map(hashObs)
@@ -331,6 +334,17 @@ object BagsManager {
   val blockingExecutionContext: ExecutionContext =
     ExecutionContext.fromExecutor(blockingWorker)
 
+  private val ResultStoreDir = "agsResults"
+
+  // Results of previous AGS lookups, kept on disk so that observations that
+  // have not changed since the last session don't need a new catalog search.
+  private lazy val resultStore: Option[AgsResultStore] =
+    \/.fromTryCatchNonFatal {
+      AgsResultStore.open(Preferences.getPreferences.getDir.toPath.resolve(ResultStoreDir))
+    }.leftMap { ex =>
+      Log.log(Level.WARNING, "Could not open the AGS result store, AGS results will not be kept", ex)
+    }.toOption
+
   // This is our mutable state.  It is only read/written by the Swing thread.
   private var stateMap  = ==>>.empty[ProgKey, ObsKey ==>> BagsState]
 
@@ -524,7 +538,12 @@ object BagsManager {
   }
 
   private[ags] def triggerAgsAction(k: ObsKey, ctx: ObsContext, ags: AgsStrategy): IO[Unit] = IO {
-    ags.select(ctx, OT.getMagnitudeTable)(blockingExecutionContext).onComplete {
+    val mt = OT.getMagnitudeTable
+
+    // The result store reads from disk so look it up off the Swing thread.
+    Future(resultStore)(blockingExecutionContext).flatMap {
+      _.fold(ags.select(ctx, mt)(blockingExecutionContext))(_.select(ags, ctx, mt, agsTime(ctx))(blockingExecutionContext))
+    }.onComplete {
       case Success(opt) =>
         Log.info(s"Successful BAGS lookup for observation=${k.oid.getOrElse("?")}; applying on ${Thread.currentThread}")
         BagsManager.success(k, opt)
@@ -0,0 +1,78 @@
+package edu.gemini.itc.build
+
+import java.io._
+import java.util.regex.Pattern
+
+import scala.io.Source
+
+/**
+ * Converts the numeric ITC data files (.dat and .nm resources) into the binary form read by
+ * `edu.gemini.itc.base.BinaryDatFile`. The two must agree on the format:
+ *
+ * {{{
+ *   int     magic   ("ITCD")
+ *   int     version (1)
+ *   int     k       number of leading scalars
+ *   int     n       number of rows
+ *   double  k leading scalars
+ *   double  n values of the first column
+ *   double  n values of the second column
+ * }}}
+ *
+ * All values are big-endian. A file is converted only if every token in it is a number; files that contain
+ * names (gratings, instrument descriptions) are left alone. Files with an odd number of values have a single
+ * leading scalar (the effective wavelength of a filter) followed by the two columns.
+ */
+object DatFileCompiler {
+
+  val Magic   = 0x49544344
+  val Version = 1
+  val Suffix  = ".bin"
+
+  // same delimiters as DatFile: whitespace, commas or semicolons and comments up to the end of the line
+  private val Delimiters = Pattern.compile("(\\s|,|;|(#[^\\n]*))+")
+
+  def isDataFile(f: File): Boolean =
+    f.isFile && (f.getName.endsWith(".dat") || f.getName.endsWith(".nm"))
+
+  /** Parses all tokens in the file as doubles, or returns None if any of them isn't a number. */
+  def parse(f: File): Option[Array[Double]] = {
+    val src = Source.fromFile(f, "UTF-8")
+    val txt = try src.mkString finally src.close()
+    val tok = Delimiters.split(txt).filter(_.nonEmpty)
+    try Some(tok.map(_.toDouble)) catch {
+      case _: NumberFormatException => None
+    }
+  }
+
+  /**
+   * Writes the binary form of the given data file to `out`.
+   * @return `true` if the file was converted, `false` if it isn't purely numeric
+   */
+  def compile(in: File, out: File): Boolean =
+    parse(in).fold(false) { vs =>
+      val k = vs.length % 2
+      val n = vs.length / 2
+      out.getParentFile.mkdirs()
+      val os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out)))
+      try {
+        os.writeInt(Magic)
+        os.writeInt(Version)
+        os.writeInt(k)
+        os.writeInt(n)
+        (0 until k).foreach(i => os.writeDouble(vs(i)))
+        (0 until n).foreach(i => os.writeDouble(vs(k + 2 * i)))
+        (0 until n).foreach(i => os.writeDouble(vs(k + 2 * i + 1)))
+      } finally {
+        os.close()
+      }
+      true
+    }
+
+  /** Gets the output file for the given input file in the resource directory `inDir`. */
+  def target(inDir: File, in: File, outDir: File): File = {
+    val rel = inDir.toURI.relativize(in.toURI).getPath
+    new File(outDir, rel + Suffix)
+  }
+
+}